@@ -0,0 +1,38 @@
+// Copyright 2009 Warsaw University, Faculty of Physics
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+package multiplexer.jmx.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * All the benchmarks, to be run before and after performance related changes.
+ */
+public class AllBenchmarks implements BenchmarkSuite {
+
+	public List<Benchmark> getBenchmarks() {
+		List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+		benchmarks.addAll(new FrameCodecBenchmark().getBenchmarks());
+		benchmarks.addAll(new ChecksumBenchmark().getBenchmarks());
+		benchmarks.addAll(new ProtobufBenchmark().getBenchmarks());
+		benchmarks.addAll(new ConnectionsMapBenchmark().getBenchmarks());
+		benchmarks.addAll(new RoutingTableBenchmark().getBenchmarks());
+		benchmarks.addAll(new RecentLongPoolBenchmark().getBenchmarks());
+		benchmarks.addAll(new EventLogBenchmark().getBenchmarks());
+		benchmarks.addAll(new LogStoreBenchmark().getBenchmarks());
+		benchmarks.addAll(new EchoRoundTripBenchmark().getBenchmarks());
+		return benchmarks;
+	}
+}
@@ -0,0 +1,49 @@
+// Copyright 2009 Warsaw University, Faculty of Physics
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+package multiplexer.jmx.bench;
+
+/**
+ * A single micro-benchmark run by the {@link BenchmarkRunner}. The runner calls
+ * {@link #setUp()} once, then calls {@link #operation(int)} in a tight loop
+ * from {@code threads} threads concurrently (first during warm-up, then during
+ * measurement) and finally calls {@link #tearDown()}.
+ */
+public abstract class Benchmark {
+
+	/**
+	 * Returns the name under which results are reported.
+	 */
+	public String getName() {
+		return getClass().getSimpleName();
+	}
+
+	public void setUp() throws Exception {
+	}
+
+	public void tearDown() throws Exception {
+	}
+
+	/**
+	 * Performs a single measured operation.
+	 *
+	 * @param threadIndex
+	 *            index of the calling thread, from 0 to {@code threads - 1}
+	 * @return any value depending on the operation's result; the values are
+	 *         accumulated by the runner so that the JIT cannot eliminate the
+	 *         operation as dead code
+	 */
+	public abstract long operation(int threadIndex) throws Exception;
+}
@@ -0,0 +1,173 @@
+// Copyright 2009 Warsaw University, Faculty of Physics
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+package multiplexer.jmx.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.kohsuke.args4j.Argument;
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+
+/**
+ * A minimal multi-threaded benchmark harness. Runs each {@link Benchmark}
+ * given on the command line (as a class name, relative to this package or
+ * fully qualified) for each requested thread count and prints the throughput.
+ *
+ * Use {@code ant bench -Dbench.args="..."} to run it.
+ */
+public class BenchmarkRunner {
+
+	public static class Options {
+		@Option(name = "-threads", usage = "thread counts to run with (may be repeated; default 1)")
+		public List<String> threads = new ArrayList<String>();
+
+		@Option(name = "-warmup", usage = "warm-up time per run in seconds (default 2)")
+		public int warmupSeconds = 2;
+
+		@Option(name = "-time", usage = "measurement time per run in seconds (default 5)")
+		public int measurementSeconds = 5;
+
+		@Argument(usage = "benchmark classes")
+		public List<String> benchmarks = new ArrayList<String>();
+	}
+
+	private static volatile long sink;
+
+	public static void main(String[] args) throws Exception {
+		Options options = new Options();
+		CmdLineParser optionsParser = new CmdLineParser(options);
+		try {
+			optionsParser.parseArgument(args);
+		} catch (CmdLineException e) {
+			System.err.println(e.getMessage());
+			optionsParser.printUsage(System.err);
+			System.exit(1);
+		}
+		if (options.threads.isEmpty())
+			options.threads.add("1");
+
+		for (String name : options.benchmarks) {
+			for (Benchmark benchmark : createBenchmarks(name)) {
+				for (String threads : options.threads) {
+					run(benchmark, Integer.parseInt(threads),
+						options.warmupSeconds,
+						options.measurementSeconds);
+				}
+			}
+		}
+		// Benchmarks may leave non-daemon I/O threads behind.
+		System.exit(0);
+	}
+
+	private static List<Benchmark> createBenchmarks(String name)
+		throws Exception {
+		Class<?> cls;
+		try {
+			cls = Class.forName(BenchmarkRunner.class.getPackage().getName()
+				+ "." + name);
+		} catch (ClassNotFoundException e) {
+			cls = Class.forName(name);
+		}
+		List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+		if (BenchmarkSuite.class.isAssignableFrom(cls)) {
+			benchmarks.addAll(((BenchmarkSuite) cls
+				.getDeclaredConstructor().newInstance())
+				.getBenchmarks());
+		} else {
+			benchmarks.add((Benchmark) cls.getDeclaredConstructor()
+				.newInstance());
+		}
+		return benchmarks;
+	}
+
+	/**
+	 * Runs the {@code benchmark} and prints the throughput.
+	 */
+	public static void run(final Benchmark benchmark, int threads,
+		int warmupSeconds, int measurementSeconds) throws Exception {
+
+		benchmark.setUp();
+		try {
+			measure(benchmark, threads, warmupSeconds);
+			double opsPerSecond = measure(benchmark, threads,
+				measurementSeconds);
+			System.out.format("%-56s %3d threads %,16.0f ops/s%n", benchmark
+				.getName(), threads, opsPerSecond);
+		} finally {
+			benchmark.tearDown();
+		}
+	}
+
+	private static double measure(final Benchmark benchmark, int threads,
+		int seconds) throws InterruptedException {
+
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(threads);
+		final AtomicLong operations = new AtomicLong();
+		final AtomicLong sum = new AtomicLong();
+		final AtomicBoolean stop = new AtomicBoolean();
+		final Throwable[] failure = new Throwable[1];
+
+		for (int i = 0; i < threads; i++) {
+			final int threadIndex = i;
+			Thread thread = new Thread(benchmark.getName() + "-" + i) {
+				@Override
+				public void run() {
+					long count = 0;
+					long result = 0;
+					try {
+						start.await();
+						while (!stop.get()) {
+							result += benchmark.operation(threadIndex);
+							count++;
+						}
+					} catch (Throwable e) {
+						synchronized (failure) {
+							failure[0] = e;
+						}
+					} finally {
+						operations.addAndGet(count);
+						sum.addAndGet(result);
+						done.countDown();
+					}
+				}
+			};
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		long startNanos = System.nanoTime();
+		start.countDown();
+		Thread.sleep(TimeUnit.SECONDS.toMillis(seconds));
+		stop.set(true);
+		done.await();
+		long elapsedNanos = System.nanoTime() - startNanos;
+		sink += sum.get();
+
+		synchronized (failure) {
+			if (failure[0] != null)
+				throw new RuntimeException("benchmark " + benchmark.getName()
+					+ " failed", failure[0]);
+		}
+		return operations.get() * 1e9 / elapsedNanos;
+	}
+}
@@ -0,0 +1,153 @@
+// Copyright 2009 Warsaw University, Faculty of Physics
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+package multiplexer.jmx.bench;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import multiplexer.jmx.internal.RawMessageFrame;
+import multiplexer.jmx.internal.RawMessageFrameDecoder;
+import multiplexer.jmx.internal.RawMessageFrameEncoder;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.handler.codec.embedder.DecoderEmbedder;
+import org.jboss.netty.handler.codec.embedder.EncoderEmbedder;
+
+/**
+ * Cost of frame checksums: {@link RawMessageFrame#getCrc32} over heap and
+ * direct buffers compared to the {@link #legacyCrc32 previous implementation},
+ * and frames encoded and decoded per second with checksums enabled and
+ * disabled, for each of {@link #SIZES}.
+ */
+public class ChecksumBenchmark implements BenchmarkSuite {
+
+	static final int[] SIZES = { 64, 4 * 1024, 1024 * 1024 };
+
+	public List<Benchmark> getBenchmarks() {
+		List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+		for (int size : SIZES) {
+			for (boolean direct : new boolean[] { false, true }) {
+				benchmarks.add(new Crc32Benchmark(size, direct, false));
+				benchmarks.add(new Crc32Benchmark(size, direct, true));
+			}
+			benchmarks.add(new RoundTripBenchmark(size, true));
+			benchmarks.add(new RoundTripBenchmark(size, false));
+		}
+		return benchmarks;
+	}
+
+	/**
+	 * {@link RawMessageFrame#getCrc32} as it was before it reused per-thread
+	 * {@link CRC32} instances.
+	 */
+	static long legacyCrc32(ChannelBuffer buffer) {
+		CRC32 crc = new CRC32();
+		for (ByteBuffer bb : buffer.toByteBuffers()) {
+			if (bb.hasArray()) {
+				crc.update(bb.array(), bb.arrayOffset() + bb.position(), bb
+					.remaining());
+			} else {
+				byte[] bytes = new byte[bb.remaining()];
+				bb.get(bytes);
+				crc.update(bytes);
+			}
+		}
+		return crc.getValue();
+	}
+
+	static class Crc32Benchmark extends Benchmark {
+
+		private final int size;
+		private final boolean direct;
+		private final boolean useLegacy;
+		private final ChannelBuffer payload;
+
+		Crc32Benchmark(int size, boolean direct, boolean useLegacy) {
+			this.size = size;
+			this.direct = direct;
+			this.useLegacy = useLegacy;
+			byte[] bytes = Payloads.randomBytes(size);
+			if (direct) {
+				payload = ChannelBuffers.directBuffer(size);
+				payload.writeBytes(bytes);
+			} else {
+				payload = ChannelBuffers.wrappedBuffer(bytes);
+			}
+		}
+
+		@Override
+		public String getName() {
+			return Payloads.name("RawMessageFrame.getCrc32 "
+				+ (direct ? "direct" : "heap")
+				+ (useLegacy ? " (legacy)" : ""), size);
+		}
+
+		@Override
+		public long operation(int threadIndex) {
+			if (useLegacy)
+				return legacyCrc32(payload);
+			return RawMessageFrame.getCrc32(payload);
+		}
+	}
+
+	static class RoundTripBenchmark extends Benchmark {
+
+		private final int size;
+		private final boolean checksum;
+		private final ChannelBuffer payload;
+		private final ThreadLocal<EncoderEmbedder<ChannelBuffer>> encoder = new ThreadLocal<EncoderEmbedder<ChannelBuffer>>() {
+			@Override
+			protected EncoderEmbedder<ChannelBuffer> initialValue() {
+				RawMessageFrameEncoder encoder = new RawMessageFrameEncoder();
+				encoder.setChecksumEnabled(checksum);
+				return new EncoderEmbedder<ChannelBuffer>(encoder);
+			}
+		};
+		private final ThreadLocal<DecoderEmbedder<ChannelBuffer>> decoder = new ThreadLocal<DecoderEmbedder<ChannelBuffer>>() {
+			@Override
+			protected DecoderEmbedder<ChannelBuffer> initialValue() {
+				RawMessageFrameDecoder decoder = new RawMessageFrameDecoder();
+				decoder.setChecksumEnabled(checksum);
+				return new DecoderEmbedder<ChannelBuffer>(decoder);
+			}
+		};
+
+		RoundTripBenchmark(int size, boolean checksum) {
+			this.size = size;
+			this.checksum = checksum;
+			this.payload = ChannelBuffers.wrappedBuffer(Payloads
+				.randomBytes(size));
+		}
+
+		@Override
+		public String getName() {
+			return Payloads.name("frame encode+decode "
+				+ (checksum ? "crc32" : "no checksum"), size);
+		}
+
+		@Override
+		public long operation(int threadIndex) {
+			EncoderEmbedder<ChannelBuffer> encoder = this.encoder.get();
+			DecoderEmbedder<ChannelBuffer> decoder = this.decoder.get();
+			encoder.offer(payload.duplicate());
+			decoder.offer(encoder.poll());
+			return decoder.poll().readableBytes();
+		}
+	}
+}
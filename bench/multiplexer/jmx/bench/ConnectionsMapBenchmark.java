@@ -0,0 +1,190 @@
+// Copyright 2009 Warsaw University, Faculty of Physics
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+package multiplexer.jmx.bench;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import multiplexer.jmx.internal.ConnectionsMap;
+
+import org.jboss.netty.channel.Channel;
+
+/**
+ * Routing throughput of {@link ConnectionsMap} compared to the
+ * {@link LegacyConnectionsMap}: {@code getAny}, {@code getAll} (with
+ * iteration) and {@code getByPeerId} on a map holding {@value #TYPES} peer
+ * types with {@value #PEERS_PER_TYPE} peers each. Run with several {@code
+ * -threads} values to see how lookups scale across I/O threads.
+ */
+public class ConnectionsMapBenchmark implements BenchmarkSuite {
+
+	static final int TYPES = 8;
+	static final int PEERS_PER_TYPE = 4;
+	static final int FIRST_TYPE = 100;
+
+	/**
+	 * Common interface of both implementations.
+	 */
+	private interface Lookup {
+		Channel getAny(int peerType) throws Exception;
+
+		Iterator<Channel> getAll(int peerType) throws Exception;
+
+		Channel getByPeerId(long peerId) throws Exception;
+	}
+
+	private static Lookup current() {
+		final ConnectionsMap map = new ConnectionsMap();
+		fill(new Adder() {
+			public void add(Channel channel, long peerId, int peerType) {
+				map.add(channel, peerId, peerType);
+			}
+		});
+		return new Lookup() {
+			public Channel getAny(int peerType) throws Exception {
+				return map.getAny(peerType);
+			}
+
+			public Iterator<Channel> getAll(int peerType) throws Exception {
+				return map.getAll(peerType);
+			}
+
+			public Channel getByPeerId(long peerId) throws Exception {
+				return map.getByPeerId(peerId);
+			}
+		};
+	}
+
+	private static Lookup legacy() {
+		final LegacyConnectionsMap map = new LegacyConnectionsMap();
+		fill(new Adder() {
+			public void add(Channel channel, long peerId, int peerType) {
+				map.add(channel, peerId, peerType);
+			}
+		});
+		return new Lookup() {
+			public Channel getAny(int peerType) throws Exception {
+				return map.getAny(peerType);
+			}
+
+			public Iterator<Channel> getAll(int peerType) throws Exception {
+				// Legacy getAll requires external synchronization.
+				synchronized (map) {
+					return Arrays.asList(toArray(map.getAll(peerType)))
+						.iterator();
+				}
+			}
+
+			public Channel getByPeerId(long peerId) throws Exception {
+				return map.getByPeerId(peerId);
+			}
+		};
+	}
+
+	private static Channel[] toArray(Iterator<Channel> channels) {
+		Channel[] result = new Channel[PEERS_PER_TYPE];
+		int i = 0;
+		while (channels.hasNext())
+			result[i++] = channels.next();
+		return result;
+	}
+
+	private interface Adder {
+		void add(Channel channel, long peerId, int peerType);
+	}
+
+	private static void fill(Adder adder) {
+		for (int type = 0; type < TYPES; type++) {
+			for (int peer = 0; peer < PEERS_PER_TYPE; peer++) {
+				adder.add(FakeChannels.newChannel(), peerId(type, peer),
+					FIRST_TYPE + type);
+			}
+		}
+	}
+
+	private static long peerId(int type, int peer) {
+		return 0x1234567800000000L + type * PEERS_PER_TYPE + peer;
+	}
+
+	private static abstract class LookupBenchmark extends Benchmark {
+
+		private final String name;
+		private final boolean useLegacy;
+		protected Lookup lookup;
+		private final int[] counters = new int[1024 * 16];
+
+		LookupBenchmark(String name, boolean useLegacy) {
+			this.name = name;
+			this.useLegacy = useLegacy;
+		}
+
+		@Override
+		public String getName() {
+			return name + (useLegacy ? " (legacy)" : "");
+		}
+
+		@Override
+		public void setUp() {
+			lookup = useLegacy ? legacy() : current();
+		}
+
+		/**
+		 * Returns a per-thread pseudo-random sequence number, padded to avoid
+		 * false sharing between threads.
+		 */
+		protected int next(int threadIndex) {
+			return counters[threadIndex * 16]++;
+		}
+	}
+
+	public List<Benchmark> getBenchmarks() {
+		Benchmark[] benchmarks = new Benchmark[6];
+		for (int i = 0; i < 2; i++) {
+			boolean useLegacy = i == 1;
+			benchmarks[i] = new LookupBenchmark("ConnectionsMap.getAny",
+				useLegacy) {
+				@Override
+				public long operation(int threadIndex) throws Exception {
+					int type = FIRST_TYPE + next(threadIndex) % TYPES;
+					return System.identityHashCode(lookup.getAny(type));
+				}
+			};
+			benchmarks[2 + i] = new LookupBenchmark("ConnectionsMap.getAll",
+				useLegacy) {
+				@Override
+				public long operation(int threadIndex) throws Exception {
+					int type = FIRST_TYPE + next(threadIndex) % TYPES;
+					long sum = 0;
+					Iterator<Channel> channels = lookup.getAll(type);
+					while (channels.hasNext())
+						sum += System.identityHashCode(channels.next());
+					return sum;
+				}
+			};
+			benchmarks[4 + i] = new LookupBenchmark(
+				"ConnectionsMap.getByPeerId", useLegacy) {
+				@Override
+				public long operation(int threadIndex) throws Exception {
+					int n = next(threadIndex);
+					return System.identityHashCode(lookup.getByPeerId(peerId(n
+						% TYPES, n / TYPES % PEERS_PER_TYPE)));
+				}
+			};
+		}
+		return Arrays.asList(benchmarks);
+	}
+}
@@ -0,0 +1,112 @@
+// Copyright 2009 Warsaw University, Faculty of Physics
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+package multiplexer.jmx.bench;
+
+import static multiplexer.jmx.example.echo.JmxServerRunner.ECHO_CLIENT;
+import static multiplexer.jmx.example.echo.JmxServerRunner.ECHO_REQUEST;
+import static multiplexer.jmx.example.echo.JmxServerRunner.ECHO_SERVER;
+import static multiplexer.jmx.example.echo.JmxServerRunner.MULTIPLEXER_RULES;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import multiplexer.jmx.backend.SimpleBackend;
+import multiplexer.jmx.client.JmxClient;
+import multiplexer.jmx.example.echo.EchoBackend;
+import multiplexer.jmx.server.JmxServer;
+
+import com.google.protobuf.ByteString;
+
+/**
+ * Full round-trip latency/throughput: a {@link JmxClient} queries an
+ * {@link EchoBackend} through a {@link JmxServer}, all running in this JVM and
+ * connected over the loopback interface.
+ */
+public class EchoRoundTripBenchmark implements BenchmarkSuite {
+
+	static final int[] SIZES = { 64, 4 * 1024, 64 * 1024 };
+
+	public List<Benchmark> getBenchmarks() {
+		List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+		for (int size : SIZES)
+			benchmarks.add(new RoundTrip(size));
+		return benchmarks;
+	}
+
+	static class RoundTrip extends Benchmark {
+
+		private final int size;
+		private final ByteString payload;
+		private JmxServer server;
+		private Thread serverThread;
+		private SimpleBackend backend;
+		private Thread backendThread;
+		private JmxClient client;
+
+		RoundTrip(int size) {
+			this.size = size;
+			this.payload = ByteString.copyFrom(Payloads.randomBytes(size));
+		}
+
+		@Override
+		public String getName() {
+			return Payloads.name("JmxServer echo round-trip", size);
+		}
+
+		@Override
+		public void setUp() throws Exception {
+			server = new JmxServer(new InetSocketAddress(0));
+			server.loadMessageDefinitions(MULTIPLEXER_RULES);
+			server.setTransferUpdateIntervalMillis(TimeUnit.HOURS.toMillis(1));
+			serverThread = new Thread(server);
+			serverThread.setDaemon(true);
+			serverThread.start();
+			synchronized (server) {
+				while (!server.hasStarted())
+					server.wait();
+			}
+			InetSocketAddress address = new InetSocketAddress(InetAddress
+				.getLocalHost(), server.getLocalPort());
+
+			backend = new SimpleBackend(ECHO_SERVER,
+				new EchoBackend.EchoRequestHandler());
+			backend.connect(address);
+			backendThread = new Thread(backend);
+			backendThread.setDaemon(true);
+			backendThread.start();
+
+			client = new JmxClient(ECHO_CLIENT);
+			client.connect(address);
+		}
+
+		@Override
+		public void tearDown() throws Exception {
+			client.shutdown();
+			backend.cancel();
+			backendThread.join();
+			server.shutdown();
+			serverThread.join();
+		}
+
+		@Override
+		public long operation(int threadIndex) throws Exception {
+			return client.query(payload, ECHO_REQUEST, 5, TimeUnit.SECONDS)
+				.getMessage().getId();
+		}
+	}
+}
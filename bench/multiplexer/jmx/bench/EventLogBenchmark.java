@@ -0,0 +1,137 @@
+// Copyright 2009 Warsaw University, Faculty of Physics
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+package multiplexer.jmx.bench;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import multiplexer.jmx.collector.EventLog;
+
+/**
+ * {@link EventLog#append} of events of each of {@link #SIZES}, and a
+ * {@link EventLog#read} of a whole log of {@value #LOG_SIZE} bytes (one
+ * operation), to compare the replay speed with the disk's sequential read
+ * speed.
+ */
+public class EventLogBenchmark implements BenchmarkSuite {
+
+	static final int[] SIZES = { 64, 1024, 64 * 1024 };
+	static final int LOG_SIZE = 256 * 1024 * 1024;
+	static final int SEGMENT_SIZE = 64 * 1024 * 1024;
+
+	public List<Benchmark> getBenchmarks() {
+		List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+		for (int size : SIZES)
+			benchmarks.add(new AppendBenchmark(size));
+		benchmarks.add(new ReadBenchmark());
+		return benchmarks;
+	}
+
+	private static File createDirectory() throws Exception {
+		File directory = File.createTempFile("events", "");
+		directory.delete();
+		return directory;
+	}
+
+	private static void delete(File directory) {
+		File[] files = directory.listFiles();
+		if (files != null)
+			for (File file : files)
+				file.delete();
+		directory.delete();
+	}
+
+	static class AppendBenchmark extends Benchmark {
+
+		private final int size;
+		private final byte[] event;
+		private File directory;
+		private EventLog log;
+
+		AppendBenchmark(int size) {
+			this.size = size;
+			event = Payloads.randomBytes(size);
+		}
+
+		@Override
+		public String getName() {
+			return Payloads.name("EventLog.append", size);
+		}
+
+		@Override
+		public void setUp() throws Exception {
+			directory = createDirectory();
+			// Keeps the log within a few segments however long it runs.
+			log = new EventLog(directory, SEGMENT_SIZE, 2L * SEGMENT_SIZE,
+				0, TimeUnit.SECONDS);
+		}
+
+		@Override
+		public void tearDown() {
+			log.close();
+			delete(directory);
+		}
+
+		@Override
+		public long operation(int threadIndex) throws Exception {
+			log.append(threadIndex, event);
+			return size;
+		}
+	}
+
+	static class ReadBenchmark extends Benchmark {
+
+		private File directory;
+		private EventLog log;
+
+		@Override
+		public String getName() {
+			return Payloads.name("EventLog.read of a log", LOG_SIZE);
+		}
+
+		@Override
+		public void setUp() throws Exception {
+			directory = createDirectory();
+			log = new EventLog(directory, SEGMENT_SIZE, 0, 0, TimeUnit.SECONDS);
+			byte[] event = Payloads.randomBytes(1024);
+			for (long written = 0; written < LOG_SIZE; written += event.length
+				+ EventLog.HEADER_LENGTH)
+				log.append(1, event);
+			log.force();
+		}
+
+		@Override
+		public void tearDown() {
+			log.close();
+			delete(directory);
+		}
+
+		@Override
+		public long operation(int threadIndex) throws Exception {
+			final long[] sum = new long[1];
+			log.read(0, Long.MAX_VALUE, null, new EventLog.Visitor() {
+				public boolean visit(int type, long timestamp, ByteBuffer data) {
+					sum[0] += data.get(data.position());
+					return true;
+				}
+			});
+			return sum[0];
+		}
+	}
+}
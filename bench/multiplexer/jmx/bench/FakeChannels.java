@@ -0,0 +1,65 @@
+// Copyright 2009 Warsaw University, Faculty of Physics
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+package multiplexer.jmx.bench;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.DefaultChannelFuture;
+
+/**
+ * Creates {@link Channel} stubs that are always open and support only the
+ * methods used by the connection bookkeeping classes.
+ */
+final class FakeChannels {
+
+	private static final AtomicInteger nextId = new AtomicInteger();
+
+	private FakeChannels() {
+	}
+
+	static Channel newChannel() {
+		final int id = nextId.incrementAndGet();
+		final ChannelFuture closeFuture = new DefaultChannelFuture(null, false);
+		return (Channel) Proxy.newProxyInstance(Channel.class.getClassLoader(),
+			new Class<?>[] { Channel.class }, new InvocationHandler() {
+				public Object invoke(Object proxy, Method method, Object[] args)
+					throws Throwable {
+					String name = method.getName();
+					if (name.equals("isOpen") || name.equals("isConnected")
+						|| name.equals("isWritable"))
+						return true;
+					if (name.equals("getCloseFuture"))
+						return closeFuture;
+					if (name.equals("getId"))
+						return id;
+					if (name.equals("hashCode"))
+						return id;
+					if (name.equals("equals"))
+						return proxy == args[0];
+					if (name.equals("compareTo"))
+						return id - ((Channel) args[0]).getId();
+					if (name.equals("toString"))
+						return "FakeChannel#" + id;
+					throw new UnsupportedOperationException(name);
+				}
+			});
+	}
+}
@@ -0,0 +1,232 @@
+// Copyright 2009 Warsaw University, Faculty of Physics
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+package multiplexer.jmx.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import multiplexer.jmx.internal.RawMessageFrame;
+import multiplexer.jmx.internal.RawMessageFrameDecoder;
+import multiplexer.jmx.internal.RawMessageFrameEncoder;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.handler.codec.embedder.DecoderEmbedder;
+import org.jboss.netty.handler.codec.embedder.EncoderEmbedder;
+
+/**
+ * Framing of messages: {@link RawMessageFrameEncoder},
+ * {@link RawMessageFrameDecoder} (with a frame split between two reads and with
+ * {@value #COALESCED_FRAMES} frames coalesced in a single read) and
+ * {@link RawMessageFrame#getCrc32}, for each of {@link Payloads#SIZES}; and
+ * decoding of a {@value #SEGMENTED_SIZE} byte frame arriving in
+ * {@value #SEGMENT_SIZE} byte reads (as in TCP segments of an Ethernet MTU).
+ */
+public class FrameCodecBenchmark implements BenchmarkSuite {
+
+	static final int COALESCED_FRAMES = 16;
+	static final int SEGMENTED_SIZE = 1024 * 1024;
+	static final int SEGMENT_SIZE = 1460;
+
+	public List<Benchmark> getBenchmarks() {
+		List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+		for (int size : Payloads.SIZES) {
+			benchmarks.add(new EncodeBenchmark(size));
+			benchmarks.add(new DecodeSplitBenchmark(size));
+			benchmarks.add(new DecodeCoalescedBenchmark(size));
+			benchmarks.add(new Crc32Benchmark(size));
+		}
+		benchmarks.add(new DecodeSegmentedBenchmark(SEGMENTED_SIZE,
+			SEGMENT_SIZE));
+		return benchmarks;
+	}
+
+	private static ChannelBuffer frame(ChannelBuffer payload) {
+		return RawMessageFrame.frame(payload);
+	}
+
+	static class EncodeBenchmark extends Benchmark {
+
+		private final int size;
+		private final ChannelBuffer payload;
+		private final ThreadLocal<EncoderEmbedder<ChannelBuffer>> embedder = new ThreadLocal<EncoderEmbedder<ChannelBuffer>>() {
+			@Override
+			protected EncoderEmbedder<ChannelBuffer> initialValue() {
+				return new EncoderEmbedder<ChannelBuffer>(
+					new RawMessageFrameEncoder());
+			}
+		};
+
+		EncodeBenchmark(int size) {
+			this.size = size;
+			this.payload = ChannelBuffers.wrappedBuffer(Payloads
+				.randomBytes(size));
+		}
+
+		@Override
+		public String getName() {
+			return Payloads.name("RawMessageFrameEncoder.encode", size);
+		}
+
+		@Override
+		public long operation(int threadIndex) {
+			EncoderEmbedder<ChannelBuffer> embedder = this.embedder.get();
+			embedder.offer(payload.duplicate());
+			return embedder.poll().readableBytes();
+		}
+	}
+
+	static class DecodeSplitBenchmark extends Benchmark {
+
+		private final int size;
+		private final ChannelBuffer first;
+		private final ChannelBuffer second;
+		private final ThreadLocal<DecoderEmbedder<ChannelBuffer>> embedder = new ThreadLocal<DecoderEmbedder<ChannelBuffer>>() {
+			@Override
+			protected DecoderEmbedder<ChannelBuffer> initialValue() {
+				return new DecoderEmbedder<ChannelBuffer>(
+					new RawMessageFrameDecoder());
+			}
+		};
+
+		DecodeSplitBenchmark(int size) {
+			this.size = size;
+			ChannelBuffer frame = frame(ChannelBuffers.wrappedBuffer(Payloads
+				.randomBytes(size)));
+			int half = frame.readableBytes() / 2;
+			first = frame.slice(0, half);
+			second = frame.slice(half, frame.readableBytes() - half);
+		}
+
+		@Override
+		public String getName() {
+			return Payloads.name("RawMessageFrameDecoder.decode split", size);
+		}
+
+		@Override
+		public long operation(int threadIndex) {
+			DecoderEmbedder<ChannelBuffer> embedder = this.embedder.get();
+			embedder.offer(first.duplicate());
+			embedder.offer(second.duplicate());
+			return embedder.poll().readableBytes();
+		}
+	}
+
+	static class DecodeCoalescedBenchmark extends Benchmark {
+
+		private final int size;
+		private final ChannelBuffer frames;
+		private final ThreadLocal<DecoderEmbedder<ChannelBuffer>> embedder = new ThreadLocal<DecoderEmbedder<ChannelBuffer>>() {
+			@Override
+			protected DecoderEmbedder<ChannelBuffer> initialValue() {
+				return new DecoderEmbedder<ChannelBuffer>(
+					new RawMessageFrameDecoder());
+			}
+		};
+
+		DecodeCoalescedBenchmark(int size) {
+			this.size = size;
+			ChannelBuffer frame = frame(ChannelBuffers.wrappedBuffer(Payloads
+				.randomBytes(size)));
+			frames = ChannelBuffers.buffer(frame.readableBytes()
+				* COALESCED_FRAMES);
+			for (int i = 0; i < COALESCED_FRAMES; i++)
+				frames.writeBytes(frame, frame.readerIndex(), frame
+					.readableBytes());
+		}
+
+		@Override
+		public String getName() {
+			return Payloads.name("RawMessageFrameDecoder.decode coalesced x"
+				+ COALESCED_FRAMES, size);
+		}
+
+		@Override
+		public long operation(int threadIndex) {
+			DecoderEmbedder<ChannelBuffer> embedder = this.embedder.get();
+			embedder.offer(frames.duplicate());
+			long bytes = 0;
+			ChannelBuffer message;
+			while ((message = embedder.poll()) != null)
+				bytes += message.readableBytes();
+			return bytes;
+		}
+	}
+
+	static class DecodeSegmentedBenchmark extends Benchmark {
+
+		private final int size;
+		private final int segmentSize;
+		private final ChannelBuffer[] segments;
+		private final ThreadLocal<DecoderEmbedder<ChannelBuffer>> embedder = new ThreadLocal<DecoderEmbedder<ChannelBuffer>>() {
+			@Override
+			protected DecoderEmbedder<ChannelBuffer> initialValue() {
+				return new DecoderEmbedder<ChannelBuffer>(
+					new RawMessageFrameDecoder());
+			}
+		};
+
+		DecodeSegmentedBenchmark(int size, int segmentSize) {
+			this.size = size;
+			this.segmentSize = segmentSize;
+			ChannelBuffer frame = frame(ChannelBuffers.wrappedBuffer(Payloads
+				.randomBytes(size)));
+			int length = frame.readableBytes();
+			segments = new ChannelBuffer[(length + segmentSize - 1)
+				/ segmentSize];
+			for (int i = 0; i < segments.length; i++) {
+				int offset = i * segmentSize;
+				segments[i] = frame.slice(offset, Math.min(segmentSize, length
+					- offset));
+			}
+		}
+
+		@Override
+		public String getName() {
+			return Payloads.name("RawMessageFrameDecoder.decode in "
+				+ segmentSize + "B segments", size);
+		}
+
+		@Override
+		public long operation(int threadIndex) {
+			DecoderEmbedder<ChannelBuffer> embedder = this.embedder.get();
+			for (ChannelBuffer segment : segments)
+				embedder.offer(segment.duplicate());
+			return embedder.poll().readableBytes();
+		}
+	}
+
+	static class Crc32Benchmark extends Benchmark {
+
+		private final int size;
+		private final ChannelBuffer payload;
+
+		Crc32Benchmark(int size) {
+			this.size = size;
+			this.payload = ChannelBuffers.wrappedBuffer(Payloads
+				.randomBytes(size));
+		}
+
+		@Override
+		public String getName() {
+			return Payloads.name("RawMessageFrame.getCrc32", size);
+		}
+
+		@Override
+		public long operation(int threadIndex) {
+			return RawMessageFrame.getCrc32(payload);
+		}
+	}
+}
@@ -0,0 +1,223 @@
+// Copyright 2009 Warsaw University, Faculty of Physics
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+
+package multiplexer.jmx.bench;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import multiplexer.jmx.collector.EventLog;
+import multiplexer.jmx.collector.LogStore;
+import multiplexer.protocol.Protocol.MultiplexerMessage;
+
+import com.google.protobuf.ByteString;
+
+/**
+ * {@link LogStore#add} of entries of about 100 bytes and
+ * {@link LogStore#search}es for pages of {@value #PAGE} entries in a store of
+ * {@value #ENTRIES} entries: by workflow, by a word common to many entries,
+ * by a common and a rare word, and by two common words with a large offset.
+ * Each entry has one of {@value #WORKFLOWS} workflows and {@value #WORDS}
+ * words chosen from a vocabulary of {@value #VOCABULARY} (the first
+ * {@value #COMMON} of which occur in about every tenth entry).
+ */
+public class LogStoreBenchmark implements BenchmarkSuite {
+
+	static final int ENTRIES = 1000 * 1000;
+	static final int WORKFLOWS = 50 * 1000;
+	static final int WORDS = 8;
+	static final int VOCABULARY = 100 * 1000;
+	static final int COMMON = 10;
+	static final int PAGE = 100;
+
+	public List<Benchmark> getBenchmarks() {
+		List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+		benchmarks.add(new AddBenchmark());
+		Store store = new Store();
+		benchmarks.add(new SearchBenchmark(store, "by workflow", true, 0, 0, 0));
+		benchmarks.add(new SearchBenchmark(store, "by common word", false, 1,
+			0, 0));
+		benchmarks.add(new SearchBenchmark(store, "by common and rare word",
+			false, 1, 1, 0));
+		benchmarks.add(new SearchBenchmark(store,
+			"by 2 common words, offset 1000", false, 2, 0, 1000));
+		return benchmarks;
+	}
+
+	private static File createDirectory() throws Exception {
+		File directory = File.createTempFile("logs", "");
+		directory.delete();
+		return directory;
+	}
+
+	private static void delete(File directory) {
+		File[] files = directory.listFiles();
+		if (files != null)
+			for (File file : files)
+				file.delete();
+		directory.delete();
+	}
+
+	static String word(int i) {
+		return "w" + Integer.toString(i, 36);
+	}
+
+	static ByteString workflow(int i) {
+		return ByteString.copyFromUtf8("workflow-" + i);
+	}
+
+	static MultiplexerMessage entry(Random random, int id) {
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < WORDS; i++) {
+			// Each of the common words is in about every tenth entry.
+			int word = random.nextInt(COMMON * 10 * WORDS) < COMMON ? random
+				.nextInt(COMMON) : COMMON + random.nextInt(VOCABULARY - COMMON);
+			text.append(word(word)).append(' ');
+		}
+		return MultiplexerMessage.newBuilder().setId(id).setType(1)
+			.setWorkflow(workflow(random.nextInt(WORKFLOWS))).setMessage(
+				ByteString.copyFromUtf8(text.toString())).build();
+	}
+
+	static class AddBenchmark extends Benchmark {
+
+		private final MultiplexerMessage[] entries = new MultiplexerMessage[1024];
+		private File directory;
+		private EventLog log;
+		private LogStore store;
+
+		AddBenchmark() {
+			Random random = new Random(1);
+			for (int i = 0; i < entries.length; i++)
+				entries[i] = entry(random, i);
+		}
+
+		@Override
+		public String getName() {
+			return "LogStore.add";
+		}
+
+		@Override
+		public void setUp() throws Exception {
+			directory = createDirectory();
+			// Keeps the log (and the indexes) bounded however long it runs.
+			log = new EventLog(directory, 64 * 1024 * 1024,
+				256L * 1024 * 1024, 0, TimeUnit.SECONDS);
+			store = new LogStore(log, LogStore.MESSAGE);
+		}
+
+		@Override
+		public void tearDown() {
+			log.close();
+			delete(directory);
+		}
+
+		@Override
+		public long operation(int threadIndex) throws Exception {
+			store.add(entries[(int) (System.nanoTime() & (entries.length - 1))]);
+			return 1;
+		}
+	}
+
+	/**
+	 * A store shared by the search benchmarks, filled on first use.
+	 */
+	static class Store {
+		private File directory;
+		private EventLog log;
+		private LogStore store;
+		private int users;
+
+		synchronized LogStore open() throws Exception {
+			if (users++ == 0) {
+				directory = createDirectory();
+				log = new EventLog(directory, 64 * 1024 * 1024, 0, 0,
+					TimeUnit.SECONDS);
+				store = new LogStore(log, LogStore.MESSAGE);
+				Random random = new Random(1);
+				for (int i = 0; i < ENTRIES; i++)
+					store.add(entry(random, i));
+			}
+			return store;
+		}
+
+		synchronized void close() {
+			if (--users == 0) {
+				log.close();
+				delete(directory);
+				store = null;
+			}
+		}
+	}
+
+	static class SearchBenchmark extends Benchmark {
+
+		private final Store shared;
+		private final String name;
+		private final boolean byWorkflow;
+		private final int commonWords;
+		private final int rareWords;
+		private final int offset;
+		private final Random random = new Random(2);
+		private LogStore store;
+
+		SearchBenchmark(Store shared, String name, boolean byWorkflow,
+			int commonWords, int rareWords, int offset) {
+			this.shared = shared;
+			this.name = name;
+			this.byWorkflow = byWorkflow;
+			this.commonWords = commonWords;
+			this.rareWords = rareWords;
+			this.offset = offset;
+		}
+
+		@Override
+		public String getName() {
+			return "LogStore.search " + name;
+		}
+
+		@Override
+		public void setUp() throws Exception {
+			store = shared.open();
+		}
+
+		@Override
+		public void tearDown() {
+			shared.close();
+		}
+
+		@Override
+		public long operation(int threadIndex) throws Exception {
+			ByteString workflow;
+			StringBuilder query = new StringBuilder();
+			synchronized (random) {
+				workflow = byWorkflow ? workflow(random.nextInt(WORKFLOWS))
+					: null;
+				for (int i = 0; i < commonWords; i++)
+					query.append(word(random.nextInt(COMMON))).append(' ');
+				for (int i = 0; i < rareWords; i++)
+					query.append(
+						word(COMMON + random.nextInt(VOCABULARY - COMMON)))
+						.append(' ');
+			}
+			return store.search(workflow, query.toString(), offset, PAGE)
+				.size();
+		}
+	}
+}
@@ -0,0 +1,61 @@
+// Copyright 2009 Warsaw University, Faculty of Physics
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+package multiplexer.jmx.bench;
+
+import java.util.Random;
+
+import multiplexer.protocol.Protocol.MultiplexerMessage;
+
+import com.google.protobuf.ByteString;
+
+/**
+ * Payloads of different sizes shared by the benchmarks. Contents are random
+ * but reproducible.
+ */
+final class Payloads {
+
+	/**
+	 * Payload sizes used by size-parametrized benchmarks.
+	 */
+	static final int[] SIZES = { 64, 4 * 1024, 64 * 1024, 1024 * 1024 };
+
+	private Payloads() {
+	}
+
+	static byte[] randomBytes(int size) {
+		byte[] bytes = new byte[size];
+		new Random(size).nextBytes(bytes);
+		return bytes;
+	}
+
+	static MultiplexerMessage message(int size) {
+		Random random = new Random(size);
+		return MultiplexerMessage.newBuilder().setId(random.nextLong())
+			.setFrom(random.nextLong()).setType(1201).setTimestamp(
+				System.currentTimeMillis() / 1000).setMessage(
+				ByteString.copyFrom(randomBytes(size))).build();
+	}
+
+	/**
+	 * Returns {@code name} with human readable {@code size} appended.
+	 */
+	static String name(String name, int size) {
+		if (size >= 1024 * 1024)
+			return name + " [" + size / 1024 / 1024 + "MiB]";
+		if (size >= 1024)
+			return name + " [" + size / 1024 + "KiB]";
+		return name + " [" + size + "B]";
+	}
+}
@@ -0,0 +1,63 @@
+// Copyright 2009 Warsaw University, Faculty of Physics
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+package multiplexer.jmx.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import multiplexer.protocol.Protocol.MultiplexerMessage;
+
+/**
+ * Serialization and parsing of {@link MultiplexerMessage}s for each of
+ * {@link Payloads#SIZES}.
+ */
+public class ProtobufBenchmark implements BenchmarkSuite {
+
+	public List<Benchmark> getBenchmarks() {
+		List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+		for (final int size : Payloads.SIZES) {
+			final MultiplexerMessage message = Payloads.message(size);
+			final byte[] serialized = message.toByteArray();
+
+			benchmarks.add(new Benchmark() {
+				@Override
+				public String getName() {
+					return Payloads.name("MultiplexerMessage.toByteArray",
+						size);
+				}
+
+				@Override
+				public long operation(int threadIndex) {
+					// A new instance each time, the serialized size is
+					// memoized.
+					return MultiplexerMessage.newBuilder(message).build()
+						.toByteArray().length;
+				}
+			});
+			benchmarks.add(new Benchmark() {
+				@Override
+				public String getName() {
+					return Payloads.name("MultiplexerMessage.parseFrom", size);
+				}
+
+				@Override
+				public long operation(int threadIndex) throws Exception {
+					return MultiplexerMessage.parseFrom(serialized).getId();
+				}
+			});
+		}
+		return benchmarks;
+	}
+}
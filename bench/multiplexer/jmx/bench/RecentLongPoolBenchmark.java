@@ -0,0 +1,74 @@
+// Copyright 2009 Warsaw University, Faculty of Physics
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+package multiplexer.jmx.bench;
+
+import java.util.Arrays;
+import java.util.List;
+
+import multiplexer.jmx.util.RecentLongPool;
+
+/**
+ * {@link RecentLongPool#add} of distinct ids (as done for every received
+ * message), called concurrently by all the threads on a single pool, compared
+ * to the {@link LegacyRecentLongPool}. Run with several {@code -threads}
+ * values to see how it scales across I/O threads.
+ */
+public class RecentLongPoolBenchmark implements BenchmarkSuite {
+
+	public List<Benchmark> getBenchmarks() {
+		return Arrays.<Benchmark> asList(new AddBenchmark(false),
+			new AddBenchmark(true));
+	}
+
+	static class AddBenchmark extends Benchmark {
+
+		private final boolean useLegacy;
+		private RecentLongPool pool;
+		private LegacyRecentLongPool legacyPool;
+		private final long[] state = new long[1024 * 16];
+
+		AddBenchmark(boolean useLegacy) {
+			this.useLegacy = useLegacy;
+		}
+
+		@Override
+		public String getName() {
+			return "RecentLongPool.add" + (useLegacy ? " (legacy)" : "");
+		}
+
+		@Override
+		public void setUp() {
+			pool = new RecentLongPool();
+			legacyPool = new LegacyRecentLongPool();
+			for (int i = 0; i < state.length; i += 16)
+				state[i] = 0x9E3779B97F4A7C15L * (i + 1);
+		}
+
+		@Override
+		public long operation(int threadIndex) {
+			// xorshift, per thread state padded to avoid false sharing
+			int i = threadIndex * 16;
+			long x = state[i];
+			x ^= x << 13;
+			x ^= x >>> 7;
+			x ^= x << 17;
+			state[i] = x;
+			if (useLegacy)
+				return legacyPool.add(x) ? 1 : 0;
+			return pool.add(x) ? 1 : 0;
+		}
+	}
+}
@@ -0,0 +1,130 @@
+// Copyright 2009 Warsaw University, Faculty of Physics
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+
+package multiplexer.jmx.bench;
+
+import java.io.FileReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import multiplexer.jmx.client.SendingMethod;
+import multiplexer.jmx.server.JmxServer;
+import multiplexer.jmx.server.RoutingTable;
+import multiplexer.protocol.Protocol.MultiplexerMessageDescription;
+import multiplexer.protocol.Protocol.MultiplexerRules;
+import multiplexer.protocol.Protocol.MultiplexerMessageDescription.RoutingRule;
+
+import com.google.common.collect.Maps;
+import com.google.protobuf.TextFormat;
+
+/**
+ * Resolving the routes of a message (and, for BACKEND_FOR_PACKET_SEARCH, the
+ * backend search route) with the {@link RoutingTable} compared to the
+ * previous per-message map lookup and walk over the {@link RoutingRule}s,
+ * using the rules in {@value #RULES}.
+ */
+public class RoutingTableBenchmark implements BenchmarkSuite {
+
+	static final String RULES = "multiplexer.rules";
+
+	public List<Benchmark> getBenchmarks() {
+		List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+		for (boolean backendSearch : new boolean[] { false, true }) {
+			benchmarks.add(new RouteBenchmark(backendSearch, false));
+			benchmarks.add(new RouteBenchmark(backendSearch, true));
+		}
+		return benchmarks;
+	}
+
+	static class RouteBenchmark extends Benchmark {
+
+		private final boolean backendSearch;
+		private final boolean useLegacy;
+		private RoutingTable table;
+		private Map<Integer, MultiplexerMessageDescription> descriptions;
+		private int[] types;
+		private int next;
+
+		RouteBenchmark(boolean backendSearch, boolean useLegacy) {
+			this.backendSearch = backendSearch;
+			this.useLegacy = useLegacy;
+		}
+
+		@Override
+		public String getName() {
+			return "route " + (backendSearch ? "backend search" : "message")
+				+ (useLegacy ? " (legacy)" : "");
+		}
+
+		@Override
+		public void setUp() throws Exception {
+			MultiplexerRules.Builder builder = MultiplexerRules.newBuilder();
+			FileReader reader = new FileReader(RULES);
+			try {
+				TextFormat.merge(reader, builder);
+			} finally {
+				reader.close();
+			}
+			MultiplexerRules rules = builder.build();
+			JmxServer server = new JmxServer(null);
+			server.loadMessageDefinitions(rules);
+			table = server.getRoutingTable();
+			descriptions = Maps.newHashMap();
+			List<Integer> routed = new ArrayList<Integer>();
+			for (MultiplexerMessageDescription type : rules.getTypeList()) {
+				MultiplexerMessageDescription description = table
+					.getDescription(type.getType());
+				descriptions.put(type.getType(), description);
+				if (description.getToCount() > 0)
+					routed.add(type.getType());
+			}
+			types = new int[routed.size()];
+			for (int i = 0; i < types.length; i++)
+				types[i] = routed.get(i);
+		}
+
+		@Override
+		public long operation(int threadIndex) {
+			// Races between threads only change which type is routed.
+			int type = types[next++ % types.length];
+			long sum = 0;
+			if (useLegacy) {
+				MultiplexerMessageDescription description = descriptions
+					.get(type);
+				List<RoutingRule> rules = description.getToList();
+				if (backendSearch) {
+					RoutingRule rule = RoutingRule.newBuilder(rules.get(0))
+						.setWhom(RoutingRule.Whom.ALL).setReportDeliveryError(
+							true).setIncludeOriginalPacketInReport(false)
+						.build();
+					rules = new ArrayList<RoutingRule>(1);
+					rules.add(rule);
+				}
+				for (RoutingRule rule : rules)
+					sum += SendingMethod.via(rule.getPeerType(),
+						rule.getWhom()).getPeerType();
+			} else if (backendSearch) {
+				sum += table.getBackendSearchRoute(type).getMethod()
+					.getPeerType();
+			} else {
+				for (RoutingTable.Route route : table.getRoutes(type))
+					sum += route.getMethod().getPeerType();
+			}
+			return sum;
+		}
+	}
+}
@@ -19,19 +19,32 @@ import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 
 import java.net.SocketAddress;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import multiplexer.jmx.client.ConnectException;
 import multiplexer.jmx.client.IncomingMessageData;
 import multiplexer.jmx.client.JmxClient;
 import multiplexer.jmx.exceptions.NoPeerForTypeException;
+import multiplexer.jmx.util.ConcurrentHashSet;
 import multiplexer.protocol.Constants.MessageTypes;
+import multiplexer.protocol.Protocol.BackendForPacketSearch;
 import multiplexer.protocol.Protocol.MultiplexerMessage;
 
 import org.jboss.netty.channel.ChannelFuture;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.protobuf.ByteString;
 
 /**
@@ -55,6 +68,25 @@ import com.google.protobuf.ByteString;
  * 	}
  * }.run();
  * </pre>
+ * <p>
+ * By default messages are handled one at a time by the thread executing
+ * {@link #run}. After {@link #setWorkerThreads} they are handled concurrently
+ * by a pool of worker threads &mdash; {@link #handleMessage} must then be
+ * thread-safe. The number of messages taken from the connection but not yet
+ * handled is limited by {@link #setMaxInFlightRequests}, and with
+ * {@link #setWorkflowOrdering} messages of the same {@code workflow} are
+ * handled one at a time, in order of arrival.
+ * <p>
+ * Messages whose {@code deadline} has passed are discarded instead of being
+ * handled, as their senders no longer await the responses. Unless workflow
+ * ordering is set, of the messages received and not yet handled the one with
+ * the nearest deadline is handled first. Messages with no deadline are
+ * handled in order of arrival, and messages with deadlines overtake them for
+ * at most {@link #setMaxOvertakingMillis} after they arrive.
+ * <p>
+ * A {@code BACKEND_FOR_PACKET_SEARCH} naming a {@code pending_request} the
+ * backend has received and not yet handled is not answered, so that a
+ * hedged query is not sent again to the backend stalling it.
  * 
  * @author Piotr Findeisen
  */
@@ -73,9 +105,46 @@ public abstract class AbstractBackend implements Runnable {
 	 */
 	private AtomicBoolean cancelled = new AtomicBoolean(false);
 	private volatile Thread thread;
+	private volatile Throwable workerFailure;
+
+	private int workerThreads;
+	private int maxInFlightRequests;
+	private boolean workflowOrdering;
+	private long maxOvertakingMillis = 1000;
+
+	/**
+	 * Request being handled and its message, set only when messages are
+	 * handled by the thread executing {@link #run}.
+	 * 
+	 * @deprecated use {@link #getLastIncomingRequest} and
+	 *             {@link #getLastMessage}, which work with worker threads too
+	 */
+	@Deprecated
 	protected IncomingMessageData lastIncomingRequest;
+	/**
+	 * @deprecated use {@link #getLastMessage}
+	 */
+	@Deprecated
 	protected MultiplexerMessage lastMessage;
-	private MessageContext currentContext;
+
+	/**
+	 * Request being handled by the current thread and its context.
+	 */
+	private final ThreadLocal<IncomingMessageData> incomingRequest = new ThreadLocal<IncomingMessageData>();
+	private final ThreadLocal<MessageContext> currentContext = new ThreadLocal<MessageContext>();
+
+	/**
+	 * Requests taken from the connection and not yet dispatched, nearest
+	 * deadline first. Used by the thread executing {@link #run} only.
+	 */
+	private final PriorityQueue<PendingRequest> pendingRequests = new PriorityQueue<PendingRequest>();
+	private long receivedRequests;
+	private long lastArrival;
+
+	/**
+	 * IDs of the requests taken from the connection and not yet handled.
+	 */
+	private final Set<Long> unhandledRequests = new ConcurrentHashSet<Long>();
 
 	protected AbstractBackend(int peerType) {
 		connection = new JmxClient(peerType);
@@ -110,6 +179,77 @@ public abstract class AbstractBackend implements Runnable {
 		return connection;
 	}
 
+	public int getWorkerThreads() {
+		return workerThreads;
+	}
+
+	/**
+	 * Sets the number of threads handling messages concurrently. {@code 0}
+	 * (the default) means that messages are handled by the thread executing
+	 * {@link #run}. Must be called before {@link #run}.
+	 */
+	public void setWorkerThreads(int workerThreads) {
+		checkState(thread == null);
+		this.workerThreads = workerThreads;
+	}
+
+	public int getMaxInFlightRequests() {
+		return maxInFlightRequests > 0 ? maxInFlightRequests : 2 * workerThreads;
+	}
+
+	/**
+	 * Sets the maximum number of messages taken from the connection but not yet
+	 * handled by the worker threads. Defaults to twice the number of worker
+	 * threads. Must be called before {@link #run}.
+	 */
+	public void setMaxInFlightRequests(int maxInFlightRequests) {
+		checkState(thread == null);
+		this.maxInFlightRequests = maxInFlightRequests;
+	}
+
+	public boolean isWorkflowOrdering() {
+		return workflowOrdering;
+	}
+
+	/**
+	 * If set, messages with the same {@code workflow} are handled by the
+	 * worker threads one at a time, in order of arrival. Must be called
+	 * before {@link #run}.
+	 */
+	public void setWorkflowOrdering(boolean workflowOrdering) {
+		checkState(thread == null);
+		this.workflowOrdering = workflowOrdering;
+	}
+
+	public long getMaxOvertakingMillis() {
+		return maxOvertakingMillis;
+	}
+
+	/**
+	 * Sets for how long after it is received a message with no {@code
+	 * deadline} may be overtaken by messages with deadlines. Defaults to one
+	 * second. Must be called before {@link #run}.
+	 */
+	public void setMaxOvertakingMillis(long maxOvertakingMillis) {
+		checkState(thread == null);
+		this.maxOvertakingMillis = maxOvertakingMillis;
+	}
+
+	/**
+	 * Returns the request being handled by the current thread.
+	 */
+	protected IncomingMessageData getLastIncomingRequest() {
+		return incomingRequest.get();
+	}
+
+	/**
+	 * Returns the message being handled by the current thread.
+	 */
+	protected MultiplexerMessage getLastMessage() {
+		IncomingMessageData request = incomingRequest.get();
+		return request == null ? null : request.getMessage();
+	}
+
 	/**
 	 * Subclasses need to define this method to get complete and working
 	 * backend.
@@ -126,8 +266,12 @@ public abstract class AbstractBackend implements Runnable {
 		thread = Thread.currentThread();
 		try {
 			try {
-				while (!isCancelled()) {
-					runOne();
+				if (workerThreads > 0) {
+					runWorkers();
+				} else {
+					while (!isCancelled()) {
+						runOne(receive());
+					}
 				}
 			} catch (InterruptedException e) {
 				if (isCancelled()) {
@@ -155,10 +299,207 @@ public abstract class AbstractBackend implements Runnable {
 		}
 	}
 
-	private void runOne() throws Exception {
-		lastIncomingRequest = checkNotNull(connection.receive(), "lastIncomingRequest");
-		lastMessage = checkNotNull(lastIncomingRequest.getMessage(), "lastMessage");
-		currentContext = new DefaultMessageContext(lastMessage, connection, lastIncomingRequest.getConnection());
+	/**
+	 * Dispatches messages to the worker threads until cancelled, then waits
+	 * for the messages already dispatched to be handled.
+	 */
+	private void runWorkers() throws Exception {
+		ExecutorService workers = Executors.newFixedThreadPool(workerThreads, new ThreadFactoryBuilder().setNameFormat(
+			getClass().getSimpleName() + " worker %d").build());
+		Semaphore inFlight = new Semaphore(getMaxInFlightRequests());
+		WorkflowQueues workflows = workflowOrdering ? new WorkflowQueues() : null;
+		try {
+			while (!isCancelled()) {
+				inFlight.acquire();
+				IncomingMessageData request;
+				try {
+					request = receive();
+				} catch (InterruptedException e) {
+					inFlight.release();
+					throw e;
+				}
+				ByteString workflow = null;
+				if (workflows != null && request.getMessage().hasWorkflow()) {
+					workflow = request.getMessage().getWorkflow();
+					if (!workflows.offer(workflow, request))
+						continue;
+				}
+				workers.execute(new Worker(request, inFlight, workflows, workflow));
+			}
+		} finally {
+			workers.shutdown();
+			boolean interrupted = false;
+			while (true) {
+				try {
+					workers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+					break;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (interrupted)
+				Thread.currentThread().interrupt();
+			if (workerFailure != null)
+				logger.warn("Unhandled exception in worker", workerFailure);
+		}
+	}
+
+	/**
+	 * Takes the request with the nearest deadline from the ones received,
+	 * blocking until there is any. A request with no deadline is due
+	 * {@link #maxOvertakingMillis} after it is received. With workflow
+	 * ordering requests are taken in order of arrival.
+	 */
+	private IncomingMessageData receive() throws InterruptedException {
+		if (workflowOrdering)
+			return taken(checkNotNull(connection.receive(), "request"));
+		if (pendingRequests.isEmpty())
+			pendingRequests.add(pending(checkNotNull(connection.receive(), "request")));
+		IncomingMessageData request;
+		while ((request = connection.receive(0, TimeUnit.MILLISECONDS)) != null)
+			pendingRequests.add(pending(request));
+		return pendingRequests.poll().request;
+	}
+
+	private PendingRequest pending(IncomingMessageData request) {
+		MultiplexerMessage message = request.getMessage();
+		long deadline;
+		if (message.hasDeadline()) {
+			deadline = message.getDeadline();
+		} else {
+			// never earlier than of the requests received before
+			lastArrival = Math.max(lastArrival, System.currentTimeMillis());
+			deadline = maxOvertakingMillis < Long.MAX_VALUE - lastArrival ? lastArrival
+				+ maxOvertakingMillis : Long.MAX_VALUE;
+		}
+		return new PendingRequest(taken(request), deadline, receivedRequests++);
+	}
+
+	private IncomingMessageData taken(IncomingMessageData request) {
+		if (isOrdinaryMessage(request.getMessage()))
+			unhandledRequests.add(request.getMessage().getId());
+		return request;
+	}
+
+	private static boolean isOrdinaryMessage(MultiplexerMessage message) {
+		return message.getType() > MessageTypes.MAX_MULTIPLEXER_META_PACKET;
+	}
+
+	private static class PendingRequest implements Comparable<PendingRequest> {
+
+		final IncomingMessageData request;
+		private final long deadline;
+		private final long sequence;
+
+		PendingRequest(IncomingMessageData request, long deadline, long sequence) {
+			this.request = request;
+			this.deadline = deadline;
+			this.sequence = sequence;
+		}
+
+		public int compareTo(PendingRequest other) {
+			if (deadline != other.deadline)
+				return deadline < other.deadline ? -1 : 1;
+			return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+		}
+	}
+
+	/**
+	 * Handles one request on a worker thread and then any requests of the same
+	 * workflow queued meanwhile.
+	 */
+	private class Worker implements Runnable {
+
+		private IncomingMessageData request;
+		private final Semaphore inFlight;
+		private final WorkflowQueues workflows;
+		private final ByteString workflow;
+
+		Worker(IncomingMessageData request, Semaphore inFlight, WorkflowQueues workflows, ByteString workflow) {
+			this.request = request;
+			this.inFlight = inFlight;
+			this.workflows = workflows;
+			this.workflow = workflow;
+		}
+
+		public void run() {
+			while (request != null) {
+				try {
+					if (workerFailure == null)
+						runOne(request);
+				} catch (Throwable e) {
+					// Same as in the single-threaded mode, an unhandled
+					// exception stops the backend.
+					workerFailure = e;
+					cancel();
+				} finally {
+					inFlight.release();
+				}
+				request = workflow == null ? null : workflows.next(workflow);
+			}
+		}
+	}
+
+	/**
+	 * Requests waiting for the preceding request of the same workflow to be
+	 * handled.
+	 */
+	private static class WorkflowQueues {
+
+		private final Map<ByteString, Queue<IncomingMessageData>> queues = new HashMap<ByteString, Queue<IncomingMessageData>>();
+
+		/**
+		 * @return true if {@code request} should be handled now, false if it
+		 *         has been queued behind a request being handled
+		 */
+		synchronized boolean offer(ByteString workflow, IncomingMessageData request) {
+			Queue<IncomingMessageData> queue = queues.get(workflow);
+			if (queue == null) {
+				queues.put(workflow, new ArrayDeque<IncomingMessageData>());
+				return true;
+			}
+			queue.add(request);
+			return false;
+		}
+
+		/**
+		 * @return the next request of the {@code workflow} or null, if there
+		 *         is none and the workflow is no longer being handled
+		 */
+		synchronized IncomingMessageData next(ByteString workflow) {
+			Queue<IncomingMessageData> queue = queues.get(workflow);
+			IncomingMessageData request = queue.poll();
+			if (request == null)
+				queues.remove(workflow);
+			return request;
+		}
+	}
+
+	private void runOne(IncomingMessageData request) throws Exception {
+		checkNotNull(request, "request");
+		MultiplexerMessage lastMessage = checkNotNull(request.getMessage(), "lastMessage");
+		try {
+			handle(request);
+		} finally {
+			if (isOrdinaryMessage(lastMessage))
+				unhandledRequests.remove(lastMessage.getId());
+		}
+	}
+
+	private void handle(IncomingMessageData request) throws Exception {
+		MultiplexerMessage lastMessage = request.getMessage();
+		if (lastMessage.hasDeadline() && lastMessage.getDeadline() < System.currentTimeMillis()) {
+			logger.debug("Message #{} expired {} ms ago, discarded", lastMessage.getId(), System.currentTimeMillis()
+				- lastMessage.getDeadline());
+			connection.getMetrics().expiredDropped();
+			return;
+		}
+		incomingRequest.set(request);
+		if (workerThreads == 0) {
+			this.lastIncomingRequest = request;
+			this.lastMessage = lastMessage;
+		}
+		currentContext.set(new DefaultMessageContext(lastMessage, connection, request.getConnection()));
 
 		try {
 			switch (lastMessage.getType()) {
@@ -166,7 +507,11 @@ public abstract class AbstractBackend implements Runnable {
 				throw new AssertionError("Unexpected CONNECTION_WELCOME");
 
 			case MessageTypes.BACKEND_FOR_PACKET_SEARCH:
-				reply(createResponse(MessageTypes.PING));
+				BackendForPacketSearch search = BackendForPacketSearch.parseFrom(lastMessage.getMessage());
+				if (search.hasPendingRequest() && unhandledRequests.contains(search.getPendingRequest()))
+					noResponse();
+				else
+					reply(createResponse(MessageTypes.PING));
 				break;
 
 			case MessageTypes.PING:
@@ -183,23 +528,26 @@ public abstract class AbstractBackend implements Runnable {
 				break;
 
 			default:
-				if (lastMessage.getType() <= MessageTypes.MAX_MULTIPLEXER_META_PACKET) {
+				if (!isOrdinaryMessage(lastMessage)) {
 					logger.warn("Unable to handle meta packet of type {}", lastMessage.getType());
 				} else {
-					handleOrdinaryMessage();
+					handleOrdinaryMessage(lastMessage);
 				}
 				break;
 			}
 		} catch (Exception e) {
 			handleException(e);
 		} finally {
-			lastIncomingRequest = null;
-			lastMessage = null;
+			incomingRequest.remove();
+			currentContext.remove();
+			this.lastIncomingRequest = null;
+			this.lastMessage = null;
 		}
 	}
 
-	private void handleOrdinaryMessage() throws Exception {
+	private void handleOrdinaryMessage(MultiplexerMessage lastMessage) throws Exception {
 		assert lastMessage.getType() > MessageTypes.MAX_MULTIPLEXER_META_PACKET;
+		MessageContext currentContext = this.currentContext.get();
 		boolean responseMissing;
 		try {
 			handleMessage(lastMessage);
@@ -216,13 +564,13 @@ public abstract class AbstractBackend implements Runnable {
 	}
 
 	protected void reportError(Throwable e) throws NoPeerForTypeException {
-		assert currentContext != null;
-		currentContext.reportError(e);
+		assert currentContext.get() != null;
+		currentContext.get().reportError(e);
 	}
 
 	protected void reportError(String explanation) throws NoPeerForTypeException {
-		assert currentContext != null;
-		currentContext.reportError(explanation);
+		assert currentContext.get() != null;
+		currentContext.get().reportError(explanation);
 	}
 
 	protected void handleException(Exception e) throws Exception {
@@ -230,27 +578,27 @@ public abstract class AbstractBackend implements Runnable {
 	}
 
 	protected void noResponse() {
-		currentContext.setResponseRequired(false);
+		currentContext.get().setResponseRequired(false);
 	}
 
 	protected MultiplexerMessage.Builder createResponse() {
-		return currentContext.createResponse();
+		return currentContext.get().createResponse();
 	}
 
 	protected MultiplexerMessage.Builder createResponse(int packetType) {
-		return currentContext.createResponse(packetType);
+		return currentContext.get().createResponse(packetType);
 	}
 
 	protected MultiplexerMessage.Builder createResponse(int packetType, ByteString message) {
-		return currentContext.createResponse(packetType, message);
+		return currentContext.get().createResponse(packetType, message);
 	}
 
 	protected void reply(MultiplexerMessage.Builder message) {
-		currentContext.reply(message);
+		currentContext.get().reply(message);
 	}
 
 	protected void setResponseSent(boolean sent) {
-		currentContext.setResponseSent(sent);
+		currentContext.get().setResponseSent(sent);
 	}
 
 	/**
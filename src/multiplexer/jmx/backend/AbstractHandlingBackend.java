@@ -49,7 +49,7 @@ public abstract class AbstractHandlingBackend extends AbstractBackend {
 		MessageHandler messageHandler = getMessageHandler();
 		if (messageHandler == null)
 			throw new NullPointerException("messageHandler");
-		MessageContext ctx = createContext(message, lastIncomingRequest
+		MessageContext ctx = createContext(message, getLastIncomingRequest()
 			.getConnection());
 		messageHandler.handleMessage(message, ctx);
 		if (!ctx.isResponseRequired()) {
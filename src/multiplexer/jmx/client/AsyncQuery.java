@@ -0,0 +1,479 @@
+// Copyright 2009 Warsaw University, Faculty of Physics
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+package multiplexer.jmx.client;
+
+import java.util.concurrent.TimeUnit;
+
+import multiplexer.jmx.exceptions.BackendUnreachableException;
+import multiplexer.jmx.exceptions.NoPeerForTypeException;
+import multiplexer.jmx.exceptions.OperationTimeoutException;
+import multiplexer.jmx.internal.MessageReceivedListener;
+import multiplexer.protocol.Constants.MessageTypes;
+import multiplexer.protocol.Protocol.BackendForPacketSearch;
+import multiplexer.protocol.Protocol.MultiplexerMessage;
+
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.TimerTask;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.AbstractListenableFuture;
+import com.google.protobuf.ByteString;
+
+/**
+ * State machine of a {@link JmxClient#asyncQuery(ByteString, int, long)}. It is
+ * driven by responses delivered by the {@link ClientMessageReceivedListener}
+ * (on I/O threads) and by timeouts scheduled on the
+ * {@link multiplexer.jmx.internal.ConnectionsManager#getTimer() timer}, so no
+ * thread is blocked while the query is in progress.
+ * 
+ * The query is registered in client's query responses under IDs of all
+ * messages it sent and is de-registered {@value #REMOVAL_DELAY_MILLIS}ms after
+ * it completes, so that late responses are not delivered to
+ * {@link JmxClient#receive()}.
+ * 
+ * If the client has a {@link HedgingPolicy}, a query unanswered in phase 1
+ * for the policy's delay sends a duplicate of its request (under a new ID, so
+ * that it is not dropped by the Multiplexer as a duplicate). To keep the
+ * duplicate away from the backend stalling the original, it is preceded by a
+ * BACKEND_FOR_PACKET_SEARCH naming the original as {@code pending_request},
+ * which that backend does not answer, and sent directly to the first backend
+ * which answers. Whichever of the requests is answered first completes the
+ * query; phase 2 starts only when both are rejected or phase 1 times out.
+ * 
+ * Each request carries a deadline: the time at which the query stops awaiting
+ * its answer. Answers to phase 1 requests are accepted until the query ends,
+ * so their deadline is {@value #PHASES} timeouts after the query starts; the
+ * requests of the later phases are awaited for one timeout. Multiplexer
+ * servers and backends drop requests past their deadlines.
+ */
+class AsyncQuery extends AbstractListenableFuture<IncomingMessageData>
+	implements MessageReceivedListener, TimerTask {
+
+	private static final Logger logger = LoggerFactory
+		.getLogger(AsyncQuery.class);
+
+	static final long REMOVAL_DELAY_MILLIS = 5000;
+
+	private static final int PHASES = 3;
+
+	private final JmxClient client;
+	private final ByteString message;
+	private final int messageType;
+	private final long timeoutMillis;
+
+	private int phase;
+	private Timeout timeout;
+	private Timeout hedgeTimeout;
+	private long startNanos;
+	private long phase1Deadline;
+	private long queryId;
+	private long hedgeSearchId;
+	private long hedgeId;
+	private int activePhase1Requests;
+	private long backendSearchMessageId;
+	private long backendQueryId;
+	private int activeBackendSearches;
+	private boolean phase1DeliveryError;
+	private boolean phase3DeliveryError;
+	private IncomingMessageData backendErrorMessage;
+
+	/**
+	 * Set, under the lock, once the outcome of the query is known; the future
+	 * itself is completed later, without holding the lock.
+	 */
+	private boolean finished;
+	private IncomingMessageData result;
+	private Exception failure;
+
+	AsyncQuery(JmxClient client, ByteString message, int messageType,
+		long timeoutMillis) {
+		this.client = client;
+		this.message = message;
+		this.messageType = messageType;
+		this.timeoutMillis = timeoutMillis;
+	}
+
+	/**
+	 * Sends the query through one Multiplexer (phase 1).
+	 * 
+	 * @throws NoPeerForTypeException
+	 *             when there is no Multiplexer connection; the query is then
+	 *             not registered
+	 */
+	synchronized void start() throws NoPeerForTypeException {
+		phase1Deadline = System.currentTimeMillis() + PHASES * timeoutMillis;
+		MultiplexerMessage queryMessage = createRequest(phase1Deadline);
+		queryId = queryMessage.getId();
+		client.registerQuery(queryId, this);
+		startNanos = System.nanoTime();
+		try {
+			client.send(queryMessage, SendingMethod.THROUGH_ONE);
+		} catch (NoPeerForTypeException e) {
+			client.unregisterQuery(queryId);
+			throw e;
+		}
+		activePhase1Requests = 1;
+		enterPhase(1);
+
+		HedgingPolicy hedgingPolicy = client.getHedgingPolicy();
+		if (hedgingPolicy != null) {
+			hedgingPolicy.queryStarted();
+			long delayMillis = hedgingPolicy.getDelayMillis(messageType);
+			if (delayMillis >= 0 && delayMillis < timeoutMillis)
+				hedgeTimeout = client.connectionsManager.getTimer().newTimeout(
+					this, delayMillis, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Looks for a backend, other than the one holding the phase 1 request,
+	 * to send its duplicate to, unless the query has progressed or the
+	 * hedging budget is exhausted.
+	 */
+	private void hedge() {
+		if (phase != 1 || finished || isDone())
+			return;
+		HedgingPolicy hedgingPolicy = client.getHedgingPolicy();
+		if (hedgingPolicy == null || !hedgingPolicy.tryHedge())
+			return;
+		BackendForPacketSearch backendSearch = BackendForPacketSearch
+			.newBuilder().setPacketType(messageType).setPendingRequest(
+				queryId).build();
+		MultiplexerMessage searchMessage = client
+			.createMessage(MultiplexerMessage.newBuilder().setMessage(
+				backendSearch.toByteString()).setType(
+				MessageTypes.BACKEND_FOR_PACKET_SEARCH).setDeadline(
+				phase1Deadline));
+		hedgeSearchId = searchMessage.getId();
+		client.registerQuery(hedgeSearchId, this);
+		try {
+			client.event(searchMessage);
+		} catch (NoPeerForTypeException e) {
+			client.unregisterQuery(hedgeSearchId);
+			hedgeSearchId = 0;
+		}
+	}
+
+	/**
+	 * Sends the duplicate of the phase 1 request directly to the backend
+	 * which answered the search for it.
+	 */
+	private void sendHedge(IncomingMessageData searchAnswer) {
+		MultiplexerMessage hedgeMessage = client
+			.createMessage(MultiplexerMessage.newBuilder().setMessage(message)
+				.setType(messageType).setTo(
+					searchAnswer.getMessage().getFrom()).setDeadline(
+					phase1Deadline));
+		hedgeId = hedgeMessage.getId();
+		client.registerQuery(hedgeId, this);
+		client.send(hedgeMessage, SendingMethod.via(searchAnswer
+			.getConnection()));
+		activePhase1Requests++;
+		logger.debug("Hedged query {} with {}", queryId, hedgeId);
+	}
+
+	private MultiplexerMessage createRequest(long deadline) {
+		return client.createMessage(MultiplexerMessage.newBuilder().setMessage(
+			message).setType(messageType).setDeadline(deadline));
+	}
+
+	private boolean isPhase1Request(long references) {
+		return references == queryId || (hedgeId != 0 && references == hedgeId);
+	}
+
+	public void onMessageReceived(MultiplexerMessage message,
+		Connection connection) {
+		boolean completed;
+		synchronized (this) {
+			if (finished || isDone())
+				return;
+			IncomingMessageData answer = new IncomingMessageData(message,
+				connection);
+			if (hedgeSearchId != 0 && message.getReferences() == hedgeSearchId) {
+				// Only the first backend found gets the duplicate.
+				if (phase == 1 && hedgeId == 0
+					&& message.getType() == MessageTypes.PING)
+					sendHedge(answer);
+				return;
+			}
+			switch (phase) {
+			case 1:
+				completed = handlePhase1(answer);
+				break;
+			case 2:
+				completed = handlePhase2(answer);
+				break;
+			case 3:
+				completed = handlePhase3(answer);
+				break;
+			default:
+				throw new AssertionError("Unreachable code.");
+			}
+		}
+		if (completed)
+			finish();
+	}
+
+	/**
+	 * Handles expiration of the current phase or, once the query is done, its
+	 * de-registration.
+	 */
+	public void run(Timeout timeout) {
+		boolean remove;
+		synchronized (this) {
+			if (timeout == hedgeTimeout) {
+				hedge();
+				return;
+			}
+			if (timeout != this.timeout)
+				return;
+			remove = isDone();
+			if (!remove) {
+				if (finished)
+					return;
+				switch (phase) {
+				case 1:
+					if (!startPhase2())
+						return;
+					break;
+				case 2:
+					fail(new OperationTimeoutException(
+						"query phase 2 timed out"));
+					break;
+				case 3:
+					fail(new OperationTimeoutException(
+						"query phase 3 timed out"));
+					break;
+				default:
+					throw new AssertionError("Unreachable code.");
+				}
+			}
+		}
+		if (remove)
+			unregister();
+		else
+			finish();
+	}
+
+	private void unregister() {
+		client.unregisterQuery(queryId);
+		client.unregisterQuery(hedgeSearchId);
+		client.unregisterQuery(hedgeId);
+		client.unregisterQuery(backendSearchMessageId);
+		client.unregisterQuery(backendQueryId);
+	}
+
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		return cancel();
+	}
+
+	@Override
+	protected void done() {
+		boolean scheduled = true;
+		synchronized (this) {
+			if (timeout != null)
+				timeout.cancel();
+			if (hedgeTimeout != null)
+				hedgeTimeout.cancel();
+			try {
+				timeout = client.connectionsManager.getTimer().newTimeout(
+					this, REMOVAL_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+			} catch (IllegalStateException e) {
+				// the timer is stopped, the client is shut down
+				scheduled = false;
+			}
+		}
+		if (!scheduled)
+			unregister();
+		super.done();
+	}
+
+	private void finish() {
+		if (failure != null)
+			setException(failure);
+		else
+			set(result);
+	}
+
+	private void enterPhase(int phase) {
+		this.phase = phase;
+		if (timeout != null)
+			timeout.cancel();
+		timeout = client.connectionsManager.getTimer().newTimeout(this,
+			timeoutMillis, TimeUnit.MILLISECONDS);
+	}
+
+	private boolean succeed(IncomingMessageData answer) {
+		result = answer;
+		return finished = true;
+	}
+
+	private boolean fail(Exception e) {
+		failure = e;
+		return finished = true;
+	}
+
+	private void backendError(IncomingMessageData answer) {
+		logger.warn("Received BACKEND_ERROR message\n{}", answer);
+		backendErrorMessage = answer;
+	}
+
+	/**
+	 * Broadcasts BACKEND_FOR_PACKET_SEARCH through all Multiplexers.
+	 * 
+	 * @return true if the query is finished
+	 */
+	private boolean startPhase2() {
+		BackendForPacketSearch backendSearch = BackendForPacketSearch
+			.newBuilder().setPacketType(messageType).build();
+		MultiplexerMessage backendSearchMessage = client
+			.createMessage(MultiplexerMessage.newBuilder().setMessage(
+				backendSearch.toByteString()).setType(
+				MessageTypes.BACKEND_FOR_PACKET_SEARCH).setDeadline(
+				System.currentTimeMillis() + timeoutMillis));
+		backendSearchMessageId = backendSearchMessage.getId();
+		client.registerQuery(backendSearchMessageId, this);
+		try {
+			activeBackendSearches = client.event(backendSearchMessage).size();
+		} catch (NoPeerForTypeException e) {
+			return fail(e);
+		}
+		enterPhase(2);
+		return false;
+	}
+
+	/**
+	 * Sends the query directly to the backend which responded to
+	 * BACKEND_FOR_PACKET_SEARCH.
+	 */
+	private void startPhase3(IncomingMessageData searchAnswer) {
+		MultiplexerMessage backendQueryMessage = client
+			.createMessage(MultiplexerMessage.newBuilder().setMessage(message)
+				.setType(messageType).setTo(
+					searchAnswer.getMessage().getFrom()).setDeadline(
+					System.currentTimeMillis() + timeoutMillis));
+		backendQueryId = backendQueryMessage.getId();
+		client.registerQuery(backendQueryId, this);
+		client.send(backendQueryMessage, SendingMethod.via(searchAnswer
+			.getConnection()));
+		enterPhase(3);
+	}
+
+	/**
+	 * Notes the rejection of one of the phase 1 requests.
+	 * 
+	 * @return true if all of them are rejected
+	 */
+	private boolean phase1Rejected() {
+		if (--activePhase1Requests > 0)
+			return false;
+		phase1DeliveryError = true;
+		return true;
+	}
+
+	private boolean handlePhase1(IncomingMessageData answer) {
+		int type = answer.getMessage().getType();
+		if (type == MessageTypes.BACKEND_ERROR) {
+			backendError(answer);
+		} else if (type != MessageTypes.DELIVERY_ERROR) {
+			HedgingPolicy hedgingPolicy = client.getHedgingPolicy();
+			if (hedgingPolicy != null)
+				hedgingPolicy.recordLatency(messageType, System.nanoTime()
+					- startNanos);
+			return succeed(answer);
+		}
+		if (!phase1Rejected())
+			return false;
+		return startPhase2();
+	}
+
+	private boolean handlePhase2(IncomingMessageData answer) {
+		long references = answer.getMessage().getReferences();
+		int type = answer.getMessage().getType();
+
+		if (type == MessageTypes.DELIVERY_ERROR && isPhase1Request(references)) {
+			phase1Rejected();
+			return false;
+		}
+
+		if (type == MessageTypes.BACKEND_ERROR && isPhase1Request(references)) {
+			phase1Rejected();
+			backendError(answer);
+			return false;
+		}
+
+		if ((type == MessageTypes.DELIVERY_ERROR)
+			|| (type == MessageTypes.BACKEND_ERROR)) {
+			assert references == backendSearchMessageId;
+			if (type == MessageTypes.BACKEND_ERROR) {
+				backendError(answer);
+			}
+			activeBackendSearches--;
+			if (activeBackendSearches == 0) {
+				if (backendErrorMessage != null) {
+					return succeed(backendErrorMessage);
+				}
+				return fail(new BackendUnreachableException(
+					"query phase 2 rejected by all peers"));
+			}
+			return false;
+		}
+
+		if (isPhase1Request(references)) {
+			return succeed(answer);
+		}
+
+		assert references == backendSearchMessageId;
+		startPhase3(answer);
+		return false;
+	}
+
+	private boolean handlePhase3(IncomingMessageData answer) {
+		long references = answer.getMessage().getReferences();
+		int type = answer.getMessage().getType();
+
+		if (references == backendSearchMessageId) {
+			return false;
+		}
+
+		if ((type != MessageTypes.DELIVERY_ERROR)
+			&& (type != MessageTypes.BACKEND_ERROR)) {
+			assert isPhase1Request(references) || (references == backendQueryId);
+			return succeed(answer);
+		}
+
+		if (type == MessageTypes.BACKEND_ERROR) {
+			backendError(answer);
+		}
+		if (isPhase1Request(references)) {
+			if (!phase1Rejected() || !phase3DeliveryError) {
+				return false;
+			}
+		} else {
+			assert references == backendQueryId;
+			if (!phase1DeliveryError) {
+				phase3DeliveryError = true;
+				return false;
+			}
+		}
+		if (backendErrorMessage != null) {
+			return succeed(backendErrorMessage);
+		}
+		return fail(new BackendUnreachableException(
+			"query phases 1 and 3 rejected"));
+	}
+}
@@ -26,11 +26,11 @@ import multiplexer.protocol.Protocol.MultiplexerMessage;
  */
 public class ClientMessageReceivedListener implements MessageReceivedListener {
 	
-	final private ConcurrentMap<Long, BlockingQueue<IncomingMessageData>> queryResponses;
+	final private ConcurrentMap<Long, MessageReceivedListener> queryResponses;
 	final private BlockingQueue<IncomingMessageData> messageQueue;
 	
 	public ClientMessageReceivedListener(
-		ConcurrentMap<Long, BlockingQueue<IncomingMessageData>> queryResponses,
+		ConcurrentMap<Long, MessageReceivedListener> queryResponses,
 		BlockingQueue<IncomingMessageData> messageQueue) {
 		super();
 		this.queryResponses = queryResponses;
@@ -40,14 +40,11 @@ public class ClientMessageReceivedListener implements MessageReceivedListener {
 	public void onMessageReceived(MultiplexerMessage message,
 		Connection connection) {
 		long id = message.getReferences();
-		IncomingMessageData msg = new IncomingMessageData(message,
-			connection);
-		BlockingQueue<IncomingMessageData> queryQueue = queryResponses
-			.get(id);
-		if (queryQueue == null) {
-			messageQueue.add(msg);
+		MessageReceivedListener query = queryResponses.get(id);
+		if (query == null) {
+			messageQueue.add(new IncomingMessageData(message, connection));
 		} else {
-			queryQueue.add(msg);
+			query.onMessageReceived(message, connection);
 		}
 	}
 }
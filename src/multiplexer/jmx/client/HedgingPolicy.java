@@ -0,0 +1,200 @@
+// Copyright 2009 Warsaw University, Faculty of Physics
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+package multiplexer.jmx.client;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Decides when a {@link JmxClient#query(com.google.protobuf.ByteString, int, long)
+ * query} which is still unanswered in phase 1 sends a duplicate request (a
+ * hedge). The duplicate is sent directly to a backend found with a
+ * BACKEND_FOR_PACKET_SEARCH which the backend holding the original does not
+ * answer, so it does not land on the backend stalling the original. With a
+ * single backend, or if no other backend answers in time, the query is not
+ * hedged.
+ * 
+ * The hedge is sent after the configured percentile of recent phase 1
+ * latencies of the query's message type has elapsed; until {@value #MIN_SAMPLES}
+ * latencies of a type are known, its queries are not hedged. The number of
+ * hedges is limited to the configured fraction of queries (with bursts of at
+ * most {@value #MAX_BURST} hedges), so that hedging cannot multiply the load
+ * of backends which are slow for everyone.
+ */
+public class HedgingPolicy {
+
+	/**
+	 * Number of recent latencies of every message type the hedge delay is
+	 * computed from.
+	 */
+	public static final int WINDOW = 256;
+
+	/**
+	 * Number of latencies of a message type needed before its queries are
+	 * hedged.
+	 */
+	public static final int MIN_SAMPLES = 20;
+
+	public static final int MAX_BURST = 10;
+
+	private static final int RECOMPUTE_EVERY = 16;
+
+	/** Budget of a single hedge, in thousandths. */
+	private static final long HEDGE_COST = 1000;
+
+	private final double percentile;
+	private final double maxHedgedFraction;
+	private final long minDelayMillis;
+	private final long budgetPerQuery;
+	private final AtomicLong budget = new AtomicLong();
+	private final AtomicLong hedgeCount = new AtomicLong();
+	private final ConcurrentMap<Integer, LatencyWindow> windows = new ConcurrentHashMap<Integer, LatencyWindow>();
+
+	/**
+	 * Equivalent to {@code HedgingPolicy(percentile, maxHedgedFraction, 0)}.
+	 */
+	public HedgingPolicy(double percentile, double maxHedgedFraction) {
+		this(percentile, maxHedgedFraction, 0);
+	}
+
+	/**
+	 * @param percentile
+	 *            fraction (e.g. {@code 0.95}) of recent queries answered
+	 *            before a hedge is sent
+	 * @param maxHedgedFraction
+	 *            maximal fraction (e.g. {@code 0.05}) of queries which may be
+	 *            hedged
+	 * @param minDelayMillis
+	 *            lower bound of the hedge delay
+	 */
+	public HedgingPolicy(double percentile, double maxHedgedFraction,
+		long minDelayMillis) {
+		checkArgument(percentile > 0 && percentile <= 1,
+			"percentile must be in (0, 1]");
+		checkArgument(maxHedgedFraction >= 0 && maxHedgedFraction <= 1,
+			"maxHedgedFraction must be in [0, 1]");
+		checkArgument(minDelayMillis >= 0, "minDelayMillis must be >= 0");
+		this.percentile = percentile;
+		this.maxHedgedFraction = maxHedgedFraction;
+		this.minDelayMillis = minDelayMillis;
+		this.budgetPerQuery = Math.round(maxHedgedFraction * HEDGE_COST);
+	}
+
+	public double getPercentile() {
+		return percentile;
+	}
+
+	public double getMaxHedgedFraction() {
+		return maxHedgedFraction;
+	}
+
+	public long getMinDelayMillis() {
+		return minDelayMillis;
+	}
+
+	/**
+	 * Returns the number of hedges sent so far.
+	 */
+	public long getHedgeCount() {
+		return hedgeCount.get();
+	}
+
+	/**
+	 * Returns the delay after which a query of type {@code messageType} should
+	 * be hedged, or {@code -1} if too few of its latencies are known.
+	 */
+	public long getDelayMillis(int messageType) {
+		LatencyWindow window = windows.get(messageType);
+		if (window == null || window.delayNanos < 0)
+			return -1;
+		return Math.max(minDelayMillis, (window.delayNanos + 999999) / 1000000);
+	}
+
+	/**
+	 * Records the time in which a query of type {@code messageType} was
+	 * answered in phase 1.
+	 */
+	public void recordLatency(int messageType, long latencyNanos) {
+		LatencyWindow window = windows.get(messageType);
+		if (window == null) {
+			window = new LatencyWindow();
+			LatencyWindow previous = windows.putIfAbsent(messageType, window);
+			if (previous != null)
+				window = previous;
+		}
+		window.record(latencyNanos);
+	}
+
+	/**
+	 * Adds the share of a query to the hedging budget.
+	 */
+	void queryStarted() {
+		long current;
+		do {
+			current = budget.get();
+			if (current >= MAX_BURST * HEDGE_COST)
+				return;
+		} while (!budget.compareAndSet(current, Math.min(MAX_BURST
+			* HEDGE_COST, current + budgetPerQuery)));
+	}
+
+	/**
+	 * Takes a hedge from the budget.
+	 * 
+	 * @return false if the budget is exhausted and the query should not be
+	 *         hedged
+	 */
+	boolean tryHedge() {
+		long current;
+		do {
+			current = budget.get();
+			if (current < HEDGE_COST)
+				return false;
+		} while (!budget.compareAndSet(current, current - HEDGE_COST));
+		hedgeCount.incrementAndGet();
+		return true;
+	}
+
+	private class LatencyWindow {
+
+		private final AtomicLongArray samples = new AtomicLongArray(WINDOW);
+		private final AtomicLong count = new AtomicLong();
+		volatile long delayNanos = -1;
+
+		void record(long latencyNanos) {
+			long n = count.getAndIncrement();
+			samples.set((int) (n % WINDOW), latencyNanos);
+			n++;
+			if (n == MIN_SAMPLES
+				|| (n > MIN_SAMPLES && n % RECOMPUTE_EVERY == 0))
+				recompute((int) Math.min(n, WINDOW));
+		}
+
+		private void recompute(int n) {
+			long[] sorted = new long[n];
+			for (int i = 0; i < n; i++)
+				sorted[i] = samples.get(i);
+			Arrays.sort(sorted);
+			int index = (int) Math.ceil(n * percentile) - 1;
+			delayNanos = sorted[Math.max(0, index)];
+		}
+	}
+}
@@ -16,37 +16,29 @@
 package multiplexer.jmx.client;
 
 import static com.google.common.base.Preconditions.checkState;
-import static multiplexer.jmx.util.Queues.pollUninterruptibly;
 
 import java.net.SocketAddress;
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.List;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 
-import multiplexer.jmx.exceptions.BackendUnreachableException;
 import multiplexer.jmx.exceptions.NoPeerForTypeException;
 import multiplexer.jmx.exceptions.OperationFailedException;
-import multiplexer.jmx.exceptions.OperationTimeoutException;
 import multiplexer.jmx.internal.ConnectionsManager;
-import multiplexer.jmx.util.TimeoutCounter;
+import multiplexer.jmx.internal.MessageReceivedListener;
+import multiplexer.jmx.metrics.Metrics;
 import multiplexer.protocol.Constants.MessageTypes;
 import multiplexer.protocol.Constants.PeerTypes;
-import multiplexer.protocol.Protocol.BackendForPacketSearch;
 import multiplexer.protocol.Protocol.MultiplexerMessage;
 import multiplexer.protocol.Protocol.MultiplexerMessage.Builder;
 
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelFuture;
-import org.jboss.netty.util.Timeout;
-import org.jboss.netty.util.TimerTask;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.protobuf.ByteString;
 
 /**
@@ -61,13 +53,11 @@ import com.google.protobuf.ByteString;
  */
 public class JmxClient {
 
-	private static final Logger logger = LoggerFactory
-		.getLogger(JmxClient.class);
-
 	protected final ConnectionsManager connectionsManager;
 
-	final private ConcurrentMap<Long, BlockingQueue<IncomingMessageData>> queryResponses = new ConcurrentHashMap<Long, BlockingQueue<IncomingMessageData>>();
+	final private ConcurrentMap<Long, MessageReceivedListener> queryResponses = new ConcurrentHashMap<Long, MessageReceivedListener>();
 	final private BlockingQueue<IncomingMessageData> messageQueue = new LinkedBlockingQueue<IncomingMessageData>();
+	private volatile HedgingPolicy hedgingPolicy;
 
 	/**
 	 * Creates a new instance of a specified type ({@code instanceType}). Sets
@@ -89,7 +79,11 @@ public class JmxClient {
 
 	/**
 	 * Begins asynchronously an attempt of connection with the specified {@code
-	 * address}.
+	 * address}. A Multiplexer server running in the same JVM is best connected
+	 * to at its {@link multiplexer.jmx.server.JmxServer#getInVmAddress() in-VM
+	 * address}, over which messages are not serialized. One running on the
+	 * same host may be connected to through shared memory, at a
+	 * {@link SharedMemoryAddress}.
 	 * 
 	 * @param address
 	 * @return a future object which notifies when this connection attempt
@@ -297,6 +291,18 @@ public class JmxClient {
 	 * The algorithm only reads it's own messages. Other messages,
 	 * simultaneously received by the {@code Client}, are not affected.
 	 * 
+	 * If a {@link #setHedgingPolicy(HedgingPolicy) hedging policy} is set, a
+	 * duplicate of the message may be sent in phase 1 and the first answer to
+	 * either of them is returned.
+	 * 
+	 * The messages sent carry {@code deadline}s derived from the {@code
+	 * timeout}, so that Multiplexer servers and backends do not spend time on
+	 * requests the query no longer awaits. The clocks of the hosts involved
+	 * should therefore be synchronized.
+	 * 
+	 * This method blocks until the query completes; see
+	 * {@link #asyncQuery(ByteString, int, long)} for a non-blocking variant.
+	 * 
 	 * @param message
 	 *            the request to be sent over Multiplexer connection
 	 * @param messageType
@@ -315,13 +321,29 @@ public class JmxClient {
 		final int messageType, long timeoutMillis)
 		throws OperationFailedException, NoPeerForTypeException {
 
-		final List<Long> queryMessageIds = new ArrayList<Long>(3);
+		ListenableFuture<IncomingMessageData> query = asyncQuery(message,
+			messageType, timeoutMillis);
+		boolean interrupted = false;
 		try {
-			return query(message, messageType, timeoutMillis, queryMessageIds);
+			while (true) {
+				try {
+					return query.get();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				} catch (ExecutionException e) {
+					Throwable cause = e.getCause();
+					if (cause instanceof OperationFailedException)
+						throw (OperationFailedException) cause;
+					if (cause instanceof NoPeerForTypeException)
+						throw (NoPeerForTypeException) cause;
+					if (cause instanceof RuntimeException)
+						throw (RuntimeException) cause;
+					throw new OperationFailedException(cause);
+				}
+			}
 		} finally {
-			// remove IDs of messages sent during this query from
-			// `queryResponses'
-			removeFromQueryResponses(queryMessageIds, 5, TimeUnit.SECONDS);
+			if (interrupted)
+				Thread.currentThread().interrupt();
 		}
 	}
 
@@ -341,245 +363,72 @@ public class JmxClient {
 	}
 
 	/**
-	 * A {@link JmxClient#query(ByteString, int, long)}, which registers its
-	 * {@code queryQueue} with {@code queryMessageIds} and does not de-register
-	 * it.
+	 * Starts a {@link #query(ByteString, int, long) query} and returns
+	 * immediately. The query proceeds through its phases as responses arrive
+	 * and timeouts expire, without blocking any thread, so a single thread can
+	 * have any number of queries in progress.
 	 * 
+	 * The returned future completes with the answer or fails with an
+	 * {@link OperationFailedException} (when the query times out or there are
+	 * no reachable backends) or a {@link NoPeerForTypeException}. Cancelling
+	 * it abandons the query.
+	 * 
+	 * @param message
+	 *            the request to be sent over Multiplexer connection
+	 * @param messageType
+	 *            type of the request, from which a Multiplexer can deduce the
+	 *            right backend type
+	 * @param timeoutMillis
+	 *            each of the 3 phases of the algorithm has this time limit,
+	 *            measured in milliseconds
+	 * @return a future answer message
 	 * @throws NoPeerForTypeException
+	 *             when there is no Multiplexer connection to send the query
+	 *             through
 	 */
-	protected IncomingMessageData query(final ByteString message,
-		final int messageType, long timeout, List<Long> queryMessageIds)
-		throws OperationFailedException, NoPeerForTypeException {
-
-		final BlockingQueue<IncomingMessageData> queryQueue = new LinkedBlockingQueue<IncomingMessageData>();
-		MultiplexerMessage queryMessage = createMessage(message, messageType);
-		boolean phase1DeliveryError = false;
-		boolean phase3DeliveryError = false;
-		IncomingMessageData backendErrorMessage = null;
-
-		final long queryId = queryMessage.getId();
-
-		// Send queryMessage and wait for the answer to arrive.
-		addMessageIdToQueryResponses(queryId, queryMessageIds, queryQueue);
-		send(queryMessage, SendingMethod.THROUGH_ONE);
-		IncomingMessageData answer = pollUninterruptibly(queryQueue, timeout);
-
-		if (answer != null) {
-			if (answer.getMessage().getType() == MessageTypes.DELIVERY_ERROR) {
-				phase1DeliveryError = true;
-			} else if (answer.getMessage().getType() == MessageTypes.BACKEND_ERROR) {
-				logger.warn("Received BACKEND_ERROR message\n{}", answer);
-				phase1DeliveryError = true;
-				backendErrorMessage = answer;
-			} else {
-				return answer;
-			}
-		}
-
-		MultiplexerMessage backendSearchMessage = makeBackendForPacketSearch(messageType);
-		final long backendSearchMessageId = backendSearchMessage.getId();
-
-		addMessageIdToQueryResponses(backendSearchMessageId, queryMessageIds,
-			queryQueue);
-		int activeBackendSearches = event(backendSearchMessage).size();
-
-		answer = null;
-		long answerFromId;
-		TimeoutCounter timer = new TimeoutCounter(timeout);
-		for (;;) { // The loop breaks by getting the answer or timeout.
-
-			answer = pollUninterruptibly(queryQueue, timer);
-
-			if (answer == null) {
-				throw new OperationTimeoutException("query phase 2 timed out");
-			}
-
-			long references = answer.getMessage().getReferences();
-			int type = answer.getMessage().getType();
-
-			if (type == MessageTypes.DELIVERY_ERROR && references == queryId) {
-				phase1DeliveryError = true;
-				continue;
-			}
-
-			if (type == MessageTypes.BACKEND_ERROR && references == queryId) {
-				phase1DeliveryError = true;
-				backendErrorMessage = answer;
-				logger.warn("Received BACKEND_ERROR message\n{}", answer);
-				continue;
-			}
-
-			if ((type == MessageTypes.DELIVERY_ERROR)
-				|| (type == MessageTypes.BACKEND_ERROR)) {
-				assert references == backendSearchMessageId;
-				if (type == MessageTypes.BACKEND_ERROR) {
-					backendErrorMessage = answer;
-					logger.warn("Received BACKEND_ERROR message\n{}", answer);
-				}
-				activeBackendSearches--;
-				if (activeBackendSearches == 0) {
-					if (backendErrorMessage != null) {
-						return backendErrorMessage;
-					}
-					throw new BackendUnreachableException(
-						"query phase 2 rejected by all peers");
-				}
-				continue;
-			}
-
-			if (references == queryId) {
-				return answer;
-			}
+	public ListenableFuture<IncomingMessageData> asyncQuery(
+		final ByteString message, final int messageType, long timeoutMillis)
+		throws NoPeerForTypeException {
 
-			if (references == backendSearchMessageId) {
-				answerFromId = answer.getMessage().getFrom();
-				MultiplexerMessage backendQueryMessage = createMessage(MultiplexerMessage
-					.newBuilder().setMessage(message).setType(messageType)
-					.setTo(answerFromId));
-
-				final long backendQueryId = backendQueryMessage.getId();
-				addMessageIdToQueryResponses(backendQueryId, queryMessageIds,
-					queryQueue);
-				send(backendQueryMessage, SendingMethod.via(answer
-					.getConnection()));
-
-				answer = null;
-				timer = new TimeoutCounter(timeout);
-				for (;;) { // The loop breaks by getting the answer or timeout.
-
-					answer = pollUninterruptibly(queryQueue, timer);
-
-					if (answer == null) {
-						throw new OperationTimeoutException(
-							"query phase 3 timed out");
-					}
-
-					references = answer.getMessage().getReferences();
-					type = answer.getMessage().getType();
-
-					if (references == backendSearchMessageId) {
-						continue;
-					}
-
-					if ((type != MessageTypes.DELIVERY_ERROR)
-						&& (type != MessageTypes.BACKEND_ERROR)
-						&& ((references == queryId) || (references == backendQueryId))) {
-						return answer;
-					}
-
-					if (references == queryId) {
-						assert (type == MessageTypes.DELIVERY_ERROR)
-							|| (type == MessageTypes.BACKEND_ERROR);
-						if (type == MessageTypes.BACKEND_ERROR) {
-							backendErrorMessage = answer;
-							logger.warn("Received BACKEND_ERROR message\n{}",
-								answer);
-						}
-						if (phase3DeliveryError) {
-							if (backendErrorMessage != null) {
-								return backendErrorMessage;
-							}
-							throw new BackendUnreachableException(
-								"query phases 1 and 3 rejected");
-						} else {
-							phase1DeliveryError = true;
-							continue;
-						}
-					}
-
-					if (references == backendQueryId) {
-						assert (type == MessageTypes.DELIVERY_ERROR)
-							|| (type == MessageTypes.BACKEND_ERROR);
-						if (type == MessageTypes.BACKEND_ERROR) {
-							backendErrorMessage = answer;
-							logger.warn("Received BACKEND_ERROR message\n{}",
-								answer);
-						}
-						if (phase1DeliveryError) {
-							if (backendErrorMessage != null) {
-								return backendErrorMessage;
-							}
-							throw new BackendUnreachableException(
-								"query phases 1 and 3 rejected");
-						} else {
-							phase3DeliveryError = true;
-							continue;
-						}
-					}
-					throw new AssertionError("Unreachable code.");
-				}
-			}
-			throw new AssertionError("Unreachanle code.");
-		}
+		AsyncQuery query = new AsyncQuery(this, message, messageType,
+			timeoutMillis);
+		query.start();
+		return query;
 	}
 
 	/**
-	 * Registers {@code queryQueue} within {@link #queryResponses} at index
-	 * {@code messageId}. If registration is successful, {@code messageId} is
-	 * also added to {@code messageIds} collection, which should be later used
-	 * with {@link #removeFromQueryResponses} to de-register the {@code
-	 * queryQueue}.
-	 * 
-	 * @param messageId
-	 * @param messageIds
+	 * Same as {@link #asyncQuery(ByteString, int, long)} but allows more
+	 * flexible timeout definition.
 	 */
-	private void addMessageIdToQueryResponses(long messageId,
-		Collection<Long> messageIds,
-		BlockingQueue<IncomingMessageData> queryQueue) {
-
-		messageIds.add(messageId);
-		// In case `put' throws, we don't need to remove messageId from
-		// messageIds -- it's OK to have redundant IDs there.
-		queryResponses.put(messageId, queryQueue);
+	public ListenableFuture<IncomingMessageData> asyncQuery(
+		final ByteString message, final int messageType, long timeout,
+		TimeUnit unit) throws NoPeerForTypeException {
+
+		return asyncQuery(message, messageType, unit.toMillis(timeout));
 	}
 
 	/**
-	 * Removes message IDs from {@link JmxClient#queryResponses}. Never throws
-	 * any {@link Exception}.
-	 * 
-	 * @param messageIds
-	 *            IDs to be removed
+	 * Makes responses referencing {@code messageId} delivered to {@code query}
+	 * instead of the queue read by {@link #receive()}.
 	 */
-	private void removeFromQueryResponses(final Collection<Long> messageIds,
-		long delay, TimeUnit unit) {
-		try {
-			TimerTask removalTask = new TimerTask() {
-
-				public void run(Timeout timeout) throws Exception {
-					if (timeout != null && timeout.isCancelled())
-						return;
-					for (long referentId : messageIds) {
-						queryResponses.remove(referentId);
-					}
-				}
-
-			};
+	void registerQuery(long messageId, AsyncQuery query) {
+		queryResponses.put(messageId, query);
+	}
 
-			if (delay == 0) {
-				removalTask.run(null);
-			} else {
-				connectionsManager.getTimer().newTimeout(removalTask, delay,
-					unit);
-			}
-		} catch (Exception e) {
-			logger.warn("Scheduling or executing removalTask failed.", e);
-		}
+	void unregisterQuery(long messageId) {
+		queryResponses.remove(messageId);
 	}
 
 	/**
-	 * Constructs new {@link MultiplexerMessage} searching for backends able to
-	 * handle query of type {@code messageType}.
-	 * 
-	 * @param messageType
-	 *            query type
-	 * @return constructed message
+	 * Returns the policy of hedging queries in phase 1, or {@code null} (the
+	 * default) if queries are not hedged.
 	 */
-	private MultiplexerMessage makeBackendForPacketSearch(final int messageType) {
-		BackendForPacketSearch backendSearch = BackendForPacketSearch
-			.newBuilder().setPacketType(messageType).build();
-		MultiplexerMessage backendSearchMessage = createMessage(backendSearch
-			.toByteString(), MessageTypes.BACKEND_FOR_PACKET_SEARCH);
-		return backendSearchMessage;
+	public HedgingPolicy getHedgingPolicy() {
+		return hedgingPolicy;
+	}
+
+	public void setHedgingPolicy(HedgingPolicy hedgingPolicy) {
+		this.hedgingPolicy = hedgingPolicy;
 	}
 
 	public long getInstanceId() {
@@ -594,6 +443,13 @@ public class JmxClient {
 		connectionsManager.setMultiplexerPassword(multiplexerPassword);
 	}
 
+	/**
+	 * Returns the {@link Metrics} of this client's traffic.
+	 */
+	public Metrics getMetrics() {
+		return connectionsManager.getMetrics();
+	}
+
 	public void shutdown() throws InterruptedException {
 		connectionsManager.shutdown();
 	}
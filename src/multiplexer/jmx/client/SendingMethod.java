@@ -61,7 +61,18 @@ public final class SendingMethod {
 	 */
 	public static ViaConnectionsOfType via(int peerType,
 		RoutingRule.Whom quantity) {
-		return new ViaConnectionsOfType(peerType, quantity);
+		return new ViaConnectionsOfType(peerType, quantity, false, 0);
+	}
+
+	/**
+	 * Send a message to one of the peers of given type, the one the {@code
+	 * affinityKey} is assigned to. Messages sent with equal keys reach the
+	 * same peer as long as the set of connected peers of the type does not
+	 * change.
+	 */
+	public static ViaConnectionsOfType viaAffinity(int peerType,
+		long affinityKey) {
+		return new ViaConnectionsOfType(peerType, ANY, true, affinityKey);
 	}
 
 	private SendingMethod() {
@@ -78,11 +89,16 @@ public final class SendingMethod {
 	public static final class ViaConnectionsOfType {
 		private int peerType;
 		private final RoutingRule.Whom quantity;
+		private final boolean hasAffinityKey;
+		private final long affinityKey;
 
-		private ViaConnectionsOfType(int peerType, RoutingRule.Whom quantity) {
+		private ViaConnectionsOfType(int peerType, RoutingRule.Whom quantity,
+			boolean hasAffinityKey, long affinityKey) {
 			super();
 			this.peerType = peerType;
 			this.quantity = quantity;
+			this.hasAffinityKey = hasAffinityKey;
+			this.affinityKey = affinityKey;
 		}
 
 		public int getPeerType() {
@@ -92,6 +108,18 @@ public final class SendingMethod {
 		public RoutingRule.Whom getQuantity() {
 			return quantity;
 		}
+
+		/**
+		 * Whether the peer is chosen by {@link #getAffinityKey() affinity
+		 * key}, see {@link SendingMethod#viaAffinity(int, long)}.
+		 */
+		public boolean hasAffinityKey() {
+			return hasAffinityKey;
+		}
+
+		public long getAffinityKey() {
+			return affinityKey;
+		}
 	}
 
 	/**
@@ -0,0 +1,60 @@
+// Copyright 2009 Warsaw University, Faculty of Physics
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+package multiplexer.jmx.client;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.File;
+import java.net.SocketAddress;
+
+/**
+ * Address of a Multiplexer server running on the same host and accepting
+ * connections through shared memory in the given {@code directory} (see
+ * {@link multiplexer.jmx.server.JmxServer#setSharedMemoryDirectory}). Frames
+ * are exchanged with the server through a pair of memory-mapped ring files
+ * instead of a TCP socket, see
+ * {@link multiplexer.jmx.internal.SharedMemoryRing}.
+ */
+public class SharedMemoryAddress extends SocketAddress {
+
+	private static final long serialVersionUID = 1L;
+
+	private final File directory;
+
+	public SharedMemoryAddress(File directory) {
+		this.directory = checkNotNull(directory);
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		return obj instanceof SharedMemoryAddress
+			&& directory.equals(((SharedMemoryAddress) obj).directory);
+	}
+
+	@Override
+	public int hashCode() {
+		return directory.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return "shm:" + directory;
+	}
+}
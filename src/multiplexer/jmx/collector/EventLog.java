@@ -0,0 +1,561 @@
+// Copyright 2009 Warsaw University, Faculty of Physics
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+package multiplexer.jmx.collector;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.zip.CRC32;
+
+import multiplexer.jmx.internal.RawMessageFrame;
+
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An append-only log of events (opaque byte arrays tagged with a type and a
+ * timestamp), stored in a directory as a sequence of memory-mapped segment
+ * files. Timestamps of the appended events never decrease, so events can be
+ * looked up by time using a sparse in-memory index of each segment; each
+ * segment also records which event types it (probably) contains.
+ * 
+ * When an event does not fit in the current segment, a new one is started
+ * and the oldest segments are deleted while the log is larger than {@code
+ * maxBytes} or they contain only events older than {@code maxAge}.
+ * 
+ * Each event has an address, stable while the event is retained, which can
+ * be used to read it directly; addresses of later events are greater.
+ * 
+ * Events are appended under a lock, but {@link #read reading} takes no locks
+ * and may be done concurrently with appending. On opening, the segments are
+ * scanned to rebuild their indexes, and the log is truncated after the last
+ * complete event (each event carries its checksum).
+ */
+public class EventLog {
+
+	private static final Logger logger = LoggerFactory
+		.getLogger(EventLog.class);
+
+	/**
+	 * Length, type, timestamp and CRC32 of the data.
+	 */
+	public static final int HEADER_LENGTH = 20;
+
+	static final String SUFFIX = ".events";
+
+	/**
+	 * Minimal distance (in bytes) between events in the sparse time index.
+	 */
+	private static final int INDEX_INTERVAL = 64 * 1024;
+
+	/**
+	 * Size of the per segment bitmap of event types (hashed).
+	 */
+	private static final int TYPE_BITS = 1024;
+
+	/**
+	 * Receives the events read from the log.
+	 */
+	public interface Visitor {
+		/**
+		 * @param data
+		 *            the event's data, between its {@code position} and
+		 *            {@code limit}; valid only during the call
+		 * @return {@code false} to stop reading
+		 */
+		boolean visit(int type, long timestamp, ByteBuffer data)
+			throws Exception;
+	}
+
+	/**
+	 * Receives the events {@link #scan scanned}, with their addresses.
+	 */
+	public interface AddressVisitor {
+		/**
+		 * @param data
+		 *            the event's data, between its {@code position} and
+		 *            {@code limit}; valid only during the call
+		 * @return {@code false} to stop scanning
+		 */
+		boolean visit(long address, int type, long timestamp, ByteBuffer data)
+			throws Exception;
+	}
+
+	private final File directory;
+	private final int segmentSize;
+	private final long maxBytes;
+	private final long maxAgeMillis;
+
+	/**
+	 * Oldest first; the last one is appended to. Replaced, not modified,
+	 * under the lock.
+	 */
+	private volatile Segment[] segments;
+
+	// guarded by this
+	private final CRC32 crc = new CRC32();
+	private long lastTimestamp;
+	private boolean closed;
+
+	/**
+	 * Opens the log stored in the {@code directory}, creating it if needed.
+	 * 
+	 * @param segmentSize
+	 *            size of segment files
+	 * @param maxBytes
+	 *            total size of segment files above which the oldest ones are
+	 *            deleted; {@code 0} means no limit
+	 * @param maxAge
+	 *            age of events after which segments are deleted; {@code 0}
+	 *            means no limit
+	 */
+	public EventLog(File directory, int segmentSize, long maxBytes,
+		long maxAge, TimeUnit unit) throws IOException {
+		if (segmentSize < HEADER_LENGTH)
+			throw new IllegalArgumentException("segmentSize too small: "
+				+ segmentSize);
+		if (!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("Cannot create directory " + directory);
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+		this.maxBytes = maxBytes;
+		this.maxAgeMillis = unit.toMillis(maxAge);
+
+		File[] files = directory.listFiles(new FileFilter() {
+			public boolean accept(File file) {
+				return file.isFile() && file.getName().endsWith(SUFFIX);
+			}
+		});
+		Arrays.sort(files);
+		List<Segment> segments = new ArrayList<Segment>();
+		for (int i = 0; i < files.length; i++) {
+			Segment segment = Segment.open(files[i], i == files.length - 1);
+			if (i < files.length - 1
+				&& segment.capacity - segment.end >= HEADER_LENGTH
+				&& segment.buffer.getLong(segment.end + 8) != 0)
+				logger.warn("{} is corrupted after {} bytes", files[i],
+					segment.end);
+			segments.add(segment);
+		}
+		if (segments.isEmpty())
+			segments.add(Segment.create(file(0), 0, segmentSize));
+		this.segments = segments.toArray(new Segment[segments.size()]);
+		lastTimestamp = active().lastTimestamp;
+		synchronized (this) {
+			enforceRetention();
+		}
+	}
+
+	private File file(long sequence) {
+		return new File(directory, String.format("%020d%s", sequence, SUFFIX));
+	}
+
+	private Segment active() {
+		Segment[] segments = this.segments;
+		return segments[segments.length - 1];
+	}
+
+	/**
+	 * Appends an event with the current time as its timestamp.
+	 * 
+	 * @return address of the event
+	 */
+	public long append(int type, byte[] data) throws IOException {
+		return append(type, System.currentTimeMillis(), data, 0, data.length);
+	}
+
+	/**
+	 * Appends an event. If the {@code timestamp} (in milliseconds) is older
+	 * than that of the last event, the latter is used instead.
+	 * 
+	 * @return address of the event
+	 */
+	public synchronized long append(int type, long timestamp, byte[] data,
+		int offset, int length) throws IOException {
+		if (closed)
+			throw new IllegalStateException("closed");
+		if (timestamp <= 0)
+			throw new IllegalArgumentException("timestamp must be positive: "
+				+ timestamp);
+		if (timestamp < lastTimestamp)
+			timestamp = lastTimestamp;
+
+		Segment segment = active();
+		if (segment.capacity - segment.end < HEADER_LENGTH + length)
+			segment = roll(HEADER_LENGTH + length);
+
+		crc.reset();
+		crc.update(data, offset, length);
+		int position = segment.end;
+		MappedByteBuffer buffer = segment.buffer;
+		buffer.putInt(position, length);
+		buffer.putInt(position + 4, type);
+		buffer.putLong(position + 8, timestamp);
+		buffer.putInt(position + 16, (int) crc.getValue());
+		buffer.position(position + HEADER_LENGTH);
+		buffer.put(data, offset, length);
+		segment.added(position, type, timestamp);
+		// Publishes the event to readers.
+		segment.end = position + HEADER_LENGTH + length;
+		lastTimestamp = timestamp;
+		return address(segment.sequence, position);
+	}
+
+	private static long address(long sequence, int position) {
+		return sequence << 32 | position;
+	}
+
+	/**
+	 * Starts a new segment able to hold at least {@code length} bytes.
+	 */
+	private Segment roll(int length) throws IOException {
+		Segment old = active();
+		old.buffer.force();
+		Segment segment = Segment.create(file(old.sequence + 1),
+			old.sequence + 1, Math.max(segmentSize, length));
+		Segment[] segments = this.segments;
+		Segment[] rolled = new Segment[segments.length + 1];
+		System.arraycopy(segments, 0, rolled, 0, segments.length);
+		rolled[segments.length] = segment;
+		this.segments = rolled;
+		enforceRetention();
+		return segment;
+	}
+
+	/**
+	 * Deletes the oldest segments while the log exceeds its size or age
+	 * limits. The segment being appended to is never deleted.
+	 */
+	public synchronized void enforceRetention() {
+		long now = System.currentTimeMillis();
+		Segment[] segments = this.segments;
+		int first = 0;
+		long size = getSize();
+		while (first < segments.length - 1) {
+			Segment oldest = segments[first];
+			if (!(maxBytes > 0 && size > maxBytes)
+				&& !(maxAgeMillis > 0 && oldest.lastTimestamp < now
+					- maxAgeMillis))
+				break;
+			size -= oldest.capacity;
+			if (!oldest.file.delete())
+				logger.warn("Failed to delete {}", oldest.file);
+			first++;
+		}
+		if (first > 0) {
+			Segment[] retained = new Segment[segments.length - first];
+			System.arraycopy(segments, first, retained, 0, retained.length);
+			this.segments = retained;
+		}
+	}
+
+	/**
+	 * Passes to the {@code visitor}, oldest first, the events with
+	 * timestamps between {@code from} and {@code to} (inclusive) and types in
+	 * {@code types} (or of any type, if it is {@code null} or empty).
+	 */
+	public void read(long from, long to, int[] types, Visitor visitor)
+		throws Exception {
+		if (types != null && types.length == 0)
+			types = null;
+		for (Segment segment : segments) {
+			int end = segment.end;
+			if (end == 0 || segment.lastTimestamp < from)
+				continue;
+			if (segment.firstTimestamp > to)
+				return;
+			if (types != null && !segment.mayContain(types))
+				continue;
+			ByteBuffer buffer = segment.buffer.duplicate();
+			int position = segment.seek(from);
+			while (position < end) {
+				int length = buffer.getInt(position);
+				int type = buffer.getInt(position + 4);
+				long timestamp = buffer.getLong(position + 8);
+				if (timestamp > to)
+					return;
+				int next = position + HEADER_LENGTH + length;
+				if (timestamp >= from && (types == null || contains(types, type))) {
+					buffer.limit(next);
+					buffer.position(position + HEADER_LENGTH);
+					if (!visitor.visit(type, timestamp, buffer))
+						return;
+					buffer.clear();
+				}
+				position = next;
+			}
+		}
+	}
+
+	/**
+	 * Passes to the {@code visitor} the event at the {@code address}.
+	 * 
+	 * @return {@code false} if there is no such event (e.g. it was deleted)
+	 */
+	public boolean read(long address, AddressVisitor visitor) throws Exception {
+		Segment segment = segment(address >>> 32);
+		int position = (int) address;
+		if (segment == null || position < 0
+			|| position > segment.end - HEADER_LENGTH)
+			return false;
+		ByteBuffer buffer = segment.buffer.duplicate();
+		int length = buffer.getInt(position);
+		buffer.limit(position + HEADER_LENGTH + length);
+		buffer.position(position + HEADER_LENGTH);
+		visitor.visit(address, buffer.getInt(position + 4), buffer
+			.getLong(position + 8), buffer);
+		return true;
+	}
+
+	/**
+	 * Passes to the {@code visitor}, oldest first, the events with addresses
+	 * not less than {@code from}.
+	 */
+	public void scan(long from, AddressVisitor visitor) throws Exception {
+		for (Segment segment : segments) {
+			if (segment.sequence < from >>> 32)
+				continue;
+			int end = segment.end;
+			ByteBuffer buffer = segment.buffer.duplicate();
+			int position = 0;
+			while (position < end) {
+				int length = buffer.getInt(position);
+				int next = position + HEADER_LENGTH + length;
+				long address = address(segment.sequence, position);
+				if (address >= from) {
+					buffer.limit(next);
+					buffer.position(position + HEADER_LENGTH);
+					if (!visitor.visit(address, buffer.getInt(position + 4),
+						buffer.getLong(position + 8), buffer))
+						return;
+					buffer.clear();
+				}
+				position = next;
+			}
+		}
+	}
+
+	/**
+	 * Returns the retained segment with the given {@code sequence} number, if
+	 * any.
+	 */
+	private Segment segment(long sequence) {
+		Segment[] segments = this.segments;
+		int low = 0;
+		int high = segments.length - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (segments[mid].sequence < sequence)
+				low = mid + 1;
+			else if (segments[mid].sequence > sequence)
+				high = mid - 1;
+			else
+				return segments[mid];
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the lowest address an event still in the log may have; events
+	 * with lower addresses have been deleted.
+	 */
+	public long getFirstAddress() {
+		return address(segments[0].sequence, 0);
+	}
+
+	private static boolean contains(int[] types, int type) {
+		for (int t : types)
+			if (t == type)
+				return true;
+		return false;
+	}
+
+	/**
+	 * Returns the total size of the segment files.
+	 */
+	public long getSize() {
+		long size = 0;
+		for (Segment segment : segments)
+			size += segment.capacity;
+		return size;
+	}
+
+	public int getSegmentCount() {
+		return segments.length;
+	}
+
+	/**
+	 * Writes the appended events to the disk.
+	 */
+	public synchronized void force() {
+		active().buffer.force();
+	}
+
+	/**
+	 * Writes the appended events to the disk and stops accepting new ones.
+	 * The segment files stay mapped until garbage collected.
+	 */
+	public synchronized void close() {
+		if (closed)
+			return;
+		force();
+		closed = true;
+	}
+
+	private static final class Segment {
+		final File file;
+		final long sequence;
+		final MappedByteBuffer buffer;
+		final int capacity;
+
+		final AtomicLongArray types = new AtomicLongArray(TYPE_BITS / 64);
+		final long[] indexTimestamps;
+		final int[] indexOffsets;
+		volatile int indexSize;
+		int nextIndexed;
+
+		volatile int end;
+		volatile long firstTimestamp;
+		volatile long lastTimestamp;
+
+		private Segment(File file, long sequence, int capacity,
+			boolean writable) throws IOException {
+			this.file = file;
+			this.sequence = sequence;
+			RandomAccessFile raf = new RandomAccessFile(file, writable ? "rw"
+				: "r");
+			try {
+				if (raf.length() < capacity)
+					raf.setLength(capacity);
+				this.capacity = (int) raf.length();
+				// The mapping stays valid after the file is closed.
+				buffer = raf.getChannel().map(
+					writable ? MapMode.READ_WRITE : MapMode.READ_ONLY, 0,
+					this.capacity);
+			} finally {
+				raf.close();
+			}
+			indexTimestamps = new long[this.capacity / INDEX_INTERVAL + 1];
+			indexOffsets = new int[indexTimestamps.length];
+		}
+
+		static Segment create(File file, long sequence, int capacity)
+			throws IOException {
+			return new Segment(file, sequence, capacity, true);
+		}
+
+		static Segment open(File file, boolean writable) throws IOException {
+			String name = file.getName();
+			Segment segment = new Segment(file, Long.parseLong(name.substring(
+				0, name.length() - SUFFIX.length())), 0, writable);
+			segment.recover();
+			return segment;
+		}
+
+		/**
+		 * Scans the events, rebuilding the index, up to the first incomplete
+		 * one.
+		 */
+		private void recover() {
+			int position = 0;
+			while (capacity - position >= HEADER_LENGTH) {
+				int length = buffer.getInt(position);
+				int type = buffer.getInt(position + 4);
+				long timestamp = buffer.getLong(position + 8);
+				int crc = buffer.getInt(position + 16);
+				if (timestamp <= 0 || timestamp < lastTimestamp || length < 0
+					|| length > capacity - position - HEADER_LENGTH)
+					break;
+				ByteBuffer data = buffer.duplicate();
+				data.position(position + HEADER_LENGTH);
+				data.limit(position + HEADER_LENGTH + length);
+				if (crc != (int) RawMessageFrame.getCrc32(ChannelBuffers
+					.wrappedBuffer(data)))
+					break;
+				added(position, type, timestamp);
+				position += HEADER_LENGTH + length;
+			}
+			end = position;
+		}
+
+		/**
+		 * Records in the index the event written at {@code position}.
+		 */
+		void added(int position, int type, long timestamp) {
+			if (firstTimestamp == 0)
+				firstTimestamp = timestamp;
+			lastTimestamp = timestamp;
+			int bit = (type & 0x7fffffff) % TYPE_BITS;
+			long mask = 1L << (bit & 63);
+			if ((types.get(bit >> 6) & mask) == 0) {
+				long bits;
+				do {
+					bits = types.get(bit >> 6);
+				} while (!types.compareAndSet(bit >> 6, bits, bits | mask));
+			}
+			if (position >= nextIndexed) {
+				int i = indexSize;
+				indexTimestamps[i] = timestamp;
+				indexOffsets[i] = position;
+				indexSize = i + 1;
+				nextIndexed = position + INDEX_INTERVAL;
+			}
+		}
+
+		/**
+		 * Returns {@code false} if the segment certainly contains no events
+		 * of the {@code types}.
+		 */
+		boolean mayContain(int[] types) {
+			for (int type : types) {
+				int bit = (type & 0x7fffffff) % TYPE_BITS;
+				if ((this.types.get(bit >> 6) & (1L << (bit & 63))) != 0)
+					return true;
+			}
+			return false;
+		}
+
+		/**
+		 * Returns the offset of an event preceded only by events older than
+		 * {@code from}.
+		 */
+		int seek(long from) {
+			int offset = 0;
+			int low = 0;
+			int high = indexSize - 1;
+			while (low <= high) {
+				int mid = (low + high) >>> 1;
+				if (indexTimestamps[mid] < from) {
+					offset = indexOffsets[mid];
+					low = mid + 1;
+				} else {
+					high = mid - 1;
+				}
+			}
+			return offset;
+		}
+	}
+}
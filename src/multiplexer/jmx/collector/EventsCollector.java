@@ -0,0 +1,156 @@
+// Copyright 2009 Warsaw University, Faculty of Physics
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+package multiplexer.jmx.collector;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.Set;
+
+import multiplexer.jmx.backend.AbstractBackend;
+import multiplexer.jmx.client.ChannelFutureGroup;
+import multiplexer.jmx.client.Connection;
+import multiplexer.jmx.client.SendingMethod;
+import multiplexer.jmx.util.ConcurrentHashSet;
+import multiplexer.protocol.Protocol.MultiplexerMessage;
+import multiplexer.protocol.Protocol.ReplayCollectedEvents;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A backend storing the messages sent to it in an {@link EventLog} and
+ * replaying them on request. Messages of the {@link #collect collected}
+ * types (of all types, if none are given) are appended to the log, tagged
+ * with the time of their receipt. A message of the {@code replayRequestType}
+ * carrying {@link ReplayCollectedEvents} makes the collector send the
+ * matching messages (received between {@code from_timestamp} and {@code
+ * to_timestamp}, in seconds since the epoch) back to the requester, oldest
+ * first, as responses to the request with the original types, payloads and
+ * timestamps.
+ * 
+ * The log is read directly from the mapped segments and at most
+ * {@link #setReplayWindow replayWindow} bytes of replayed messages are
+ * waiting to be written at any time, so a replay of any length takes bounded
+ * memory and proceeds at the pace of the connection.
+ */
+public class EventsCollector extends AbstractBackend {
+
+	private static final Logger logger = LoggerFactory
+		.getLogger(EventsCollector.class);
+
+	private final EventLog log;
+	private final int replayRequestType;
+	private final Set<Integer> collectedTypes = new ConcurrentHashSet<Integer>();
+	private volatile int replayWindow = 4 * 1024 * 1024;
+
+	/**
+	 * @param peerType
+	 *            type of this peer, usually {@code EVENTS_COLLECTOR}
+	 * @param replayRequestType
+	 *            type of messages carrying {@link ReplayCollectedEvents},
+	 *            usually {@code REPLAY_EVENTS_REQUEST}
+	 */
+	public EventsCollector(int peerType, int replayRequestType, EventLog log) {
+		super(peerType);
+		this.replayRequestType = replayRequestType;
+		this.log = log;
+	}
+
+	/**
+	 * Makes the collector store messages of the given {@code type}.
+	 */
+	public void collect(int type) {
+		collectedTypes.add(type);
+	}
+
+	public boolean isCollected(int type) {
+		return type != replayRequestType
+			&& (collectedTypes.isEmpty() || collectedTypes.contains(type));
+	}
+
+	public EventLog getEventLog() {
+		return log;
+	}
+
+	public int getReplayWindow() {
+		return replayWindow;
+	}
+
+	/**
+	 * Sets the number of bytes of replayed messages that may wait to be
+	 * written.
+	 */
+	public void setReplayWindow(int replayWindow) {
+		this.replayWindow = replayWindow;
+	}
+
+	@Override
+	protected void handleMessage(MultiplexerMessage message) throws Exception {
+		if (message.getType() == replayRequestType) {
+			replay(ReplayCollectedEvents.parseFrom(message.getMessage()));
+		} else if (isCollected(message.getType())) {
+			log.append(message.getType(), message.toByteArray());
+		} else {
+			logger.warn("Message of type {} is not collected", message
+				.getType());
+		}
+		noResponse();
+	}
+
+	private void replay(ReplayCollectedEvents request) throws Exception {
+		long from = request.getFromTimestamp() * 1000;
+		long to = request.hasToTimestamp() ? request.getToTimestamp() * 1000 + 999
+			: Long.MAX_VALUE;
+		int[] types = new int[request.getEventTypeCount()];
+		for (int i = 0; i < types.length; i++)
+			types[i] = request.getEventType(i);
+
+		final Connection requester = getLastIncomingRequest().getConnection();
+		final Queue<ChannelFutureGroup> pending = new LinkedList<ChannelFutureGroup>();
+		final Queue<Integer> pendingSizes = new LinkedList<Integer>();
+		final int[] count = new int[1];
+		log.read(from, to, types, new EventLog.Visitor() {
+			private long pendingBytes;
+
+			public boolean visit(int type, long timestamp, ByteBuffer data)
+				throws Exception {
+				byte[] bytes = new byte[data.remaining()];
+				data.get(bytes);
+				MultiplexerMessage event = MultiplexerMessage.parseFrom(bytes);
+				MultiplexerMessage replayed = createResponse(event.getType(),
+					event.getMessage()).setCompression(event.getCompression())
+					.setTimestamp(event.getTimestamp()).build();
+				pending.add(connection.send(replayed, SendingMethod
+					.via(requester)));
+				pendingSizes.add(bytes.length);
+				pendingBytes += bytes.length;
+				count[0]++;
+				// Flow control: wait for the oldest writes to complete.
+				while (pendingBytes > replayWindow) {
+					ChannelFutureGroup oldest = pending.poll();
+					pendingBytes -= pendingSizes.poll();
+					if (!oldest.await().isSuccess()) {
+						logger.warn("Replay to {} aborted", requester);
+						return false;
+					}
+				}
+				return true;
+			}
+		});
+		logger.debug("Replayed {} events to {}", count[0], requester);
+	}
+}
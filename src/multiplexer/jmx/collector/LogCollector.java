@@ -0,0 +1,127 @@
+// Copyright 2009 Warsaw University, Faculty of Physics
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+
+package multiplexer.jmx.collector;
+
+import java.util.List;
+
+import multiplexer.jmx.backend.AbstractBackend;
+import multiplexer.protocol.Protocol.LogEntriesMessage;
+import multiplexer.protocol.Protocol.LoggingMethod;
+import multiplexer.protocol.Protocol.MultiplexerMessage;
+import multiplexer.protocol.Protocol.SearchCollectedLogs;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A backend collecting log entries in a {@link LogStore} and searching them
+ * on request. Messages of the {@code streamType} carry
+ * {@link LogEntriesMessage}s, whose entries are collected; other messages
+ * sent to the collector are collected themselves. Each entry is handled
+ * according to its {@link MultiplexerMessage#getLoggingMethod() logging
+ * method}: {@code FILE} entries are stored and indexed, {@code CONSOLE}
+ * entries are logged.
+ * 
+ * A message of the {@code searchRequestType} carrying
+ * {@link SearchCollectedLogs} is answered with a message of the {@code
+ * searchResponseType} carrying the matching entries in a
+ * {@link LogEntriesMessage}, oldest first. At most {@link #setMaxResults
+ * maxResults} entries are returned, whatever the requested {@code limit}.
+ */
+public class LogCollector extends AbstractBackend {
+
+	private static final Logger logger = LoggerFactory
+		.getLogger(LogCollector.class);
+
+	private final LogStore store;
+	private final int streamType;
+	private final int searchRequestType;
+	private final int searchResponseType;
+	private volatile int maxResults = 10000;
+
+	/**
+	 * @param peerType
+	 *            type of this peer, usually {@code LOG_COLLECTOR}
+	 * @param streamType
+	 *            type of messages carrying {@link LogEntriesMessage}s,
+	 *            usually {@code LOGS_STREAM}
+	 * @param searchRequestType
+	 *            type of messages carrying {@link SearchCollectedLogs},
+	 *            usually {@code SEARCH_COLLECTED_LOGS_REQUEST}
+	 * @param searchResponseType
+	 *            type of the responses, usually {@code
+	 *            SEARCH_COLLECTED_LOGS_RESPONSE}
+	 */
+	public LogCollector(int peerType, int streamType, int searchRequestType,
+		int searchResponseType, LogStore store) {
+		super(peerType);
+		this.streamType = streamType;
+		this.searchRequestType = searchRequestType;
+		this.searchResponseType = searchResponseType;
+		this.store = store;
+	}
+
+	public LogStore getLogStore() {
+		return store;
+	}
+
+	public int getMaxResults() {
+		return maxResults;
+	}
+
+	/**
+	 * Sets the maximal number of entries returned in a response.
+	 */
+	public void setMaxResults(int maxResults) {
+		this.maxResults = maxResults;
+	}
+
+	@Override
+	protected void handleMessage(MultiplexerMessage message) throws Exception {
+		if (message.getType() == searchRequestType) {
+			SearchCollectedLogs request = SearchCollectedLogs
+				.parseFrom(message.getMessage());
+			List<MultiplexerMessage> entries = store.search(request
+				.hasWorkflow() ? request.getWorkflow() : null, request
+				.hasQuery() ? request.getQuery().toStringUtf8() : null,
+				(int) Math.min(request.getOffset() & 0xffffffffL,
+					Integer.MAX_VALUE), (int) Math.min(request.getLimit()
+					& 0xffffffffL, maxResults));
+			reply(createResponse(searchResponseType, LogEntriesMessage
+				.newBuilder().addAllEntry(entries).build().toByteString()));
+			return;
+		}
+		if (message.getType() == streamType) {
+			for (MultiplexerMessage entry : LogEntriesMessage.parseFrom(
+				message.getMessage()).getEntryList())
+				collect(entry);
+		} else {
+			collect(message);
+		}
+		noResponse();
+	}
+
+	private void collect(MultiplexerMessage entry) throws Exception {
+		int method = entry.getLoggingMethod().getNumber();
+		if ((method & LoggingMethod.Values.CONSOLE.getNumber()) != 0)
+			logger.info("{} {}: {}", new Object[] { entry.getType(),
+				entry.getWorkflow().toStringUtf8(),
+				LogStore.MESSAGE.getText(entry) });
+		if ((method & LoggingMethod.Values.FILE.getNumber()) != 0)
+			store.add(entry);
+	}
+}
@@ -0,0 +1,367 @@
+// Copyright 2009 Warsaw University, Faculty of Physics
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+package multiplexer.jmx.collector;
+
+import gnu.trove.TIntArrayList;
+import gnu.trove.TLongArrayList;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import multiplexer.jmx.internal.CompressionHandler;
+import multiplexer.protocol.Protocol.MultiplexerMessage;
+
+import com.google.protobuf.ByteString;
+
+/**
+ * Stores log entries (whole {@link MultiplexerMessage}s) in an
+ * {@link EventLog} and finds them by workflow and by words of a
+ * {@link TextField text field}. Entries are numbered in the order they are
+ * added; the indexes map each workflow and each word to the ascending list
+ * of numbers of entries having it, and the addresses of the entries in the
+ * log are kept in an array indexed by these numbers. A search intersects the
+ * lists from their ends, so finding a page of the newest matching entries
+ * takes time proportional to the length of the shortest list (times the
+ * logarithm of the others) at most, and usually much less.
+ * 
+ * The indexes are kept in memory and rebuilt from the log when the store is
+ * opened. Entries deleted by the retention policy of the log are dropped
+ * from the indexes as soon as an entry is added after their segment was
+ * deleted.
+ * 
+ * Entries are added under an exclusive lock; searches share a lock and may
+ * run concurrently.
+ */
+public class LogStore {
+
+	/**
+	 * Extracts from entries the text whose words are indexed.
+	 */
+	public interface TextField {
+		String getText(MultiplexerMessage entry) throws IOException;
+	}
+
+	/**
+	 * The {@code message} field of the entry, decompressed if needed, as
+	 * UTF-8.
+	 */
+	public static final TextField MESSAGE = new TextField() {
+		public String getText(MultiplexerMessage entry) throws IOException {
+			return CompressionHandler.decompress(entry).getMessage()
+				.toStringUtf8();
+		}
+	};
+
+	/**
+	 * Words longer than this are not indexed.
+	 */
+	static final int MAX_WORD_LENGTH = 64;
+
+	private final EventLog log;
+	private final TextField field;
+
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	// guarded by lock
+	private final TLongArrayList addresses = new TLongArrayList();
+	private final Map<ByteString, TIntArrayList> workflows = new HashMap<ByteString, TIntArrayList>();
+	private final Map<String, TIntArrayList> words = new HashMap<String, TIntArrayList>();
+
+	/**
+	 * Opens a store kept in the {@code log}, indexing the entries already
+	 * there.
+	 * 
+	 * @param field
+	 *            the indexed text of the entries
+	 */
+	public LogStore(EventLog log, TextField field) throws IOException {
+		this.log = log;
+		this.field = field;
+		try {
+			log.scan(0, new EventLog.AddressVisitor() {
+				public boolean visit(long address, int type, long timestamp,
+					ByteBuffer data) throws IOException {
+					byte[] bytes = new byte[data.remaining()];
+					data.get(bytes);
+					index(address, MultiplexerMessage.parseFrom(bytes));
+					return true;
+				}
+			});
+		} catch (IOException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	public EventLog getEventLog() {
+		return log;
+	}
+
+	/**
+	 * Returns the number of entries in the indexes.
+	 */
+	public int size() {
+		lock.readLock().lock();
+		try {
+			return addresses.size();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Stores the {@code entry} and adds it to the indexes.
+	 */
+	public void add(MultiplexerMessage entry) throws IOException {
+		byte[] bytes = entry.toByteArray();
+		List<String> entryWords = words(field.getText(entry));
+		lock.writeLock().lock();
+		try {
+			long address = log.append(entry.getType(), bytes);
+			index(address, entry, entryWords);
+			if (addresses.get(0) < log.getFirstAddress())
+				dropDeleted();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	private void index(long address, MultiplexerMessage entry)
+		throws IOException {
+		index(address, entry, words(field.getText(entry)));
+	}
+
+	private void index(long address, MultiplexerMessage entry,
+		List<String> entryWords) {
+		int number = addresses.size();
+		addresses.add(address);
+		if (entry.hasWorkflow())
+			post(workflows, entry.getWorkflow(), number);
+		for (String word : entryWords)
+			post(words, word, number);
+	}
+
+	private static <K> void post(Map<K, TIntArrayList> index, K key,
+		int number) {
+		TIntArrayList numbers = index.get(key);
+		if (numbers == null) {
+			numbers = new TIntArrayList(4);
+			index.put(key, numbers);
+		} else if (numbers.get(numbers.size() - 1) == number) {
+			// The word is repeated in the entry.
+			return;
+		}
+		numbers.add(number);
+	}
+
+	/**
+	 * Removes from the indexes the entries whose segments were deleted and
+	 * renumbers the remaining ones.
+	 */
+	private void dropDeleted() {
+		long first = log.getFirstAddress();
+		int dropped = addresses.binarySearch(first);
+		if (dropped < 0)
+			dropped = -dropped - 1;
+		addresses.remove(0, dropped);
+		renumber(workflows, dropped);
+		renumber(words, dropped);
+	}
+
+	private static <K> void renumber(Map<K, TIntArrayList> index, int dropped) {
+		for (Iterator<TIntArrayList> i = index.values().iterator(); i
+			.hasNext();) {
+			TIntArrayList numbers = i.next();
+			int first = numbers.binarySearch(dropped);
+			if (first < 0)
+				first = -first - 1;
+			if (first == numbers.size()) {
+				i.remove();
+				continue;
+			}
+			numbers.remove(0, first);
+			for (int j = 0; j < numbers.size(); j++)
+				numbers.setQuick(j, numbers.getQuick(j) - dropped);
+		}
+	}
+
+	/**
+	 * Splits the {@code text} into lower-cased words (maximal sequences of
+	 * letters and digits).
+	 */
+	static List<String> words(String text) {
+		List<String> words = new ArrayList<String>();
+		int length = text.length();
+		int start = -1;
+		for (int i = 0; i <= length; i++) {
+			if (i < length && Character.isLetterOrDigit(text.charAt(i))) {
+				if (start < 0)
+					start = i;
+			} else if (start >= 0) {
+				if (i - start <= MAX_WORD_LENGTH)
+					words.add(text.substring(start, i).toLowerCase());
+				start = -1;
+			}
+		}
+		return words;
+	}
+
+	/**
+	 * Finds the entries of the {@code workflow} containing all words of the
+	 * {@code query}. Of the matching entries, newest first, {@code offset}
+	 * are skipped and up to {@code limit} of the following are returned,
+	 * oldest first.
+	 * 
+	 * @param workflow
+	 *            the workflow of the entries, or {@code null} for any
+	 * @param query
+	 *            words to be found in the {@link TextField text field} of the
+	 *            entries, or {@code null} for any
+	 */
+	public List<MultiplexerMessage> search(ByteString workflow, String query,
+		int offset, int limit) throws IOException {
+		long[] found;
+		lock.readLock().lock();
+		try {
+			found = find(workflow, query, offset, limit);
+		} finally {
+			lock.readLock().unlock();
+		}
+
+		final List<MultiplexerMessage> entries = new ArrayList<MultiplexerMessage>(
+			found.length);
+		EventLog.AddressVisitor reader = new EventLog.AddressVisitor() {
+			public boolean visit(long address, int type, long timestamp,
+				ByteBuffer data) throws IOException {
+				byte[] bytes = new byte[data.remaining()];
+				data.get(bytes);
+				entries.add(MultiplexerMessage.parseFrom(bytes));
+				return true;
+			}
+		};
+		try {
+			// Entries deleted since are skipped.
+			for (int i = found.length - 1; i >= 0; i--)
+				log.read(found[i], reader);
+		} catch (IOException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+		return entries;
+	}
+
+	/**
+	 * Returns the addresses of the matching entries, newest first.
+	 */
+	private long[] find(ByteString workflow, String query, int offset,
+		int limit) {
+		List<TIntArrayList> lists = new ArrayList<TIntArrayList>();
+		if (workflow != null && !workflow.isEmpty())
+			lists.add(workflows.get(workflow));
+		if (query != null)
+			for (String word : words(query))
+				lists.add(words.get(word));
+		if (lists.contains(null) || limit <= 0)
+			return new long[0];
+
+		long[] found = new long[Math.min(limit, addresses.size())];
+		int count = 0;
+		if (lists.isEmpty()) {
+			for (int n = addresses.size() - 1 - offset; n >= 0
+				&& count < found.length; n--)
+				found[count++] = addresses.get(n);
+			return trim(found, count);
+		}
+
+		// The shortest list drives the intersection.
+		Collections.sort(lists, new Comparator<TIntArrayList>() {
+			public int compare(TIntArrayList a, TIntArrayList b) {
+				return a.size() - b.size();
+			}
+		});
+		int[] positions = new int[lists.size()];
+		for (int i = 0; i < positions.length; i++)
+			positions[i] = lists.get(i).size() - 1;
+		int skipped = 0;
+		TIntArrayList shortest = lists.get(0);
+		candidates: for (; positions[0] >= 0; positions[0]--) {
+			int candidate = shortest.getQuick(positions[0]);
+			for (int i = 1; i < positions.length; i++) {
+				positions[i] = seek(lists.get(i), positions[i], candidate);
+				if (positions[i] < 0)
+					break candidates;
+				if (lists.get(i).getQuick(positions[i]) != candidate)
+					continue candidates;
+			}
+			if (skipped < offset) {
+				skipped++;
+			} else {
+				found[count++] = addresses.get(candidate);
+				if (count == found.length)
+					break;
+			}
+		}
+		return trim(found, count);
+	}
+
+	/**
+	 * Returns the position of the greatest number in {@code numbers} not
+	 * greater than {@code number}, looking at positions up to {@code last}.
+	 * Distances probed grow exponentially from {@code last}, so nearby
+	 * numbers are found quickly.
+	 */
+	private static int seek(TIntArrayList numbers, int last, int number) {
+		if (last < 0 || numbers.getQuick(last) <= number)
+			return last;
+		int step = 1;
+		int high = last;
+		int low = last - step;
+		while (low >= 0 && numbers.getQuick(low) > number) {
+			high = low;
+			step <<= 1;
+			low = last - step;
+		}
+		// numbers[high] > number; numbers[low] <= number if low >= 0
+		low = Math.max(low, -1);
+		while (high - low > 1) {
+			int mid = (low + high) >>> 1;
+			if (numbers.getQuick(mid) > number)
+				high = mid;
+			else
+				low = mid;
+		}
+		return low;
+	}
+
+	private static long[] trim(long[] array, int length) {
+		if (length == array.length)
+			return array;
+		long[] trimmed = new long[length];
+		System.arraycopy(array, 0, trimmed, 0, length);
+		return trimmed;
+	}
+}
@@ -0,0 +1,40 @@
+// Copyright 2009 Warsaw University, Faculty of Physics
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+package multiplexer.jmx.exceptions;
+
+/**
+ * Thrown when peers of the requested type are connected, but all of them have
+ * too many messages pending to accept another one.
+ */
+public class PeersSaturatedException extends NoPeerForTypeException {
+
+	private static final long serialVersionUID = 2749311946523164311L;
+
+	public PeersSaturatedException() {
+		super();
+	}
+
+	public PeersSaturatedException(String message, Throwable cause) {
+		super(message, cause);
+	}
+
+	public PeersSaturatedException(String message) {
+		super(message);
+	}
+
+	public PeersSaturatedException(Throwable cause) {
+		super(cause);
+	}
+}
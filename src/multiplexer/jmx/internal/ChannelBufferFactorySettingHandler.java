@@ -18,6 +18,7 @@ package multiplexer.jmx.internal;
 import java.nio.ByteOrder;
 
 import org.jboss.netty.buffer.ChannelBufferFactory;
+import org.jboss.netty.buffer.DirectChannelBufferFactory;
 import org.jboss.netty.buffer.HeapChannelBufferFactory;
 import org.jboss.netty.channel.ChannelEvent;
 import org.jboss.netty.channel.ChannelHandlerContext;
@@ -40,6 +41,13 @@ public class ChannelBufferFactorySettingHandler implements ChannelUpstreamHandle
 	public static final ChannelBufferFactorySettingHandler LITTLE_ENDIAN_BUFFER_FACTORY_SETTER = new ChannelBufferFactorySettingHandler(
 		HeapChannelBufferFactory.getInstance(ByteOrder.LITTLE_ENDIAN));
 
+	/**
+	 * Internal. Sets a factory which allocates small buffers as slices of
+	 * preallocated direct memory chunks.
+	 */
+	public static final ChannelBufferFactorySettingHandler LITTLE_ENDIAN_DIRECT_BUFFER_FACTORY_SETTER = new ChannelBufferFactorySettingHandler(
+		DirectChannelBufferFactory.getInstance(ByteOrder.LITTLE_ENDIAN));
+
 	private final ChannelBufferFactory factory;
 
 	public ChannelBufferFactorySettingHandler(ChannelBufferFactory factory) {
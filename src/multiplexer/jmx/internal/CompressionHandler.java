@@ -0,0 +1,202 @@
+// Copyright 2009 Warsaw University, Faculty of Physics
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+package multiplexer.jmx.internal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import multiplexer.protocol.Protocol.Compression;
+import multiplexer.protocol.Protocol.MultiplexerMessage;
+
+import org.jboss.netty.channel.ChannelDownstreamHandler;
+import org.jboss.netty.channel.ChannelEvent;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelUpstreamHandler;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.MessageEvent;
+
+import com.google.protobuf.ByteString;
+
+/**
+ * Handles {@link MultiplexerMessage#getCompression() compression} of the
+ * {@code message} field. Outgoing {@link MultiplexerMessage}s whose {@code
+ * message} is at least {@code threshold} bytes long are GZIP-compressed;
+ * incoming compressed messages are decompressed before they reach the
+ * {@link MultiplexerProtocolHandler}. {@link RawMultiplexerMessage}s are passed
+ * through untouched in both directions, so the Multiplexer server forwards
+ * compressed messages as they are. {@link Fragments} are not compressed; the
+ * message is compressed before it is split.
+ *
+ * The handler holds per-channel state and must not be shared between
+ * pipelines. The {@code threshold} is adjusted by the {@link ConnectionsManager}
+ * once the CONNECTION_WELCOME messages are exchanged.
+ */
+public class CompressionHandler implements ChannelUpstreamHandler,
+	ChannelDownstreamHandler {
+
+	private static final int BUFFER_SIZE = 8192;
+
+	private volatile int threshold;
+
+	/**
+	 * @param threshold
+	 *            minimal length of the {@code message} field to be compressed;
+	 *            {@code 0} disables compression of outgoing messages
+	 */
+	public CompressionHandler(int threshold) {
+		this.threshold = threshold;
+	}
+
+	public int getThreshold() {
+		return threshold;
+	}
+
+	public void setThreshold(int threshold) {
+		this.threshold = threshold;
+	}
+
+	public void handleUpstream(ChannelHandlerContext ctx, ChannelEvent e)
+		throws Exception {
+
+		if (e instanceof MessageEvent) {
+			MessageEvent me = (MessageEvent) e;
+			if (me.getMessage() instanceof MultiplexerMessage) {
+				MultiplexerMessage message = (MultiplexerMessage) me
+					.getMessage();
+				if (message.getCompression() != Compression.Values.NO_COMPRESSION) {
+					Channels.fireMessageReceived(ctx, decompress(message), me
+						.getRemoteAddress());
+					return;
+				}
+			}
+		}
+		ctx.sendUpstream(e);
+	}
+
+	public void handleDownstream(ChannelHandlerContext ctx, ChannelEvent e)
+		throws Exception {
+
+		int threshold = this.threshold;
+		if (threshold > 0 && e instanceof MessageEvent) {
+			MessageEvent me = (MessageEvent) e;
+			if (me.getMessage() instanceof MultiplexerMessage) {
+				MultiplexerMessage message = (MultiplexerMessage) me
+					.getMessage();
+				if (message.getMessage().size() >= threshold
+					&& message.getCompression() == Compression.Values.NO_COMPRESSION
+					&& !message.hasFragmentedId()) {
+					Channels.write(ctx, e.getFuture(), compress(message), me
+						.getRemoteAddress());
+					return;
+				}
+			}
+		}
+		ctx.sendDownstream(e);
+	}
+
+	/**
+	 * Returns a copy of {@code message} with the {@code message} field
+	 * GZIP-compressed or the {@code message} itself if compression would not
+	 * make it shorter.
+	 */
+	public static MultiplexerMessage compress(MultiplexerMessage message) {
+		if (message.getCompression() != Compression.Values.NO_COMPRESSION)
+			return message;
+		ByteArrayOutputStream out = new ByteArrayOutputStream(Math.min(
+			BUFFER_SIZE, message.getMessage().size()));
+		try {
+			GZIPOutputStream gzip = new GZIPOutputStream(out, BUFFER_SIZE);
+			gzip.write(message.getMessage().toByteArray());
+			gzip.close();
+		} catch (IOException e) {
+			throw new AssertionError(e);
+		}
+		ByteString compressed = ByteString.copyFrom(out.toByteArray());
+		if (compressed.size() >= message.getMessage().size())
+			return message;
+		return MultiplexerMessage.newBuilder(message).setMessage(compressed)
+			.setCompression(Compression.Values.GZIP).build();
+	}
+
+	/**
+	 * Returns a copy of {@code message} with the {@code message} field
+	 * decompressed or the {@code message} itself if it is not compressed.
+	 *
+	 * @throws IOException
+	 *             if the {@code message} field is not a valid GZIP stream
+	 */
+	public static MultiplexerMessage decompress(MultiplexerMessage message)
+		throws IOException {
+		switch (message.getCompression()) {
+		case NO_COMPRESSION:
+			return message;
+		case GZIP:
+			return MultiplexerMessage.newBuilder(message).setMessage(
+				gunzip(message.getMessage())).clearCompression().build();
+		default:
+			throw new IOException("Unsupported compression "
+				+ message.getCompression());
+		}
+	}
+
+	/**
+	 * Returns at most {@code length} leading bytes of the {@code message}
+	 * field of the {@code message}, decompressed if needed. Only as much of a
+	 * compressed field is decompressed as it takes; if it is not a valid
+	 * stream, its leading bytes are returned as they are.
+	 */
+	public static ByteString decompressPrefix(MultiplexerMessage message,
+		int length) {
+		ByteString bytes = message.getMessage();
+		if (message.getCompression() == Compression.Values.GZIP) {
+			try {
+				InputStream in = new GZIPInputStream(bytes.newInput(),
+					BUFFER_SIZE);
+				byte[] prefix = new byte[length];
+				int read = 0;
+				int n;
+				while (read < length
+					&& (n = in.read(prefix, read, length - read)) != -1)
+					read += n;
+				in.close();
+				return ByteString.copyFrom(prefix, 0, read);
+			} catch (IOException e) {
+				// as for the affinity key of a message which is not fragmented
+			}
+		}
+		if (bytes.size() <= length)
+			return bytes;
+		byte[] prefix = new byte[length];
+		bytes.copyTo(prefix, 0, 0, length);
+		return ByteString.copyFrom(prefix);
+	}
+
+	private static ByteString gunzip(ByteString compressed) throws IOException {
+		InputStream in = new GZIPInputStream(compressed.newInput(),
+			BUFFER_SIZE);
+		ByteArrayOutputStream out = new ByteArrayOutputStream(BUFFER_SIZE);
+		byte[] buffer = new byte[BUFFER_SIZE];
+		int read;
+		while ((read = in.read(buffer)) != -1) {
+			out.write(buffer, 0, read);
+		}
+		in.close();
+		return ByteString.copyFrom(out.toByteArray());
+	}
+}
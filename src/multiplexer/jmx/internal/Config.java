@@ -15,6 +15,12 @@
 
 package multiplexer.jmx.internal;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import multiplexer.protocol.Constants.MessageTypes;
+import multiplexer.protocol.Protocol.Priority;
+
 /**
  * @author Kasia Findeisen
  */
@@ -23,6 +29,188 @@ public class Config {
 	public static long INITIAL_READ_IDLE_TIME = 7;
 	public static long INITIAL_WRITE_IDLE_TIME = 3;
 
+	/**
+	 * Compression threshold used for peer types with no explicit
+	 * configuration, see {@link CompressionHandler}. Set with the {@code
+	 * multiplexer.jmx.compressionThreshold} system property; {@code 0} (the
+	 * default) disables compression.
+	 */
+	public static final int DEFAULT_COMPRESSION_THRESHOLD = Integer.getInteger(
+		"multiplexer.jmx.compressionThreshold", 0);
+
+	/**
+	 * Maximal number of messages pending to be sent to a peer of a type with
+	 * no explicit configuration, see {@link OutboundQueueHandler}. Set with
+	 * the {@code multiplexer.jmx.queueSize} system property; {@code 0} (the
+	 * default) means no limit.
+	 */
+	public static final int DEFAULT_QUEUE_SIZE = Integer.getInteger(
+		"multiplexer.jmx.queueSize", 0);
+
+	/**
+	 * Write buffer watermarks (in bytes) of the server's connections. A
+	 * connection with more bytes pending than the high watermark is
+	 * {@link OutboundQueueHandler#isSaturated() saturated} until the pending
+	 * bytes drop below the low watermark.
+	 */
+	public static final int WRITE_BUFFER_HIGH_WATER_MARK = Integer.getInteger(
+		"multiplexer.jmx.writeBufferHighWaterMark", 16 * 1024 * 1024);
+	public static final int WRITE_BUFFER_LOW_WATER_MARK = Integer.getInteger(
+		"multiplexer.jmx.writeBufferLowWaterMark", 8 * 1024 * 1024);
+
+	/**
+	 * Whether channels allocate their buffers (for received data and frame
+	 * headers) from direct memory instead of the heap. Set with the {@code
+	 * multiplexer.jmx.directBuffers} system property.
+	 */
+	public static final boolean DIRECT_BUFFERS = Boolean
+		.getBoolean("multiplexer.jmx.directBuffers");
+
+	/**
+	 * Time window (in microseconds) in which messages written to a channel
+	 * are coalesced into a single write, see {@link WriteCoalescingHandler}.
+	 * Set with the {@code multiplexer.jmx.writeCoalescingMicros} system
+	 * property; {@code 0} (the default) disables coalescing.
+	 */
+	public static final long WRITE_COALESCING_MICROS = Long.getLong(
+		"multiplexer.jmx.writeCoalescingMicros", 0);
+
+	/**
+	 * Number of bytes of coalesced messages which triggers the write before
+	 * the {@link #WRITE_COALESCING_MICROS} window elapses. Set with the
+	 * {@code multiplexer.jmx.writeCoalescingMaxBytes} system property.
+	 */
+	public static final int WRITE_COALESCING_MAX_BYTES = Integer.getInteger(
+		"multiplexer.jmx.writeCoalescingMaxBytes", 16 * 1024);
+
+	/**
+	 * Whether frame checksums are requested to be disabled by default, see
+	 * {@link #isChecksumDisabled()}. Set with the {@code
+	 * multiplexer.jmx.noChecksum} system property.
+	 */
+	public static final boolean DEFAULT_CHECKSUM_DISABLED = Boolean
+		.getBoolean("multiplexer.jmx.noChecksum");
+
+	/**
+	 * Whether each {@link ConnectionsManager} registers its
+	 * {@link multiplexer.jmx.metrics.Metrics Metrics} as platform MBeans when
+	 * constructed. Set with the {@code multiplexer.jmx.mbeans} system
+	 * property. Registered MBeans keep the {@link ConnectionsManager}
+	 * reachable until it is shut down.
+	 */
+	public static final boolean REGISTER_MBEANS = Boolean
+		.getBoolean("multiplexer.jmx.mbeans");
+
+	/**
+	 * Whether {@link multiplexer.jmx.metrics.Metrics Metrics} keep latency
+	 * histograms of each connection, besides those of each message type and
+	 * peer type. Set with the {@code multiplexer.jmx.connectionLatencies}
+	 * system property.
+	 */
+	public static final boolean CONNECTION_LATENCIES = Boolean
+		.getBoolean("multiplexer.jmx.connectionLatencies");
+
+	/**
+	 * Time after which a request sent to a peer chosen by a load aware
+	 * {@link PeerSelectionPolicy} is no longer awaited and is counted in the
+	 * peer's {@link PeerLoad} as answered after that time. Set with the
+	 * {@code multiplexer.jmx.pendingRequestTimeoutMillis} system property.
+	 */
+	public static final long PENDING_REQUEST_TIMEOUT_MILLIS = Long.getLong(
+		"multiplexer.jmx.pendingRequestTimeoutMillis", 10000);
+
+	/**
+	 * Size (in bytes) of each of the two ring files of a connection made
+	 * through a {@link multiplexer.jmx.client.SharedMemoryAddress}, see
+	 * {@link SharedMemoryRing}. Rounded up to a power of two. Set with the
+	 * {@code multiplexer.jmx.sharedMemoryRingSize} system property.
+	 */
+	public static final int SHARED_MEMORY_RING_SIZE = Integer.getInteger(
+		"multiplexer.jmx.sharedMemoryRingSize", 1024 * 1024);
+
+	/**
+	 * Number of times an idle {@link SharedMemoryBridge} polls its rings
+	 * before it starts yielding and then parking, see
+	 * {@link #SHARED_MEMORY_MAX_PARK_MICROS}. Set with the {@code
+	 * multiplexer.jmx.sharedMemorySpins} system property; by default there
+	 * is no spinning on single processor machines, where it only delays the
+	 * other side.
+	 */
+	public static final int SHARED_MEMORY_SPINS = Integer.getInteger(
+		"multiplexer.jmx.sharedMemorySpins", Runtime.getRuntime()
+			.availableProcessors() > 1 ? 20000 : 0);
+
+	/**
+	 * Longest time (in microseconds) an idle {@link SharedMemoryBridge}
+	 * parks between polls of its rings; this bounds the latency of the first
+	 * message after a pause. Set with the {@code
+	 * multiplexer.jmx.sharedMemoryMaxParkMicros} system property.
+	 */
+	public static final long SHARED_MEMORY_MAX_PARK_MICROS = Long.getLong(
+		"multiplexer.jmx.sharedMemoryMaxParkMicros", 1000);
+
+	/**
+	 * Interval (in milliseconds) at which a {@link SharedMemoryAcceptor}
+	 * looks for new connections, and time after which a connection not
+	 * accepted by a Multiplexer server is given up.
+	 */
+	public static final long SHARED_MEMORY_ACCEPT_INTERVAL_MILLIS = 20;
+	public static final long SHARED_MEMORY_CONNECT_TIMEOUT_MILLIS = 3000;
+
+	/**
+	 * Largest number of bytes of a serialized message written to a connection
+	 * at once; larger messages are sent in {@link Fragments}, so that they do
+	 * not hold up other messages written meanwhile. Set with the {@code
+	 * multiplexer.jmx.fragmentSize} system property; {@code 0} disables
+	 * fragmentation.
+	 */
+	public static final int FRAGMENT_SIZE = Integer.getInteger(
+		"multiplexer.jmx.fragmentSize", 64 * 1024);
+
+	/**
+	 * Time (in milliseconds) after which a message with fragments still
+	 * missing is dropped, see {@link FragmentReassembler}.
+	 */
+	public static final long FRAGMENT_TIMEOUT_MILLIS = 60000;
+
+	/**
+	 * Number of leading bytes of a message's (uncompressed) {@code message}
+	 * copied to each of its fragments, so that they are routed with the
+	 * MESSAGE_PREFIX affinity like the message would be; rules with longer
+	 * (or no) prefix lengths route the fragments by the copied bytes only.
+	 * Set with the {@code multiplexer.jmx.fragmentAffinityPrefix} system
+	 * property.
+	 */
+	public static final int FRAGMENT_AFFINITY_PREFIX = Integer.getInteger(
+		"multiplexer.jmx.fragmentAffinityPrefix", 256);
+
+	/**
+	 * Number of bytes of messages written to a connection and not yet sent
+	 * above which further messages wait in the connection's priority lanes,
+	 * see {@link PriorityLanesHandler}. Set with the {@code
+	 * multiplexer.jmx.outboundWindowBytes} system property; {@code 0}
+	 * disables the lanes.
+	 */
+	public static final int OUTBOUND_WINDOW_BYTES = Integer.getInteger(
+		"multiplexer.jmx.outboundWindowBytes", 256 * 1024);
+
+	/**
+	 * Relative numbers of messages of each {@link Priority.Values priority}
+	 * (indexed by its number) sent from a connection's priority lanes while
+	 * all of them are non-empty.
+	 */
+	static final int[] PRIORITY_WEIGHTS = { 1, 4, 16 };
+
+	private volatile boolean checksumDisabled = DEFAULT_CHECKSUM_DISABLED;
+	private final Map<Integer, Integer> compressionThresholds = new ConcurrentHashMap<Integer, Integer>();
+	private final Map<Integer, Integer> queueSizes = new ConcurrentHashMap<Integer, Integer>();
+	private final Map<Integer, Boolean> uncoalescedTypes = new ConcurrentHashMap<Integer, Boolean>();
+	private final Map<Integer, Priority.Values> priorities = new ConcurrentHashMap<Integer, Priority.Values>();
+
+	public Config() {
+		uncoalescedTypes.put(MessageTypes.HEARTBIT, true);
+	}
+
 	public long getReadIdleTime(int peerType) {
 		// for peerType PeerTypes.MULTIPLEXER this should be hard-coded as the
 		// clients don't read the config
@@ -35,4 +223,95 @@ public class Config {
 		return 3;
 	}
 
+	/**
+	 * Returns the minimal length of the {@code message} field of messages
+	 * exchanged with peers of type {@code peerType} that should be compressed.
+	 */
+	public int getCompressionThreshold(int peerType) {
+		Integer threshold = compressionThresholds.get(peerType);
+		if (threshold == null)
+			return DEFAULT_COMPRESSION_THRESHOLD;
+		return threshold;
+	}
+
+	public boolean hasCompressionThreshold(int peerType) {
+		return compressionThresholds.containsKey(peerType);
+	}
+
+	public void setCompressionThreshold(int peerType, int threshold) {
+		compressionThresholds.put(peerType, threshold);
+	}
+
+	/**
+	 * Makes peers of type {@code peerType} use the default compression
+	 * threshold again.
+	 */
+	public void clearCompressionThreshold(int peerType) {
+		compressionThresholds.remove(peerType);
+	}
+
+	/**
+	 * Returns the maximal number of messages pending to be sent to a peer of
+	 * type {@code peerType}.
+	 */
+	public int getQueueSize(int peerType) {
+		Integer queueSize = queueSizes.get(peerType);
+		if (queueSize == null)
+			return DEFAULT_QUEUE_SIZE;
+		return queueSize;
+	}
+
+	public void setQueueSize(int peerType, int queueSize) {
+		queueSizes.put(peerType, queueSize);
+	}
+
+	/**
+	 * Returns false if messages of type {@code messageType} are written out
+	 * immediately, bypassing write coalescing (see
+	 * {@link WriteCoalescingHandler}). Only HEARTBITs bypass it by default.
+	 */
+	public boolean isCoalesced(int messageType) {
+		return !uncoalescedTypes.containsKey(messageType);
+	}
+
+	public void setCoalesced(int messageType, boolean coalesced) {
+		if (coalesced)
+			uncoalescedTypes.remove(messageType);
+		else
+			uncoalescedTypes.put(messageType, true);
+	}
+
+	/**
+	 * Returns the priority of messages of type {@code messageType} which do
+	 * not set their own, see {@link PriorityLanesHandler}. It is NORMAL unless
+	 * set otherwise (in the rules, for the Multiplexer server).
+	 */
+	public Priority.Values getPriority(int messageType) {
+		Priority.Values priority = priorities.get(messageType);
+		if (priority == null)
+			return Priority.Values.NORMAL;
+		return priority;
+	}
+
+	public void setPriority(int messageType, Priority.Values priority) {
+		priorities.put(messageType, priority);
+	}
+
+	public void clearPriority(int messageType) {
+		priorities.remove(messageType);
+	}
+
+	/**
+	 * Returns true if crc32 checksums of frames should not be calculated nor
+	 * verified. Checksums are disabled on a connection only if both peers
+	 * request it in their CONNECTION_WELCOME messages.
+	 */
+	public boolean isChecksumDisabled() {
+		return checksumDisabled;
+	}
+
+	public void setChecksumDisabled(boolean checksumDisabled) {
+		this.checksumDisabled = checksumDisabled;
+	}
+
 }
@@ -19,6 +19,7 @@ import static com.google.common.base.Objects.firstNonNull;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static multiplexer.jmx.util.Channels.awaitSemiInterruptibly;
 
+import java.io.IOException;
 import java.lang.ref.WeakReference;
 import java.net.SocketAddress;
 import java.util.Iterator;
@@ -28,29 +29,41 @@ import java.util.WeakHashMap;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
+import javax.management.JMException;
+
 import multiplexer.jmx.client.ChannelFutureGroup;
 import multiplexer.jmx.client.ChannelFutureSet;
 import multiplexer.jmx.client.Connection;
 import multiplexer.jmx.client.SendingMethod;
+import multiplexer.jmx.client.SharedMemoryAddress;
 import multiplexer.jmx.exceptions.NoPeerForPeerIdException;
 import multiplexer.jmx.exceptions.NoPeerForTypeException;
+import multiplexer.jmx.metrics.Metrics;
 import multiplexer.jmx.util.RecentLongPool;
 import multiplexer.protocol.Constants.MessageTypes;
+import multiplexer.protocol.Protocol.Compression;
 import multiplexer.protocol.Protocol.MultiplexerMessage;
 import multiplexer.protocol.Protocol.WelcomeMessage;
 
 import org.jboss.netty.bootstrap.Bootstrap;
 import org.jboss.netty.bootstrap.ClientBootstrap;
 import org.jboss.netty.bootstrap.ServerBootstrap;
+import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelFactory;
 import org.jboss.netty.channel.ChannelFuture;
 import org.jboss.netty.channel.ChannelFutureListener;
+import org.jboss.netty.channel.ChannelLocal;
 import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.DefaultChannelFuture;
+import org.jboss.netty.channel.DownstreamMessageEvent;
 import org.jboss.netty.channel.group.ChannelGroup;
 import org.jboss.netty.channel.group.DefaultChannelGroup;
+import org.jboss.netty.channel.local.DefaultLocalClientChannelFactory;
+import org.jboss.netty.channel.local.LocalAddress;
 import org.jboss.netty.channel.socket.nio.NioClientSocketChannelFactory;
 import org.jboss.netty.handler.timeout.IdleStateHandler;
 import org.jboss.netty.util.HashedWheelTimer;
@@ -60,6 +73,7 @@ import org.jboss.netty.util.TimerTask;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.protobuf.ByteString;
 import com.google.protobuf.InvalidProtocolBufferException;
 
@@ -94,12 +108,32 @@ public class ConnectionsManager implements MultiplexerProtocolListener {
 	private final long instanceId = new Random().nextLong();
 	private final int instanceType;
 	private final Bootstrap bootstrap;
+	private volatile ClientBootstrap connector;
+	private final ClientBootstrap inVmConnector;
+	private final SharedMemoryConnector sharedMemoryConnector;
 	private final ConnectionsMap connectionsMap = new ConnectionsMap();
 	private MessageReceivedListener messageReceivedListener;
 	private final ChannelFutureSet allPendingChannelFutures = new ChannelFutureSet();
 	private final Timer timer = new HashedWheelTimer();
 	private final Config config = new Config();
+	private final ScheduledExecutorService writeCoalescingScheduler = Config.WRITE_COALESCING_MICROS > 0 ? Executors
+		.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+			.setNameFormat("ConnectionsManager write coalescing")
+			.setDaemon(true).build())
+		: null;
 	private final RecentLongPool recentMsgIds = new RecentLongPool();
+	private final PendingRequests pendingRequests = new PendingRequests(
+		Config.PENDING_REQUEST_TIMEOUT_MILLIS);
+	private final Metrics metrics = new Metrics(
+		Config.CONNECTION_LATENCIES);
+	private final FragmentReassembler fragmentReassembler = new FragmentReassembler(
+		Config.FRAGMENT_TIMEOUT_MILLIS);
+	/**
+	 * Reassemblers of fragments forwarded to peers which do not reassemble
+	 * messages themselves (did not set {@code fragments} in their
+	 * CONNECTION_WELCOMEs); no fragments are sent on channels present here.
+	 */
+	private final ChannelLocal<FragmentReassembler> unfragmentingReassemblers = new ChannelLocal<FragmentReassembler>();
 
 	private final Map<Channel, WeakReference<ChannelFuture>> pendingRegistrations = new WeakHashMap<Channel, WeakReference<ChannelFuture>>();
 
@@ -166,9 +200,22 @@ public class ConnectionsManager implements MultiplexerProtocolListener {
 		this.bootstrap = bootstrap;
 		bootstrap.setOption("tcpNoDelay", true);
 		bootstrap.setOption("keepAlive", true);
-		bootstrap
-			.setPipelineFactory(new ConnectionsManagerChannelPipelineFactory(
-				timer, this));
+		ConnectionsManagerChannelPipelineFactory pipelineFactory = new ConnectionsManagerChannelPipelineFactory(
+			timer, config, writeCoalescingScheduler, metrics, this);
+		bootstrap.setPipelineFactory(pipelineFactory);
+		if (bootstrap instanceof ClientBootstrap)
+			connector = (ClientBootstrap) bootstrap;
+		inVmConnector = new ClientBootstrap(
+			new DefaultLocalClientChannelFactory());
+		inVmConnector.setPipelineFactory(pipelineFactory.inVm());
+		sharedMemoryConnector = new SharedMemoryConnector(pipelineFactory);
+		if (Config.REGISTER_MBEANS) {
+			try {
+				registerMBeans();
+			} catch (JMException e) {
+				logger.warn("Failed to register MBeans of " + this, e);
+			}
+		}
 	}
 
 	public MultiplexerMessage.Builder createMessageBuilder() {
@@ -189,6 +236,28 @@ public class ConnectionsManager implements MultiplexerProtocolListener {
 		return initializeMessageBuilder(message).build();
 	}
 
+	/**
+	 * Sets the {@link ClientBootstrap} used by {@link #asyncConnect} to make
+	 * outgoing connections. A client-side ConnectionsManager uses the
+	 * bootstrap it was constructed with; a server-side one (such as a
+	 * Multiplexer server connecting to other servers) must be given one
+	 * before connecting anywhere. The {@code connector} is released on
+	 * {@link #shutdown()}.
+	 */
+	public void setConnector(ClientBootstrap connector) {
+		connector.setOption("tcpNoDelay", true);
+		connector.setOption("keepAlive", true);
+		this.connector = connector;
+	}
+
+	/**
+	 * Connects to the peer at {@code address}. A {@link LocalAddress} (such
+	 * as the {@link multiplexer.jmx.server.JmxServer#getInVmAddress() in-VM
+	 * address} of a Multiplexer server) is connected to without leaving the
+	 * JVM, over a connection on which messages are passed as objects. A
+	 * {@link SharedMemoryAddress} is connected to through shared memory, see
+	 * {@link SharedMemoryConnector}.
+	 */
 	public ChannelFuture asyncConnect(SocketAddress address) {
 		return asyncConnect(address, 3, TimeUnit.SECONDS);
 	}
@@ -203,9 +272,18 @@ public class ConnectionsManager implements MultiplexerProtocolListener {
 		// address, if connection is lost
 		// In both those cases this is normally done after a delay; prevent
 		// flood of connection attempts in case of `send' performed in a loop.
-		assert bootstrap instanceof ClientBootstrap;
-		ChannelFuture connectOperation = ((ClientBootstrap) bootstrap)
-			.connect(address);
+		ChannelFuture connectOperation;
+		if (address instanceof SharedMemoryAddress) {
+			connectOperation = sharedMemoryConnector
+				.connect((SharedMemoryAddress) address);
+		} else {
+			ClientBootstrap connector = address instanceof LocalAddress ? inVmConnector
+				: this.connector;
+			if (connector == null)
+				throw new IllegalStateException(this
+					+ " has no connector to connect with");
+			connectOperation = connector.connect(address);
+		}
 		final Channel channel = checkNotNull(connectOperation.getChannel());
 		endpointByChannel.put(channel, address);
 
@@ -302,23 +380,50 @@ public class ConnectionsManager implements MultiplexerProtocolListener {
 	private MultiplexerMessage createWelcomeMessage() {
 		if (cachedWelcomeMessage != null)
 			return cachedWelcomeMessage;
-		WelcomeMessage welcomeMessage = WelcomeMessage.newBuilder().setType(
+		cachedWelcomeMessage = createWelcomeMessage(createWelcomeMessageBuilder());
+		return cachedWelcomeMessage;
+	}
+
+	/**
+	 * Creates a welcome message which additionally informs the peer about the
+	 * {@code compressionThreshold} it should use. Used by the Multiplexer
+	 * server only.
+	 */
+	private MultiplexerMessage createWelcomeMessage(int compressionThreshold) {
+		return createWelcomeMessage(createWelcomeMessageBuilder()
+			.setCompressionThreshold(compressionThreshold));
+	}
+
+	private WelcomeMessage.Builder createWelcomeMessageBuilder() {
+		WelcomeMessage.Builder builder = WelcomeMessage.newBuilder().setType(
 			instanceType).setId(instanceId).setMultiplexerPassword(
-			multiplexerPassword).build();
+			multiplexerPassword);
+		if (config.isChecksumDisabled())
+			builder.setNoChecksum(true);
+		return builder.setFragments(true);
+	}
+
+	private MultiplexerMessage createWelcomeMessage(
+		WelcomeMessage.Builder welcomeMessageBuilder) {
+		WelcomeMessage welcomeMessage = welcomeMessageBuilder.build();
 		logger.debug("created welcome message\n{}", welcomeMessage);
 		ByteString message = welcomeMessage.toByteString();
-		cachedWelcomeMessage = createMessage(message,
-			MessageTypes.CONNECTION_WELCOME);
-		return cachedWelcomeMessage;
+		return createMessage(message, MessageTypes.CONNECTION_WELCOME);
 	}
 
 	public void messageReceived(MultiplexerMessage message, Channel channel) {
 
+		metrics.messageReceived(channel, message.getType(), message
+			.getSerializedSize()
+			+ RawMessageFrame.HEADER_LENGTH);
 		if (message.getType() != MessageTypes.CONNECTION_WELCOME
 			&& !recentMsgIds.add(message.getId())) {
+			metrics.duplicateDropped();
 			logger.debug("Duplicate message received and dropped\n{}", message);
 			return;
 		}
+		if (message.hasReferences())
+			pendingRequests.responseReceived(message.getReferences());
 
 		if (message.getType() == MessageTypes.CONNECTION_WELCOME) {
 			WelcomeMessage welcome;
@@ -343,20 +448,66 @@ public class ConnectionsManager implements MultiplexerProtocolListener {
 			}
 
 			int peerType = welcome.getType();
+			OutboundQueueHandler outboundQueue = (OutboundQueueHandler) channel
+				.getPipeline().get("outboundQueueHandler");
 			Channel oldChannel = connectionsMap.add(channel, message.getFrom(),
-				peerType);
+				peerType, outboundQueue);
+			if (outboundQueue != null) {
+				// Read after the channel is added, so that a concurrent
+				// setQueueSize() either is seen here or sees the channel.
+				outboundQueue.setLimit(config.getQueueSize(peerType));
+			}
+			metrics.connectionRegistered(channel, peerType, message.getFrom(),
+				outboundQueue);
 			WeakReference<ChannelFuture> registartionFutureRef;
 			synchronized (pendingRegistrations) {
 				registartionFutureRef = pendingRegistrations.remove(channel);
 			}
+			CompressionHandler compressionHandler = (CompressionHandler) channel
+				.getPipeline().get("compressionHandler");
+			if (!welcome.getFragments()) {
+				unfragmentingReassemblers.set(channel, new FragmentReassembler(
+					Config.FRAGMENT_TIMEOUT_MILLIS));
+			}
+			boolean noChecksum = welcome.getNoChecksum()
+				&& config.isChecksumDisabled();
+			if (noChecksum) {
+				// The peer switches its encoder off only after it receives
+				// our CONNECTION_WELCOME, so stopping verification right away
+				// is safe.
+				setChecksumEnabled(channel, false, true);
+			}
 			if (registartionFutureRef != null) {
-				assert bootstrap instanceof ClientBootstrap : channel;
+				assert connector != null : channel;
+				if (noChecksum) {
+					setChecksumEnabled(channel, false, false);
+				}
+				if (welcome.hasCompressionThreshold()
+					&& compressionHandler != null) {
+					compressionHandler.setThreshold(welcome
+						.getCompressionThreshold());
+				}
 				ChannelFuture registartionFuture = registartionFutureRef.get();
 				if (registartionFuture != null)
 					registartionFuture.setSuccess();
 			} else {
 				assert bootstrap instanceof ServerBootstrap : channel;
-				sendMessage(createWelcomeMessage(), channel);
+				if (compressionHandler != null) {
+					compressionHandler.setThreshold(config
+						.getCompressionThreshold(peerType));
+				}
+				if (config.hasCompressionThreshold(peerType)) {
+					sendMessage(createWelcomeMessage(config
+						.getCompressionThreshold(peerType)), channel);
+				} else {
+					sendMessage(createWelcomeMessage(), channel);
+				}
+				if (noChecksum) {
+					// Our CONNECTION_WELCOME has been encoded (with a
+					// checksum) in this thread, the peer verifies no frames
+					// that follow it.
+					setChecksumEnabled(channel, false, false);
+				}
 			}
 
 			channel.getPipeline().replace(
@@ -387,6 +538,81 @@ public class ConnectionsManager implements MultiplexerProtocolListener {
 		}
 	}
 
+	/**
+	 * Switches calculation (if {@code upstream} is false) or verification (if
+	 * {@code upstream} is true) of frame checksums on the {@code channel}.
+	 */
+	private static void setChecksumEnabled(Channel channel, boolean enabled,
+		boolean upstream) {
+		// Looked up by class, as lookups by name do not see handlers replaced
+		// under the same name (see ServerChannelPipelineFactory).
+		if (upstream) {
+			RawMessageFrameDecoder decoder = channel.getPipeline().get(
+				RawMessageFrameDecoder.class);
+			if (decoder != null)
+				decoder.setChecksumEnabled(enabled);
+		} else {
+			RawMessageFrameEncoder encoder = channel.getPipeline().get(
+				RawMessageFrameEncoder.class);
+			if (encoder != null)
+				encoder.setChecksumEnabled(enabled);
+		}
+	}
+
+	public void messageReceived(RawMultiplexerMessage message, Channel channel) {
+
+		if (message.getType() == MessageTypes.CONNECTION_WELCOME) {
+			// Welcome messages are rare and need to be fully parsed anyway.
+			messageReceived(message.getMessage(), channel);
+			return;
+		}
+
+		metrics.messageReceived(channel, message.getType(), message
+			.getFrameLength());
+		if (!recentMsgIds.add(message.getId())) {
+			metrics.duplicateDropped();
+			logger.debug("Duplicate message received and dropped\n{}", message);
+			return;
+		}
+		if (message.hasReferences())
+			pendingRequests.responseReceived(message.getReferences());
+
+		if (message.getType() == MessageTypes.HEARTBIT) {
+			// Ignored, functionality of HEARTBITs handled by the pipeline.
+
+		} else {
+			if (!fireOnMessageReceived(message, channel)) {
+				logger.debug(
+					"A message received while no listener is registered:\n{}",
+					message);
+			}
+		}
+	}
+
+	/**
+	 * Returns the {@link Config} used by this {@link ConnectionsManager}.
+	 */
+	public Config getConfig() {
+		return config;
+	}
+
+	/**
+	 * Returns the {@link Metrics} of this {@link ConnectionsManager}'s
+	 * traffic.
+	 */
+	public Metrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Registers the {@link Metrics} of this {@link ConnectionsManager} as
+	 * platform MBeans, until it is shut down. Done on construction if the
+	 * {@code multiplexer.jmx.mbeans} system property is set.
+	 */
+	public void registerMBeans() throws JMException {
+		metrics.registerMBeans(instanceType + "-" + Long.toHexString(instanceId));
+	}
+
 	public MessageReceivedListener getMessageReceivedListener() {
 		return messageReceivedListener;
 	}
@@ -401,29 +627,251 @@ public class ConnectionsManager implements MultiplexerProtocolListener {
 
 	private boolean fireOnMessageReceived(MultiplexerMessage message,
 		Channel channel) {
+		if (message.hasFragmentedId()) {
+			try {
+				message = fragmentReassembler.add(message);
+			} catch (IOException e) {
+				logger.warn("Fragment received from " + channel
+					+ " dropped: " + e.getMessage());
+				return true;
+			}
+			if (message == null)
+				return true;
+		}
 		if (messageReceivedListener != null) {
+			long start = System.nanoTime();
 			messageReceivedListener.onMessageReceived(message, new Connection(
 				channel));
+			metrics.messageHandled(channel, message.getType(), System
+				.nanoTime()
+				- start);
 			return true;
 		} else {
 			return false;
 		}
 	}
 
-	private ChannelFuture sendMessage(MultiplexerMessage message,
+	private boolean fireOnMessageReceived(RawMultiplexerMessage message,
 		Channel channel) {
-		ChannelFuture cf = channel.write(message);
+		MessageReceivedListener messageReceivedListener = this.messageReceivedListener;
+		if (messageReceivedListener instanceof RawMessageReceivedListener) {
+			long start = System.nanoTime();
+			((RawMessageReceivedListener) messageReceivedListener)
+				.onMessageReceived(message, new Connection(channel));
+			metrics.messageHandled(channel, message.getType(), System
+				.nanoTime()
+				- start);
+			return true;
+		} else {
+			return fireOnMessageReceived(message.getMessage(), channel);
+		}
+	}
+
+	/**
+	 * Writes a {@link MultiplexerMessage} or a {@link RawMultiplexerMessage}
+	 * to the {@code channel}, in {@link Fragments} if it is larger than
+	 * {@link Config#FRAGMENT_SIZE} and the {@code channel} transmits frames to
+	 * a peer which reassembles them.
+	 */
+	private ChannelFuture sendMessage(Object message, Channel channel) {
+		FragmentReassembler unfragmenting = unfragmentingReassemblers
+			.get(channel);
+		if (unfragmenting != null)
+			return sendUnfragmented(message, channel, unfragmenting);
+		if (Config.FRAGMENT_SIZE <= 0
+			|| channel.getPipeline().get(RawMessageFrameEncoder.class) == null)
+			return write(message, channel);
+
+		MultiplexerMessage parsed;
+		byte[] serialized;
+		if (message instanceof RawMultiplexerMessage) {
+			RawMultiplexerMessage raw = (RawMultiplexerMessage) message;
+			if (raw.hasFragmentedId()
+				|| raw.getFrameLength() - RawMessageFrame.HEADER_LENGTH <= Config.FRAGMENT_SIZE)
+				return write(message, channel);
+			parsed = raw.getMessage();
+			ChannelBuffer payload = raw.getPayload().duplicate();
+			serialized = new byte[payload.readableBytes()];
+			payload.readBytes(serialized);
+		} else {
+			parsed = (MultiplexerMessage) message;
+			if (parsed.hasFragmentedId()
+				|| parsed.getSerializedSize() <= Config.FRAGMENT_SIZE)
+				return write(message, channel);
+			// The message is compressed as a whole; the CompressionHandler
+			// does not compress fragments.
+			CompressionHandler compressionHandler = (CompressionHandler) channel
+				.getPipeline().get("compressionHandler");
+			int threshold = compressionHandler == null ? 0
+				: compressionHandler.getThreshold();
+			if (threshold > 0 && parsed.getMessage().size() >= threshold
+				&& parsed.getCompression() == Compression.Values.NO_COMPRESSION) {
+				parsed = CompressionHandler.compress(parsed);
+				if (parsed.getSerializedSize() <= Config.FRAGMENT_SIZE)
+					return write(parsed, channel);
+			}
+			serialized = parsed.toByteArray();
+		}
+		FragmentWriter writer = new FragmentWriter(channel, Fragments.split(
+			parsed, serialized, Config.FRAGMENT_SIZE));
+		allPendingChannelFutures.add(writer.future);
+		writer.writeNext();
+		return writer.future;
+	}
+
+	/**
+	 * Writes the {@code message} to the {@code channel} of a peer which does
+	 * not reassemble fragments; fragments are collected and the message is
+	 * written once they all have been.
+	 */
+	private ChannelFuture sendUnfragmented(Object message, Channel channel,
+		FragmentReassembler reassembler) {
+		MultiplexerMessage fragment;
+		if (message instanceof RawMultiplexerMessage) {
+			if (!((RawMultiplexerMessage) message).hasFragmentedId())
+				return write(message, channel);
+			fragment = ((RawMultiplexerMessage) message).getMessage();
+		} else {
+			fragment = (MultiplexerMessage) message;
+			if (!fragment.hasFragmentedId())
+				return write(message, channel);
+		}
+		try {
+			MultiplexerMessage reassembled = reassembler.add(fragment);
+			if (reassembled == null)
+				return Channels.succeededFuture(channel);
+			return write(reassembled, channel);
+		} catch (IOException e) {
+			return Channels.failedFuture(channel, e);
+		}
+	}
+
+	/**
+	 * Writes fragments to a channel one at a time, each after the previous
+	 * one has been written, so that other messages can be written in between.
+	 */
+	private class FragmentWriter implements ChannelFutureListener {
+		private final Channel channel;
+		private final Iterator<MultiplexerMessage> fragments;
+		final ChannelFuture future;
+
+		FragmentWriter(Channel channel, Iterable<MultiplexerMessage> fragments) {
+			this.channel = channel;
+			this.fragments = fragments.iterator();
+			this.future = Channels.future(channel, true);
+		}
+
+		/**
+		 * Writes fragments until one is not written immediately (iterating
+		 * instead of recursing from {@link #operationComplete}).
+		 */
+		void writeNext() {
+			while (fragments.hasNext()) {
+				ChannelFuture cf = write(fragments.next(), channel);
+				if (!cf.isDone()) {
+					cf.addListener(this);
+					return;
+				}
+				if (!completed(cf))
+					return;
+			}
+			future.setSuccess();
+		}
+
+		public void operationComplete(ChannelFuture cf) {
+			if (completed(cf))
+				writeNext();
+		}
+
+		private boolean completed(ChannelFuture cf) {
+			if (cf.isSuccess())
+				return true;
+			if (cf.isCancelled())
+				future.cancel();
+			else
+				future.setFailure(cf.getCause());
+			return false;
+		}
+	}
+
+	/**
+	 * Writes a {@link MultiplexerMessage} or a {@link RawMultiplexerMessage}
+	 * to the {@code channel} as a single frame.
+	 */
+	private ChannelFuture write(Object message, Channel channel) {
+		int type;
+		int bytes;
+		if (message instanceof RawMultiplexerMessage) {
+			type = ((RawMultiplexerMessage) message).getType();
+			bytes = ((RawMultiplexerMessage) message).getFrameLength();
+		} else {
+			type = ((MultiplexerMessage) message).getType();
+			bytes = ((MultiplexerMessage) message).getSerializedSize()
+				+ RawMessageFrame.HEADER_LENGTH;
+		}
+		metrics.messageSent(channel, type, bytes);
+		ChannelFuture cf = new WriteFuture(channel, type, metrics);
+		channel.getPipeline().sendDownstream(
+			new DownstreamMessageEvent(channel, cf, message, null));
 		allPendingChannelFutures.add(cf);
 		return cf;
 	}
 
+	/**
+	 * The future of a {@link #write}, which records the write latency in the
+	 * {@link Metrics} when it succeeds. It replaces the future
+	 * {@link Channel#write(Object)} would create, so timing a write costs no
+	 * extra listener.
+	 */
+	private static final class WriteFuture extends DefaultChannelFuture {
+		private final int type;
+		private final Metrics metrics;
+		private final long start = System.nanoTime();
+
+		WriteFuture(Channel channel, int type, Metrics metrics) {
+			super(channel, false);
+			this.type = type;
+			this.metrics = metrics;
+		}
+
+		@Override
+		public boolean setSuccess() {
+			metrics.messageWritten(getChannel(), type, System.nanoTime()
+				- start);
+			return super.setSuccess();
+		}
+	}
+
 	public ChannelFutureGroup sendMessage(MultiplexerMessage message,
 		SendingMethod.ViaConnectionsOfType method)
 		throws NoPeerForTypeException {
+		return sendObject(message, method);
+	}
+
+	/**
+	 * Same as {@link #sendMessage(MultiplexerMessage, SendingMethod.ViaConnectionsOfType)}
+	 * but sends out the {@code message}'s original frame.
+	 */
+	public ChannelFutureGroup sendMessage(RawMultiplexerMessage message,
+		SendingMethod.ViaConnectionsOfType method)
+		throws NoPeerForTypeException {
+		return sendObject(message, method);
+	}
+
+	private ChannelFutureGroup sendObject(Object message,
+		SendingMethod.ViaConnectionsOfType method)
+		throws NoPeerForTypeException {
 
 		if (method.getQuantity() == SendingMethod.ANY) {
 			Channel channel;
-			channel = connectionsMap.getAny(method.getPeerType());
+			if (method.hasAffinityKey())
+				channel = connectionsMap.getByKey(method.getPeerType(), method
+					.getAffinityKey());
+			else
+				channel = connectionsMap.getAny(method.getPeerType());
+			if (connectionsMap.getSelectionPolicy(method.getPeerType())
+				.isLoadAware())
+				trackRequest(message, channel);
 			return new ChannelFutureGroup(sendMessage(message, channel));
 
 		} else if (method.getQuantity() == SendingMethod.ALL) {
@@ -440,6 +888,48 @@ public class ConnectionsManager implements MultiplexerProtocolListener {
 		throw new RuntimeException("Unsupported SendingMethod");
 	}
 
+	private void trackRequest(Object message, Channel channel) {
+		long id;
+		if (message instanceof RawMultiplexerMessage) {
+			if (!((RawMultiplexerMessage) message).hasId())
+				return;
+			id = ((RawMultiplexerMessage) message).getId();
+		} else {
+			if (!((MultiplexerMessage) message).hasId())
+				return;
+			id = ((MultiplexerMessage) message).getId();
+		}
+		PeerLoad load = connectionsMap.getLoad(channel);
+		if (load != null)
+			pendingRequests.requestSent(id, load);
+	}
+
+	/**
+	 * Sets the maximal number of messages pending to be sent to a peer of
+	 * type {@code peerType}, both for the peers connected now and for those
+	 * connecting later.
+	 */
+	public void setQueueSize(int peerType, int queueSize) {
+		config.setQueueSize(peerType, queueSize);
+		connectionsMap.setQueueLimit(peerType, queueSize);
+	}
+
+	/**
+	 * Sets the policy used to choose one of the peers of type {@code
+	 * peerType} for messages sent to ANY of them.
+	 */
+	public void setSelectionPolicy(int peerType, PeerSelectionPolicy policy) {
+		connectionsMap.setSelectionPolicy(peerType, policy);
+	}
+
+	/**
+	 * Returns the {@link PeerLoad} of the peer connected through the {@code
+	 * connection} or {@code null} if it has not introduced itself (yet).
+	 */
+	public PeerLoad getPeerLoad(Connection connection) {
+		return connectionsMap.getLoad(connection.getChannel());
+	}
+
 	public ChannelFutureGroup sendMessage(MultiplexerMessage message,
 		SendingMethod.ViaConnection method) {
 		return new ChannelFutureGroup(sendMessage(message, method
@@ -453,6 +943,19 @@ public class ConnectionsManager implements MultiplexerProtocolListener {
 			.getByPeerId(method.getPeerId())));
 	}
 
+	public ChannelFutureGroup sendMessage(RawMultiplexerMessage message,
+		SendingMethod.ViaConnection method) {
+		return new ChannelFutureGroup(sendMessage(message, method
+			.getConnection().getChannel()));
+	}
+
+	public ChannelFutureGroup sendMessage(RawMultiplexerMessage message,
+		SendingMethod.ViaPeer method) throws NoPeerForPeerIdException {
+
+		return new ChannelFutureGroup(sendMessage(message, connectionsMap
+			.getByPeerId(method.getPeerId())));
+	}
+
 	public void flushAll() throws InterruptedException {
 		copyActiveChannelFutures().await();
 	}
@@ -473,6 +976,29 @@ public class ConnectionsManager implements MultiplexerProtocolListener {
 		}
 	}
 
+	/**
+	 * Returns the Id of the peer connected through the {@code connection} or
+	 * {@code null} if it has not introduced itself (yet).
+	 */
+	public Long getPeerId(Connection connection) {
+		return connectionsMap.getChannelPeerId(connection.getChannel());
+	}
+
+	/**
+	 * Returns the type of the peer connected through the {@code connection}
+	 * or {@code null} if it has not introduced itself (yet).
+	 */
+	public Integer getPeerType(Connection connection) {
+		return connectionsMap.getChannelPeerType(connection.getChannel());
+	}
+
+	/**
+	 * Returns the types of all connected peers, by their Ids.
+	 */
+	public Map<Long, Integer> getConnectedPeers() {
+		return connectionsMap.getPeerTypes();
+	}
+
 	public Timer getTimer() {
 		return timer;
 	}
@@ -515,7 +1041,15 @@ public class ConnectionsManager implements MultiplexerProtocolListener {
 		}
 		allChannels.addAll(connectionsMap.getAllChannels());
 		awaitSemiInterruptibly(allChannels.close(), 3);
+		if (writeCoalescingScheduler != null) {
+			writeCoalescingScheduler.shutdownNow();
+			writeCoalescingScheduler.awaitTermination(1, TimeUnit.SECONDS);
+		}
 		bootstrap.releaseExternalResources();
+		ClientBootstrap connector = this.connector;
+		if (connector != null && connector != bootstrap)
+			connector.releaseExternalResources();
+		metrics.unregisterMBeans();
 	}
 
 	@Override
@@ -15,8 +15,10 @@
 
 package multiplexer.jmx.internal;
 
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
+import multiplexer.jmx.metrics.Metrics;
 import multiplexer.protocol.Protocol;
 
 import org.jboss.netty.channel.ChannelPipeline;
@@ -35,21 +37,27 @@ public class ConnectionsManagerChannelPipelineFactory implements
 
 	// helpers
 	private final Timer timer;
+	private final Config config;
+	private final ScheduledExecutorService writeCoalescingScheduler;
 
 	// Encoders
-	private static final RawMessageFrameEncoder rawMessageEncoder = new RawMessageFrameEncoder();
 	private static final ProtobufEncoder multiplexerMessageEncoder = new ProtobufEncoder();
 	// Decoders
 	private static final ProtobufDecoder multiplexerMessageDecoder = new ProtobufDecoder(
 		Protocol.MultiplexerMessage.getDefaultInstance());
+	private static final InVmMessageDecoder inVmMessageDecoder = new InVmMessageDecoder();
 	// Heartbits
-	private static final HeartbitHandler heartbitHandler = new HeartbitHandler();
+	private final HeartbitHandler heartbitHandler;
 	// Protocol handler
 	private final MultiplexerProtocolHandler multiplexerProtocolHandler;
 
-	ConnectionsManagerChannelPipelineFactory(Timer timer,
+	ConnectionsManagerChannelPipelineFactory(Timer timer, Config config,
+		ScheduledExecutorService writeCoalescingScheduler, Metrics metrics,
 		MultiplexerProtocolListener protocolListener) {
 		this.timer = timer;
+		this.config = config;
+		this.writeCoalescingScheduler = writeCoalescingScheduler;
+		heartbitHandler = new HeartbitHandler(metrics);
 		multiplexerProtocolHandler = new MultiplexerProtocolHandler(
 			protocolListener);
 	}
@@ -61,10 +69,19 @@ public class ConnectionsManagerChannelPipelineFactory implements
 		pipeline
 			.addFirst(
 				"littleEndianEndiannessSetter",
-				ChannelBufferFactorySettingHandler.LITTLE_ENDIAN_BUFFER_FACTORY_SETTER);
+				Config.DIRECT_BUFFERS ? ChannelBufferFactorySettingHandler.LITTLE_ENDIAN_DIRECT_BUFFER_FACTORY_SETTER
+					: ChannelBufferFactorySettingHandler.LITTLE_ENDIAN_BUFFER_FACTORY_SETTER);
+
+		// Write coalescing
+		if (writeCoalescingScheduler != null) {
+			pipeline.addLast("writeCoalescingHandler",
+				new WriteCoalescingHandler(config, writeCoalescingScheduler,
+					Config.WRITE_COALESCING_MICROS, TimeUnit.MICROSECONDS,
+					Config.WRITE_COALESCING_MAX_BYTES));
+		}
 
 		// Encoders
-		pipeline.addLast("rawMessageEncoder", rawMessageEncoder);
+		pipeline.addLast("rawMessageEncoder", new RawMessageFrameEncoder());
 		pipeline
 			.addLast("multiplexerMessageEncoder", multiplexerMessageEncoder);
 
@@ -73,6 +90,10 @@ public class ConnectionsManagerChannelPipelineFactory implements
 		pipeline
 			.addLast("multiplexerMessageDecoder", multiplexerMessageDecoder);
 
+		// Compression
+		pipeline.addLast("compressionHandler", new CompressionHandler(
+			Config.DEFAULT_COMPRESSION_THRESHOLD));
+
 		// Heartbits
 		pipeline.addLast("idleHandler", new IdleStateHandler(timer,
 			Config.INITIAL_READ_IDLE_TIME, Config.INITIAL_WRITE_IDLE_TIME,
@@ -80,6 +101,12 @@ public class ConnectionsManagerChannelPipelineFactory implements
 
 		pipeline.addLast("heartbitHandler", heartbitHandler);
 
+		// Priorities
+		if (Config.OUTBOUND_WINDOW_BYTES > 0) {
+			pipeline.addLast("priorityLanesHandler", new PriorityLanesHandler(
+				config, Config.OUTBOUND_WINDOW_BYTES));
+		}
+
 		// Protocol handler
 		pipeline.addLast("multiplexerProtocolHandler",
 			multiplexerProtocolHandler);
@@ -87,4 +114,46 @@ public class ConnectionsManagerChannelPipelineFactory implements
 		return pipeline;
 	}
 
+	/**
+	 * Returns a pipeline of a connection with a peer in the same JVM, made
+	 * with {@link org.jboss.netty.channel.local local channels}. Messages are
+	 * passed over such a connection as objects, so the pipeline has no
+	 * framing, checksums, serialization nor write coalescing. Compressed
+	 * messages (forwarded by the Multiplexer server from remote peers) are
+	 * decompressed, but outgoing messages are never compressed.
+	 */
+	public ChannelPipeline getInVmPipeline() {
+		ChannelPipeline pipeline = Channels.pipeline();
+
+		// Decoders
+		pipeline.addLast("inVmMessageDecoder", inVmMessageDecoder);
+
+		// Compression; not named "compressionHandler", so that the threshold
+		// is not set when CONNECTION_WELCOMEs are exchanged.
+		pipeline.addLast("decompressionHandler", new CompressionHandler(0));
+
+		// Heartbits
+		pipeline.addLast("idleHandler", new IdleStateHandler(timer,
+			Config.INITIAL_READ_IDLE_TIME, Config.INITIAL_WRITE_IDLE_TIME,
+			Long.MAX_VALUE, TimeUnit.SECONDS));
+
+		pipeline.addLast("heartbitHandler", heartbitHandler);
+
+		// Protocol handler
+		pipeline.addLast("multiplexerProtocolHandler",
+			multiplexerProtocolHandler);
+
+		return pipeline;
+	}
+
+	/**
+	 * Returns a factory of {@link #getInVmPipeline() in-VM pipelines}.
+	 */
+	public ChannelPipelineFactory inVm() {
+		return new ChannelPipelineFactory() {
+			public ChannelPipeline getPipeline() {
+				return getInVmPipeline();
+			}
+		};
+	}
 }
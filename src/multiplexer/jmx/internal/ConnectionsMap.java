@@ -15,14 +15,20 @@
 
 package multiplexer.jmx.internal;
 
+import gnu.trove.TIntObjectHashMap;
+import gnu.trove.TLongObjectHashMap;
+
 import java.lang.ref.WeakReference;
+import java.util.HashMap;
 import java.util.Iterator;
-import java.util.List;
 import java.util.Map;
 import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import multiplexer.jmx.exceptions.NoPeerForPeerIdException;
 import multiplexer.jmx.exceptions.NoPeerForTypeException;
+import multiplexer.jmx.exceptions.PeersSaturatedException;
 import multiplexer.protocol.Constants.PeerTypes;
 
 import org.jboss.netty.channel.Channel;
@@ -31,9 +37,7 @@ import org.jboss.netty.channel.ChannelFutureListener;
 import org.jboss.netty.channel.group.ChannelGroup;
 import org.jboss.netty.channel.group.DefaultChannelGroup;
 
-import com.google.common.collect.BiMap;
-import com.google.common.collect.HashBiMap;
-import com.google.common.collect.LinkedListMultimap;
+import com.google.common.collect.Iterators;
 
 /**
  * A class for managing groups of {@link Channel}s, indexed by connected peers'
@@ -44,18 +48,86 @@ import com.google.common.collect.LinkedListMultimap;
  * 
  * <p>For each peer (denoted by Id) only one channel can be held in the structure.
  * 
- * <p>This object is thread-safe (with some restrictions, see {@link #getAll}).
+ * <p>This object is thread-safe. Modifications ({@link #add}, {@link #remove})
+ * are serialized and publish new copies of the affected structures, so that
+ * lookups ({@link #getAny}, {@link #getAll}, {@link #getByPeerId}) never block
+ * and do not allocate (except for the iterator returned by {@link #getAll}).
  * 
  * @author Kasia Findeisen
  * @author Piotr Findeisen
  */
 public class ConnectionsMap {
 
+	private static final Channel[] NO_CHANNELS = new Channel[0];
+
+	/**
+	 * {@link Channel}s of connected peers of a single type with the peers'
+	 * Ids, their {@link OutboundQueueHandler}s ({@code null} for channels
+	 * without one) and {@link PeerLoad}s. Never modified; replaced with a new
+	 * copy on every change.
+	 */
+	private static final class Members implements PeerSelectionPolicy.Peers {
+
+		static final Members EMPTY = new Members(NO_CHANNELS, new long[0],
+			new OutboundQueueHandler[0], new PeerLoad[0]);
+
+		final Channel[] channels;
+		final long[] peerIds;
+		final OutboundQueueHandler[] queues;
+		final PeerLoad[] loads;
+
+		Members(Channel[] channels, long[] peerIds,
+			OutboundQueueHandler[] queues, PeerLoad[] loads) {
+			this.channels = channels;
+			this.peerIds = peerIds;
+			this.queues = queues;
+			this.loads = loads;
+		}
+
+		public int size() {
+			return channels.length;
+		}
+
+		public boolean isAvailable(int index) {
+			if (!channels[index].isOpen())
+				return false;
+			OutboundQueueHandler queue = queues[index];
+			return queue == null || !queue.isSaturated();
+		}
+
+		public PeerLoad getLoad(int index) {
+			return loads[index];
+		}
+
+		boolean isAnySaturated() {
+			for (int i = 0; i < channels.length; i++) {
+				if (channels[i].isOpen() && queues[i] != null
+					&& queues[i].isSaturated())
+					return true;
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * {@link Members} of a single type together with a round-robin cursor for
+	 * {@link ConnectionsMap#getAny}.
+	 */
+	private static final class PeerTypeChannels {
+
+		volatile Members members = Members.EMPTY;
+
+		volatile PeerSelectionPolicy policy = PeerSelectionPolicy.ROUND_ROBIN;
+
+		final AtomicInteger cursor = new AtomicInteger();
+	}
+
 	/**
-	 * A multimap of {@link Channel}s grouped by connected peers' types.
+	 * A copy-on-write map of {@link Channel}s grouped by connected peers'
+	 * types. The published map is never modified; it is replaced when a new
+	 * peer type appears.
 	 */
-	private LinkedListMultimap<Integer, Channel> channelsByType = LinkedListMultimap
-		.create();
+	private volatile TIntObjectHashMap<PeerTypeChannels> channelsByType = new TIntObjectHashMap<PeerTypeChannels>();
 
 	/**
 	 * Provides access to all open channels while cleaning up.
@@ -63,19 +135,34 @@ public class ConnectionsMap {
 	private ChannelGroup allChannels = new DefaultChannelGroup();
 
 	/**
-	 * A map of {@link Channel}s by peer Id. Id is associated with the peer's
-	 * most recent connection.
+	 * A copy-on-write map of {@link Channel}s by peer Id. Id is associated with
+	 * the peer's most recent connection. The published map is never modified.
 	 */
-	private BiMap<Long, Channel> channelsByPeerId = HashBiMap.create();
+	private volatile TLongObjectHashMap<Channel> channelsByPeerId = new TLongObjectHashMap<Channel>();
 
 	/**
-	 * Helper {@link Map}, reverse to {@code channelsByType}, which is a
-	 * {@link LinkedListMultimap} and therefore has no reverse access.
+	 * Helper {@link Map}, reverse to {@code channelsByType} and {@code
+	 * channelsByPeerId}. Guarded by {@code this}.
 	 */
-	private Map<Channel, Integer> peerTypeByChannel = new WeakHashMap<Channel, Integer>();
+	private Map<Channel, PeerInfo> peerByChannel = new WeakHashMap<Channel, PeerInfo>();
+
+	/**
+	 * {@link PeerLoad}s of the channels added with {@link #add}.
+	 */
+	private final Map<Channel, PeerLoad> loadByChannel = new ConcurrentHashMap<Channel, PeerLoad>();
 
 	private final ChannelFutureListener remover = new ChannelRemover(this);
 
+	private static final class PeerInfo {
+		final long peerId;
+		final int peerType;
+
+		PeerInfo(long peerId, int peerType) {
+			this.peerId = peerId;
+			this.peerType = peerType;
+		}
+	}
+
 	/**
 	 * Adds a new channel to {@code allChannels} which is a {@link ChannelGroup}
 	 * . Any closed channel will be removed automatically.
@@ -105,21 +192,59 @@ public class ConnectionsMap {
 	 * @return a channel of a previous connection to the peer or null if the
 	 *         peer wasn't connected
 	 */
-	public synchronized Channel add(Channel channel, long peerId, int peerType) {
+	public Channel add(Channel channel, long peerId, int peerType) {
+		return add(channel, peerId, peerType, null);
+	}
+
+	/**
+	 * Same as {@link #add(Channel, long, int)}, but {@link #getAny} will skip
+	 * the {@code channel} while its {@code queue} is
+	 * {@link OutboundQueueHandler#isSaturated() saturated}.
+	 */
+	public synchronized Channel add(Channel channel, long peerId, int peerType,
+		OutboundQueueHandler queue) {
 		channel.getCloseFuture().addListener(remover);
-		Channel oldChannel = channelsByPeerId.put(peerId, channel);
+
+		TLongObjectHashMap<Channel> byPeerId = channelsByPeerId.clone();
+		Channel oldChannel = byPeerId.put(peerId, channel);
+		channelsByPeerId = byPeerId;
+
 		if (oldChannel != null) {
-			channelsByType
-				.remove(peerTypeByChannel.get(oldChannel), oldChannel);
-			peerTypeByChannel.remove(oldChannel);
+			PeerInfo oldPeer = peerByChannel.remove(oldChannel);
+			if (oldPeer != null)
+				removeFromType(oldChannel, oldPeer.peerType);
+			loadByChannel.remove(oldChannel);
 		}
-		peerTypeByChannel.put(channel, peerType);
-		channelsByType.put(peerType, channel);
+		PeerInfo previous = peerByChannel.put(channel, new PeerInfo(peerId,
+			peerType));
+		if (previous != null && previous.peerType != peerType) {
+			removeFromType(channel, previous.peerType);
+		}
+		addToType(channel, peerId, peerType, queue);
 		return oldChannel;
 	}
-	
+
 	public synchronized Integer getChannelPeerType(Channel channel) {
-		return peerTypeByChannel.get(channel);
+		PeerInfo peer = peerByChannel.get(channel);
+		return peer == null ? null : peer.peerType;
+	}
+
+	public synchronized Long getChannelPeerId(Channel channel) {
+		PeerInfo peer = peerByChannel.get(channel);
+		return peer == null ? null : peer.peerId;
+	}
+
+	/**
+	 * Returns the types of all connected peers, by their Ids.
+	 */
+	public synchronized Map<Long, Integer> getPeerTypes() {
+		Map<Long, Integer> peerTypes = new HashMap<Long, Integer>();
+		for (Map.Entry<Channel, PeerInfo> entry : peerByChannel.entrySet()) {
+			PeerInfo peer = entry.getValue();
+			if (channelsByPeerId.get(peer.peerId) == entry.getKey())
+				peerTypes.put(peer.peerId, peer.peerType);
+		}
+		return peerTypes;
 	}
 
 	/**
@@ -138,49 +263,246 @@ public class ConnectionsMap {
 			removed = true;
 		}
 
-		Integer type = peerTypeByChannel.get(channel);
-		if (type != null) {
+		loadByChannel.remove(channel);
+		PeerInfo peer = peerByChannel.remove(channel);
+		if (peer != null) {
 			// The channel was registered with `add`.
-			channelsByType.remove(type, channel);
-			channelsByPeerId.inverse().remove(channel);
+			removeFromType(channel, peer.peerType);
+			if (channelsByPeerId.get(peer.peerId) == channel) {
+				TLongObjectHashMap<Channel> byPeerId = channelsByPeerId.clone();
+				byPeerId.remove(peer.peerId);
+				channelsByPeerId = byPeerId;
+			}
 			removed = true;
 		}
 		return removed;
 	}
 
+	/**
+	 * Must be called with lock on {@code this} held.
+	 */
+	private void addToType(Channel channel, long peerId, int peerType,
+		OutboundQueueHandler queue) {
+		PeerTypeChannels typeChannels = getOrCreateTypeChannels(peerType);
+		Members members = typeChannels.members;
+		Channel[] channels = members.channels;
+		for (Channel c : channels) {
+			if (c == channel)
+				return;
+		}
+		Channel[] newChannels = new Channel[channels.length + 1];
+		System.arraycopy(channels, 0, newChannels, 0, channels.length);
+		newChannels[channels.length] = channel;
+		long[] newPeerIds = new long[channels.length + 1];
+		System.arraycopy(members.peerIds, 0, newPeerIds, 0, channels.length);
+		newPeerIds[channels.length] = peerId;
+		OutboundQueueHandler[] newQueues = new OutboundQueueHandler[channels.length + 1];
+		System.arraycopy(members.queues, 0, newQueues, 0, channels.length);
+		newQueues[channels.length] = queue;
+		PeerLoad[] newLoads = new PeerLoad[channels.length + 1];
+		System.arraycopy(members.loads, 0, newLoads, 0, channels.length);
+		newLoads[channels.length] = getOrCreateLoad(channel);
+		typeChannels.members = new Members(newChannels, newPeerIds, newQueues,
+			newLoads);
+	}
+
+	/**
+	 * Must be called with lock on {@code this} held.
+	 */
+	private PeerTypeChannels getOrCreateTypeChannels(int peerType) {
+		PeerTypeChannels typeChannels = channelsByType.get(peerType);
+		if (typeChannels == null) {
+			typeChannels = new PeerTypeChannels();
+			TIntObjectHashMap<PeerTypeChannels> byType = channelsByType
+				.clone();
+			byType.put(peerType, typeChannels);
+			channelsByType = byType;
+		}
+		return typeChannels;
+	}
+
+	/**
+	 * Must be called with lock on {@code this} held.
+	 */
+	private PeerLoad getOrCreateLoad(Channel channel) {
+		PeerLoad load = loadByChannel.get(channel);
+		if (load == null) {
+			load = new PeerLoad();
+			loadByChannel.put(channel, load);
+		}
+		return load;
+	}
+
+	/**
+	 * Must be called with lock on {@code this} held.
+	 */
+	private void removeFromType(Channel channel, int peerType) {
+		PeerTypeChannels typeChannels = channelsByType.get(peerType);
+		if (typeChannels == null)
+			return;
+		Members members = typeChannels.members;
+		Channel[] channels = members.channels;
+		for (int i = 0; i < channels.length; i++) {
+			if (channels[i] == channel) {
+				if (channels.length == 1) {
+					typeChannels.members = Members.EMPTY;
+					return;
+				}
+				Channel[] newChannels = new Channel[channels.length - 1];
+				System.arraycopy(channels, 0, newChannels, 0, i);
+				System.arraycopy(channels, i + 1, newChannels, i,
+					channels.length - i - 1);
+				long[] newPeerIds = new long[channels.length - 1];
+				System.arraycopy(members.peerIds, 0, newPeerIds, 0, i);
+				System.arraycopy(members.peerIds, i + 1, newPeerIds, i,
+					channels.length - i - 1);
+				OutboundQueueHandler[] newQueues = new OutboundQueueHandler[channels.length - 1];
+				System.arraycopy(members.queues, 0, newQueues, 0, i);
+				System.arraycopy(members.queues, i + 1, newQueues, i,
+					channels.length - i - 1);
+				PeerLoad[] newLoads = new PeerLoad[channels.length - 1];
+				System.arraycopy(members.loads, 0, newLoads, 0, i);
+				System.arraycopy(members.loads, i + 1, newLoads, i,
+					channels.length - i - 1);
+				typeChannels.members = new Members(newChannels, newPeerIds,
+					newQueues, newLoads);
+				return;
+			}
+		}
+	}
+
+	private Channel[] getChannels(int peerType) {
+		PeerTypeChannels typeChannels = channelsByType.get(peerType);
+		return typeChannels == null ? NO_CHANNELS
+			: typeChannels.members.channels;
+	}
+
 	/**
 	 * Returns a {@link Channel} associated with some peer of the given type (
-	 * {@code peerType}). Chooses the channel on a basis of round-robin
-	 * algorithm.
+	 * {@code peerType}), chosen by the type's {@link PeerSelectionPolicy}
+	 * (round-robin by default), skipping closed and saturated channels.
 	 * 
 	 * @param peerType
 	 *            requested type of the peer
 	 * @throws NoPeerForTypeException
 	 *             when there are no Channels for given type
+	 * @throws PeersSaturatedException
+	 *             when all open Channels for given type are saturated
 	 */
-	public synchronized Channel getAny(int peerType)
-		throws NoPeerForTypeException {
+	public Channel getAny(int peerType) throws NoPeerForTypeException {
+		PeerTypeChannels typeChannels = channelsByType.get(peerType);
+		if (typeChannels == null)
+			throw new NoPeerForTypeException("" + peerType);
+
+		Members members = typeChannels.members;
+		int count = members.channels.length;
+		if (count > 0) {
+			int start = (typeChannels.cursor.getAndIncrement() & Integer.MAX_VALUE)
+				% count;
+			int index = typeChannels.policy.select(members, start);
+			if (index >= 0)
+				return members.channels[index];
+			if (members.isAnySaturated())
+				throw new PeersSaturatedException("" + peerType);
+		}
+		throw new NoPeerForTypeException("" + peerType);
+	}
 
-		List<Channel> list = channelsByType.get(peerType);
-		if (list == null || list.size() == 0)
+	/**
+	 * Returns a {@link Channel} associated with the peer of the given type (
+	 * {@code peerType}) assigned to the {@code key} by rendezvous hashing: of
+	 * the peers which are not closed nor saturated, the one with the highest
+	 * hash of its Id combined with the {@code key}. Messages with equal keys
+	 * are therefore sent to the same peer as long as it is connected, and
+	 * when a peer joins or leaves, only the keys assigned to it move.
+	 * 
+	 * @throws NoPeerForTypeException
+	 *             when there are no Channels for given type
+	 * @throws PeersSaturatedException
+	 *             when all open Channels for given type are saturated
+	 */
+	public Channel getByKey(int peerType, long key)
+		throws NoPeerForTypeException {
+		PeerTypeChannels typeChannels = channelsByType.get(peerType);
+		if (typeChannels == null)
 			throw new NoPeerForTypeException("" + peerType);
 
-		Channel anyChannel;
-		while (list.size() > 0) {
-			anyChannel = list.remove(0);
-			if (anyChannel.isOpen()) {
-				list.add(anyChannel);
-				return anyChannel;
+		Members members = typeChannels.members;
+		int chosen = -1;
+		long chosenScore = 0;
+		for (int i = 0; i < members.channels.length; i++) {
+			if (!members.isAvailable(i))
+				continue;
+			long score = mix(key ^ mix(members.peerIds[i]));
+			if (chosen < 0 || score > chosenScore) {
+				chosen = i;
+				chosenScore = score;
 			}
 		}
+		if (chosen >= 0)
+			return members.channels[chosen];
+		if (members.isAnySaturated())
+			throw new PeersSaturatedException("" + peerType);
 		throw new NoPeerForTypeException("" + peerType);
 	}
 
+	/**
+	 * The finalizer of MurmurHash3, spreading every bit of {@code h} over the
+	 * result.
+	 */
+	private static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	/**
+	 * Sets the policy {@link #getAny} uses to choose peers of type {@code
+	 * peerType}.
+	 */
+	public synchronized void setSelectionPolicy(int peerType,
+		PeerSelectionPolicy policy) {
+		if (policy == null)
+			throw new NullPointerException("policy");
+		getOrCreateTypeChannels(peerType).policy = policy;
+	}
+
+	public PeerSelectionPolicy getSelectionPolicy(int peerType) {
+		PeerTypeChannels typeChannels = channelsByType.get(peerType);
+		return typeChannels == null ? PeerSelectionPolicy.ROUND_ROBIN
+			: typeChannels.policy;
+	}
+
+	/**
+	 * Sets the {@link OutboundQueueHandler#setLimit(int) limit} of the queues
+	 * of the peers of type {@code peerType} connected now.
+	 */
+	public void setQueueLimit(int peerType, int limit) {
+		PeerTypeChannels typeChannels = channelsByType.get(peerType);
+		if (typeChannels == null)
+			return;
+		for (OutboundQueueHandler queue : typeChannels.members.queues) {
+			if (queue != null)
+				queue.setLimit(limit);
+		}
+	}
+
+	/**
+	 * Returns the {@link PeerLoad} of the peer connected through the {@code
+	 * channel} or {@code null} if the channel has not been {@link #add added}
+	 * or has been removed.
+	 */
+	public PeerLoad getLoad(Channel channel) {
+		return loadByChannel.get(channel);
+	}
+
 	/**
 	 * Returns an {@link Iterator} of all {@link Channel}s associated with the
-	 * given peer type ({@code peerType}). You should manually synchronize on
-	 * this {@link ConnectionsMap} when calling this method and iterating over
-	 * the returned value.
+	 * given peer type ({@code peerType}). The iterator works on a snapshot of
+	 * the connections and is not affected by concurrent modifications.
 	 * 
 	 * @param peerType
 	 *            requested type of the peer
@@ -188,10 +510,10 @@ public class ConnectionsMap {
 	 * @throws NoPeerForTypeException
 	 */
 	public Iterator<Channel> getAll(int peerType) throws NoPeerForTypeException {
-		List<Channel> list = channelsByType.get(peerType);
-		if (list == null || list.size() == 0)
+		Channel[] channels = getChannels(peerType);
+		if (channels.length == 0)
 			throw new NoPeerForTypeException("" + peerType);
-		return list.iterator();
+		return Iterators.forArray(channels);
 	}
 
 	/**
@@ -202,10 +524,7 @@ public class ConnectionsMap {
 	 *             if there is no connection with a peer of id {@code peerId}
 	 */
 	public Channel getByPeerId(long peerId) throws NoPeerForPeerIdException {
-		Channel channel;
-		synchronized (this) {
-			channel = channelsByPeerId.get(peerId);
-		}
+		Channel channel = channelsByPeerId.get(peerId);
 		if (channel == null)
 			throw new NoPeerForPeerIdException("" + peerId);
 
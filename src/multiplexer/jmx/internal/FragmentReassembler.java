@@ -0,0 +1,120 @@
+// Copyright 2009 Warsaw University, Faculty of Physics
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+package multiplexer.jmx.internal;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import multiplexer.protocol.Protocol.MultiplexerMessage;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+
+/**
+ * Reassembles messages sent in {@link Fragments}, which may arrive in any
+ * order and interleaved with other messages. Messages with fragments missing
+ * for longer than {@code timeoutMillis} (for example because the sender
+ * disconnected) are dropped while new fragments arrive.
+ */
+public final class FragmentReassembler {
+
+	private static final class Partial {
+		final long from;
+		final byte[] serialized;
+		final long startNanos;
+		int received;
+
+		Partial(long from, int length, long startNanos) {
+			this.from = from;
+			this.serialized = new byte[length];
+			this.startNanos = startNanos;
+		}
+	}
+
+	private final long timeoutNanos;
+	// guarded by this, in the order of arrival of the first fragments
+	private final Map<Long, Partial> partials = new LinkedHashMap<Long, Partial>();
+
+	public FragmentReassembler(long timeoutMillis) {
+		this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+	}
+
+	/**
+	 * Adds the {@code fragment}. Returns the reassembled (and decompressed, if
+	 * it was compressed) message if it was the last missing one, {@code null}
+	 * otherwise.
+	 * 
+	 * @throws IOException
+	 *             if the fragment does not fit the message or the message
+	 *             cannot be parsed
+	 */
+	public MultiplexerMessage add(MultiplexerMessage fragment)
+		throws IOException {
+		long id = fragment.getFragmentedId();
+		int length = fragment.getFragmentedLength();
+		int offset = fragment.getFragmentOffset();
+		int size = fragment.getMessage().size();
+		if (length <= 0 || length > RawMessageFrame.MAX_MESSAGE_SIZE
+			|| offset < 0 || size > length - offset)
+			throw new IOException("fragment [" + offset + ", " + size
+				+ ") of message #" + id + " of length " + length);
+
+		Partial partial;
+		synchronized (this) {
+			long now = System.nanoTime();
+			expire(now);
+			partial = partials.get(id);
+			if (partial == null) {
+				partial = new Partial(fragment.getFrom(), length, now);
+				partials.put(id, partial);
+			} else if (partial.from != fragment.getFrom()
+				|| partial.serialized.length != length) {
+				throw new IOException("fragment of message #" + id
+					+ " does not match the previous ones");
+			}
+			fragment.getMessage().copyTo(partial.serialized, 0, offset, size);
+			partial.received += size;
+			if (partial.received < length)
+				return null;
+			partials.remove(id);
+		}
+
+		MultiplexerMessage message;
+		try {
+			message = MultiplexerMessage.parseFrom(partial.serialized);
+		} catch (InvalidProtocolBufferException e) {
+			throw new IOException("reassembled message #" + id
+				+ " is malformed: " + e.getMessage());
+		}
+		return CompressionHandler.decompress(message);
+	}
+
+	/**
+	 * Returns the number of messages which are being reassembled.
+	 */
+	public synchronized int getPartialCount() {
+		return partials.size();
+	}
+
+	private void expire(long now) {
+		Iterator<Partial> it = partials.values().iterator();
+		while (it.hasNext() && now - it.next().startNanos >= timeoutNanos) {
+			it.remove();
+		}
+	}
+}
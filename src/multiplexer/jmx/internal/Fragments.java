@@ -0,0 +1,100 @@
+// Copyright 2009 Warsaw University, Faculty of Physics
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+package multiplexer.jmx.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import multiplexer.protocol.Protocol.MultiplexerMessage;
+
+import com.google.protobuf.ByteString;
+
+/**
+ * Splitting of messages too large to be written to a channel at once. A
+ * message is sent as a sequence of fragments, each carrying a part of the
+ * serialized message as its {@code message}; they are routed like the
+ * message (they have its {@code from}, {@code to}, {@code type}, {@code
+ * workflow}, {@code priority} and {@code override_rrules}) and reassembled by
+ * the receiving peer's {@link FragmentReassembler}. The first fragment has
+ * the message's {@code id} (so duplicates of the message are dropped with it,
+ * and delivery errors refer to the message), the others have IDs of their
+ * own.
+ * 
+ * {@link ConnectionsManager} writes each fragment only after the previous one
+ * has been written, so messages written to the same channel meanwhile are
+ * delayed by one fragment at most.
+ */
+public final class Fragments {
+
+	private static final Random random = new Random();
+
+	private Fragments() {
+	}
+
+	/**
+	 * Splits the {@code message}, serialized as {@code serialized}, into
+	 * fragments with at most {@code fragmentSize} bytes of it each.
+	 */
+	public static List<MultiplexerMessage> split(MultiplexerMessage message,
+		byte[] serialized, int fragmentSize) {
+
+		MultiplexerMessage.Builder header = MultiplexerMessage.newBuilder()
+			.setType(message.getType()).setFragmentedId(message.getId())
+			.setFragmentedLength(serialized.length).addAllOverrideRrules(
+				message.getOverrideRrulesList());
+		if (message.hasFrom())
+			header.setFrom(message.getFrom());
+		if (message.hasTo())
+			header.setTo(message.getTo());
+		if (message.hasTimestamp())
+			header.setTimestamp(message.getTimestamp());
+		if (message.hasWorkflow())
+			header.setWorkflow(message.getWorkflow());
+		if (message.hasLoggingMethod())
+			header.setLoggingMethod(message.getLoggingMethod());
+		if (message.hasHops())
+			header.setHops(message.getHops());
+		if (message.hasPriority())
+			header.setPriority(message.getPriority());
+		if (message.hasMessage())
+			header.setAffinityPrefix(CompressionHandler.decompressPrefix(
+				message, Config.FRAGMENT_AFFINITY_PREFIX));
+
+		List<MultiplexerMessage> fragments = new ArrayList<MultiplexerMessage>(
+			(serialized.length + fragmentSize - 1) / fragmentSize);
+		for (int offset = 0; offset < serialized.length; offset += fragmentSize) {
+			MultiplexerMessage.Builder fragment = header.clone()
+				.setFragmentOffset(offset).setMessage(
+					ByteString.copyFrom(serialized, offset, Math.min(
+						fragmentSize, serialized.length - offset)));
+			if (offset == 0) {
+				// only the first fragment is answered or reported
+				fragment.setId(message.getId());
+				if (message.hasReferences())
+					fragment.setReferences(message.getReferences());
+				fragment.setReportDeliveryError(
+					message.getReportDeliveryError())
+					.setIncludeOriginalPacketInReport(
+						message.getIncludeOriginalPacketInReport());
+			} else {
+				fragment.setId(random.nextLong());
+			}
+			fragments.add(fragment.build());
+		}
+		return fragments;
+	}
+}
@@ -16,6 +16,7 @@
 package multiplexer.jmx.internal;
 
 import static org.jboss.netty.buffer.ChannelBuffers.wrappedBuffer;
+import multiplexer.jmx.metrics.Metrics;
 import multiplexer.protocol.Constants.MessageTypes;
 import multiplexer.protocol.Protocol.MultiplexerMessage;
 
@@ -41,6 +42,12 @@ public class HeartbitHandler implements ChannelUpstreamHandler {
 	private static final byte[] heartbitMessage = MultiplexerMessage.newBuilder().setType(MessageTypes.HEARTBIT)
 		.build().toByteArray();
 
+	private final Metrics metrics;
+
+	public HeartbitHandler(Metrics metrics) {
+		this.metrics = metrics;
+	}
+
 	public void handleUpstream(ChannelHandlerContext ctx, ChannelEvent e) throws Exception {
 
 		if (e instanceof IdleStateEvent) {
@@ -50,6 +57,7 @@ public class HeartbitHandler implements ChannelUpstreamHandler {
 			if (evt.getState() == IdleState.READER_IDLE) {
 				// No incoming HEARTBITs nor any other messages.
 				logger.warn("Peer idle for {}s over {}, closing connection.", idleTimeSecs, e.getChannel());
+				metrics.heartbitTimedOut();
 				Channels.close(e.getChannel());
 
 			} else if (evt.getState() == IdleState.WRITER_IDLE) {
@@ -65,8 +73,8 @@ public class HeartbitHandler implements ChannelUpstreamHandler {
 
 		if (e instanceof MessageEvent) {
 			Object message = ((MessageEvent) e).getMessage();
-			if (message instanceof MultiplexerMessage
-				&& ((MultiplexerMessage) message).getType() == MessageTypes.HEARTBIT) {
+			if ((message instanceof MultiplexerMessage && ((MultiplexerMessage) message).getType() == MessageTypes.HEARTBIT)
+				|| (message instanceof RawMultiplexerMessage && ((RawMultiplexerMessage) message).getType() == MessageTypes.HEARTBIT)) {
 				logger.debug("Received HEARTBIT over {}", e.getChannel());
 				// Don't pass on incoming HEARTBITs, they already served their
 				// purpose.
@@ -0,0 +1,45 @@
+// Copyright 2009 Warsaw University, Faculty of Physics
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+package multiplexer.jmx.internal;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelHandler.Sharable;
+import org.jboss.netty.handler.codec.oneone.OneToOneDecoder;
+
+/**
+ * Turns objects received over an in-VM connection (see
+ * {@link ConnectionsManagerChannelPipelineFactory#getInVmPipeline()}) into
+ * {@link multiplexer.protocol.Protocol.MultiplexerMessage}s: the
+ * {@link RawMultiplexerMessage}s forwarded by the Multiplexer server are
+ * unwrapped (which parses nothing unless they came from a remote peer) and
+ * the serialized HEARTBITs written by the {@link HeartbitHandler} are parsed.
+ */
+@Sharable
+public class InVmMessageDecoder extends OneToOneDecoder {
+
+	@Override
+	protected Object decode(ChannelHandlerContext ctx, Channel channel,
+		Object msg) throws Exception {
+
+		if (msg instanceof RawMultiplexerMessage)
+			return ((RawMultiplexerMessage) msg).getMessage();
+		if (msg instanceof ChannelBuffer)
+			return RawMultiplexerMessage.parseMessage((ChannelBuffer) msg);
+		return msg;
+	}
+}
@@ -71,6 +71,16 @@ public class MultiplexerProtocolHandler extends SimpleChannelHandler {
 	@Override
 	public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) {
 
+		if (e.getMessage() instanceof RawMultiplexerMessage) {
+			RawMultiplexerMessage message = (RawMultiplexerMessage) e.getMessage();
+			logger.debug("Received over {} {} msg.type={}", new Object[] { e.getChannel(), protocolListener,
+				message.getType() });
+			if (message.getType() != MessageTypes.HEARTBIT) {
+				protocolListener.messageReceived(message, e.getChannel());
+			}
+			return;
+		}
+
 		if (!(e.getMessage() instanceof MultiplexerMessage)) {
 			ctx.sendUpstream(e);
 			return;
@@ -37,7 +37,19 @@ public interface MultiplexerProtocolListener {
 	 *            from which the message was read
 	 */
 	public void messageReceived(MultiplexerMessage message, Channel channel);
-	
+
+	/**
+	 * Invoked when the {@link MultiplexerProtocolHandler} associated with this
+	 * listener receives a message that has not been fully parsed (see
+	 * {@link RawMultiplexerMessageDecoder}).
+	 * 
+	 * @param message
+	 *            message read from the network
+	 * @param channel
+	 *            from which the message was read
+	 */
+	public void messageReceived(RawMultiplexerMessage message, Channel channel);
+
 	/**
 	 * Invoked when the {@link MultiplexerProtocolHandler} receives the
 	 * information about a {@link Channel} being connected.
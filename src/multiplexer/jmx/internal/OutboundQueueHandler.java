@@ -0,0 +1,92 @@
+// Copyright 2009 Warsaw University, Faculty of Physics
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+package multiplexer.jmx.internal;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import multiplexer.protocol.Protocol.MultiplexerPeerDescription;
+
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelDownstreamHandler;
+import org.jboss.netty.channel.ChannelEvent;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.MessageEvent;
+
+/**
+ * Counts messages written to a channel but not yet flushed to the socket. The
+ * channel is {@link #isSaturated() saturated} when the count reaches the
+ * {@code limit} (the peer's {@link MultiplexerPeerDescription#getQueueSize()
+ * queue_size}) or the channel is not {@link Channel#isWritable() writable}
+ * because its write buffer is above the high water mark.
+ * {@link ConnectionsMap#getAny} skips saturated channels, so that a slow peer
+ * does not make the server buffer messages without bound.
+ * 
+ * The handler holds per-channel state and must not be shared between
+ * pipelines. The {@code limit} is set by the {@link ConnectionsManager} once
+ * the peer's type is known.
+ */
+public class OutboundQueueHandler implements ChannelDownstreamHandler {
+
+	private final AtomicInteger pending = new AtomicInteger();
+	private volatile int limit;
+	private volatile Channel channel;
+
+	private final ChannelFutureListener writeCompleted = new ChannelFutureListener() {
+		public void operationComplete(ChannelFuture future) {
+			pending.decrementAndGet();
+		}
+	};
+
+	public void handleDownstream(ChannelHandlerContext ctx, ChannelEvent e)
+		throws Exception {
+
+		if (e instanceof MessageEvent) {
+			if (channel == null)
+				channel = e.getChannel();
+			pending.incrementAndGet();
+			e.getFuture().addListener(writeCompleted);
+		}
+		ctx.sendDownstream(e);
+	}
+
+	/**
+	 * Returns the number of messages written but not yet sent.
+	 */
+	public int getPending() {
+		return pending.get();
+	}
+
+	public int getLimit() {
+		return limit;
+	}
+
+	/**
+	 * @param limit
+	 *            maximal number of pending messages; {@code 0} means no limit
+	 */
+	public void setLimit(int limit) {
+		this.limit = limit;
+	}
+
+	public boolean isSaturated() {
+		int limit = this.limit;
+		if (limit > 0 && pending.get() >= limit)
+			return true;
+		Channel channel = this.channel;
+		return channel != null && !channel.isWritable();
+	}
+}
@@ -0,0 +1,79 @@
+// Copyright 2009 Warsaw University, Faculty of Physics
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+package multiplexer.jmx.internal;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Load of a connected peer as seen from this side of the connection: the
+ * number of requests sent to it which are still awaiting a response and an
+ * exponentially weighted moving average of its response times. Requests are
+ * tracked only for the peer types whose {@link PeerSelectionPolicy} is
+ * {@link PeerSelectionPolicy#isLoadAware() load aware}, see
+ * {@link ConnectionsMap#setSelectionPolicy}.
+ * 
+ * The average is updated without synchronization, so concurrent updates may
+ * occasionally be lost; it is only a hint for choosing peers.
+ */
+public final class PeerLoad {
+
+	/**
+	 * Weight of a new sample in the moving average is {@code 1 / 2^EWMA_SHIFT}.
+	 */
+	private static final int EWMA_SHIFT = 3;
+
+	private final AtomicInteger outstanding = new AtomicInteger();
+	private volatile long latencyEwmaNanos = -1;
+
+	/**
+	 * Returns the number of requests awaiting a response.
+	 */
+	public int getOutstanding() {
+		return outstanding.get();
+	}
+
+	/**
+	 * Returns the moving average of response times in nanoseconds, or
+	 * {@code -1} if no response has been received yet.
+	 */
+	public long getLatencyEwmaNanos() {
+		return latencyEwmaNanos;
+	}
+
+	public void requestSent() {
+		outstanding.incrementAndGet();
+	}
+
+	/**
+	 * Records a response to a request, received {@code latencyNanos} after
+	 * the request was sent. Also used for requests which timed out, with the
+	 * timeout as the latency.
+	 */
+	public void responseReceived(long latencyNanos) {
+		outstanding.decrementAndGet();
+		long ewma = latencyEwmaNanos;
+		if (ewma < 0)
+			latencyEwmaNanos = latencyNanos;
+		else
+			latencyEwmaNanos = ewma + ((latencyNanos - ewma) >> EWMA_SHIFT);
+	}
+
+	@Override
+	public String toString() {
+		return "PeerLoad(outstanding=" + getOutstanding() + ", latencyEwma="
+			+ latencyEwmaNanos + "ns)";
+	}
+}
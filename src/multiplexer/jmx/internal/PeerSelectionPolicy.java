@@ -0,0 +1,212 @@
+// Copyright 2009 Warsaw University, Faculty of Physics
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+package multiplexer.jmx.internal;
+
+import java.util.Random;
+
+import multiplexer.protocol.Protocol.SelectionPolicy;
+
+/**
+ * Chooses one of the connected peers of a type for a message sent to ANY of
+ * them, see {@link ConnectionsMap#getAny}. A policy is set per peer type with
+ * {@link ConnectionsMap#setSelectionPolicy}; {@link #ROUND_ROBIN} is used by
+ * default. The load aware policies rely on the {@link PeerLoad} of the peers,
+ * which is tracked from the {@code id}s of the messages sent to them and the
+ * {@code references} of the messages received back; they are meant for peers
+ * answering (almost) every message they get, such as backends.
+ * 
+ * Policies are shared by threads and must not block.
+ */
+public abstract class PeerSelectionPolicy {
+
+	/**
+	 * The peers of a type, in the order they connected.
+	 */
+	public interface Peers {
+
+		int size();
+
+		/**
+		 * Returns true if the peer can be sent a message: its connection is
+		 * open and is not saturated.
+		 */
+		boolean isAvailable(int index);
+
+		PeerLoad getLoad(int index);
+	}
+
+	/**
+	 * Chooses the peers in turns.
+	 */
+	public static final PeerSelectionPolicy ROUND_ROBIN = new PeerSelectionPolicy(
+		"ROUND_ROBIN", false) {
+		@Override
+		public int select(Peers peers, int start) {
+			int count = peers.size();
+			for (int i = 0; i < count; i++) {
+				int index = (start + i) % count;
+				if (peers.isAvailable(index))
+					return index;
+			}
+			return -1;
+		}
+	};
+
+	/**
+	 * Chooses the peer with the fewest requests awaiting a response.
+	 */
+	public static final PeerSelectionPolicy LEAST_OUTSTANDING = new MinimalScorePolicy(
+		"LEAST_OUTSTANDING") {
+		@Override
+		long score(PeerLoad load) {
+			return load.getOutstanding();
+		}
+	};
+
+	/**
+	 * Chooses the peer with fewer requests awaiting a response of two peers
+	 * picked at random. Nearly as good as {@link #LEAST_OUTSTANDING} at
+	 * spreading the load, but less prone to herding when the loads are
+	 * stale.
+	 */
+	public static final PeerSelectionPolicy POWER_OF_TWO_CHOICES = new PeerSelectionPolicy(
+		"POWER_OF_TWO_CHOICES", true) {
+		@Override
+		public int select(Peers peers, int start) {
+			int count = peers.size();
+			if (count > 1) {
+				int first = start;
+				int second = (start + 1 + random.nextInt(count - 1)) % count;
+				boolean firstAvailable = peers.isAvailable(first);
+				boolean secondAvailable = peers.isAvailable(second);
+				if (firstAvailable && secondAvailable) {
+					return peers.getLoad(second).getOutstanding() < peers
+						.getLoad(first).getOutstanding() ? second : first;
+				}
+				if (firstAvailable)
+					return first;
+				if (secondAvailable)
+					return second;
+			}
+			return LEAST_OUTSTANDING.select(peers, start);
+		}
+	};
+
+	/**
+	 * Chooses the peer with the lowest moving average of response times,
+	 * multiplied by the number of requests it has yet to answer (plus one).
+	 * Peers which have not answered any request yet are tried when they have
+	 * nothing else to do.
+	 */
+	public static final PeerSelectionPolicy LATENCY_EWMA = new MinimalScorePolicy(
+		"LATENCY_EWMA") {
+		@Override
+		long score(PeerLoad load) {
+			int outstanding = load.getOutstanding();
+			long ewma = load.getLatencyEwmaNanos();
+			if (ewma < 0)
+				return outstanding == 0 ? 0 : Long.MAX_VALUE;
+			return (ewma + 1) * (outstanding + 1);
+		}
+	};
+
+	private static final Random random = new Random();
+
+	private final String name;
+	private final boolean loadAware;
+
+	/**
+	 * @param loadAware
+	 *            whether the policy uses the {@link PeerLoad} of the peers
+	 */
+	protected PeerSelectionPolicy(String name, boolean loadAware) {
+		this.name = name;
+		this.loadAware = loadAware;
+	}
+
+	/**
+	 * Returns the index of the chosen one of the {@code peers}, or {@code -1}
+	 * if none is {@link Peers#isAvailable available}.
+	 * 
+	 * @param start
+	 *            index of the peer whose turn it is; policies should prefer
+	 *            it among equally good ones
+	 */
+	public abstract int select(Peers peers, int start);
+
+	/**
+	 * Returns true if the requests sent to peers chosen by this policy should
+	 * be tracked in their {@link PeerLoad}.
+	 */
+	public boolean isLoadAware() {
+		return loadAware;
+	}
+
+	/**
+	 * A load aware policy choosing the available peer with the lowest
+	 * {@link #score}, the first one from {@code start} in case of a tie.
+	 */
+	abstract static class MinimalScorePolicy extends PeerSelectionPolicy {
+
+		MinimalScorePolicy(String name) {
+			super(name, true);
+		}
+
+		/**
+		 * Returns the score of a peer; lower is better.
+		 */
+		abstract long score(PeerLoad load);
+
+		@Override
+		public int select(Peers peers, int start) {
+			int count = peers.size();
+			int best = -1;
+			long bestScore = Long.MAX_VALUE;
+			for (int i = 0; i < count; i++) {
+				int index = (start + i) % count;
+				if (!peers.isAvailable(index))
+					continue;
+				long score = score(peers.getLoad(index));
+				if (best < 0 || score < bestScore) {
+					best = index;
+					bestScore = score;
+				}
+			}
+			return best;
+		}
+	}
+
+	/**
+	 * Returns the policy configured with {@code value} in the rules.
+	 */
+	public static PeerSelectionPolicy valueOf(SelectionPolicy.Values value) {
+		switch (value) {
+		case LEAST_OUTSTANDING:
+			return LEAST_OUTSTANDING;
+		case POWER_OF_TWO_CHOICES:
+			return POWER_OF_TWO_CHOICES;
+		case LATENCY_EWMA:
+			return LATENCY_EWMA;
+		default:
+			return ROUND_ROBIN;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+}
@@ -0,0 +1,104 @@
+// Copyright 2009 Warsaw University, Faculty of Physics
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+package multiplexer.jmx.internal;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Requests sent to peers chosen by a load aware {@link PeerSelectionPolicy},
+ * by message Id, until a message referencing them is received. Updates the
+ * {@link PeerLoad} of the peers. Requests not answered within
+ * {@link Config#PENDING_REQUEST_TIMEOUT_MILLIS} are counted as answered after
+ * the timeout; they are swept out while new requests are sent. At most
+ * {@link #MAX_PENDING} requests are tracked at a time.
+ */
+final class PendingRequests {
+
+	static final int MAX_PENDING = 64 * 1024;
+
+	private static final class Pending {
+		final PeerLoad load;
+		final long sentNanos;
+
+		Pending(PeerLoad load, long sentNanos) {
+			this.load = load;
+			this.sentNanos = sentNanos;
+		}
+	}
+
+	private final long timeoutNanos;
+	private final ConcurrentHashMap<Long, Pending> pending = new ConcurrentHashMap<Long, Pending>();
+	private final AtomicInteger count = new AtomicInteger();
+	private final AtomicBoolean sweeping = new AtomicBoolean();
+	private volatile long nextSweepNanos;
+
+	PendingRequests(long timeoutMillis) {
+		this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+		this.nextSweepNanos = System.nanoTime() + timeoutNanos;
+	}
+
+	/**
+	 * Records that a request with Id {@code id} has been sent to the peer of
+	 * the {@code load}.
+	 */
+	void requestSent(long id, PeerLoad load) {
+		long now = System.nanoTime();
+		if (now - nextSweepNanos >= 0)
+			sweep(now);
+		if (count.get() >= MAX_PENDING)
+			return;
+		if (pending.putIfAbsent(id, new Pending(load, now)) == null) {
+			count.incrementAndGet();
+			load.requestSent();
+		}
+	}
+
+	/**
+	 * Records that a message referencing {@code references} has been
+	 * received.
+	 */
+	void responseReceived(long references) {
+		if (count.get() == 0)
+			return;
+		Pending request = pending.remove(references);
+		if (request == null)
+			return;
+		count.decrementAndGet();
+		request.load.responseReceived(System.nanoTime() - request.sentNanos);
+	}
+
+	private void sweep(long now) {
+		if (!sweeping.compareAndSet(false, true))
+			return;
+		try {
+			nextSweepNanos = now + timeoutNanos / 2;
+			for (Map.Entry<Long, Pending> entry : pending.entrySet()) {
+				Pending request = entry.getValue();
+				if (now - request.sentNanos >= timeoutNanos
+					&& pending.remove(entry.getKey()) != null) {
+					count.decrementAndGet();
+					request.load.responseReceived(timeoutNanos);
+				}
+			}
+		} finally {
+			sweeping.set(false);
+		}
+	}
+}
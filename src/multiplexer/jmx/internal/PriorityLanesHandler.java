@@ -0,0 +1,209 @@
+// Copyright 2009 Warsaw University, Faculty of Physics
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+package multiplexer.jmx.internal;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+
+import multiplexer.protocol.Constants.MessageTypes;
+import multiplexer.protocol.Protocol.MultiplexerMessage;
+import multiplexer.protocol.Protocol.Priority;
+
+import org.jboss.netty.channel.ChannelDownstreamHandler;
+import org.jboss.netty.channel.ChannelEvent;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.MessageEvent;
+
+/**
+ * Keeps messages written to a channel in one lane per
+ * {@link Priority.Values priority} once more than {@code windowBytes} of
+ * messages written earlier are not yet sent, so that a backlog of bulk
+ * messages does not delay urgent ones by more than the window. Lanes are
+ * served by weighted round robin ({@link Config#PRIORITY_WEIGHTS}), so LOW
+ * priority messages are delayed but never starved. Messages of one priority
+ * are sent in the order they were written.
+ *
+ * A message's priority is the one it carries, or else the one configured for
+ * its type ({@link Config#getPriority(int)}). CONNECTION_WELCOMEs and all
+ * events other than writes of {@link MultiplexerMessage}s and
+ * {@link RawMultiplexerMessage}s are passed on immediately.
+ *
+ * Like {@link WriteCoalescingHandler}, events are passed downstream without
+ * holding any lock. The handler holds per-channel state and must not be
+ * shared between pipelines.
+ */
+public class PriorityLanesHandler implements ChannelDownstreamHandler {
+
+	private static final int LANES = Priority.Values.values().length;
+
+	private final Config config;
+	private final int windowBytes;
+
+	// guarded by this
+	private final List<Queue<Pending>> lanes = new ArrayList<Queue<Pending>>(
+		LANES);
+	private final int[] credits = new int[LANES];
+	private int queued;
+	private long inFlightBytes;
+	private boolean draining;
+
+	private static class Pending {
+		final ChannelHandlerContext ctx;
+		final MessageEvent event;
+		final int length;
+
+		Pending(ChannelHandlerContext ctx, MessageEvent event, int length) {
+			this.ctx = ctx;
+			this.event = event;
+			this.length = length;
+		}
+	}
+
+	/**
+	 * @param config
+	 *            decides the priorities of messages which do not carry one
+	 * @param windowBytes
+	 *            number of bytes of written and not yet sent messages above
+	 *            which messages wait in lanes
+	 */
+	public PriorityLanesHandler(Config config, int windowBytes) {
+		this.config = config;
+		this.windowBytes = windowBytes;
+		for (int i = 0; i < LANES; i++) {
+			lanes.add(new LinkedList<Pending>());
+		}
+		System.arraycopy(Config.PRIORITY_WEIGHTS, 0, credits, 0, LANES);
+	}
+
+	public void handleDownstream(ChannelHandlerContext ctx, ChannelEvent e)
+		throws Exception {
+
+		if (!(e instanceof MessageEvent)) {
+			ctx.sendDownstream(e);
+			return;
+		}
+		MessageEvent me = (MessageEvent) e;
+		Object message = me.getMessage();
+		Priority.Values priority;
+		int length;
+		if (message instanceof RawMultiplexerMessage) {
+			RawMultiplexerMessage raw = (RawMultiplexerMessage) message;
+			if (raw.getType() == MessageTypes.CONNECTION_WELCOME) {
+				ctx.sendDownstream(e);
+				return;
+			}
+			priority = raw.hasPriority() ? raw.getPriority() : config
+				.getPriority(raw.getType());
+			length = raw.getFrameLength();
+		} else if (message instanceof MultiplexerMessage) {
+			MultiplexerMessage mxmsg = (MultiplexerMessage) message;
+			if (mxmsg.getType() == MessageTypes.CONNECTION_WELCOME) {
+				// The checksum is switched off right after our
+				// CONNECTION_WELCOME is encoded, see ConnectionsManager.
+				ctx.sendDownstream(e);
+				return;
+			}
+			priority = mxmsg.hasPriority() ? mxmsg.getPriority() : config
+				.getPriority(mxmsg.getType());
+			length = mxmsg.getSerializedSize() + RawMessageFrame.HEADER_LENGTH;
+		} else {
+			ctx.sendDownstream(e);
+			return;
+		}
+
+		Pending pending = new Pending(ctx, me, length);
+		synchronized (this) {
+			if (queued == 0 && !draining && inFlightBytes < windowBytes) {
+				inFlightBytes += length;
+			} else {
+				lanes.get(priority.getNumber()).add(pending);
+				queued++;
+				pending = null;
+			}
+		}
+		if (pending != null) {
+			send(pending);
+		} else {
+			drain();
+		}
+	}
+
+	/**
+	 * Returns the number of messages waiting in the lanes.
+	 */
+	public synchronized int getQueuedCount() {
+		return queued;
+	}
+
+	private void send(final Pending pending) {
+		pending.event.getFuture().addListener(new ChannelFutureListener() {
+			public void operationComplete(ChannelFuture future) {
+				synchronized (PriorityLanesHandler.this) {
+					inFlightBytes -= pending.length;
+				}
+				drain();
+			}
+		});
+		pending.ctx.sendDownstream(pending.event);
+	}
+
+	/**
+	 * Sends messages from the lanes while the window allows. Only one thread
+	 * drains at a time; sending may complete futures synchronously, which
+	 * then only update the window for the draining thread to see.
+	 */
+	private void drain() {
+		synchronized (this) {
+			if (draining)
+				return;
+			draining = true;
+		}
+		while (true) {
+			Pending next;
+			synchronized (this) {
+				if (queued == 0 || inFlightBytes >= windowBytes) {
+					draining = false;
+					return;
+				}
+				next = poll();
+				queued--;
+				inFlightBytes += next.length;
+			}
+			send(next);
+		}
+	}
+
+	/**
+	 * Takes a message from the highest priority non-empty lane with credits
+	 * left, refilling the credits once all non-empty lanes have used theirs.
+	 */
+	private Pending poll() {
+		for (int attempt = 0; attempt < 2; attempt++) {
+			for (int i = LANES - 1; i >= 0; i--) {
+				if (credits[i] > 0 && !lanes.get(i).isEmpty()) {
+					credits[i]--;
+					return lanes.get(i).poll();
+				}
+			}
+			System.arraycopy(Config.PRIORITY_WEIGHTS, 0, credits, 0, LANES);
+		}
+		throw new AssertionError("no message queued in " + queued);
+	}
+}
@@ -16,9 +16,12 @@
 package multiplexer.jmx.internal;
 
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.zip.CRC32;
 
 import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBufferFactory;
+import org.jboss.netty.buffer.ChannelBuffers;
 
 /**
  * @author Piotr Findeisen
@@ -32,16 +35,138 @@ public final class RawMessageFrame {
 	public static final int MAX_MESSAGE_SIZE = 128 * 1024 * 1024;
 
 	/**
-	 * Calculate a crc32 checksum of the given buffer.
+	 * Size of the per-thread buffer through which data of direct buffers is
+	 * passed to {@link CRC32}.
+	 */
+	private static final int SCRATCH_SIZE = 8192;
+
+	private static final ThreadLocal<CRC32> crc32 = new ThreadLocal<CRC32>() {
+		@Override
+		protected CRC32 initialValue() {
+			return new CRC32();
+		}
+	};
+
+	private static final ThreadLocal<byte[]> scratch = new ThreadLocal<byte[]>() {
+		@Override
+		protected byte[] initialValue() {
+			return new byte[SCRATCH_SIZE];
+		}
+	};
+
+	/**
+	 * Calculate a crc32 checksum of the readable bytes of the given buffer.
+	 * The buffer's indexes are not modified.
 	 * 
 	 * @param buffer
 	 *            which checksum should be calculated
 	 * @return calculated checksum
 	 */
 	public static long getCrc32(ChannelBuffer buffer) {
-		CRC32 crc = new CRC32();
-		for (ByteBuffer bb : buffer.toByteBuffers())
-			crc.update(bb.array());
+		CRC32 crc = crc32.get();
+		crc.reset();
+		updateCrc32(crc, buffer, buffer.readerIndex(), buffer.readableBytes());
 		return crc.getValue();
 	}
+
+	/**
+	 * Updates the {@code crc} with {@code length} bytes of the {@code buffer}
+	 * starting at {@code index}. The buffer's indexes are not modified.
+	 */
+	public static void updateCrc32(CRC32 crc, ChannelBuffer buffer,
+		int index, int length) {
+		if (buffer.hasArray()) {
+			crc.update(buffer.array(), buffer.arrayOffset() + index, length);
+		} else {
+			for (ByteBuffer bb : buffer.toByteBuffers(index, length)) {
+				if (bb.hasArray()) {
+					crc.update(bb.array(), bb.arrayOffset() + bb.position(), bb
+						.remaining());
+				} else {
+					byte[] bytes = scratch.get();
+					while (bb.hasRemaining()) {
+						int n = Math.min(bytes.length, bb.remaining());
+						bb.get(bytes, 0, n);
+						crc.update(bytes, 0, n);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the crc field of the {@code frame}'s header.
+	 */
+	public static int getFrameCrc(ChannelBuffer frame) {
+		int crc = frame.getInt(frame.readerIndex() + 4);
+		if (frame.order() == ByteOrder.BIG_ENDIAN) {
+			crc = Integer.reverseBytes(crc);
+		}
+		return crc;
+	}
+
+	/**
+	 * Returns a copy of the {@code frame} with the crc field of the header set
+	 * to the checksum of the message. The message itself is not copied.
+	 */
+	public static ChannelBuffer withCrc(ChannelBuffer frame) {
+		ChannelBuffer message = frame.slice(frame.readerIndex()
+			+ HEADER_LENGTH, frame.readableBytes() - HEADER_LENGTH);
+		ChannelBuffer header = ChannelBuffers.buffer(ByteOrder.LITTLE_ENDIAN,
+			HEADER_LENGTH);
+		header.writeInt(message.readableBytes());
+		header.writeInt((int) getCrc32(message));
+		return ChannelBuffers.wrappedBuffer(header, message);
+	}
+
+	/**
+	 * Create a frame in the format {@code [ length ][ crc ][ message... ]}
+	 * from the serialized message. The {@code message} buffer is not modified.
+	 *
+	 * @param message
+	 *            serialized message
+	 * @return a new little endian buffer containing the frame
+	 */
+	public static ChannelBuffer frame(ChannelBuffer message) {
+		return frame(message, true);
+	}
+
+	/**
+	 * Same as {@link #frame(ChannelBuffer)}, but if {@code checksum} is false,
+	 * {@code 0} is written instead of the crc32 of the {@code message}.
+	 */
+	public static ChannelBuffer frame(ChannelBuffer message, boolean checksum) {
+		int length = message.readableBytes();
+		long crc = checksum ? getCrc32(message) : 0;
+
+		ChannelBuffer rawMessage = ChannelBuffers.buffer(
+			ByteOrder.LITTLE_ENDIAN, HEADER_LENGTH + length);
+		rawMessage.writeInt(length);
+		rawMessage.writeInt((int) crc);
+		rawMessage.writeBytes(message, message.readerIndex(), length);
+		return rawMessage;
+	}
+
+	/**
+	 * Same as {@link #frame(ChannelBuffer, boolean)}, but the {@code message}
+	 * is not copied: the returned frame is a composite of a header allocated
+	 * from the {@code factory} and the {@code message} itself. The frame has
+	 * the {@code message}'s byte order (the header is little endian on the wire
+	 * regardless).
+	 */
+	public static ChannelBuffer compositeFrame(ChannelBufferFactory factory,
+		ChannelBuffer message, boolean checksum) {
+		int length = message.readableBytes();
+		int crc = checksum ? (int) getCrc32(message) : 0;
+		if (message.order() == ByteOrder.BIG_ENDIAN) {
+			length = Integer.reverseBytes(length);
+			crc = Integer.reverseBytes(crc);
+		}
+
+		ChannelBuffer header = factory.getBuffer(message.order(),
+			HEADER_LENGTH);
+		header.writeInt(length);
+		header.writeInt(crc);
+		return ChannelBuffers.wrappedBuffer(header, message);
+	}
 }
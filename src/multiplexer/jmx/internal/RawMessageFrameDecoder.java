@@ -15,15 +15,17 @@
 
 package multiplexer.jmx.internal;
 
-import static multiplexer.jmx.internal.RawMessageFrame.getCrc32;
-
 import java.nio.ByteOrder;
+import java.util.zip.CRC32;
 
 import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelStateEvent;
 import org.jboss.netty.channel.Channels;
-import org.jboss.netty.handler.codec.replay.ReplayingDecoder;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -34,110 +36,151 @@ import org.slf4j.LoggerFactory;
  * 
  * You may want to prepend it with {@link ChannelBufferFactorySettingHandler}.
  * {@code LITTLE_ENDIAN_BUFFER_FACTORY_SETTER} to simplify header decoding.
+ * 
+ * By default only the message (without the header) is passed upstream. A
+ * decoder created with {@code preserveHeader} set passes whole frames instead,
+ * which allows forwarding them without re-encoding (see
+ * {@link RawMultiplexerMessage}).
+ * 
+ * The header of a frame is read once; the frame's buffer is then allocated
+ * with the frame's length and each received buffer is copied into it (and
+ * added to the checksum) as it arrives, so a frame spanning many reads is
+ * decoded in time linear in its length. All frames complete in a read are
+ * passed upstream before the next read.
  *
  * @author Piotr Findeisen
  */
-public class RawMessageFrameDecoder extends
-	ReplayingDecoder<RawMessageDecoderState> {
+public class RawMessageFrameDecoder extends SimpleChannelUpstreamHandler {
 
 	private static final Logger logger = LoggerFactory
 		.getLogger(RawMessageFrameDecoder.class);
 
-	private static final int MAX_MESSAGE_SIZE = 128 * 1024 * 1024;
+	private final boolean preserveHeader;
+	private volatile boolean checksumEnabled = true;
 
+	// State of the frame being read, accessed by the I/O thread only.
+	private final ChannelBuffer header = ChannelBuffers.buffer(
+		ByteOrder.LITTLE_ENDIAN, RawMessageFrame.HEADER_LENGTH);
+	private final CRC32 crc32 = new CRC32();
 	private int length;
 	private int crc;
+	private boolean verifyCrc;
+	// null until the header is read
+	private ChannelBuffer frame;
 
 	public RawMessageFrameDecoder() {
-		super(RawMessageDecoderState.READ_LENGTH);
+		this(false);
 	}
 
 	/**
-	 * Decode uses {@link ReplayingDecoder} magic to incrementally read the
-	 * whole chunk (frame).
+	 * @param preserveHeader
+	 *            if true, complete frames (including the {@code [ length ][
+	 *            crc ]} header) are passed upstream
 	 */
-	@Override
-	protected Object decode(ChannelHandlerContext ctx, Channel channel,
-		ChannelBuffer buffer, RawMessageDecoderState state) throws Exception {
-
-		logger.trace("RawMessageFrameDecoder.decode with state {}", state);
-
-		switch (state) {
-		case READ_LENGTH:
-			length = buffer.readInt();
-			if (buffer.order() == ByteOrder.BIG_ENDIAN) {
-				length = Integer.reverseBytes(length);
-			}
-			if (length < 0) {
-				Channels.close(channel);
-				throw new Exception("length must be positive, not " + length);
-			}
-			if (length > MAX_MESSAGE_SIZE) {
-				Channels.close(channel);
-				throw new Exception("length must be less than "
-					+ MAX_MESSAGE_SIZE + ", not " + length);
-			}
-			checkpoint(RawMessageDecoderState.READ_CRC32);
-		case READ_CRC32:
-			crc = buffer.readInt();
-			if (buffer.order() == ByteOrder.BIG_ENDIAN) {
-				crc = Integer.reverseBytes(crc);
-			}
-			logger.trace("next message length = {}, crc = {}", length, crc);
-			checkpoint(RawMessageDecoderState.READ_MESSAGE);
-		case READ_MESSAGE:
-			ChannelBuffer message = buffer.readBytes(length);
-			assert message.readableBytes() == length;
-			checkpoint(RawMessageDecoderState.READ_LENGTH);
-			if (!checkCrc(message)) {
-				throw new Exception(
-						"message of length " + length + " with invalid checksum " + crc + " received over " + channel);
-			}
-			return message;
-		default:
-			throw new Error("Shouldn't reach here.");
-		}
+	public RawMessageFrameDecoder(boolean preserveHeader) {
+		this.preserveHeader = preserveHeader;
+	}
+
+	public boolean isChecksumEnabled() {
+		return checksumEnabled;
+	}
+
+	/**
+	 * @param checksumEnabled
+	 *            if false, checksums of incoming frames are not verified
+	 */
+	public void setChecksumEnabled(boolean checksumEnabled) {
+		this.checksumEnabled = checksumEnabled;
 	}
 
 	@Override
-	protected Object decodeLast(ChannelHandlerContext ctx, Channel channel,
-		ChannelBuffer buffer, RawMessageDecoderState state) throws Exception {
-
-		logger
-			.trace(
-				"RawMessageFrameDecoder.decodeLast with state {} buffer.readableBytes = {}",
-				state, buffer.readableBytes());
-
-		if (state == RawMessageDecoderState.READ_LENGTH
-			&& buffer.readableBytes() == 0) {
-			// OK, Channel closed at the frame boundary.
-			return null;
-		}
+	public void messageReceived(ChannelHandlerContext ctx, MessageEvent e)
+		throws Exception {
 
-		logger.warn(
-			"Channel closed when decoder state is {}, readableBytes = {}",
-			state, buffer.readableBytes());
-		return null;
+		if (!(e.getMessage() instanceof ChannelBuffer)) {
+			ctx.sendUpstream(e);
+			return;
+		}
+		ChannelBuffer buffer = (ChannelBuffer) e.getMessage();
+		Channel channel = ctx.getChannel();
+
+		while (buffer.readable()) {
+			if (frame == null && !readHeader(buffer, channel))
+				return;
+
+			int bytes = Math.min(buffer.readableBytes(), frame.writableBytes());
+			if (verifyCrc)
+				RawMessageFrame.updateCrc32(crc32, buffer, buffer
+					.readerIndex(), bytes);
+			frame.writeBytes(buffer, bytes);
+			if (frame.writable())
+				return;
+			frameComplete(ctx, channel, e);
+		}
 	}
 
 	/**
-	 * validate crc32 checksum of the incoming message
-	 * 
-	 * @param message
-	 *            the message read from the channel (not including headers)
-	 * @throws Exception
-	 *             throw if the checksum does not mach
+	 * Reads as much of the header as there is in the {@code buffer}. Once it
+	 * is complete, allocates the frame and returns true.
 	 */
-	private boolean checkCrc(ChannelBuffer message) throws Exception {
-		if (this.crc != (int) getCrc32(message))
+	private boolean readHeader(ChannelBuffer buffer, Channel channel)
+		throws Exception {
+		header.writeBytes(buffer, Math.min(buffer.readableBytes(), header
+			.writableBytes()));
+		if (header.writable())
 			return false;
+
+		length = header.getInt(0);
+		crc = header.getInt(4);
+		header.clear();
+		logger.trace("next message length = {}, crc = {}", length, crc);
+		if (length < 0) {
+			Channels.close(channel);
+			throw new Exception("length must be positive, not " + length);
+		}
+		if (length > RawMessageFrame.MAX_MESSAGE_SIZE) {
+			Channels.close(channel);
+			throw new Exception("length must be less than "
+				+ RawMessageFrame.MAX_MESSAGE_SIZE + ", not " + length);
+		}
+
+		if (preserveHeader) {
+			frame = ChannelBuffers.buffer(ByteOrder.LITTLE_ENDIAN,
+				RawMessageFrame.HEADER_LENGTH + length);
+			frame.writeInt(length);
+			frame.writeInt(crc);
+		} else {
+			frame = buffer.factory().getBuffer(buffer.order(), length);
+		}
+		verifyCrc = checksumEnabled;
+		crc32.reset();
 		return true;
 	}
-}
 
-/**
- * RawMessageDecoderState is internally used by RawMessageFrameDecoder
- */
-enum RawMessageDecoderState {
-	READ_LENGTH, READ_CRC32, READ_MESSAGE,
+	private void frameComplete(ChannelHandlerContext ctx, Channel channel,
+		MessageEvent e) {
+		ChannelBuffer frame = this.frame;
+		this.frame = null;
+		if (verifyCrc && crc != (int) crc32.getValue()) {
+			// the frame is skipped, the following ones are still decoded
+			Channels.fireExceptionCaught(ctx, new Exception("message of length "
+				+ length + " with invalid checksum " + crc + " received over "
+				+ channel));
+			return;
+		}
+		Channels.fireMessageReceived(ctx, frame, e.getRemoteAddress());
+	}
+
+	@Override
+	public void channelClosed(ChannelHandlerContext ctx, ChannelStateEvent e)
+		throws Exception {
+		if (frame != null || header.readable()) {
+			logger.warn(
+				"Channel closed in the middle of a frame, {} bytes of {} read",
+				frame == null ? header.readableBytes() : frame.writerIndex(),
+				frame == null ? RawMessageFrame.HEADER_LENGTH : frame
+					.capacity());
+		}
+		ctx.sendUpstream(e);
+	}
 }
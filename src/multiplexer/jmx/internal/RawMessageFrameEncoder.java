@@ -15,15 +15,9 @@
 
 package multiplexer.jmx.internal;
 
-import static multiplexer.jmx.internal.RawMessageFrame.getCrc32;
-
-import java.nio.ByteOrder;
-
 import org.jboss.netty.buffer.ChannelBuffer;
-import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelHandlerContext;
-import org.jboss.netty.channel.ChannelHandler.Sharable;
 import org.jboss.netty.handler.codec.oneone.OneToOneEncoder;
 
 /**
@@ -34,28 +28,49 @@ import org.jboss.netty.handler.codec.oneone.OneToOneEncoder;
  * </pre>
  * 
  * (thus, as expected by RawMessageFrameDecoder)
+ * 
+ * The serialized message is not copied, the frame is a composite of a small
+ * header buffer and the message. {@link RawMultiplexerMessage}s are already
+ * framed and are written out as they are.
+ * 
+ * The encoder holds per-channel state (whether checksums are calculated, see
+ * {@link #setChecksumEnabled}) and must not be shared between pipelines.
  *
  * @author Piotr Findeisen
  */
-@Sharable
 public class RawMessageFrameEncoder extends OneToOneEncoder {
 
-	private static final int HEADER_LENGTH = 8;
+	private volatile boolean checksumEnabled = true;
+
+	public boolean isChecksumEnabled() {
+		return checksumEnabled;
+	}
+
+	/**
+	 * @param checksumEnabled
+	 *            if false, {@code 0} is sent in place of frames' crc; the peer
+	 *            must not verify checksums then
+	 */
+	public void setChecksumEnabled(boolean checksumEnabled) {
+		this.checksumEnabled = checksumEnabled;
+	}
 
 	@Override
 	protected Object encode(ChannelHandlerContext ctx, Channel channel,
 		Object msg) throws Exception {
 
-		ChannelBuffer serialized = (ChannelBuffer) msg;
-		int length = serialized.readableBytes();
-		long crc = getCrc32(serialized);
-
-		ChannelBuffer rawMessage = ChannelBuffers.buffer(
-			ByteOrder.LITTLE_ENDIAN, HEADER_LENGTH + length);
-		rawMessage.writeInt(length);
-		rawMessage.writeInt((int) crc);
-		rawMessage.writeBytes(serialized);
+		if (msg instanceof RawMultiplexerMessage) {
+			// The same frame may be written to many channels at once.
+			ChannelBuffer frame = ((RawMultiplexerMessage) msg).getFrame()
+				.duplicate();
+			if (checksumEnabled && RawMessageFrame.getFrameCrc(frame) == 0) {
+				// Received over a connection with checksums disabled.
+				return RawMessageFrame.withCrc(frame);
+			}
+			return frame;
+		}
 
-		return rawMessage;
+		return RawMessageFrame.compositeFrame(channel.getConfig()
+			.getBufferFactory(), (ChannelBuffer) msg, checksumEnabled);
 	}
 }
@@ -0,0 +1,743 @@
+// Copyright 2009 Warsaw University, Faculty of Physics
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+package multiplexer.jmx.internal;
+
+import static multiplexer.jmx.internal.RawMessageFrame.HEADER_LENGTH;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import multiplexer.protocol.Protocol.Affinity;
+import multiplexer.protocol.Protocol.MultiplexerMessage;
+import multiplexer.protocol.Protocol.MultiplexerMessageDescription.RoutingRule;
+import multiplexer.protocol.Protocol.Priority;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBufferInputStream;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.buffer.HeapChannelBufferFactory;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
+
+/**
+ * A {@link MultiplexerMessage} kept in its wire format: a complete
+ * {@code [ length ][ crc ][ message... ]} frame together with the few header
+ * fields that are needed for routing ({@code id}, {@code from}, {@code to},
+ * {@code type}, {@code references}, {@code override_rrules}, {@code hops} and
+ * delivery error reporting flags).
+ *
+ * <p>
+ * The header fields are read directly from the frame, without copying the
+ * {@code message} payload. The full {@link MultiplexerMessage} is parsed lazily,
+ * only if {@link #getMessage()} is called. Writing an instance of this class to
+ * a {@link org.jboss.netty.channel.Channel} sends out the original frame (see
+ * {@link RawMessageFrameEncoder}), so forwarding a message neither re-serializes
+ * it nor recomputes its checksum (unless the frame was received without one
+ * and is forwarded over a connection with checksums enabled).
+ *
+ * <p>
+ * Conversely, an instance created with {@link #wrap} serializes the message
+ * only when its frame is first needed, so a message exchanged between peers
+ * in the same JVM (see
+ * {@link ConnectionsManagerChannelPipelineFactory#getInVmPipeline()}) is
+ * never serialized.
+ *
+ * <p>
+ * Instances are immutable and may be shared between threads and written to
+ * many channels.
+ */
+public final class RawMultiplexerMessage {
+
+	private static final int WIRETYPE_VARINT = 0;
+	private static final int WIRETYPE_FIXED64 = 1;
+	private static final int WIRETYPE_LENGTH_DELIMITED = 2;
+	private static final int WIRETYPE_FIXED32 = 5;
+
+	// MultiplexerMessage field numbers, see Multiplexer.proto
+	private static final int ID_FIELD = 1;
+	private static final int FROM_FIELD = 2;
+	private static final int TO_FIELD = 3;
+	private static final int TYPE_FIELD = 4;
+	private static final int MESSAGE_FIELD = 5;
+	private static final int REFERENCES_FIELD = 7;
+	private static final int WORKFLOW_FIELD = 8;
+	private static final int OVERRIDE_RRULES_FIELD = 20;
+	private static final int REPORT_DELIVERY_ERROR_FIELD = 21;
+	private static final int INCLUDE_ORIGINAL_PACKET_IN_REPORT_FIELD = 22;
+	private static final int COMPRESSION_FIELD = 24;
+	private static final int HOPS_FIELD = 25;
+	private static final int FRAGMENTED_ID_FIELD = 26;
+	private static final int PRIORITY_FIELD = 29;
+	private static final int DEADLINE_FIELD = 30;
+	private static final int AFFINITY_PREFIX_FIELD = 31;
+
+	private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	// both null until needed if created with wrap()
+	private volatile ChannelBuffer frame;
+	private volatile ChannelBuffer payload;
+
+	private boolean hasId;
+	private long id;
+	private boolean hasFrom;
+	private long from;
+	private boolean hasTo;
+	private long to;
+	private boolean hasType;
+	private int type;
+	private boolean hasReferences;
+	private long references;
+	private boolean reportDeliveryError;
+	private boolean includeOriginalPacketInReport;
+	private int hops;
+	private boolean hasFragmentedId;
+	private long fragmentedId;
+	// null if absent
+	private Priority.Values priority;
+	private boolean hasDeadline;
+	private long deadline;
+	private List<RoutingRule> overrideRrules = Collections.emptyList();
+	// positions relative to the payload's reader index, -1 if absent; known
+	// in decoded messages only
+	private boolean keyPositionsKnown;
+	private int messageOffset = -1;
+	private int messageLength;
+	private int workflowOffset = -1;
+	private int workflowLength;
+	private int affinityPrefixOffset = -1;
+	private int affinityPrefixLength;
+	private boolean compressed;
+
+	private volatile MultiplexerMessage message;
+
+	private RawMultiplexerMessage(ChannelBuffer frame, ChannelBuffer payload) {
+		this.frame = frame;
+		this.payload = payload;
+	}
+
+	/**
+	 * Decode routing header of a message from a complete frame, as produced by
+	 * {@link RawMessageFrameDecoder#RawMessageFrameDecoder(boolean)}.
+	 *
+	 * @param frame
+	 *            frame including the {@code [ length ][ crc ]} header; it
+	 *            should not be modified afterwards
+	 * @throws InvalidProtocolBufferException
+	 *             if the frame does not contain a valid
+	 *             {@link MultiplexerMessage}
+	 */
+	public static RawMultiplexerMessage decode(ChannelBuffer frame)
+		throws InvalidProtocolBufferException {
+
+		ChannelBuffer payload = frame.slice(frame.readerIndex()
+			+ HEADER_LENGTH, frame.readableBytes() - HEADER_LENGTH);
+		RawMultiplexerMessage raw = new RawMultiplexerMessage(frame, payload);
+		raw.parseHeader();
+		raw.keyPositionsKnown = true;
+		return raw;
+	}
+
+	/**
+	 * Create a {@link RawMultiplexerMessage} from already parsed
+	 * {@link MultiplexerMessage}. The {@code message} is serialized on the
+	 * first call to {@link #getFrame()} or {@link #getPayload()}.
+	 */
+	public static RawMultiplexerMessage wrap(MultiplexerMessage message) {
+		RawMultiplexerMessage raw = new RawMultiplexerMessage(null, null);
+		raw.hasId = message.hasId();
+		raw.id = message.getId();
+		raw.hasFrom = message.hasFrom();
+		raw.from = message.getFrom();
+		raw.hasTo = message.hasTo();
+		raw.to = message.getTo();
+		raw.hasType = message.hasType();
+		raw.type = message.getType();
+		raw.hasReferences = message.hasReferences();
+		raw.references = message.getReferences();
+		raw.reportDeliveryError = message.getReportDeliveryError();
+		raw.includeOriginalPacketInReport = message
+			.getIncludeOriginalPacketInReport();
+		raw.overrideRrules = message.getOverrideRrulesList();
+		raw.hops = message.getHops();
+		raw.hasFragmentedId = message.hasFragmentedId();
+		raw.fragmentedId = message.getFragmentedId();
+		raw.priority = message.hasPriority() ? message.getPriority() : null;
+		raw.hasDeadline = message.hasDeadline();
+		raw.deadline = message.getDeadline();
+		raw.message = message;
+		return raw;
+	}
+
+	/**
+	 * Returns a copy of this message with the {@code hops} field set to
+	 * {@code hops}. The payload is not copied nor re-serialized: the field is
+	 * appended to it, which overrides any previous value (the last one wins).
+	 */
+	public RawMultiplexerMessage withHops(int hops) {
+		ChannelBuffer payload = getPayload();
+		ChannelBuffer suffix = ChannelBuffers.buffer(payload.order(), 6);
+		writeVarint(suffix, (HOPS_FIELD << 3) | WIRETYPE_VARINT);
+		writeVarint(suffix, hops);
+		ChannelBuffer newPayload = ChannelBuffers.wrappedBuffer(payload
+			.duplicate(), suffix);
+		RawMultiplexerMessage raw = new RawMultiplexerMessage(RawMessageFrame
+			.compositeFrame(HeapChannelBufferFactory.getInstance(), newPayload,
+				true), newPayload);
+		raw.hasId = hasId;
+		raw.id = id;
+		raw.hasFrom = hasFrom;
+		raw.from = from;
+		raw.hasTo = hasTo;
+		raw.to = to;
+		raw.hasType = hasType;
+		raw.type = type;
+		raw.hasReferences = hasReferences;
+		raw.references = references;
+		raw.reportDeliveryError = reportDeliveryError;
+		raw.includeOriginalPacketInReport = includeOriginalPacketInReport;
+		raw.overrideRrules = overrideRrules;
+		raw.hops = hops;
+		raw.hasFragmentedId = hasFragmentedId;
+		raw.fragmentedId = fragmentedId;
+		raw.priority = priority;
+		raw.hasDeadline = hasDeadline;
+		raw.deadline = deadline;
+		raw.messageOffset = messageOffset;
+		raw.messageLength = messageLength;
+		raw.workflowOffset = workflowOffset;
+		raw.workflowLength = workflowLength;
+		raw.affinityPrefixOffset = affinityPrefixOffset;
+		raw.affinityPrefixLength = affinityPrefixLength;
+		raw.compressed = compressed;
+		raw.keyPositionsKnown = keyPositionsKnown;
+		return raw;
+	}
+
+	private static void writeVarint(ChannelBuffer buffer, int value) {
+		while ((value & ~0x7F) != 0) {
+			buffer.writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		buffer.writeByte(value);
+	}
+
+	/**
+	 * Returns the complete frame, including the header. The returned buffer is
+	 * shared; use {@link ChannelBuffer#duplicate()} before reading from it.
+	 */
+	public ChannelBuffer getFrame() {
+		ChannelBuffer frame = this.frame;
+		if (frame == null) {
+			frame = RawMessageFrame.frame(getPayload());
+			this.frame = frame;
+		}
+		return frame;
+	}
+
+	/**
+	 * Returns serialized {@link MultiplexerMessage} (frame without the header).
+	 * The returned buffer is shared; use {@link ChannelBuffer#duplicate()}
+	 * before reading from it.
+	 */
+	public ChannelBuffer getPayload() {
+		ChannelBuffer payload = this.payload;
+		if (payload == null) {
+			payload = ChannelBuffers.wrappedBuffer(message.toByteArray());
+			this.payload = payload;
+		}
+		return payload;
+	}
+
+	/**
+	 * Returns fully parsed {@link MultiplexerMessage}. The message is parsed on
+	 * the first call only.
+	 *
+	 * @throws IllegalStateException
+	 *             if the payload cannot be parsed; this cannot happen for
+	 *             instances created with {@link #decode} or {@link #wrap}
+	 */
+	public MultiplexerMessage getMessage() {
+		MultiplexerMessage message = this.message;
+		if (message == null) {
+			try {
+				message = parseMessage(payload);
+			} catch (InvalidProtocolBufferException e) {
+				throw new IllegalStateException(e);
+			}
+			this.message = message;
+		}
+		return message;
+	}
+
+	static MultiplexerMessage parseMessage(ChannelBuffer payload)
+		throws InvalidProtocolBufferException {
+		try {
+			if (payload.hasArray()) {
+				return MultiplexerMessage.newBuilder().mergeFrom(
+					payload.array(),
+					payload.arrayOffset() + payload.readerIndex(),
+					payload.readableBytes()).build();
+			} else {
+				return MultiplexerMessage.newBuilder().mergeFrom(
+					new ChannelBufferInputStream(payload.duplicate()))
+					.build();
+			}
+		} catch (InvalidProtocolBufferException e) {
+			throw e;
+		} catch (IOException e) {
+			throw new InvalidProtocolBufferException(e.getMessage());
+		}
+	}
+
+	public boolean hasId() {
+		return hasId;
+	}
+
+	public long getId() {
+		return id;
+	}
+
+	public boolean hasFrom() {
+		return hasFrom;
+	}
+
+	public long getFrom() {
+		return from;
+	}
+
+	public boolean hasTo() {
+		return hasTo;
+	}
+
+	public long getTo() {
+		return to;
+	}
+
+	public boolean hasType() {
+		return hasType;
+	}
+
+	public int getType() {
+		return type;
+	}
+
+	public boolean hasReferences() {
+		return hasReferences;
+	}
+
+	public long getReferences() {
+		return references;
+	}
+
+	public boolean getReportDeliveryError() {
+		return reportDeliveryError;
+	}
+
+	public boolean getIncludeOriginalPacketInReport() {
+		return includeOriginalPacketInReport;
+	}
+
+	/**
+	 * Returns the number of multiplexers this message has been forwarded
+	 * through so far.
+	 */
+	public int getHops() {
+		return hops;
+	}
+
+	/**
+	 * Returns true if this message is a fragment of a larger one, see
+	 * {@link Fragments}.
+	 */
+	public boolean hasFragmentedId() {
+		return hasFragmentedId;
+	}
+
+	public long getFragmentedId() {
+		return fragmentedId;
+	}
+
+	/**
+	 * Returns true if the message overrides the priority of its type.
+	 */
+	public boolean hasPriority() {
+		return priority != null;
+	}
+
+	public Priority.Values getPriority() {
+		return priority == null ? Priority.Values.NORMAL : priority;
+	}
+
+	public boolean hasDeadline() {
+		return hasDeadline;
+	}
+
+	public long getDeadline() {
+		return deadline;
+	}
+
+	/**
+	 * Returns true if the message has a deadline earlier than {@code
+	 * nowMillis} (in milliseconds since the epoch).
+	 */
+	public boolean isExpired(long nowMillis) {
+		return hasDeadline && deadline < nowMillis;
+	}
+
+	public int getOverrideRrulesCount() {
+		return overrideRrules.size();
+	}
+
+	public List<RoutingRule> getOverrideRrulesList() {
+		return overrideRrules;
+	}
+
+	/**
+	 * Returns the number of bytes this message occupies on the wire.
+	 */
+	public int getFrameLength() {
+		ChannelBuffer frame = this.frame;
+		if (frame == null)
+			return message.getSerializedSize() + HEADER_LENGTH;
+		return frame.readableBytes();
+	}
+
+	/**
+	 * Returns true if the message has the key used for routing with the
+	 * {@code affinity}.
+	 */
+	public boolean hasAffinityKey(Affinity.Values affinity) {
+		switch (affinity) {
+		case WORKFLOW:
+			if (!keyPositionsKnown)
+				return getMessage().getWorkflow().size() > 0;
+			return workflowLength > 0;
+		case MESSAGE_PREFIX:
+			if (hasFragmentedId) {
+				if (!keyPositionsKnown)
+					return getMessage().hasAffinityPrefix();
+				return affinityPrefixOffset >= 0;
+			}
+			if (!keyPositionsKnown)
+				return getMessage().hasMessage();
+			return messageOffset >= 0;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Returns a 64-bit hash of the key used for routing with the {@code
+	 * affinity}: the {@code workflow} or at most {@code prefixLength} leading
+	 * bytes of the {@code message} ({@code 0} meaning all of them). A
+	 * compressed {@code message} is decompressed first (and hashed as it is
+	 * if it cannot be decompressed). A fragment's key is computed from the
+	 * {@code affinity_prefix} copied to it instead. The message must
+	 * {@link #hasAffinityKey(Affinity.Values) have the key}.
+	 */
+	public long getAffinityKey(Affinity.Values affinity, int prefixLength) {
+		if (affinity == Affinity.Values.WORKFLOW) {
+			if (!keyPositionsKnown)
+				return hash(getMessage().getWorkflow(), 0);
+			return hash(payload, payload.readerIndex() + workflowOffset,
+				workflowLength);
+		}
+		if (affinity == Affinity.Values.MESSAGE_PREFIX) {
+			if (hasFragmentedId) {
+				if (!keyPositionsKnown)
+					return hash(getMessage().getAffinityPrefix(), prefixLength);
+				int length = affinityPrefixLength;
+				if (prefixLength > 0 && prefixLength < length)
+					length = prefixLength;
+				return hash(payload, payload.readerIndex()
+					+ affinityPrefixOffset, length);
+			}
+			if (!keyPositionsKnown || compressed) {
+				MultiplexerMessage message = getMessage();
+				try {
+					message = CompressionHandler.decompress(message);
+				} catch (IOException e) {
+					// still a stable key, though not the uncompressed prefix
+				}
+				return hash(message.getMessage(), prefixLength);
+			}
+			int length = messageLength;
+			if (prefixLength > 0 && prefixLength < length)
+				length = prefixLength;
+			return hash(payload, payload.readerIndex() + messageOffset, length);
+		}
+		throw new IllegalArgumentException("no key for " + affinity);
+	}
+
+	private static long hash(ChannelBuffer buffer, int index, int length) {
+		long hash = FNV_OFFSET_BASIS;
+		for (int i = index; i < index + length; i++) {
+			hash ^= buffer.getByte(i) & 0xFF;
+			hash *= FNV_PRIME;
+		}
+		return hash;
+	}
+
+	private static long hash(ByteString bytes, int prefixLength) {
+		int length = bytes.size();
+		if (prefixLength > 0 && prefixLength < length)
+			length = prefixLength;
+		long hash = FNV_OFFSET_BASIS;
+		for (int i = 0; i < length; i++) {
+			hash ^= bytes.byteAt(i) & 0xFF;
+			hash *= FNV_PRIME;
+		}
+		return hash;
+	}
+
+	@Override
+	public String toString() {
+		return getMessage().toString();
+	}
+
+	/**
+	 * Read the routing header fields from the {@code payload} in a single pass,
+	 * skipping all other fields (notably the {@code message}) without copying
+	 * them. Semantics of repeated occurrences of fields follow the protocol
+	 * buffers' rules (last one wins, repeated fields are concatenated).
+	 */
+	private void parseHeader() throws InvalidProtocolBufferException {
+		int pos = payload.readerIndex();
+		final int end = pos + payload.readableBytes();
+		List<RoutingRule> rrules = null;
+
+		while (pos < end) {
+			long tag = 0;
+			int shift = 0;
+			// Inlined varint decoding for tags, values are decoded below.
+			for (;;) {
+				if (pos >= end || shift >= 64)
+					throw malformed();
+				byte b = payload.getByte(pos++);
+				tag |= (long) (b & 0x7F) << shift;
+				if (b >= 0)
+					break;
+				shift += 7;
+			}
+			int fieldNumber = (int) (tag >>> 3);
+			int wireType = (int) (tag & 7);
+
+			switch (wireType) {
+			case WIRETYPE_VARINT:
+				long value = 0;
+				shift = 0;
+				for (;;) {
+					if (pos >= end || shift >= 64)
+						throw malformed();
+					byte b = payload.getByte(pos++);
+					value |= (long) (b & 0x7F) << shift;
+					if (b >= 0)
+						break;
+					shift += 7;
+				}
+				setVarintField(fieldNumber, value);
+				break;
+
+			case WIRETYPE_FIXED64:
+				pos += 8;
+				break;
+
+			case WIRETYPE_FIXED32:
+				pos += 4;
+				break;
+
+			case WIRETYPE_LENGTH_DELIMITED:
+				int length = 0;
+				shift = 0;
+				for (;;) {
+					if (pos >= end || shift >= 32)
+						throw malformed();
+					byte b = payload.getByte(pos++);
+					length |= (b & 0x7F) << shift;
+					if (b >= 0)
+						break;
+					shift += 7;
+				}
+				if (length < 0 || length > end - pos)
+					throw malformed();
+				if (fieldNumber == MESSAGE_FIELD) {
+					messageOffset = pos - payload.readerIndex();
+					messageLength = length;
+				} else if (fieldNumber == WORKFLOW_FIELD) {
+					workflowOffset = pos - payload.readerIndex();
+					workflowLength = length;
+				} else if (fieldNumber == AFFINITY_PREFIX_FIELD) {
+					affinityPrefixOffset = pos - payload.readerIndex();
+					affinityPrefixLength = length;
+				} else if (fieldNumber == OVERRIDE_RRULES_FIELD) {
+					if (rrules == null)
+						rrules = new ArrayList<RoutingRule>(2);
+					byte[] rruleBytes = new byte[length];
+					payload.getBytes(pos, rruleBytes);
+					rrules.add(RoutingRule.parseFrom(rruleBytes));
+				}
+				pos += length;
+				break;
+
+			default:
+				// Groups are not used in the Multiplexer protocol.
+				throw malformed();
+			}
+		}
+		if (pos != end)
+			throw malformed();
+		if (!hasType)
+			throw new InvalidProtocolBufferException(
+				"Message missing required fields: type");
+		if (rrules != null)
+			overrideRrules = Collections.unmodifiableList(rrules);
+	}
+
+	private void setVarintField(int fieldNumber, long value) {
+		switch (fieldNumber) {
+		case ID_FIELD:
+			hasId = true;
+			id = value;
+			break;
+		case FROM_FIELD:
+			hasFrom = true;
+			from = value;
+			break;
+		case TO_FIELD:
+			hasTo = true;
+			to = value;
+			break;
+		case TYPE_FIELD:
+			hasType = true;
+			type = (int) value;
+			break;
+		case REFERENCES_FIELD:
+			hasReferences = true;
+			references = value;
+			break;
+		case REPORT_DELIVERY_ERROR_FIELD:
+			reportDeliveryError = value != 0;
+			break;
+		case INCLUDE_ORIGINAL_PACKET_IN_REPORT_FIELD:
+			includeOriginalPacketInReport = value != 0;
+			break;
+		case COMPRESSION_FIELD:
+			compressed = value != 0;
+			break;
+		case HOPS_FIELD:
+			hops = (int) value;
+			break;
+		case FRAGMENTED_ID_FIELD:
+			hasFragmentedId = true;
+			fragmentedId = value;
+			break;
+		case PRIORITY_FIELD:
+			// unknown values are ignored, as by the generated parser
+			priority = Priority.Values.valueOf((int) value);
+			break;
+		case DEADLINE_FIELD:
+			hasDeadline = true;
+			deadline = value;
+			break;
+		default:
+			// not needed for routing
+			break;
+		}
+	}
+
+	/**
+	 * Returns the {@code type} of the message in the {@code frame} (which
+	 * includes the {@code [ length ][ crc ]} header) or {@code -1} if it
+	 * cannot be found. Only the fields preceding {@code type} are scanned
+	 * and nothing is allocated.
+	 */
+	public static int peekType(ChannelBuffer frame) {
+		int pos = frame.readerIndex() + HEADER_LENGTH;
+		final int end = frame.writerIndex();
+
+		while (pos < end) {
+			long tag = 0;
+			int shift = 0;
+			for (;;) {
+				if (pos >= end || shift >= 64)
+					return -1;
+				byte b = frame.getByte(pos++);
+				tag |= (long) (b & 0x7F) << shift;
+				if (b >= 0)
+					break;
+				shift += 7;
+			}
+			int fieldNumber = (int) (tag >>> 3);
+			int wireType = (int) (tag & 7);
+
+			switch (wireType) {
+			case WIRETYPE_VARINT:
+				long value = 0;
+				shift = 0;
+				for (;;) {
+					if (pos >= end || shift >= 64)
+						return -1;
+					byte b = frame.getByte(pos++);
+					value |= (long) (b & 0x7F) << shift;
+					if (b >= 0)
+						break;
+					shift += 7;
+				}
+				if (fieldNumber == TYPE_FIELD)
+					return (int) value;
+				break;
+
+			case WIRETYPE_FIXED64:
+				pos += 8;
+				break;
+
+			case WIRETYPE_FIXED32:
+				pos += 4;
+				break;
+
+			case WIRETYPE_LENGTH_DELIMITED:
+				int length = 0;
+				shift = 0;
+				for (;;) {
+					if (pos >= end || shift >= 32)
+						return -1;
+					byte b = frame.getByte(pos++);
+					length |= (b & 0x7F) << shift;
+					if (b >= 0)
+						break;
+					shift += 7;
+				}
+				if (length < 0)
+					return -1;
+				pos += length;
+				break;
+
+			default:
+				return -1;
+			}
+		}
+		return -1;
+	}
+
+	private static InvalidProtocolBufferException malformed() {
+		return new InvalidProtocolBufferException(
+			"Malformed MultiplexerMessage frame.");
+	}
+}
@@ -0,0 +1,42 @@
+// Copyright 2009 Warsaw University, Faculty of Physics
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+package multiplexer.jmx.internal;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelHandler.Sharable;
+import org.jboss.netty.handler.codec.oneone.OneToOneDecoder;
+
+/**
+ * Decodes complete frames (as passed by {@link RawMessageFrameDecoder} with
+ * {@code preserveHeader} set) into {@link RawMultiplexerMessage}s. This is a
+ * replacement for {@link org.jboss.netty.handler.codec.protobuf.ProtobufDecoder}
+ * for peers that mostly forward messages, like the Multiplexer server.
+ */
+@Sharable
+public class RawMultiplexerMessageDecoder extends OneToOneDecoder {
+
+	@Override
+	protected Object decode(ChannelHandlerContext ctx, Channel channel,
+		Object msg) throws Exception {
+
+		if (!(msg instanceof ChannelBuffer)) {
+			return msg;
+		}
+		return RawMultiplexerMessage.decode((ChannelBuffer) msg);
+	}
+}
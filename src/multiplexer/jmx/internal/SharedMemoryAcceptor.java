@@ -0,0 +1,114 @@
+// Copyright 2009 Warsaw University, Faculty of Physics
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+package multiplexer.jmx.internal;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFactory;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.local.DefaultLocalClientChannelFactory;
+import org.jboss.netty.channel.local.LocalAddress;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Accepts connections made by {@link SharedMemoryConnector}s in a directory
+ * on behalf of a Multiplexer server. Each accepted connection gets a
+ * {@link SharedMemoryBridge} connected to the server's {@code serverAddress},
+ * a local address at which the server listens with its usual pipeline. The
+ * directory is looked through every
+ * {@link Config#SHARED_MEMORY_ACCEPT_INTERVAL_MILLIS}.
+ */
+public class SharedMemoryAcceptor implements Runnable {
+
+	private static final Logger logger = LoggerFactory
+		.getLogger(SharedMemoryAcceptor.class);
+
+	private static final FilenameFilter MARKERS = new FilenameFilter() {
+		public boolean accept(File dir, String name) {
+			return name.endsWith(SharedMemoryConnector.MARKER_SUFFIX);
+		}
+	};
+
+	private final File directory;
+	private final LocalAddress serverAddress;
+	private final ChannelFactory bridgeFactory = new DefaultLocalClientChannelFactory();
+	private volatile boolean running = true;
+
+	public SharedMemoryAcceptor(File directory, LocalAddress serverAddress) {
+		this.directory = directory;
+		this.serverAddress = serverAddress;
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	public void run() {
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			logger.error("cannot create {}", directory);
+			return;
+		}
+		while (running) {
+			File[] markers = directory.listFiles(MARKERS);
+			if (markers != null) {
+				for (File marker : markers) {
+					accept(marker);
+				}
+			}
+			try {
+				Thread.sleep(Config.SHARED_MEMORY_ACCEPT_INTERVAL_MILLIS);
+			} catch (InterruptedException e) {
+				break;
+			}
+		}
+	}
+
+	private void accept(File marker) {
+		if (!marker.delete()) {
+			// given up by the connecting side
+			return;
+		}
+		String markerName = marker.getName();
+		String name = markerName.substring(0, markerName.length()
+			- SharedMemoryConnector.MARKER_SUFFIX.length());
+		File inFile = new File(directory, name
+			+ SharedMemoryConnector.CLIENT_TO_SERVER_SUFFIX);
+		File outFile = new File(directory, name
+			+ SharedMemoryConnector.SERVER_TO_CLIENT_SUFFIX);
+		try {
+			SharedMemoryRing in = SharedMemoryRing.open(inFile);
+			SharedMemoryRing out = SharedMemoryRing.open(outFile);
+			Channel channel = bridgeFactory.newChannel(Channels
+				.pipeline(new SharedMemoryBridge(in, out, null)));
+			channel.connect(serverAddress);
+			logger.debug("accepted connection {}", name);
+		} catch (IOException e) {
+			logger.warn("cannot accept connection " + name, e);
+		} finally {
+			// both sides have them mapped already
+			inFile.delete();
+			outFile.delete();
+		}
+	}
+
+	public void stop() {
+		running = false;
+	}
+}
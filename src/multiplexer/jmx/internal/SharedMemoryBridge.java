@@ -0,0 +1,217 @@
+// Copyright 2009 Warsaw University, Faculty of Physics
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+package multiplexer.jmx.internal;
+
+import java.io.File;
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.ExceptionEvent;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Connects a {@link org.jboss.netty.channel.local local channel} to a pair of
+ * {@link SharedMemoryRing}s. The other end of the local channel is a channel
+ * with the usual (TCP) pipeline of a peer or of the Multiplexer server, so the
+ * bytes it writes (frames) are copied into the outgoing ring, and the bytes
+ * read from the incoming ring are written back to it, to be decoded as if
+ * they came from a socket.
+ * 
+ * Each bridge has a thread which polls the incoming ring and copies the bytes
+ * which did not fit in the outgoing ring when written. When idle, it spins
+ * {@link Config#SHARED_MEMORY_SPINS} times, then yields and finally parks
+ * for increasing periods of up to {@link Config#SHARED_MEMORY_MAX_PARK_MICROS}.
+ * 
+ * The connection is closed when either side closes its channel; a process
+ * which dies without closing it is detected by the {@link HeartbitHandler}.
+ */
+public class SharedMemoryBridge extends SimpleChannelUpstreamHandler
+	implements Runnable {
+
+	private static final Logger logger = LoggerFactory
+		.getLogger(SharedMemoryBridge.class);
+
+	private static final int YIELDS = 100;
+
+	private final SharedMemoryRing in;
+	private final SharedMemoryRing out;
+	private final File marker;
+	// guarded by out
+	private final Queue<ChannelBuffer> pending = new LinkedList<ChannelBuffer>();
+
+	private volatile Channel channel;
+	private volatile Thread thread;
+	private volatile boolean closed;
+
+	/**
+	 * @param marker
+	 *            on the connecting side, the file which the Multiplexer
+	 *            server removes when it accepts the connection; if it is not
+	 *            accepted in {@link Config#SHARED_MEMORY_CONNECT_TIMEOUT_MILLIS},
+	 *            the connection is closed; {@code null} on the accepting side
+	 */
+	public SharedMemoryBridge(SharedMemoryRing in, SharedMemoryRing out,
+		File marker) {
+		this.in = in;
+		this.out = out;
+		this.marker = marker;
+	}
+
+	@Override
+	public void channelConnected(ChannelHandlerContext ctx, ChannelStateEvent e)
+		throws Exception {
+		channel = e.getChannel();
+		thread = new Thread(this, SharedMemoryBridge.class.getSimpleName()
+			+ " " + in.getFile().getName());
+		thread.setDaemon(true);
+		thread.start();
+		super.channelConnected(ctx, e);
+	}
+
+	@Override
+	public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) {
+		ChannelBuffer buffer = (ChannelBuffer) e.getMessage();
+		synchronized (out) {
+			if (closed)
+				return;
+			if (pending.isEmpty())
+				out.offer(buffer);
+			if (!buffer.readable())
+				return;
+			pending.add(buffer);
+		}
+		LockSupport.unpark(thread);
+	}
+
+	@Override
+	public void channelClosed(ChannelHandlerContext ctx, ChannelStateEvent e)
+		throws Exception {
+		synchronized (out) {
+			closed = true;
+			pending.clear();
+			out.closeWriter();
+		}
+		in.closeReader();
+		Thread thread = this.thread;
+		if (thread != null)
+			LockSupport.unpark(thread);
+		super.channelClosed(ctx, e);
+	}
+
+	@Override
+	public void exceptionCaught(ChannelHandlerContext ctx, ExceptionEvent e) {
+		logger.warn("closing " + e.getChannel(), e.getCause());
+		Channels.close(e.getChannel());
+	}
+
+	public void run() {
+		long acceptDeadline = marker == null ? 0 : System.nanoTime()
+			+ TimeUnit.MILLISECONDS
+				.toNanos(Config.SHARED_MEMORY_CONNECT_TIMEOUT_MILLIS);
+		int idle = 0;
+		try {
+			while (!closed) {
+				boolean busy = false;
+
+				// read before polling, so that nothing written before the
+				// other side closed is missed
+				boolean closedByPeer = in.isWriterClosed()
+					|| out.isReaderClosed();
+				ChannelBuffer received = in.poll();
+				if (received != null) {
+					Channels.write(channel, received);
+					acceptDeadline = 0;
+					busy = true;
+				} else if (closedByPeer) {
+					logger.debug("{} closed by the other side", channel);
+					break;
+				}
+
+				synchronized (out) {
+					ChannelBuffer buffer;
+					while ((buffer = pending.peek()) != null) {
+						if (out.offer(buffer) > 0)
+							busy = true;
+						if (buffer.readable())
+							break;
+						pending.remove();
+					}
+				}
+
+				if (busy) {
+					idle = 0;
+					continue;
+				}
+				if (acceptDeadline != 0
+					&& System.nanoTime() - acceptDeadline >= 0) {
+					if (withdraw()) {
+						logger.warn("connection through {} not accepted",
+							marker);
+						break;
+					}
+					// accepted in the meantime
+					acceptDeadline = 0;
+				}
+				idle(idle);
+				if (idle < Integer.MAX_VALUE)
+					idle++;
+			}
+		} catch (RuntimeException e) {
+			logger.warn("closing " + channel, e);
+		} finally {
+			if (acceptDeadline != 0)
+				withdraw();
+			Channels.close(channel);
+		}
+	}
+
+	/**
+	 * Removes the files of a connection not accepted yet, unless the
+	 * Multiplexer server has just accepted it; returns true if they were
+	 * removed.
+	 */
+	private boolean withdraw() {
+		if (!marker.delete())
+			return false;
+		in.getFile().delete();
+		out.getFile().delete();
+		return true;
+	}
+
+	private static void idle(int idle) {
+		if (idle < Config.SHARED_MEMORY_SPINS)
+			return;
+		idle -= Config.SHARED_MEMORY_SPINS;
+		if (idle < YIELDS) {
+			Thread.yield();
+			return;
+		}
+		idle -= YIELDS;
+		LockSupport.parkNanos(Math.min(TimeUnit.MICROSECONDS
+			.toNanos(Config.SHARED_MEMORY_MAX_PARK_MICROS), 1000L << Math.min(
+			idle, 20)));
+	}
+}
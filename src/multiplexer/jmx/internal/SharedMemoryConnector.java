@@ -0,0 +1,117 @@
+// Copyright 2009 Warsaw University, Faculty of Physics
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+package multiplexer.jmx.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import multiplexer.jmx.client.SharedMemoryAddress;
+
+import org.jboss.netty.bootstrap.ClientBootstrap;
+import org.jboss.netty.bootstrap.ServerBootstrap;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
+import org.jboss.netty.channel.ChannelPipelineFactory;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.local.DefaultLocalClientChannelFactory;
+import org.jboss.netty.channel.local.DefaultLocalServerChannelFactory;
+import org.jboss.netty.channel.local.LocalAddress;
+import org.jboss.netty.channel.local.LocalServerChannelFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Makes connections to Multiplexer servers at {@link SharedMemoryAddress}es.
+ * 
+ * A connection is requested by creating two {@link SharedMemoryRing} files
+ * and then a marker file in the server's directory, all named after the
+ * connection; the server's {@link SharedMemoryAcceptor} accepts it by removing
+ * the files. The channel returned to the caller is a local channel with the
+ * usual pipeline, connected to a {@link SharedMemoryBridge} of the rings, so
+ * the handshake ({@code CONNECTION_WELCOME}s) and all the frames pass
+ * through the rings.
+ */
+public class SharedMemoryConnector {
+
+	private static final Logger logger = LoggerFactory
+		.getLogger(SharedMemoryConnector.class);
+
+	static final String CLIENT_TO_SERVER_SUFFIX = ".c2s";
+	static final String SERVER_TO_CLIENT_SUFFIX = ".s2c";
+	static final String MARKER_SUFFIX = ".connect";
+
+	private final ClientBootstrap connector = new ClientBootstrap(
+		new DefaultLocalClientChannelFactory());
+	private final LocalServerChannelFactory bridgeFactory = new DefaultLocalServerChannelFactory();
+	private final Random random = new Random();
+
+	/**
+	 * @param pipelineFactory
+	 *            creates pipelines of the connections' channels
+	 */
+	public SharedMemoryConnector(ChannelPipelineFactory pipelineFactory) {
+		connector.setPipelineFactory(pipelineFactory);
+	}
+
+	public ChannelFuture connect(SharedMemoryAddress address) {
+		String name = Long.toHexString(random.nextLong() >>> 1);
+		File directory = address.getDirectory();
+		File outFile = new File(directory, name + CLIENT_TO_SERVER_SUFFIX);
+		File inFile = new File(directory, name + SERVER_TO_CLIENT_SUFFIX);
+		File marker = new File(directory, name + MARKER_SUFFIX);
+
+		final SharedMemoryBridge bridge;
+		try {
+			SharedMemoryRing out = SharedMemoryRing.create(outFile,
+				Config.SHARED_MEMORY_RING_SIZE);
+			SharedMemoryRing in = SharedMemoryRing.create(inFile,
+				Config.SHARED_MEMORY_RING_SIZE);
+			if (!marker.createNewFile())
+				throw new IOException(marker + " already exists");
+			bridge = new SharedMemoryBridge(in, out, marker);
+		} catch (IOException e) {
+			logger.warn("cannot connect to " + address, e);
+			outFile.delete();
+			inFile.delete();
+			// a channel for the failed future, like a refused connection's
+			Channel channel;
+			try {
+				channel = connector.getFactory().newChannel(
+					connector.getPipelineFactory().getPipeline());
+			} catch (Exception pipelineException) {
+				throw new RuntimeException(pipelineException);
+			}
+			Channels.close(channel);
+			return Channels.failedFuture(channel, e);
+		}
+
+		// Bound only until the connection is made.
+		ServerBootstrap bridgeBootstrap = new ServerBootstrap(bridgeFactory);
+		bridgeBootstrap.setPipeline(Channels.pipeline(bridge));
+		final Channel bridgeServer = bridgeBootstrap.bind(new LocalAddress(
+			SharedMemoryBridge.class.getSimpleName() + "-" + name));
+		ChannelFuture connectFuture = connector.connect(bridgeServer
+			.getLocalAddress());
+		connectFuture.addListener(new ChannelFutureListener() {
+			public void operationComplete(ChannelFuture future) {
+				bridgeServer.close();
+			}
+		});
+		return connectFuture;
+	}
+}
@@ -0,0 +1,244 @@
+// Copyright 2009 Warsaw University, Faculty of Physics
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+package multiplexer.jmx.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+
+/**
+ * A single-producer, single-consumer byte ring in a memory-mapped file, one
+ * direction of a connection made through a
+ * {@link multiplexer.jmx.client.SharedMemoryAddress}. The producer and the
+ * consumer may be different processes. Frames written to the connection
+ * ({@code [ length ][ crc ][ message... ]}, as on TCP connections) are copied
+ * into the ring as they are and read out in batches of whatever is available.
+ * 
+ * The file starts with a header holding the capacity, the producer's and the
+ * consumer's positions (total numbers of bytes written and read, on separate
+ * cache lines) and a closed flag of each side. A position is published only
+ * after the bytes it covers are copied, with a volatile access in between;
+ * this orders the accesses of the mapped memory on HotSpot and on the usual
+ * (TSO) hardware, but is not guaranteed by the Java Memory Model.
+ * 
+ * An instance is used by one side of the ring only and is not thread safe.
+ */
+public final class SharedMemoryRing {
+
+	private static final int MAGIC = 0x4252584d; // "MXRB"
+	private static final int MAGIC_OFFSET = 0;
+	private static final int CAPACITY_OFFSET = 4;
+	private static final int WRITE_POSITION_OFFSET = 64;
+	private static final int WRITER_CLOSED_OFFSET = 72;
+	private static final int READ_POSITION_OFFSET = 128;
+	private static final int READER_CLOSED_OFFSET = 136;
+	public static final int HEADER_LENGTH = 192;
+
+	private static volatile int fence;
+
+	private final File file;
+	private final MappedByteBuffer buffer;
+	private final ByteBuffer data;
+	private final int capacity;
+	private final int mask;
+	// the position of this side
+	private long position;
+
+	private SharedMemoryRing(File file, MappedByteBuffer buffer, int capacity) {
+		this.file = file;
+		this.buffer = buffer;
+		this.capacity = capacity;
+		this.mask = capacity - 1;
+		buffer.position(HEADER_LENGTH);
+		data = buffer.slice();
+	}
+
+	/**
+	 * Creates the ring {@code file} with the capacity of at least {@code
+	 * capacity} bytes (rounded up to a power of two).
+	 */
+	public static SharedMemoryRing create(File file, int capacity)
+		throws IOException {
+		if (capacity <= 0 || capacity > 1 << 30)
+			throw new IllegalArgumentException("capacity " + capacity);
+		capacity = Integer.bitCount(capacity) == 1 ? capacity : Integer
+			.highestOneBit(capacity) << 1;
+		MappedByteBuffer buffer = map(file, HEADER_LENGTH + capacity);
+		buffer.putInt(CAPACITY_OFFSET, capacity);
+		buffer.putLong(WRITE_POSITION_OFFSET, 0);
+		buffer.putInt(WRITER_CLOSED_OFFSET, 0);
+		buffer.putLong(READ_POSITION_OFFSET, 0);
+		buffer.putInt(READER_CLOSED_OFFSET, 0);
+		fence = 0;
+		buffer.putInt(MAGIC_OFFSET, MAGIC);
+		return new SharedMemoryRing(file, buffer, capacity);
+	}
+
+	/**
+	 * Opens the ring {@code file} created by the other side.
+	 */
+	public static SharedMemoryRing open(File file) throws IOException {
+		MappedByteBuffer buffer = map(file, -1);
+		if (buffer.capacity() < HEADER_LENGTH
+			|| buffer.getInt(MAGIC_OFFSET) != MAGIC)
+			throw new IOException(file + " is not a ring file");
+		int capacity = buffer.getInt(CAPACITY_OFFSET);
+		if (Integer.bitCount(capacity) != 1
+			|| HEADER_LENGTH + capacity != buffer.capacity())
+			throw new IOException(file + " has invalid capacity " + capacity);
+		return new SharedMemoryRing(file, buffer, capacity);
+	}
+
+	private static MappedByteBuffer map(File file, int length)
+		throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			if (length >= 0) {
+				raf.setLength(length);
+			} else {
+				length = (int) Math.min(raf.length(), Integer.MAX_VALUE);
+			}
+			MappedByteBuffer buffer = raf.getChannel().map(
+				FileChannel.MapMode.READ_WRITE, 0, length);
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			return buffer;
+		} finally {
+			// the mapping remains valid
+			raf.close();
+		}
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Copies as many readable bytes of {@code source} into the ring as fit,
+	 * advancing its reader index, and publishes them to the consumer.
+	 * 
+	 * @return the number of bytes copied
+	 */
+	public int offer(ChannelBuffer source) {
+		long free = capacity - (position - loadLong(READ_POSITION_OFFSET));
+		int length = (int) Math.min(free, source.readableBytes());
+		if (length == 0)
+			return 0;
+		int offset = (int) (position & mask);
+		int first = Math.min(length, capacity - offset);
+		data.limit(offset + first).position(offset);
+		source.readBytes(data);
+		if (first < length) {
+			data.limit(length - first).position(0);
+			source.readBytes(data);
+		}
+		position += length;
+		storeLong(WRITE_POSITION_OFFSET, position);
+		return length;
+	}
+
+	/**
+	 * Returns all bytes published by the producer and not read yet, or
+	 * {@code null} if there are none, and makes their space available to the
+	 * producer.
+	 */
+	public ChannelBuffer poll() {
+		int length = (int) (loadLong(WRITE_POSITION_OFFSET) - position);
+		if (length == 0)
+			return null;
+		ChannelBuffer target = ChannelBuffers.buffer(ByteOrder.LITTLE_ENDIAN,
+			length);
+		int offset = (int) (position & mask);
+		int first = Math.min(length, capacity - offset);
+		data.limit(offset + first).position(offset);
+		target.writeBytes(data);
+		if (first < length) {
+			data.limit(length - first).position(0);
+			target.writeBytes(data);
+		}
+		position += length;
+		storeLong(READ_POSITION_OFFSET, position);
+		return target;
+	}
+
+	/**
+	 * Marks that the producer will write no more; the consumer is still able
+	 * to {@link #poll()} what has been written.
+	 */
+	public void closeWriter() {
+		storeInt(WRITER_CLOSED_OFFSET, 1);
+	}
+
+	public boolean isWriterClosed() {
+		return loadInt(WRITER_CLOSED_OFFSET) != 0;
+	}
+
+	/**
+	 * Marks that the consumer will read no more.
+	 */
+	public void closeReader() {
+		storeInt(READER_CLOSED_OFFSET, 1);
+	}
+
+	public boolean isReaderClosed() {
+		return loadInt(READER_CLOSED_OFFSET) != 0;
+	}
+
+	// The volatile read after a load keeps later loads after it (acquire),
+	// the volatile write before a store keeps earlier stores before it
+	// (release).
+
+	private long loadLong(int offset) {
+		long value = buffer.getLong(offset);
+		acquire();
+		return value;
+	}
+
+	private void storeLong(int offset, long value) {
+		fence = 0;
+		buffer.putLong(offset, value);
+	}
+
+	private int loadInt(int offset) {
+		int value = buffer.getInt(offset);
+		acquire();
+		return value;
+	}
+
+	private void storeInt(int offset, int value) {
+		fence = 0;
+		buffer.putInt(offset, value);
+	}
+
+	private static int acquire() {
+		return fence;
+	}
+
+	@Override
+	public String toString() {
+		return SharedMemoryRing.class.getSimpleName() + "(" + file + ")";
+	}
+}
@@ -0,0 +1,223 @@
+// Copyright 2009 Warsaw University, Faculty of Physics
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+package multiplexer.jmx.internal;
+
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.ChannelDownstreamHandler;
+import org.jboss.netty.channel.ChannelEvent;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.DownstreamMessageEvent;
+import org.jboss.netty.channel.MessageEvent;
+
+/**
+ * Coalesces frames written to a channel within a short time window into a
+ * single write, so that many small messages cost one system call (and usually
+ * one TCP segment) instead of one each. A batch is written when the window
+ * (started by the first frame of the batch) elapses or as soon as it holds
+ * {@code maxBytes}. Frames of messages whose type is not
+ * {@link Config#isCoalesced(int) coalesced} (HEARTBITs by default), frames of
+ * at least {@code maxBytes} and all other downstream events flush the pending
+ * batch and are passed on immediately, so the order of writes is preserved.
+ *
+ * Events are passed downstream by a single thread at a time, without holding
+ * any lock, as Netty may notify write futures (and thus listeners that write
+ * to this channel again) while holding its own.
+ *
+ * The handler must be placed below the {@link RawMessageFrameEncoder}. It
+ * holds per-channel state and must not be shared between pipelines.
+ */
+public class WriteCoalescingHandler implements ChannelDownstreamHandler {
+
+	private final Config config;
+	private final ScheduledExecutorService scheduler;
+	private final long windowNanos;
+	private final int maxBytes;
+
+	// guarded by this
+	private List<MessageEvent> pending = new ArrayList<MessageEvent>();
+	private int pendingBytes;
+	private boolean flushScheduled;
+
+	/**
+	 * Events ready to be passed downstream, in order.
+	 */
+	private final Queue<ChannelEvent> ready = new ConcurrentLinkedQueue<ChannelEvent>();
+	private final AtomicBoolean draining = new AtomicBoolean();
+	private volatile ChannelHandlerContext ctx;
+
+	private final Runnable scheduledFlush = new Runnable() {
+		public void run() {
+			synchronized (WriteCoalescingHandler.this) {
+				flushScheduled = false;
+				flush();
+			}
+			drain();
+		}
+	};
+
+	/**
+	 * @param config
+	 *            decides which message types are coalesced
+	 * @param scheduler
+	 *            flushes batches once their windows elapse; may be shared
+	 *            between many handlers
+	 * @param window
+	 *            maximal time a frame waits for others to be written with
+	 * @param maxBytes
+	 *            number of bytes of pending frames which triggers a write
+	 */
+	public WriteCoalescingHandler(Config config,
+		ScheduledExecutorService scheduler, long window, TimeUnit unit,
+		int maxBytes) {
+		this.config = config;
+		this.scheduler = scheduler;
+		this.windowNanos = unit.toNanos(window);
+		this.maxBytes = maxBytes;
+	}
+
+	public void handleDownstream(ChannelHandlerContext ctx, ChannelEvent e)
+		throws Exception {
+
+		this.ctx = ctx;
+		synchronized (this) {
+			if (!coalesce(e)) {
+				flush();
+				ready.add(e);
+			}
+		}
+		drain();
+	}
+
+	/**
+	 * Adds {@code e} to the pending batch if it should be coalesced.
+	 */
+	private boolean coalesce(ChannelEvent e) {
+		if (!(e instanceof MessageEvent)
+			|| !(((MessageEvent) e).getMessage() instanceof ChannelBuffer))
+			return false;
+		MessageEvent me = (MessageEvent) e;
+		ChannelBuffer frame = (ChannelBuffer) me.getMessage();
+		int length = frame.readableBytes();
+		if (length >= maxBytes
+			|| !config.isCoalesced(RawMultiplexerMessage.peekType(frame)))
+			return false;
+
+		pending.add(me);
+		pendingBytes += length;
+		if (pendingBytes >= maxBytes) {
+			flush();
+		} else if (!flushScheduled) {
+			try {
+				scheduler.schedule(scheduledFlush, windowNanos,
+					TimeUnit.NANOSECONDS);
+				flushScheduled = true;
+			} catch (RejectedExecutionException ex) {
+				// Shutting down, don't delay the write.
+				flush();
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Moves the pending frames, as a single write, to the {@code ready} queue.
+	 * Must be called with the lock held.
+	 */
+	private void flush() {
+		switch (pending.size()) {
+		case 0:
+			return;
+		case 1:
+			ready.add(pending.get(0));
+			break;
+		default:
+			final List<MessageEvent> batch = pending;
+			ChannelFuture future = Channels.future(batch.get(0).getChannel());
+			future.addListener(new ChannelFutureListener() {
+				public void operationComplete(ChannelFuture future) {
+					for (MessageEvent me : batch) {
+						if (future.isSuccess())
+							me.getFuture().setSuccess();
+						else
+							me.getFuture().setFailure(future.getCause());
+					}
+				}
+			});
+			ready.add(new DownstreamMessageEvent(future.getChannel(), future,
+				merge(batch, pendingBytes), batch.get(0).getRemoteAddress()));
+			break;
+		}
+		pending = new ArrayList<MessageEvent>();
+		pendingBytes = 0;
+	}
+
+	/**
+	 * Passes the {@code ready} events downstream unless another thread is
+	 * already doing it.
+	 */
+	private void drain() {
+		while (!ready.isEmpty()) {
+			if (!draining.compareAndSet(false, true))
+				return;
+			try {
+				ChannelEvent e;
+				while ((e = ready.poll()) != null)
+					ctx.sendDownstream(e);
+			} finally {
+				draining.set(false);
+			}
+		}
+	}
+
+	/**
+	 * Returns a single buffer with contents of all the frames of the
+	 * {@code batch}. The frames are not copied if they have the same byte
+	 * order.
+	 */
+	private static ChannelBuffer merge(List<MessageEvent> batch, int length) {
+		ChannelBuffer[] frames = new ChannelBuffer[batch.size()];
+		ByteOrder order = null;
+		boolean sameOrder = true;
+		for (int i = 0; i < frames.length; i++) {
+			frames[i] = (ChannelBuffer) batch.get(i).getMessage();
+			if (order == null)
+				order = frames[i].order();
+			else if (order != frames[i].order())
+				sameOrder = false;
+		}
+		if (sameOrder)
+			return ChannelBuffers.wrappedBuffer(frames);
+		ChannelBuffer merged = ChannelBuffers.buffer(length);
+		for (ChannelBuffer frame : frames)
+			merged.writeBytes(frame, frame.readerIndex(), frame
+				.readableBytes());
+		return merged;
+	}
+}
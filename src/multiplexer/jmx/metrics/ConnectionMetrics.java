@@ -0,0 +1,106 @@
+// Copyright 2009 Warsaw University, Faculty of Physics
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+package multiplexer.jmx.metrics;
+
+import multiplexer.jmx.internal.OutboundQueueHandler;
+
+import org.jboss.netty.channel.Channel;
+
+/**
+ * {@link TrafficMetrics} of a single connection with a known peer. There may
+ * be many connections, so the counters are not striped (a connection's
+ * traffic is mostly handled by its I/O thread anyway) and latencies are kept
+ * only if asked for.
+ */
+public class ConnectionMetrics extends TrafficMetrics implements
+	ConnectionMetricsMBean {
+
+	private final int peerType;
+	private final long peerId;
+	private final String remoteAddress;
+	private final OutboundQueueHandler outboundQueue;
+
+	ConnectionMetrics(Channel channel, int peerType, long peerId,
+		OutboundQueueHandler outboundQueue, boolean latencies) {
+		super(1, latencies);
+		this.peerType = peerType;
+		this.peerId = peerId;
+		this.remoteAddress = String.valueOf(channel.getRemoteAddress());
+		this.outboundQueue = outboundQueue;
+	}
+
+	public int getPeerType() {
+		return peerType;
+	}
+
+	public String getPeerId() {
+		return "0x" + Long.toHexString(peerId);
+	}
+
+	public String getRemoteAddress() {
+		return remoteAddress;
+	}
+
+	public int getQueueDepth() {
+		return outboundQueue == null ? -1 : outboundQueue.getPending();
+	}
+
+	@Override
+	public Snapshot snapshot() {
+		return new Snapshot(this);
+	}
+
+	/**
+	 * An immutable copy of {@link ConnectionMetrics}.
+	 */
+	public static class Snapshot extends TrafficMetrics.Snapshot {
+		private final int peerType;
+		private final long peerId;
+		private final String remoteAddress;
+		private final int queueDepth;
+
+		Snapshot(ConnectionMetrics metrics) {
+			super(metrics);
+			peerType = metrics.peerType;
+			peerId = metrics.peerId;
+			remoteAddress = metrics.remoteAddress;
+			queueDepth = metrics.getQueueDepth();
+		}
+
+		public int getPeerType() {
+			return peerType;
+		}
+
+		public long getPeerId() {
+			return peerId;
+		}
+
+		public String getRemoteAddress() {
+			return remoteAddress;
+		}
+
+		public int getQueueDepth() {
+			return queueDepth;
+		}
+
+		@Override
+		public String toString() {
+			return remoteAddress + " (type=" + peerType + ", id=0x"
+				+ Long.toHexString(peerId) + ", queue=" + queueDepth + "): "
+				+ super.toString();
+		}
+	}
+}
@@ -0,0 +1,37 @@
+// Copyright 2009 Warsaw University, Faculty of Physics
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+package multiplexer.jmx.metrics;
+
+/**
+ * Management interface of {@link ConnectionMetrics}.
+ */
+public interface ConnectionMetricsMBean extends TrafficMetricsMBean {
+
+	int getPeerType();
+
+	/**
+	 * Returns the peer's instance id as a hexadecimal string.
+	 */
+	String getPeerId();
+
+	String getRemoteAddress();
+
+	/**
+	 * Returns the number of messages written to the connection but not yet
+	 * sent, or {@code -1} if the connection does not track it.
+	 */
+	int getQueueDepth();
+}
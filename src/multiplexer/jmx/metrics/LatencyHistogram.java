@@ -0,0 +1,149 @@
+// Copyright 2009 Warsaw University, Faculty of Physics
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+package multiplexer.jmx.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import multiplexer.jmx.util.StripedCounter;
+
+/**
+ * A histogram of latencies with exponential buckets: bucket {@code 0} counts
+ * latencies below 1&micro;s, bucket {@code i} those in [2<sup>i-1</sup>,
+ * 2<sup>i</sup>) &micro;s. Like the {@link StripedCounter}, each thread
+ * records into its own stripe of buckets, so recording does not contend.
+ */
+public class LatencyHistogram {
+
+	public static final int BUCKETS = 32;
+
+	/**
+	 * Buckets and the sum of latencies of a stripe, padded to a multiple of
+	 * a cache line.
+	 */
+	private static final int ROW = 40;
+	private static final int SUM = BUCKETS;
+
+	private final int mask;
+	private final AtomicLongArray cells;
+
+	public LatencyHistogram() {
+		this(StripedCounter.STRIPES);
+	}
+
+	/**
+	 * @param stripes
+	 *            number of stripes of buckets, a power of two not greater
+	 *            than {@link StripedCounter#STRIPES}
+	 */
+	public LatencyHistogram(int stripes) {
+		if (stripes <= 0 || stripes > StripedCounter.STRIPES
+			|| Integer.bitCount(stripes) != 1)
+			throw new IllegalArgumentException("stripes: " + stripes);
+		mask = stripes - 1;
+		cells = new AtomicLongArray(stripes * ROW);
+	}
+
+	public void record(long nanos) {
+		if (nanos < 0)
+			nanos = 0;
+		int row = (StripedCounter.stripe() & mask) * ROW;
+		cells.incrementAndGet(row + bucket(nanos));
+		cells.addAndGet(row + SUM, nanos);
+	}
+
+	public void record(long duration, TimeUnit unit) {
+		record(unit.toNanos(duration));
+	}
+
+	static int bucket(long nanos) {
+		long micros = nanos / 1000;
+		return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+	}
+
+	public Snapshot snapshot() {
+		long[] counts = new long[BUCKETS];
+		long sum = 0;
+		for (int row = 0; row < cells.length(); row += ROW) {
+			for (int i = 0; i < BUCKETS; i++)
+				counts[i] += cells.get(row + i);
+			sum += cells.get(row + SUM);
+		}
+		return new Snapshot(counts, sum);
+	}
+
+	/**
+	 * An immutable copy of a {@link LatencyHistogram}'s state.
+	 */
+	public static class Snapshot {
+		static final Snapshot EMPTY = new Snapshot(new long[BUCKETS], 0);
+
+		private final long[] counts;
+		private final long count;
+		private final long sumNanos;
+
+		Snapshot(long[] counts, long sumNanos) {
+			this.counts = counts;
+			long count = 0;
+			for (long c : counts)
+				count += c;
+			this.count = count;
+			this.sumNanos = sumNanos;
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		/**
+		 * Returns the number of latencies recorded in the given bucket.
+		 */
+		public long getCount(int bucket) {
+			return counts[bucket];
+		}
+
+		/**
+		 * Returns the mean latency in microseconds, {@code 0} if nothing was
+		 * recorded.
+		 */
+		public double getMeanMicros() {
+			return count == 0 ? 0 : sumNanos / 1000.0 / count;
+		}
+
+		/**
+		 * Returns an upper bound (in microseconds) of the latency below which
+		 * the given {@code fraction} of the recorded latencies fall, {@code
+		 * 0} if nothing was recorded.
+		 */
+		public long getPercentileMicros(double fraction) {
+			long threshold = (long) Math.ceil(count * fraction);
+			long seen = 0;
+			for (int i = 0; i < BUCKETS; i++) {
+				seen += counts[i];
+				if (seen >= threshold && seen > 0)
+					return 1L << i;
+			}
+			return count == 0 ? 0 : 1L << (BUCKETS - 1);
+		}
+
+		@Override
+		public String toString() {
+			return String.format("count=%d mean=%.1fus p50<%dus p99<%dus",
+				count, getMeanMicros(), getPercentileMicros(0.5),
+				getPercentileMicros(0.99));
+		}
+	}
+}
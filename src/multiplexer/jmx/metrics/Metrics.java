@@ -0,0 +1,436 @@
+// Copyright 2009 Warsaw University, Faculty of Physics
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+package multiplexer.jmx.metrics;
+
+import gnu.trove.TIntObjectHashMap;
+import gnu.trove.TIntObjectIterator;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import multiplexer.jmx.internal.OutboundQueueHandler;
+import multiplexer.jmx.util.StripedCounter;
+
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Metrics of a {@link multiplexer.jmx.internal.ConnectionsManager}:
+ * {@link TrafficMetrics} of all its traffic (this object), broken down by
+ * message type, by peer type and by connection, and counters of dropped
+ * duplicates, dropped expired messages, delivery errors and HEARTBIT
+ * timeouts. All the counters but those of single connections are
+ * {@link StripedCounter striped}, so that I/O threads updating them do not
+ * contend. Latencies of single connections are kept only if asked for.
+ * 
+ * The metrics can be read with {@link #snapshot()} or, once
+ * {@link #registerMBeans(String) registered}, as platform MBeans in the
+ * {@value #DOMAIN} domain.
+ */
+public class Metrics extends TrafficMetrics implements MetricsMBean {
+
+	public static final String DOMAIN = "multiplexer.jmx";
+
+	private static final Logger logger = LoggerFactory
+		.getLogger(Metrics.class);
+
+	private final StripedCounter duplicatesDropped = new StripedCounter();
+	private final StripedCounter expiredDropped = new StripedCounter();
+	private final StripedCounter deliveryErrors = new StripedCounter();
+	private final StripedCounter heartbitTimeouts = new StripedCounter();
+
+	private final ByType byMessageType = new ByType("MessageTypeMetrics");
+	private final ByType byPeerType = new ByType("PeerTypeMetrics");
+	private final ConcurrentMap<Channel, ConnectionMetrics> byConnection = new ConcurrentHashMap<Channel, ConnectionMetrics>();
+	private final boolean connectionLatencies;
+
+	// guarded by this
+	private MBeanServer mbeanServer;
+	private String instance;
+
+	public Metrics() {
+		this(false);
+	}
+
+	/**
+	 * @param connectionLatencies
+	 *            whether to keep latency histograms of each connection
+	 */
+	public Metrics(boolean connectionLatencies) {
+		this.connectionLatencies = connectionLatencies;
+	}
+
+	/**
+	 * Records a message received over the {@code channel}.
+	 */
+	public void messageReceived(Channel channel, int type, int bytes) {
+		received(bytes);
+		getMessageTypeMetrics(type).received(bytes);
+		ConnectionMetrics connection = byConnection.get(channel);
+		if (connection != null) {
+			connection.received(bytes);
+			getPeerTypeMetrics(connection.getPeerType()).received(bytes);
+		}
+	}
+
+	/**
+	 * Records the time spent handling a message received over the {@code
+	 * channel}.
+	 */
+	public void messageHandled(Channel channel, int type, long nanos) {
+		handled(nanos);
+		getMessageTypeMetrics(type).handled(nanos);
+		ConnectionMetrics connection = byConnection.get(channel);
+		if (connection != null) {
+			connection.handled(nanos);
+			getPeerTypeMetrics(connection.getPeerType()).handled(nanos);
+		}
+	}
+
+	/**
+	 * Records a message written to the {@code channel}.
+	 */
+	public void messageSent(Channel channel, int type, int bytes) {
+		sent(bytes);
+		getMessageTypeMetrics(type).sent(bytes);
+		ConnectionMetrics connection = byConnection.get(channel);
+		if (connection != null) {
+			connection.sent(bytes);
+			getPeerTypeMetrics(connection.getPeerType()).sent(bytes);
+		}
+	}
+
+	/**
+	 * Records the time it took to send a message written to the {@code
+	 * channel}.
+	 */
+	public void messageWritten(Channel channel, int type, long nanos) {
+		written(nanos);
+		getMessageTypeMetrics(type).written(nanos);
+		ConnectionMetrics connection = byConnection.get(channel);
+		if (connection != null) {
+			connection.written(nanos);
+			getPeerTypeMetrics(connection.getPeerType()).written(nanos);
+		}
+	}
+
+	public void duplicateDropped() {
+		duplicatesDropped.increment();
+	}
+
+	/**
+	 * Counts a message dropped because its deadline had passed.
+	 */
+	public void expiredDropped() {
+		expiredDropped.increment();
+	}
+
+	public void deliveryFailed() {
+		deliveryErrors.increment();
+	}
+
+	public void heartbitTimedOut() {
+		heartbitTimeouts.increment();
+	}
+
+	/**
+	 * Starts collecting metrics of the {@code channel}, once its peer is
+	 * known. They are discarded when the channel is closed.
+	 * 
+	 * @param outboundQueue
+	 *            provides the queue depth of the channel; may be {@code
+	 *            null}
+	 */
+	public ConnectionMetrics connectionRegistered(final Channel channel,
+		int peerType, long peerId, OutboundQueueHandler outboundQueue) {
+		final ConnectionMetrics connection = new ConnectionMetrics(channel,
+			peerType, peerId, outboundQueue, connectionLatencies);
+		ConnectionMetrics old = byConnection.put(channel, connection);
+		if (old != null)
+			unregister(connectionName(channel));
+		getPeerTypeMetrics(peerType);
+		register(connectionName(channel), connection);
+		channel.getCloseFuture().addListener(new ChannelFutureListener() {
+			public void operationComplete(ChannelFuture future) {
+				if (byConnection.remove(channel, connection))
+					unregister(connectionName(channel));
+			}
+		});
+		return connection;
+	}
+
+	public TrafficMetrics getMessageTypeMetrics(int type) {
+		return byMessageType.get(type);
+	}
+
+	public TrafficMetrics getPeerTypeMetrics(int type) {
+		return byPeerType.get(type);
+	}
+
+	/**
+	 * Returns the metrics of the {@code channel} or {@code null} if its peer
+	 * is not known (yet).
+	 */
+	public ConnectionMetrics getConnectionMetrics(Channel channel) {
+		return byConnection.get(channel);
+	}
+
+	public long getDuplicatesDropped() {
+		return duplicatesDropped.get();
+	}
+
+	public long getExpiredDropped() {
+		return expiredDropped.get();
+	}
+
+	public long getDeliveryErrors() {
+		return deliveryErrors.get();
+	}
+
+	public long getHeartbitTimeouts() {
+		return heartbitTimeouts.get();
+	}
+
+	public int getConnections() {
+		return byConnection.size();
+	}
+
+	public long getQueueDepth() {
+		long depth = 0;
+		for (ConnectionMetrics connection : byConnection.values())
+			depth += Math.max(0, connection.getQueueDepth());
+		return depth;
+	}
+
+	@Override
+	public Snapshot snapshot() {
+		return new Snapshot(this);
+	}
+
+	/**
+	 * Registers this object and all the metrics it contains (or will contain)
+	 * in the platform {@link MBeanServer}, with names of the form {@code
+	 * multiplexer.jmx:type=<type>,instance=<instance>[,name=<id>]}.
+	 * 
+	 * @param instance
+	 *            distinguishes these metrics from those of other instances in
+	 *            the same JVM
+	 */
+	public synchronized void registerMBeans(String instance)
+		throws JMException {
+		if (mbeanServer != null)
+			return;
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		server.registerMBean(this, new ObjectName(DOMAIN + ":type=Metrics,"
+			+ "instance=" + ObjectName.quote(instance)));
+		mbeanServer = server;
+		this.instance = instance;
+		byMessageType.registerAll();
+		byPeerType.registerAll();
+		for (Map.Entry<Channel, ConnectionMetrics> entry : byConnection
+			.entrySet())
+			register(connectionName(entry.getKey()), entry.getValue());
+	}
+
+	/**
+	 * Unregisters all the MBeans registered by {@link #registerMBeans}.
+	 */
+	public synchronized void unregisterMBeans() {
+		if (mbeanServer == null)
+			return;
+		try {
+			for (ObjectName name : mbeanServer.queryNames(new ObjectName(
+				DOMAIN + ":instance=" + ObjectName.quote(instance) + ",*"),
+				null))
+				mbeanServer.unregisterMBean(name);
+		} catch (JMException e) {
+			logger.warn("Failed to unregister MBeans of " + instance, e);
+		}
+		mbeanServer = null;
+		instance = null;
+	}
+
+	public synchronized boolean isRegistered() {
+		return mbeanServer != null;
+	}
+
+	private static String typeName(String type, int id) {
+		return type + ",name=" + id;
+	}
+
+	private static String connectionName(Channel channel) {
+		return "ConnectionMetrics,name=" + Integer.toHexString(channel.getId());
+	}
+
+	private synchronized void register(String name, Object mbean) {
+		if (mbeanServer == null)
+			return;
+		try {
+			ObjectName objectName = objectName(name);
+			if (!mbeanServer.isRegistered(objectName))
+				mbeanServer.registerMBean(mbean, objectName);
+		} catch (JMException e) {
+			logger.warn("Failed to register MBean " + name, e);
+		}
+	}
+
+	private synchronized void unregister(String name) {
+		if (mbeanServer == null)
+			return;
+		try {
+			ObjectName objectName = objectName(name);
+			if (mbeanServer.isRegistered(objectName))
+				mbeanServer.unregisterMBean(objectName);
+		} catch (JMException e) {
+			logger.warn("Failed to unregister MBean " + name, e);
+		}
+	}
+
+	private ObjectName objectName(String name) throws JMException {
+		return new ObjectName(DOMAIN + ":instance="
+			+ ObjectName.quote(instance) + ",type=" + name);
+	}
+
+	/**
+	 * {@link TrafficMetrics} by message or peer type, in a copy-on-write map
+	 * (like those of {@link multiplexer.jmx.internal.ConnectionsMap}). The
+	 * published map is never modified; it is replaced when a new type
+	 * appears.
+	 */
+	private final class ByType {
+		private final String mbeanType;
+		private volatile TIntObjectHashMap<TrafficMetrics> metrics = new TIntObjectHashMap<TrafficMetrics>();
+
+		ByType(String mbeanType) {
+			this.mbeanType = mbeanType;
+		}
+
+		TrafficMetrics get(int type) {
+			TrafficMetrics typeMetrics = metrics.get(type);
+			return typeMetrics != null ? typeMetrics : create(type);
+		}
+
+		private synchronized TrafficMetrics create(int type) {
+			TrafficMetrics typeMetrics = metrics.get(type);
+			if (typeMetrics == null) {
+				typeMetrics = new TrafficMetrics();
+				TIntObjectHashMap<TrafficMetrics> copy = metrics.clone();
+				copy.put(type, typeMetrics);
+				metrics = copy;
+				register(typeName(mbeanType, type), typeMetrics);
+			}
+			return typeMetrics;
+		}
+
+		/**
+		 * Must be called with lock on the enclosing {@link Metrics} held.
+		 */
+		void registerAll() {
+			for (TIntObjectIterator<TrafficMetrics> it = metrics.iterator(); it
+				.hasNext();) {
+				it.advance();
+				register(typeName(mbeanType, it.key()), it.value());
+			}
+		}
+
+		Map<Integer, TrafficMetrics.Snapshot> snapshot() {
+			Map<Integer, TrafficMetrics.Snapshot> snapshot = new TreeMap<Integer, TrafficMetrics.Snapshot>();
+			for (TIntObjectIterator<TrafficMetrics> it = metrics.iterator(); it
+				.hasNext();) {
+				it.advance();
+				snapshot.put(it.key(), it.value().snapshot());
+			}
+			return Collections.unmodifiableMap(snapshot);
+		}
+	}
+
+	/**
+	 * An immutable copy of {@link Metrics}.
+	 */
+	public static class Snapshot extends TrafficMetrics.Snapshot {
+		private final long duplicatesDropped;
+		private final long expiredDropped;
+		private final long deliveryErrors;
+		private final long heartbitTimeouts;
+		private final Map<Integer, TrafficMetrics.Snapshot> byMessageType;
+		private final Map<Integer, TrafficMetrics.Snapshot> byPeerType;
+		private final List<ConnectionMetrics.Snapshot> connections;
+
+		Snapshot(Metrics metrics) {
+			super(metrics);
+			duplicatesDropped = metrics.getDuplicatesDropped();
+			expiredDropped = metrics.getExpiredDropped();
+			deliveryErrors = metrics.getDeliveryErrors();
+			heartbitTimeouts = metrics.getHeartbitTimeouts();
+			byMessageType = metrics.byMessageType.snapshot();
+			byPeerType = metrics.byPeerType.snapshot();
+			List<ConnectionMetrics.Snapshot> connections = new ArrayList<ConnectionMetrics.Snapshot>();
+			for (ConnectionMetrics connection : metrics.byConnection.values())
+				connections.add(connection.snapshot());
+			this.connections = Collections.unmodifiableList(connections);
+		}
+
+		public long getDuplicatesDropped() {
+			return duplicatesDropped;
+		}
+
+		public long getExpiredDropped() {
+			return expiredDropped;
+		}
+
+		public long getDeliveryErrors() {
+			return deliveryErrors;
+		}
+
+		public long getHeartbitTimeouts() {
+			return heartbitTimeouts;
+		}
+
+		/**
+		 * Returns the metrics of each message type seen, ordered by type.
+		 */
+		public Map<Integer, TrafficMetrics.Snapshot> getByMessageType() {
+			return byMessageType;
+		}
+
+		/**
+		 * Returns the metrics of each peer type connected, ordered by type.
+		 */
+		public Map<Integer, TrafficMetrics.Snapshot> getByPeerType() {
+			return byPeerType;
+		}
+
+		/**
+		 * Returns the metrics of the currently open connections.
+		 */
+		public List<ConnectionMetrics.Snapshot> getConnections() {
+			return connections;
+		}
+	}
+}
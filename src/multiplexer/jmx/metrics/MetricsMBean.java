@@ -0,0 +1,39 @@
+// Copyright 2009 Warsaw University, Faculty of Physics
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+package multiplexer.jmx.metrics;
+
+/**
+ * Management interface of {@link Metrics}; the traffic counters are totals of
+ * all the connections.
+ */
+public interface MetricsMBean extends TrafficMetricsMBean {
+
+	long getDuplicatesDropped();
+
+	long getExpiredDropped();
+
+	long getDeliveryErrors();
+
+	long getHeartbitTimeouts();
+
+	int getConnections();
+
+	/**
+	 * Returns the total number of messages written to all the connections
+	 * but not yet sent.
+	 */
+	long getQueueDepth();
+}
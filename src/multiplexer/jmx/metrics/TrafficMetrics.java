@@ -0,0 +1,193 @@
+// Copyright 2009 Warsaw University, Faculty of Physics
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+package multiplexer.jmx.metrics;
+
+import multiplexer.jmx.util.StripedCounter;
+
+/**
+ * Counters of messages (and their bytes) received and sent, and latencies of
+ * handling received messages and of writing sent ones, kept by
+ * {@link Metrics} for all the traffic, per message type, per peer type and
+ * per connection.
+ */
+public class TrafficMetrics implements TrafficMetricsMBean {
+
+	private final StripedCounter messagesIn;
+	private final StripedCounter messagesOut;
+	private final StripedCounter bytesIn;
+	private final StripedCounter bytesOut;
+	private final LatencyHistogram handleLatency;
+	private final LatencyHistogram writeLatency;
+
+	public TrafficMetrics() {
+		this(StripedCounter.STRIPES, true);
+	}
+
+	/**
+	 * @param stripes
+	 *            number of stripes of the counters and histograms, see
+	 *            {@link StripedCounter#StripedCounter(int)}
+	 * @param latencies
+	 *            whether to keep the latency histograms; if not, the
+	 *            latencies are not recorded
+	 */
+	TrafficMetrics(int stripes, boolean latencies) {
+		messagesIn = new StripedCounter(stripes);
+		messagesOut = new StripedCounter(stripes);
+		bytesIn = new StripedCounter(stripes);
+		bytesOut = new StripedCounter(stripes);
+		handleLatency = latencies ? new LatencyHistogram(stripes) : null;
+		writeLatency = latencies ? new LatencyHistogram(stripes) : null;
+	}
+
+	void received(int bytes) {
+		messagesIn.increment();
+		bytesIn.add(bytes);
+	}
+
+	void sent(int bytes) {
+		messagesOut.increment();
+		bytesOut.add(bytes);
+	}
+
+	void handled(long nanos) {
+		if (handleLatency != null)
+			handleLatency.record(nanos);
+	}
+
+	void written(long nanos) {
+		if (writeLatency != null)
+			writeLatency.record(nanos);
+	}
+
+	public long getMessagesIn() {
+		return messagesIn.get();
+	}
+
+	public long getMessagesOut() {
+		return messagesOut.get();
+	}
+
+	public long getBytesIn() {
+		return bytesIn.get();
+	}
+
+	public long getBytesOut() {
+		return bytesOut.get();
+	}
+
+	/**
+	 * Returns the histogram of times spent handling received messages (by the
+	 * listener of the {@link multiplexer.jmx.internal.ConnectionsManager}),
+	 * {@code null} if latencies are not kept.
+	 */
+	public LatencyHistogram getHandleLatency() {
+		return handleLatency;
+	}
+
+	/**
+	 * Returns the histogram of times from writing a message to a channel
+	 * until it is written to the socket, {@code null} if latencies are not
+	 * kept.
+	 */
+	public LatencyHistogram getWriteLatency() {
+		return writeLatency;
+	}
+
+	public double getHandleLatencyMeanMicros() {
+		return snapshot(handleLatency).getMeanMicros();
+	}
+
+	public long getHandleLatency99thPercentileMicros() {
+		return snapshot(handleLatency).getPercentileMicros(0.99);
+	}
+
+	public double getWriteLatencyMeanMicros() {
+		return snapshot(writeLatency).getMeanMicros();
+	}
+
+	public long getWriteLatency99thPercentileMicros() {
+		return snapshot(writeLatency).getPercentileMicros(0.99);
+	}
+
+	private static LatencyHistogram.Snapshot snapshot(
+		LatencyHistogram histogram) {
+		return histogram == null ? LatencyHistogram.Snapshot.EMPTY
+			: histogram.snapshot();
+	}
+
+	public Snapshot snapshot() {
+		return new Snapshot(this);
+	}
+
+	/**
+	 * An immutable copy of {@link TrafficMetrics}.
+	 */
+	public static class Snapshot {
+		private final long messagesIn;
+		private final long messagesOut;
+		private final long bytesIn;
+		private final long bytesOut;
+		private final LatencyHistogram.Snapshot handleLatency;
+		private final LatencyHistogram.Snapshot writeLatency;
+
+		protected Snapshot(TrafficMetrics metrics) {
+			messagesIn = metrics.getMessagesIn();
+			messagesOut = metrics.getMessagesOut();
+			bytesIn = metrics.getBytesIn();
+			bytesOut = metrics.getBytesOut();
+			handleLatency = TrafficMetrics.snapshot(metrics.handleLatency);
+			writeLatency = TrafficMetrics.snapshot(metrics.writeLatency);
+		}
+
+		public long getMessagesIn() {
+			return messagesIn;
+		}
+
+		public long getMessagesOut() {
+			return messagesOut;
+		}
+
+		public long getBytesIn() {
+			return bytesIn;
+		}
+
+		public long getBytesOut() {
+			return bytesOut;
+		}
+
+		/**
+		 * Returns the handling latencies, empty if they are not kept.
+		 */
+		public LatencyHistogram.Snapshot getHandleLatency() {
+			return handleLatency;
+		}
+
+		/**
+		 * Returns the write latencies, empty if they are not kept.
+		 */
+		public LatencyHistogram.Snapshot getWriteLatency() {
+			return writeLatency;
+		}
+
+		@Override
+		public String toString() {
+			return "in=" + messagesIn + " msgs/" + bytesIn + " B, out="
+				+ messagesOut + " msgs/" + bytesOut + " B, handle: "
+				+ handleLatency + ", write: " + writeLatency;
+		}
+	}
+}
@@ -0,0 +1,40 @@
+// Copyright 2009 Warsaw University, Faculty of Physics
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+package multiplexer.jmx.metrics;
+
+/**
+ * Management interface of {@link TrafficMetrics}. Latencies are in
+ * microseconds; percentiles are upper bounds of {@link LatencyHistogram}
+ * buckets.
+ */
+public interface TrafficMetricsMBean {
+
+	long getMessagesIn();
+
+	long getMessagesOut();
+
+	long getBytesIn();
+
+	long getBytesOut();
+
+	double getHandleLatencyMeanMicros();
+
+	long getHandleLatency99thPercentileMicros();
+
+	double getWriteLatencyMeanMicros();
+
+	long getWriteLatency99thPercentileMicros();
+}
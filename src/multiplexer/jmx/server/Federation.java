@@ -0,0 +1,284 @@
+// Copyright 2009 Warsaw University, Faculty of Physics
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+package multiplexer.jmx.server;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import multiplexer.protocol.Constants.PeerTypes;
+import multiplexer.protocol.Protocol.FederationAnnouncement;
+import multiplexer.protocol.Protocol.ReachablePeer;
+
+/**
+ * Peers reachable through other multiplexers (<em>neighbors</em>) this one is
+ * federated with. Each neighbor periodically announces the peers connected to
+ * it and the peers it can reach through its own neighbors, with the number of
+ * multiplexer-to-multiplexer links (hops) on the way. From these
+ * announcements the shortest route to every remote peer is chosen, together
+ * with the neighbors through which peers of each type are reachable.
+ * 
+ * Routes learned from a neighbor are never announced back to it (split
+ * horizon) and routes longer than {@link #getMaxHops()} are ignored, so stale
+ * routes die out when a link goes down. Messages forwarded along the routes
+ * carry the hop count as well; together with the duplicate detection by
+ * message Id, done for every received message, this keeps them from looping.
+ * 
+ * The routes are recomputed as a whole whenever an announcement arrives or a
+ * neighbor disconnects and are read without locking.
+ */
+final class Federation {
+
+	/**
+	 * Default limit of links a message may be forwarded over, see
+	 * {@link #getMaxHops()}. Set with the {@code
+	 * multiplexer.jmx.federation.maxHops} system property.
+	 */
+	static final int DEFAULT_MAX_HOPS = Integer.getInteger(
+		"multiplexer.jmx.federation.maxHops", 8);
+
+	/**
+	 * Number of announcement rounds after which an announcement is sent to a
+	 * neighbor even if it has not changed.
+	 */
+	private static final int REFRESH_ROUNDS = 30;
+
+	private static final long[] NO_NEIGHBORS = new long[0];
+
+	/**
+	 * The next hop on the shortest known route to a remote peer.
+	 */
+	static final class Route {
+		final long neighborId;
+		final int peerType;
+		final int hops;
+
+		Route(long neighborId, int peerType, int hops) {
+			this.neighborId = neighborId;
+			this.peerType = peerType;
+			this.hops = hops;
+		}
+	}
+
+	/**
+	 * An immutable snapshot of the routes.
+	 */
+	private static final class Routes {
+		static final Routes EMPTY = new Routes(Collections
+			.<Long, Route> emptyMap(), Collections.<Integer, long[]> emptyMap());
+
+		final Map<Long, Route> byPeerId;
+		final Map<Integer, long[]> neighborsByType;
+
+		Routes(Map<Long, Route> byPeerId, Map<Integer, long[]> neighborsByType) {
+			this.byPeerId = byPeerId;
+			this.neighborsByType = neighborsByType;
+		}
+	}
+
+	private final long localId;
+	private final int maxHops;
+
+	// guarded by this
+	private final Map<Long, FederationAnnouncement> received = new HashMap<Long, FederationAnnouncement>();
+	private final Map<Long, FederationAnnouncement> sent = new HashMap<Long, FederationAnnouncement>();
+	private int round;
+
+	private volatile Routes routes = Routes.EMPTY;
+
+	/**
+	 * @param localId
+	 *            Id of the multiplexer itself
+	 */
+	Federation(long localId, int maxHops) {
+		this.localId = localId;
+		this.maxHops = maxHops;
+	}
+
+	/**
+	 * Returns the maximal number of multiplexer-to-multiplexer links a message
+	 * may be forwarded over and a peer may be reached through.
+	 */
+	int getMaxHops() {
+		return maxHops;
+	}
+
+	/**
+	 * Returns the next hop towards the remote peer {@code peerId} or {@code
+	 * null} if it is not reachable through any neighbor.
+	 */
+	Route getRoute(long peerId) {
+		return routes.byPeerId.get(peerId);
+	}
+
+	/**
+	 * Returns the Ids of the neighbors through which peers of {@code
+	 * peerType} are reachable, the nearest first.
+	 */
+	long[] getNeighbors(int peerType) {
+		long[] neighbors = routes.neighborsByType.get(peerType);
+		return neighbors == null ? NO_NEIGHBORS : neighbors;
+	}
+
+	/**
+	 * Replaces the announcement received from the neighbor {@code neighborId}.
+	 * 
+	 * @param localPeers
+	 *            types of the peers connected to this multiplexer, by Ids
+	 */
+	synchronized void announcementReceived(long neighborId,
+		FederationAnnouncement announcement, Map<Long, Integer> localPeers) {
+		received.put(neighborId, announcement);
+		recompute(localPeers);
+	}
+
+	/**
+	 * Forgets the announcements of the neighbors which are no longer
+	 * connected.
+	 * 
+	 * @param localPeers
+	 *            types of the peers connected to this multiplexer, by Ids
+	 */
+	synchronized void retainConnected(Map<Long, Integer> localPeers) {
+		boolean changed = false;
+		for (Iterator<Long> i = received.keySet().iterator(); i.hasNext();) {
+			if (!localPeers.containsKey(i.next())) {
+				i.remove();
+				changed = true;
+			}
+		}
+		// A reconnected neighbor gets a fresh announcement.
+		sent.keySet().retainAll(localPeers.keySet());
+		if (changed)
+			recompute(localPeers);
+	}
+
+	/**
+	 * Starts a new round of announcements; see {@link #announcementFor}.
+	 */
+	synchronized void nextRound() {
+		round++;
+		if (round >= REFRESH_ROUNDS) {
+			round = 0;
+			sent.clear();
+		}
+	}
+
+	/**
+	 * Returns the announcement to be sent to the neighbor {@code neighborId},
+	 * or {@code null} if it has not changed since the last one sent to it in
+	 * the current refresh period.
+	 * 
+	 * @param localPeers
+	 *            types of the peers connected to this multiplexer, by Ids
+	 */
+	synchronized FederationAnnouncement announcementFor(long neighborId,
+		Map<Long, Integer> localPeers) {
+		// Sorted, so that an unchanged announcement compares equal.
+		Map<Long, ReachablePeer> peers = new TreeMap<Long, ReachablePeer>();
+		for (Map.Entry<Long, Integer> peer : localPeers.entrySet()) {
+			if (peer.getValue() != PeerTypes.MULTIPLEXER) {
+				peers.put(peer.getKey(), ReachablePeer.newBuilder().setId(
+					peer.getKey()).setType(peer.getValue()).build());
+			}
+		}
+		for (Map.Entry<Long, Route> entry : routes.byPeerId.entrySet()) {
+			Route route = entry.getValue();
+			if (route.neighborId != neighborId && route.hops < maxHops
+				&& !peers.containsKey(entry.getKey())) {
+				peers.put(entry.getKey(), ReachablePeer.newBuilder().setId(
+					entry.getKey()).setType(route.peerType).setHops(route.hops)
+					.build());
+			}
+		}
+		FederationAnnouncement.Builder announcement = FederationAnnouncement
+			.newBuilder();
+		for (ReachablePeer peer : peers.values())
+			announcement.addPeer(peer);
+		FederationAnnouncement built = announcement.build();
+		if (built.equals(sent.get(neighborId)))
+			return null;
+		sent.put(neighborId, built);
+		return built;
+	}
+
+	/**
+	 * Must be called with lock on {@code this} held.
+	 */
+	private void recompute(Map<Long, Integer> localPeers) {
+		Map<Long, Route> byPeerId = new HashMap<Long, Route>();
+		for (Map.Entry<Long, FederationAnnouncement> entry : received
+			.entrySet()) {
+			long neighborId = entry.getKey();
+			for (ReachablePeer peer : entry.getValue().getPeerList()) {
+				int hops = peer.getHops() + 1;
+				if (hops > maxHops || peer.getId() == localId
+					|| localPeers.containsKey(peer.getId()))
+					continue;
+				Route best = byPeerId.get(peer.getId());
+				if (best == null || hops < best.hops
+					|| (hops == best.hops && neighborId < best.neighborId)) {
+					byPeerId.put(peer.getId(), new Route(neighborId, peer
+						.getType(), hops));
+				}
+			}
+		}
+
+		// The nearest neighbor through which each type is reachable.
+		Map<Integer, Map<Long, Integer>> hopsByType = new HashMap<Integer, Map<Long, Integer>>();
+		for (Route route : byPeerId.values()) {
+			Map<Long, Integer> hopsByNeighbor = hopsByType.get(route.peerType);
+			if (hopsByNeighbor == null) {
+				hopsByNeighbor = new HashMap<Long, Integer>();
+				hopsByType.put(route.peerType, hopsByNeighbor);
+			}
+			Integer hops = hopsByNeighbor.get(route.neighborId);
+			if (hops == null || route.hops < hops)
+				hopsByNeighbor.put(route.neighborId, route.hops);
+		}
+		Map<Integer, long[]> neighborsByType = new HashMap<Integer, long[]>();
+		for (Map.Entry<Integer, Map<Long, Integer>> entry : hopsByType
+			.entrySet()) {
+			neighborsByType.put(entry.getKey(), sortByHops(entry.getValue()));
+		}
+		routes = new Routes(byPeerId, neighborsByType);
+	}
+
+	private static long[] sortByHops(final Map<Long, Integer> hopsByNeighbor) {
+		List<Long> neighbors = new ArrayList<Long>(hopsByNeighbor.keySet());
+		Collections.sort(neighbors, new Comparator<Long>() {
+			public int compare(Long a, Long b) {
+				int c = hopsByNeighbor.get(a).compareTo(hopsByNeighbor.get(b));
+				return c != 0 ? c : a.compareTo(b);
+			}
+		});
+		return toArray(neighbors);
+	}
+
+	private static long[] toArray(Collection<Long> values) {
+		long[] array = new long[values.size()];
+		int i = 0;
+		for (Long value : values)
+			array[i++] = value;
+		return array;
+	}
+}
@@ -0,0 +1,133 @@
+// Copyright 2009 Warsaw University, Faculty of Physics
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+package multiplexer.jmx.server;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import multiplexer.jmx.client.Connection;
+import multiplexer.jmx.internal.RawMessageReceivedListener;
+import multiplexer.jmx.internal.RawMultiplexerMessage;
+import multiplexer.protocol.Protocol.Priority;
+
+import org.jboss.netty.channel.ChannelEvent;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelUpstreamHandler;
+import org.jboss.netty.channel.MessageEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Makes the server route messages decoded from a single read from a channel
+ * in the order of their priorities, so that urgent messages received together
+ * with bulk ones are forwarded (and so queued in the outbound
+ * {@link multiplexer.jmx.internal.PriorityLanesHandler lanes}) first. Messages
+ * of one priority are routed in the order they were received.
+ *
+ * Messages are {@link #defer(RawMultiplexerMessage, Connection, Priority.Values)
+ * deferred} by the router while a read is being decoded in the same thread.
+ * The handler keeps its state in thread locals and may be shared between
+ * pipelines.
+ */
+class InboundPriorityHandler implements ChannelUpstreamHandler {
+
+	private static final Logger logger = LoggerFactory
+		.getLogger(InboundPriorityHandler.class);
+
+	private static final int LANES = Priority.Values.values().length;
+
+	private final RawMessageReceivedListener router;
+
+	private final ThreadLocal<Batch> batch = new ThreadLocal<Batch>() {
+		@Override
+		protected Batch initialValue() {
+			return new Batch();
+		}
+	};
+
+	private static class Batch {
+		boolean active;
+		final List<RawMultiplexerMessage> messages = new ArrayList<RawMultiplexerMessage>();
+		final List<Connection> connections = new ArrayList<Connection>();
+		final List<Priority.Values> priorities = new ArrayList<Priority.Values>();
+	}
+
+	/**
+	 * @param router
+	 *            routes the deferred messages
+	 */
+	InboundPriorityHandler(RawMessageReceivedListener router) {
+		this.router = router;
+	}
+
+	public void handleUpstream(ChannelHandlerContext ctx, ChannelEvent e)
+		throws Exception {
+
+		Batch batch = this.batch.get();
+		if (!(e instanceof MessageEvent) || batch.active) {
+			ctx.sendUpstream(e);
+			return;
+		}
+		batch.active = true;
+		try {
+			ctx.sendUpstream(e);
+		} finally {
+			batch.active = false;
+			try {
+				route(batch);
+			} finally {
+				batch.messages.clear();
+				batch.connections.clear();
+				batch.priorities.clear();
+			}
+		}
+	}
+
+	/**
+	 * Defers routing of {@code message} received over {@code connection}
+	 * until the current read is decoded. Returns false, and defers nothing,
+	 * if no read is being decoded in this thread.
+	 */
+	boolean defer(RawMultiplexerMessage message, Connection connection,
+		Priority.Values priority) {
+		Batch batch = this.batch.get();
+		if (!batch.active)
+			return false;
+		batch.messages.add(message);
+		batch.connections.add(connection);
+		batch.priorities.add(priority);
+		return true;
+	}
+
+	private void route(Batch batch) {
+		int count = batch.messages.size();
+		if (count == 0)
+			return;
+		for (int lane = LANES - 1; lane >= 0; lane--) {
+			for (int i = 0; i < count; i++) {
+				if (batch.priorities.get(i).getNumber() != lane)
+					continue;
+				try {
+					router.onMessageReceived(batch.messages.get(i),
+						batch.connections.get(i));
+				} catch (RuntimeException e) {
+					logger.warn("Failed to route message\n"
+						+ batch.messages.get(i), e);
+				}
+			}
+		}
+	}
+}
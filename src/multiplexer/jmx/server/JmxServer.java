@@ -19,6 +19,10 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.Reader;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.util.ArrayList;
@@ -26,39 +30,59 @@ import java.util.Formatter;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
+import javax.management.JMException;
+
 import multiplexer.jmx.client.Connection;
 import multiplexer.jmx.client.SendingMethod;
 import multiplexer.jmx.exceptions.NoPeerForPeerIdException;
 import multiplexer.jmx.exceptions.NoPeerForTypeException;
+import multiplexer.jmx.exceptions.PeersSaturatedException;
 import multiplexer.jmx.internal.ByteCountingHandler;
+import multiplexer.jmx.internal.CompressionHandler;
+import multiplexer.jmx.internal.Config;
 import multiplexer.jmx.internal.ConnectionsManager;
+import multiplexer.jmx.internal.ConnectionsManagerChannelPipelineFactory;
+import multiplexer.jmx.internal.FragmentReassembler;
 import multiplexer.jmx.internal.MessageCountingHandler;
-import multiplexer.jmx.internal.MessageReceivedListener;
+import multiplexer.jmx.internal.PeerSelectionPolicy;
+import multiplexer.jmx.internal.RawMessageReceivedListener;
+import multiplexer.jmx.internal.RawMultiplexerMessage;
+import multiplexer.jmx.internal.SharedMemoryAcceptor;
 import multiplexer.jmx.util.LongDeltaCounter;
 import multiplexer.protocol.Constants.MessageTypes;
 import multiplexer.protocol.Constants.PeerTypes;
+import multiplexer.protocol.Protocol.Affinity;
 import multiplexer.protocol.Protocol.BackendForPacketSearch;
 import multiplexer.protocol.Protocol.DeliveryError;
+import multiplexer.protocol.Protocol.FederationAnnouncement;
 import multiplexer.protocol.Protocol.MultiplexerMessage;
 import multiplexer.protocol.Protocol.MultiplexerMessageDescription;
 import multiplexer.protocol.Protocol.MultiplexerPeerDescription;
 import multiplexer.protocol.Protocol.MultiplexerRules;
 import multiplexer.protocol.Protocol.MultiplexerMessageDescription.RoutingRule;
+import multiplexer.protocol.Protocol.Priority;
 
+import org.jboss.netty.bootstrap.ClientBootstrap;
 import org.jboss.netty.bootstrap.ServerBootstrap;
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelFactory;
+import org.jboss.netty.channel.local.DefaultLocalServerChannelFactory;
+import org.jboss.netty.channel.local.LocalAddress;
+import org.jboss.netty.channel.socket.nio.NioClientSocketChannelFactory;
 import org.jboss.netty.channel.socket.nio.NioServerSocketChannelFactory;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.TimerTask;
 import org.kohsuke.args4j.CmdLineException;
 import org.kohsuke.args4j.CmdLineParser;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.protobuf.ByteString;
-import com.google.protobuf.InvalidProtocolBufferException;
 import com.google.protobuf.TextFormat;
 import com.google.protobuf.TextFormat.ParseException;
 
@@ -67,7 +91,7 @@ import com.google.protobuf.TextFormat.ParseException;
  * 
  * @author Piotr Findeisen
  */
-public class JmxServer implements MessageReceivedListener, Runnable {
+public class JmxServer implements RawMessageReceivedListener, Runnable {
 
 	public static final String UNKOWN_TYPE_NAME = "unknown";
 	public static final String UNNAMED_TYPE_NAME = "unnamed";
@@ -81,21 +105,47 @@ public class JmxServer implements MessageReceivedListener, Runnable {
 	protected SocketAddress serverAddress;
 	private SocketAddress serverEffectiveAddress;
 
-	protected Map<String, Integer> peerTypeNamesToPeerTypeIds = Maps
-		.newHashMap();
-	protected Map<Integer, MultiplexerMessageDescription> messageTypeIdsToDescription = Maps
-		.newHashMap();
+	/**
+	 * The rules in use, replaced with {@link #reloadLock} held whenever rules
+	 * are loaded.
+	 */
+	private volatile Rules rules = new Rules(new RuleSet());
+
+	private final Object reloadLock = new Object();
+	// guarded by reloadLock
+	private final List<RuleSource> ruleSources = new ArrayList<RuleSource>();
+
+	private volatile long rulesWatchIntervalMillis = 0;
+	private volatile ScheduledExecutorService rulesReloader;
 
 	protected long transferUpdateIntervalMillis = 1000;
 
+	// for fragmented messages addressed to the server itself
+	private final FragmentReassembler fragmentReassembler = new FragmentReassembler(
+		Config.FRAGMENT_TIMEOUT_MILLIS);
+
+	private volatile Federation federation;
+	private volatile long federationIntervalMillis = 1000;
+	// guarded by lock
+	private final List<SocketAddress> federatedAddresses = new ArrayList<SocketAddress>();
+	// guarded by lock
+	private boolean connecting = false;
+
 	private volatile boolean started = false;
 	private volatile boolean running = true;
 	private volatile Thread serverThread;
 
 	private ServerChannelPipelineFactory channelPipelineFactory;
+	private final InboundPriorityHandler inboundPriorityHandler = new InboundPriorityHandler(
+		this);
 
 	private volatile int localPort = -1;
 
+	private volatile LocalAddress inVmAddress;
+
+	private volatile File sharedMemoryDirectory;
+	private SharedMemoryAcceptor sharedMemoryAcceptor;
+
 	private ByteString multiplexerPassword;
 
 	/**
@@ -122,6 +172,44 @@ public class JmxServer implements MessageReceivedListener, Runnable {
 		return localPort;
 	}
 
+	/**
+	 * Returns the address at which peers running in the same JVM connect to
+	 * the server without serializing messages, see
+	 * {@link ConnectionsManager#asyncConnect(SocketAddress)}. Unless
+	 * {@link #setInVmAddress(LocalAddress) set}, it is chosen when the server
+	 * starts; until then, {@code null} is returned.
+	 */
+	public LocalAddress getInVmAddress() {
+		return inVmAddress;
+	}
+
+	/**
+	 * Sets the {@link #getInVmAddress() in-VM address} of the server. Must be
+	 * called before the server is {@link #run() run}.
+	 */
+	public void setInVmAddress(LocalAddress inVmAddress) {
+		this.inVmAddress = inVmAddress;
+	}
+
+	/**
+	 * Returns the directory in which the server accepts connections through
+	 * shared memory, or {@code null} if it does not.
+	 */
+	public File getSharedMemoryDirectory() {
+		return sharedMemoryDirectory;
+	}
+
+	/**
+	 * Makes the server accept connections through shared memory from peers
+	 * on the same host, which connect to a
+	 * {@link multiplexer.jmx.client.SharedMemoryAddress} of the {@code
+	 * directory} (created if missing). Must be called before the server is
+	 * {@link #run() run}.
+	 */
+	public void setSharedMemoryDirectory(File sharedMemoryDirectory) {
+		this.sharedMemoryDirectory = sharedMemoryDirectory;
+	}
+
 	/**
 	 * Run the server. Before calling this function the server does not try to
 	 * open any sockets and does not provide {@code localPort} information.
@@ -145,16 +233,40 @@ public class JmxServer implements MessageReceivedListener, Runnable {
 				Executors.newCachedThreadPool(), Executors
 					.newCachedThreadPool());
 			ServerBootstrap bootstrap = new ServerBootstrap(factory);
+			bootstrap.setOption("child.writeBufferHighWaterMark",
+				Config.WRITE_BUFFER_HIGH_WATER_MARK);
+			bootstrap.setOption("child.writeBufferLowWaterMark",
+				Config.WRITE_BUFFER_LOW_WATER_MARK);
 
 			// initialize the connectionsManager
 			connectionsManager = new ConnectionsManager(PeerTypes.MULTIPLEXER,
 				bootstrap);
-			channelPipelineFactory = new ServerChannelPipelineFactory(bootstrap
-				.getPipelineFactory());
+			channelPipelineFactory = new ServerChannelPipelineFactory(
+				(ConnectionsManagerChannelPipelineFactory) bootstrap
+					.getPipelineFactory(), inboundPriorityHandler);
 			bootstrap.setPipelineFactory(channelPipelineFactory);
 			connectionsManager.setMessageReceivedListener(this);
+			federation = new Federation(connectionsManager.getInstanceId(),
+				Federation.DEFAULT_MAX_HOPS);
+			ClientBootstrap connector = new ClientBootstrap(
+				new NioClientSocketChannelFactory(Executors
+					.newCachedThreadPool(), Executors.newCachedThreadPool()));
+			connector.setOption("writeBufferHighWaterMark",
+				Config.WRITE_BUFFER_HIGH_WATER_MARK);
+			connector.setOption("writeBufferLowWaterMark",
+				Config.WRITE_BUFFER_LOW_WATER_MARK);
+			connector.setPipelineFactory(channelPipelineFactory);
+			connectionsManager.setConnector(connector);
+			synchronized (reloadLock) {
+				applyPeerConfig(rules.ruleSet);
+			}
 			if (multiplexerPassword != null)
 				connectionsManager.setMultiplexerPassword(multiplexerPassword);
+			try {
+				connectionsManager.registerMBeans();
+			} catch (JMException e) {
+				logger.warn("Failed to register MBeans", e);
+			}
 
 			// Bind & start the server.
 			Channel listeningChannel = bootstrap.bind(serverAddress);
@@ -163,6 +275,30 @@ public class JmxServer implements MessageReceivedListener, Runnable {
 				localPort = ((InetSocketAddress) listeningChannel
 					.getLocalAddress()).getPort();
 			}
+			ServerBootstrap inVmBootstrap = new ServerBootstrap(
+				new DefaultLocalServerChannelFactory());
+			inVmBootstrap.setPipelineFactory(channelPipelineFactory.inVm());
+			if (inVmAddress == null)
+				inVmAddress = new LocalAddress(JmxServer.class.getSimpleName()
+					+ "-" + Long.toHexString(connectionsManager.getInstanceId()));
+			connectionsManager.channelOpen(inVmBootstrap.bind(inVmAddress));
+			if (sharedMemoryDirectory != null) {
+				// Bridges of the accepted connections connect here.
+				ServerBootstrap sharedMemoryBootstrap = new ServerBootstrap(
+					new DefaultLocalServerChannelFactory());
+				sharedMemoryBootstrap.setPipelineFactory(channelPipelineFactory);
+				LocalAddress bridgesAddress = new LocalAddress(inVmAddress
+					.getId()
+					+ "-" + SharedMemoryAcceptor.class.getSimpleName());
+				connectionsManager.channelOpen(sharedMemoryBootstrap
+					.bind(bridgesAddress));
+				sharedMemoryAcceptor = new SharedMemoryAcceptor(
+					sharedMemoryDirectory, bridgesAddress);
+				Thread acceptorThread = new Thread(sharedMemoryAcceptor,
+					SharedMemoryAcceptor.class.getSimpleName());
+				acceptorThread.setDaemon(true);
+				acceptorThread.start();
+			}
 
 			started = true;
 			synchronized (this) {
@@ -188,9 +324,18 @@ public class JmxServer implements MessageReceivedListener, Runnable {
 			logger.info("started {} @ {}", JmxServer.class.getSimpleName(),
 				serverEffectiveAddress);
 
+			startRulesReloader();
+			startFederation();
 			loopPrintingStatistics();
 
 		} finally {
+			if (sharedMemoryAcceptor != null)
+				sharedMemoryAcceptor.stop();
+			ScheduledExecutorService reloader = rulesReloader;
+			if (reloader != null) {
+				rulesReloader = null;
+				reloader.shutdownNow();
+			}
 			try {
 				connectionsManager.shutdown();
 			} catch (InterruptedException e) {
@@ -307,99 +452,203 @@ public class JmxServer implements MessageReceivedListener, Runnable {
 		}
 	}
 
-	protected MultiplexerMessageDescription registerMessageDescription(
-		MultiplexerMessageDescription description) {
-		assert description.hasType();
-		return messageTypeIdsToDescription.put(description.getType(),
-			description);
+	/**
+	 * Federates this server with the Multiplexer server at {@code address}.
+	 * The server connects to it (and reconnects if the connection is lost)
+	 * once it is {@link #run() running}.
+	 * 
+	 * Federated servers announce to each other which peers are connected to
+	 * them. A message which cannot be delivered to a local peer (because there
+	 * is no peer of the type the routing rules name, or its {@code to} is not
+	 * connected here) is forwarded to the server closest to a peer it can be
+	 * delivered to, and messages routed to all peers of a type are forwarded
+	 * to every server hosting such peers as well. A message is never forwarded
+	 * back over the link it came from, nor over more than
+	 * {@link Federation#DEFAULT_MAX_HOPS} links; copies arriving over
+	 * different paths are dropped as duplicates.
+	 * 
+	 * All the federated servers should use the same routing rules. Each pair
+	 * of servers should be linked once, from one side only.
+	 */
+	public void federate(SocketAddress address) {
+		boolean connectNow;
+		synchronized (lock) {
+			federatedAddresses.add(address);
+			connectNow = connecting;
+		}
+		if (connectNow)
+			connectionsManager.asyncConnect(address);
 	}
 
 	/**
-	 * Load routing rules from an instance of {@link MultiplexerRules}.
+	 * Connects to the servers to be federated with and starts announcing
+	 * peers to them.
 	 */
-	public void loadMessageDefinitions(MultiplexerRules additionalRules) {
-		for (MultiplexerPeerDescription peerDesc : additionalRules
-			.getPeerList()) {
-			if (!peerDesc.hasName() || !peerDesc.hasType()) {
-				logger.error(
-					"MultiplexerPeerDescription without name or type:\n{}",
-					peerDesc);
+	private void startFederation() {
+		List<SocketAddress> addresses;
+		synchronized (lock) {
+			addresses = new ArrayList<SocketAddress>(federatedAddresses);
+			connecting = true;
+		}
+		for (SocketAddress address : addresses) {
+			connectionsManager.asyncConnect(address);
+		}
+		scheduleAnnouncements();
+	}
+
+	private void scheduleAnnouncements() {
+		try {
+			connectionsManager.getTimer().newTimeout(new TimerTask() {
+				public void run(Timeout timeout) {
+					if (!running)
+						return;
+					try {
+						announcePeers();
+					} finally {
+						scheduleAnnouncements();
+					}
+				}
+			}, federationIntervalMillis, TimeUnit.MILLISECONDS);
+		} catch (IllegalStateException e) {
+			// The timer has been stopped, the server is shutting down.
+		}
+	}
+
+	/**
+	 * Sends the federated servers connected to this one an announcement of
+	 * the peers reachable through this server, if it changed.
+	 */
+	private void announcePeers() {
+		Map<Long, Integer> peers = connectionsManager.getConnectedPeers();
+		federation.retainConnected(peers);
+		federation.nextRound();
+		for (Map.Entry<Long, Integer> peer : peers.entrySet()) {
+			if (peer.getValue() != PeerTypes.MULTIPLEXER)
 				continue;
-			}
-			if (peerTypeNamesToPeerTypeIds.containsKey(peerDesc.getName())) {
-				logger.error("Peer name '{}' already exists.", peerDesc
-					.getName());
+			FederationAnnouncement announcement = federation.announcementFor(
+				peer.getKey(), peers);
+			if (announcement == null)
 				continue;
+			try {
+				connectionsManager.sendMessage(connectionsManager.createMessage(
+					announcement.toByteString(),
+					MessageTypes.FEDERATION_ANNOUNCEMENT), SendingMethod.via(peer
+					.getKey()));
+			} catch (NoPeerForPeerIdException e) {
+				logger.debug("federated server {} disconnected", peer.getKey());
 			}
-			peerTypeNamesToPeerTypeIds.put(peerDesc.getName(), peerDesc
-				.getType());
 		}
-		for (MultiplexerMessageDescription msgd : additionalRules.getTypeList()) {
+	}
+
+	private void announcementReceived(Connection connection,
+		RawMultiplexerMessage message) {
+		Long neighborId = connectionsManager.getPeerId(connection);
+		Integer peerType = connectionsManager.getPeerType(connection);
+		if (neighborId == null || peerType == null
+			|| peerType != PeerTypes.MULTIPLEXER) {
+			logger.warn("FEDERATION_ANNOUNCEMENT received from {}, which is "
+				+ "not a Multiplexer server", connection);
+			return;
+		}
+		try {
+			FederationAnnouncement announcement = FederationAnnouncement
+				.parseFrom(CompressionHandler.decompress(message.getMessage())
+					.getMessage());
+			federation.announcementReceived(neighborId, announcement,
+				connectionsManager.getConnectedPeers());
+		} catch (IOException e) {
+			logger.warn("Malformed FEDERATION_ANNOUNCEMENT", e);
+		}
+	}
 
-			if (!msgd.hasType()) {
-				logger.error("MultiplexerMessageDescription without type:\n{}",
-					msgd);
+	/**
+	 * Forwards the {@code message} to the first of the federated servers
+	 * {@code neighbors} (or to all of them, if {@code all} is set), skipping
+	 * the server it came from.
+	 * 
+	 * @return {@code true} if the message has been forwarded
+	 */
+	private boolean forward(Connection from, RawMultiplexerMessage message,
+		long[] neighbors, boolean all) {
+		if (neighbors.length == 0)
+			return false;
+		if (message.getHops() >= federation.getMaxHops()) {
+			logger.warn("message #{} not forwarded, it made {} hops already",
+				message.getId(), message.getHops());
+			return false;
+		}
+		Long arrivalId = connectionsManager.getPeerId(from);
+		RawMultiplexerMessage forwarded = message
+			.withHops(message.getHops() + 1);
+		boolean sent = false;
+		for (long neighborId : neighbors) {
+			if (arrivalId != null && arrivalId == neighborId)
+				continue;
+			try {
+				connectionsManager.sendMessage(forwarded, SendingMethod
+					.via(neighborId));
+			} catch (NoPeerForPeerIdException e) {
 				continue;
 			}
+			sent = true;
+			if (!all)
+				break;
+		}
+		return sent;
+	}
 
-			MultiplexerMessageDescription.Builder msgdCopy = MultiplexerMessageDescription
-				.newBuilder();
-			if (msgd.hasName()) {
-				msgdCopy.setName(msgd.getName());
-			}
-			msgdCopy.setType(msgd.getType());
-
-			// Convert the 'to' list using peer' name→ID lookup.
-			for (MultiplexerMessageDescription.RoutingRule rRule : msgd
-				.getToList()) {
-
-				int peerId;
-				if (rRule.hasPeer()) {
-					// We have peer name specified.
-					if (!peerTypeNamesToPeerTypeIds
-						.containsKey(rRule.getPeer())) {
-						logger
-							.error("Unknown peer name: '{}'", rRule.getPeer());
-						continue;
-					}
-					peerId = peerTypeNamesToPeerTypeIds.get(rRule.getPeer());
-					if (rRule.hasPeerType() && rRule.getPeerType() != peerId) {
-						logger
-							.error(
-								"RoutingRule has both peer name and ID but ID is wrong:\n{}",
-								rRule);
-						continue;
-					}
-				} else if (rRule.hasPeerType()) {
-					// We don't have peer name but we have peer_type.
-					peerId = rRule.getPeerType();
-				} else {
-					// Oops, we have neither peer name nor type.
-					logger.error(
-						"RoutingRule without peer name or peer_type:\n{}",
-						rRule);
-					continue;
-				}
+	/**
+	 * Returns how often federated servers are sent announcements of peers
+	 * reachable through this server.
+	 */
+	public long getFederationIntervalMillis() {
+		return federationIntervalMillis;
+	}
 
-				// Create a copy of rRule with 'peerType' set (and 'peer'
-				// cleared ─ it's no longer used).
-				msgdCopy.addTo(MultiplexerMessageDescription.RoutingRule
-					.newBuilder(rRule).clearPeer().setPeerType(peerId));
+	/**
+	 * Sets how often federated servers are sent announcements of peers
+	 * reachable through this server (if they changed). This must be called
+	 * before a call to {@link #run}.
+	 */
+	public void setFederationIntervalMillis(long federationIntervalMillis) {
+		this.federationIntervalMillis = federationIntervalMillis;
+	}
 
-			}
-			registerMessageDescription(msgdCopy.build());
+	/**
+	 * Load routing rules from an instance of {@link MultiplexerRules}. They are
+	 * added to the rules loaded so far; errors are logged and the erroneous
+	 * entries skipped.
+	 */
+	public void loadMessageDefinitions(MultiplexerRules additionalRules) {
+		synchronized (reloadLock) {
+			ruleSources.add(new RuleSource(additionalRules));
+			RuleSet updated = new RuleSet(rules.ruleSet);
+			updated.add(additionalRules);
+			publish(updated);
 		}
 	}
 
 	/**
-	 * Load routing rules from a {@link File}.
+	 * Returns the routing rules currently in use.
+	 */
+	public RoutingTable getRoutingTable() {
+		return rules.routingTable;
+	}
+
+	/**
+	 * Load routing rules from a {@link File}. The file is read again by
+	 * {@link #reloadMessageDefinitions()}.
 	 */
 	public void loadMessageDefinitions(File file) throws ParseException,
 		FileNotFoundException, IOException {
-		MultiplexerRules.Builder rulesBuilder = MultiplexerRules.newBuilder();
-		TextFormat.merge(new FileReader(file), rulesBuilder);
-		MultiplexerRules additionalRules = rulesBuilder.build();
-		loadMessageDefinitions(additionalRules);
+		synchronized (reloadLock) {
+			RuleSource source = new RuleSource(file);
+			MultiplexerRules additionalRules = source.read();
+			ruleSources.add(source);
+			RuleSet updated = new RuleSet(rules.ruleSet);
+			updated.add(additionalRules);
+			publish(updated);
+		}
 	}
 
 	/**
@@ -410,11 +659,286 @@ public class JmxServer implements MessageReceivedListener, Runnable {
 		loadMessageDefinitions(new File(fileName));
 	}
 
+	/**
+	 * Replaces the rules in use without restarting the server. The rules
+	 * files loaded so far are read again and compiled from scratch, together
+	 * with the rules loaded as {@link MultiplexerRules}, into a new routing
+	 * table, which replaces the one in use atomically. If any file cannot be
+	 * read or the rules contain errors, the rules in use are kept. Peer type
+	 * settings, such as queue sizes, apply to the peers connected now as
+	 * well. Changed peer and message types are logged.
+	 * 
+	 * The call blocks while the rules are compiled, but routing goes on with
+	 * the previous rules until they are replaced.
+	 * 
+	 * @return {@code true} if the new rules are in use
+	 */
+	public boolean reloadMessageDefinitions() {
+		return reloadMessageDefinitions(new StringBuilder());
+	}
+
+	/**
+	 * Same as {@link #reloadMessageDefinitions()}; appends a one-line summary
+	 * of the outcome to {@code summary}.
+	 */
+	private boolean reloadMessageDefinitions(StringBuilder summary) {
+		synchronized (reloadLock) {
+			RuleSet updated = new RuleSet();
+			for (RuleSource source : ruleSources) {
+				try {
+					updated.add(source.read());
+				} catch (IOException e) {
+					updated.error("Failed to read rules from " + source.file
+						+ ": " + e.getMessage());
+				}
+			}
+			List<String> errors = updated.getErrors();
+			if (!errors.isEmpty()) {
+				summary.append("rules not reloaded, ").append(errors.size())
+					.append(" error(s) found; first: ").append(errors.get(0));
+				logger.error("{}", summary);
+				return false;
+			}
+			summary.append("rules reloaded; ").append(
+				updated.describeChanges(rules.ruleSet));
+			publish(updated);
+			logger.info("{}", summary);
+			return true;
+		}
+	}
+
+	/**
+	 * Makes {@code updated} the rules in use. Must be called with
+	 * {@link #reloadLock} held.
+	 */
+	private void publish(RuleSet updated) {
+		rules = new Rules(updated);
+		applyPeerConfig(updated);
+	}
+
+	/**
+	 * Passes the per peer type settings and message priorities from {@code
+	 * rules} to the {@link #connectionsManager}, once it exists. Must be
+	 * called with {@link #reloadLock} held.
+	 */
+	private void applyPeerConfig(RuleSet rules) {
+		if (connectionsManager == null)
+			return;
+		Config config = connectionsManager.getConfig();
+		for (MultiplexerPeerDescription peerDesc : rules.peerTypeIdsToDescription
+			.values()) {
+			if (peerDesc.hasCompressionThreshold()) {
+				config.setCompressionThreshold(peerDesc.getType(), peerDesc
+					.getCompressionThreshold());
+			} else {
+				config.clearCompressionThreshold(peerDesc.getType());
+			}
+			connectionsManager.setQueueSize(peerDesc.getType(), peerDesc
+				.getQueueSize());
+			connectionsManager.setSelectionPolicy(peerDesc.getType(),
+				PeerSelectionPolicy.valueOf(peerDesc.getSelectionPolicy()));
+		}
+		for (MultiplexerMessageDescription msgDesc : rules.messageTypeIdsToDescription
+			.values()) {
+			if (msgDesc.hasPriority()) {
+				config.setPriority(msgDesc.getType(), msgDesc.getPriority());
+			} else {
+				config.clearPriority(msgDesc.getType());
+			}
+		}
+	}
+
+	/**
+	 * Reloads the rules ({@link #reloadMessageDefinitions()}) in the
+	 * background. If the server is not running, the rules are reloaded before
+	 * this method returns.
+	 */
+	public void requestRulesReload() {
+		requestRulesReload(null, null);
+	}
+
+	/**
+	 * Reloads the rules in the background and, if {@code request} is given,
+	 * answers it with a RELOAD_RULES message carrying a summary of the
+	 * outcome.
+	 */
+	private void requestRulesReload(final Connection connection,
+		final RawMultiplexerMessage request) {
+		Runnable reload = new Runnable() {
+			public void run() {
+				StringBuilder summary = new StringBuilder();
+				reloadMessageDefinitions(summary);
+				if (request == null)
+					return;
+				MultiplexerMessage.Builder response = connectionsManager
+					.createMessageBuilder().setType(MessageTypes.RELOAD_RULES)
+					.setReferences(request.getId()).setMessage(
+						ByteString.copyFromUtf8(summary.toString()));
+				if (request.hasFrom())
+					response.setTo(request.getFrom());
+				connectionsManager.sendMessage(response.build(), SendingMethod
+					.via(connection));
+			}
+		};
+		ScheduledExecutorService reloader = rulesReloader;
+		if (reloader == null) {
+			reload.run();
+			return;
+		}
+		try {
+			reloader.execute(reload);
+		} catch (RejectedExecutionException e) {
+			logger.info("server is shutting down, rules not reloaded");
+		}
+	}
+
+	/**
+	 * Starts the thread reloading rules and, if requested, watching the rules
+	 * files for changes.
+	 */
+	private void startRulesReloader() {
+		ScheduledExecutorService reloader = Executors
+			.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+				.setNameFormat(
+					JmxServer.class.getSimpleName() + " rules reloader")
+				.setDaemon(true).build());
+		long interval = rulesWatchIntervalMillis;
+		if (interval > 0) {
+			reloader.scheduleWithFixedDelay(new Runnable() {
+				public void run() {
+					if (areRulesFilesModified())
+						reloadMessageDefinitions();
+				}
+			}, interval, interval, TimeUnit.MILLISECONDS);
+		}
+		rulesReloader = reloader;
+	}
+
+	private boolean areRulesFilesModified() {
+		synchronized (reloadLock) {
+			for (RuleSource source : ruleSources) {
+				if (source.isModified())
+					return true;
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Returns how often the rules files are checked for changes, or {@code 0}
+	 * if they are not.
+	 */
+	public long getRulesWatchIntervalMillis() {
+		return rulesWatchIntervalMillis;
+	}
+
+	/**
+	 * Makes the server check every {@code rulesWatchIntervalMillis} whether
+	 * the rules files changed and {@link #reloadMessageDefinitions() reload}
+	 * them if so; {@code 0} (the default) disables it. This must be called
+	 * before a call to {@link #run}.
+	 */
+	public void setRulesWatchIntervalMillis(long rulesWatchIntervalMillis) {
+		this.rulesWatchIntervalMillis = rulesWatchIntervalMillis;
+	}
+
+	/**
+	 * A {@link RuleSet} and the {@link RoutingTable} compiled from it,
+	 * published together.
+	 */
+	private static final class Rules {
+		final RuleSet ruleSet;
+		final RoutingTable routingTable;
+
+		Rules(RuleSet ruleSet) {
+			this.ruleSet = ruleSet;
+			this.routingTable = new RoutingTable(
+				ruleSet.messageTypeIdsToDescription.values());
+		}
+	}
+
+	/**
+	 * Rules loaded by one call to {@code loadMessageDefinitions}: either a
+	 * file, read again on every reload, or rules given directly.
+	 */
+	private static final class RuleSource {
+		final File file;
+		private final MultiplexerRules rules;
+		private long lastModified;
+		private long length;
+
+		RuleSource(File file) {
+			this.file = file;
+			this.rules = null;
+		}
+
+		RuleSource(MultiplexerRules rules) {
+			this.file = null;
+			this.rules = rules;
+		}
+
+		MultiplexerRules read() throws IOException {
+			if (file == null)
+				return rules;
+			// Stamp before reading, so that a concurrent change is not missed.
+			lastModified = file.lastModified();
+			length = file.length();
+			MultiplexerRules.Builder rulesBuilder = MultiplexerRules
+				.newBuilder();
+			Reader reader = new FileReader(file);
+			try {
+				TextFormat.merge(reader, rulesBuilder);
+			} finally {
+				reader.close();
+			}
+			return rulesBuilder.build();
+		}
+
+		boolean isModified() {
+			return file != null
+				&& (file.lastModified() != lastModified || file.length() != length);
+		}
+	}
+
 	public void onMessageReceived(MultiplexerMessage message,
 		Connection connection) {
+		onMessageReceived(RawMultiplexerMessage.wrap(message), connection);
+	}
+
+	/**
+	 * Route a message. Only the routing header of the {@code message} is
+	 * inspected; the message is forwarded in its original wire format unless
+	 * it is addressed to the server itself. Messages decoded from one read are
+	 * routed in the order of their priorities, see
+	 * {@link InboundPriorityHandler}.
+	 */
+	public void onMessageReceived(RawMultiplexerMessage message,
+		Connection connection) {
 
-		logger.debug("message received, type=" + message.getType());
-		logger.trace("message received\n{}\n", message);
+		Priority.Values priority = message.hasPriority() ? message
+			.getPriority() : connectionsManager.getConfig().getPriority(
+			message.getType());
+		if (!inboundPriorityHandler.defer(message, connection, priority))
+			route(message, connection);
+	}
+
+	private void route(RawMultiplexerMessage message, Connection connection) {
+
+		if (logger.isTraceEnabled())
+			logger.trace("message received\n{}\n", message);
+		else if (logger.isDebugEnabled())
+			logger.debug("message received, type={}", message.getType());
+
+		// nobody awaits expired messages any more
+		if (message.isExpired(System.currentTimeMillis())) {
+			logger.debug("message #{} expired {} ms ago, dropped", message
+				.getId(), System.currentTimeMillis() - message.getDeadline());
+			connectionsManager.getMetrics().expiredDropped();
+			if (isReportDeliveryErrorRequested(message))
+				reportDeliveryError(connection, message,
+					createDeliveryError(message));
+			return;
+		}
 
 		// routing based on to
 		if (message.hasTo()) {
@@ -435,21 +959,46 @@ public class JmxServer implements MessageReceivedListener, Runnable {
 			logger.warn("message without type received\n{}\n", message);
 			return;
 		}
+		if (message.hasFragmentedId()
+			&& message.getType() <= MessageTypes.MAX_MULTIPLEXER_META_PACKET) {
+			// addressed to the server itself, other fragments are forwarded
+			try {
+				MultiplexerMessage reassembled = fragmentReassembler
+					.add(message.getMessage());
+				if (reassembled == null)
+					return;
+				message = RawMultiplexerMessage.wrap(reassembled);
+			} catch (IOException e) {
+				logger.warn("fragment dropped: {}", e.getMessage());
+				return;
+			}
+		}
 		switch (message.getType()) {
 		case MessageTypes.PING:
 			if (!message.hasFrom()) {
 				logger.warn("received PING without from and to set:\n{}\n",
 					message);
 			} else {
+				// The payload is echoed back as is, possibly compressed.
 				MultiplexerMessage response = connectionsManager
-					.createMessageBuilder().setMessage(message.getMessage())
-					.setType(MessageTypes.PING).setTo(message.getFrom())
-					.build();
+					.createMessageBuilder().setMessage(
+						message.getMessage().getMessage()).setCompression(
+						message.getMessage().getCompression()).setType(
+						MessageTypes.PING).setTo(message.getFrom()).build();
 				connectionsManager.sendMessage(response, SendingMethod
 					.via(connection));
 			}
 			break;
 
+		case MessageTypes.RELOAD_RULES:
+			logger.info("rules reload requested by {}", connection);
+			requestRulesReload(connection, message);
+			break;
+
+		case MessageTypes.FEDERATION_ANNOUNCEMENT:
+			announcementReceived(connection, message);
+			break;
+
 		case MessageTypes.BACKEND_ERROR:
 		case MessageTypes.DELIVERY_ERROR:
 		case MessageTypes.CONNECTION_WELCOME:
@@ -462,28 +1011,23 @@ public class JmxServer implements MessageReceivedListener, Runnable {
 		case MessageTypes.BACKEND_FOR_PACKET_SEARCH:
 			try {
 				BackendForPacketSearch backendSearchMessage = BackendForPacketSearch
-					.parseFrom(message.getMessage());
-				MultiplexerMessageDescription msgDesc = messageTypeIdsToDescription
-					.get(backendSearchMessage.getPacketType());
-				if (msgDesc == null || msgDesc.getToCount() == 0) {
+					.parseFrom(CompressionHandler.decompress(
+						message.getMessage()).getMessage());
+				RoutingTable.Route route = rules.routingTable
+					.getBackendSearchRoute(backendSearchMessage.getPacketType());
+				if (route == null) {
 					logger.warn("BACKEND_FOR_PACKET_SEARCH msg type "
 						+ backendSearchMessage.getPacketType()
 						+ " has no routing rules");
+					connectionsManager.getMetrics().deliveryFailed();
 					if (isReportDeliveryErrorRequested(message)) {
 						reportDeliveryError(connection, message,
 							createDeliveryError(message).setIsKnownType(false));
 					}
 				} else {
-					RoutingRule routingRule = msgDesc.getTo(0);
-					routingRule = RoutingRule.newBuilder(routingRule).setWhom(
-						RoutingRule.Whom.ALL).setReportDeliveryError(true)
-						.setIncludeOriginalPacketInReport(false).build();
-					List<RoutingRule> ruleSingleton = new ArrayList<RoutingRule>(
-						1);
-					ruleSingleton.add(routingRule);
-					scheduleByRoutingRules(connection, message, ruleSingleton);
+					scheduleByRoutes(connection, message, route);
 				}
-			} catch (InvalidProtocolBufferException e) {
+			} catch (IOException e) {
 				logger.warn("Malformed BACKEND_FOR_PACKET_SEARCH", e);
 				if (isReportDeliveryErrorRequested(message)) {
 					reportDeliveryError(connection, message,
@@ -494,11 +1038,10 @@ public class JmxServer implements MessageReceivedListener, Runnable {
 
 		default:
 			if (message.getType() > MessageTypes.MAX_MULTIPLEXER_META_PACKET) {
-				MultiplexerMessageDescription msgDesc = messageTypeIdsToDescription
-					.get(message.getType());
-				if (msgDesc != null) {
-					scheduleByRoutingRules(connection, message, msgDesc
-						.getToList());
+				RoutingTable.Route[] routes = rules.routingTable
+					.getRoutes(message.getType());
+				if (routes != null) {
+					scheduleByRoutes(connection, message, routes);
 					break;
 				}
 			}
@@ -510,46 +1053,131 @@ public class JmxServer implements MessageReceivedListener, Runnable {
 		}
 	}
 
+	/**
+	 * Routes the {@code message} by rules given in the message itself.
+	 */
 	private void scheduleByRoutingRules(Connection from,
-		MultiplexerMessage message, List<RoutingRule> routingRules) {
+		RawMultiplexerMessage message, List<RoutingRule> routingRules) {
 		DeliveryError.Builder deliveryError = null;
 		if (isReportDeliveryErrorRequested(message))
 			deliveryError = createDeliveryError(message);
 
 		for (RoutingRule rule : routingRules) {
-			try {
-				connectionsManager.sendMessage(message, SendingMethod.via(rule
-					.getPeerType(), rule.getWhom()));
-			} catch (NoPeerForTypeException e) {
-				e.printStackTrace();
-				if (deliveryError != null)
-					deliveryError.addFailedType(rule.getPeerType());
-			}
+			SendingMethod.ViaConnectionsOfType method = SendingMethod.via(rule
+				.getPeerType(), rule.getWhom());
+			if (rule.getWhom() == RoutingRule.Whom.ANY)
+				method = withAffinity(method, message, rule.getAffinity(), rule
+					.getAffinityPrefixLength());
+			schedule(from, message, rule.getPeerType(), method, rule
+				.getReportDeliveryError(), rule.getDeliveryErrorIsError(),
+				deliveryError);
 		}
 		if (deliveryError != null)
 			reportDeliveryError(from, message, deliveryError);
 	}
 
+	private void scheduleByRoutes(Connection from,
+		RawMultiplexerMessage message, RoutingTable.Route... routes) {
+		DeliveryError.Builder deliveryError = null;
+		if (isReportDeliveryErrorRequested(message))
+			deliveryError = createDeliveryError(message);
+
+		for (RoutingTable.Route route : routes) {
+			schedule(from, message, route.getPeerType(), withAffinity(route
+				.getMethod(), message, route.getAffinity(), route
+				.getAffinityPrefixLength()), route.isReportDeliveryError(),
+				route.isDeliveryErrorError(), deliveryError);
+		}
+		if (deliveryError != null)
+			reportDeliveryError(from, message, deliveryError);
+	}
+
+	/**
+	 * Returns the {@code method} sending to the peer the {@code message}'s
+	 * {@code affinity} key is assigned to, or the {@code method} itself if
+	 * there is no affinity or the message lacks the key. The fragments of a
+	 * message have its workflow and a copy of its {@code message}'s prefix,
+	 * so they are routed like the message; if it has no key, they are sent
+	 * to the peer the message's ID is assigned to, so that they are
+	 * reassembled together.
+	 */
+	private static SendingMethod.ViaConnectionsOfType withAffinity(
+		SendingMethod.ViaConnectionsOfType method,
+		RawMultiplexerMessage message, Affinity.Values affinity,
+		int affinityPrefixLength) {
+		if (message.hasFragmentedId()
+			&& method.getQuantity() == SendingMethod.ANY
+			&& (affinity == Affinity.Values.NONE || !message
+				.hasAffinityKey(affinity)))
+			return SendingMethod.viaAffinity(method.getPeerType(), message
+				.getFragmentedId());
+		if (affinity == Affinity.Values.NONE
+			|| !message.hasAffinityKey(affinity))
+			return method;
+		return SendingMethod.viaAffinity(method.getPeerType(), message
+			.getAffinityKey(affinity, affinityPrefixLength));
+	}
+
 	/**
-	 * Send {@code message} to a client directly connected to this server and
-	 * having ID {@code message.getType()}.
+	 * Sends the {@code message} to peers of the {@code peerType}, including
+	 * the ones reachable through federated servers if there are no local ones
+	 * or if the {@code message} is sent to all of them. A failure is added to
+	 * the {@code deliveryError} (if it is not {@code null}) when {@code
+	 * report} is set and is counted and logged as a warning when {@code
+	 * isError} is set.
+	 */
+	private void schedule(Connection from, RawMultiplexerMessage message,
+		int peerType, SendingMethod.ViaConnectionsOfType method,
+		boolean report, boolean isError, DeliveryError.Builder deliveryError) {
+		boolean all = method.getQuantity() == SendingMethod.ALL;
+		try {
+			connectionsManager.sendMessage(message, method);
+			if (all)
+				forward(from, message, federation.getNeighbors(peerType), true);
+			return;
+		} catch (PeersSaturatedException e) {
+			logger.debug("all peers of type {} are saturated", peerType);
+		} catch (NoPeerForTypeException e) {
+			if (forward(from, message, federation.getNeighbors(peerType), all))
+				return;
+			if (isError)
+				logger.warn("no peers of type {} to deliver message #{} to",
+					peerType, message.getId());
+			else
+				logger.debug("no peers of type {} to deliver message #{} to",
+					peerType, message.getId());
+		}
+		if (isError)
+			connectionsManager.getMetrics().deliveryFailed();
+		if (deliveryError != null && report)
+			deliveryError.addFailedType(peerType);
+	}
+
+	/**
+	 * Send {@code message} to a client having ID {@code message.getTo()},
+	 * connected directly to this server or to a federated one.
 	 * 
 	 * @param message
 	 *            to be sent
 	 */
-	void scheduleByTo(Connection from, MultiplexerMessage message) {
+	void scheduleByTo(Connection from, RawMultiplexerMessage message) {
 		assert message.hasTo();
 		try {
 			connectionsManager.sendMessage(message, SendingMethod.via(message
 				.getTo()));
 		} catch (NoPeerForPeerIdException e) {
+			Federation.Route route = federation.getRoute(message.getTo());
+			if (route != null
+				&& forward(from, message, new long[] { route.neighborId }, false))
+				return;
 			logger.warn("message #{} to {} while it's not connected", message
 				.getId(), message.getTo());
+			connectionsManager.getMetrics().deliveryFailed();
 			reportDeliveryError(from, message, message.getTo());
 		}
 	}
 
-	boolean isReportDeliveryErrorRequested(MultiplexerMessage message) {
+	boolean isReportDeliveryErrorRequested(RawMultiplexerMessage message) {
 		return message.getReportDeliveryError() && message.getFrom() != 0
 			&& message.getFrom() != connectionsManager.getInstanceId();
 	}
@@ -559,7 +1187,7 @@ public class JmxServer implements MessageReceivedListener, Runnable {
 	 * Suppress the report if the sender of the {@code message} did not request
 	 * it ({@code message.getReportDeliveryError()} returns false).
 	 */
-	void reportDeliveryError(Connection from, MultiplexerMessage message,
+	void reportDeliveryError(Connection from, RawMultiplexerMessage message,
 		long peerId) {
 		if (!isReportDeliveryErrorRequested(message))
 			return;
@@ -567,25 +1195,27 @@ public class JmxServer implements MessageReceivedListener, Runnable {
 			.setFailedTo(peerId));
 	}
 
-	DeliveryError.Builder createDeliveryError(MultiplexerMessage message) {
-		DeliveryError.Builder deliveryError = DeliveryError.newBuilder();
+	DeliveryError.Builder createDeliveryError(RawMultiplexerMessage message) {
+		DeliveryError.Builder deliveryError = DeliveryError.newBuilder()
+			.setPacketId(message.getId());
 		if (message.getIncludeOriginalPacketInReport())
-			deliveryError.setOriginalMessage(message);
+			deliveryError.setOriginalMessage(message.getMessage());
 		return deliveryError;
 	}
 
-	void reportDeliveryError(Connection from, MultiplexerMessage message,
+	void reportDeliveryError(Connection from, RawMultiplexerMessage message,
 		DeliveryError deliveryError) {
 		assert isReportDeliveryErrorRequested(message);
 		MultiplexerMessage errorMessage = connectionsManager
 			.createMessageBuilder().setTo(message.getFrom())
 			.setReportDeliveryError(false).setType(MessageTypes.DELIVERY_ERROR)
 			.setMessage(deliveryError.toByteString()).setReferences(
-				message.getId()).setWorkflow(message.getWorkflow()).build();
+				message.getId()).setWorkflow(message.getMessage().getWorkflow())
+			.build();
 		connectionsManager.sendMessage(errorMessage, SendingMethod.via(from));
 	}
 
-	void reportDeliveryError(Connection from, MultiplexerMessage message,
+	void reportDeliveryError(Connection from, RawMultiplexerMessage message,
 		DeliveryError.Builder deliveryError) {
 		reportDeliveryError(from, message, deliveryError.build());
 	}
@@ -595,8 +1225,8 @@ public class JmxServer implements MessageReceivedListener, Runnable {
 		name = MessageTypes.instance.getConstantsNames().get(type);
 		if (name != null)
 			return name;
-		MultiplexerMessageDescription msgDesc = messageTypeIdsToDescription
-			.get(type);
+		MultiplexerMessageDescription msgDesc = rules.routingTable
+			.getDescription(type);
 		if (msgDesc != null) {
 			if (msgDesc.hasName())
 				return msgDesc.getName();
@@ -677,10 +1307,61 @@ public class JmxServer implements MessageReceivedListener, Runnable {
 		}
 		server
 			.setTransferUpdateIntervalMillis(options.transferUpdateIntervalMillis);
+		server.setRulesWatchIntervalMillis(options.rulesWatchIntervalMillis);
+		if (options.sharedMemoryDirectory != null)
+			server.setSharedMemoryDirectory(new File(
+				options.sharedMemoryDirectory));
+		for (String address : options.federatedServers) {
+			int colon = address.lastIndexOf(':');
+			if (colon < 0) {
+				usage("-federate expects host:port, got " + address,
+					optionsParser);
+				System.exit(1);
+			}
+			server.federate(new InetSocketAddress(address.substring(0, colon),
+				Integer.parseInt(address.substring(colon + 1))));
+		}
+		reloadRulesOnHangup(server);
 
 		server.run();
 	}
 
+	/**
+	 * Makes SIGHUP {@link #requestRulesReload() reload} the rules of the
+	 * {@code server}, if the JVM supports handling signals. Signals are
+	 * handled through reflection, as {@code sun.misc.Signal} is not a part of
+	 * the public API.
+	 */
+	private static void reloadRulesOnHangup(final JmxServer server) {
+		try {
+			Class<?> signalClass = Class.forName("sun.misc.Signal");
+			Class<?> handlerClass = Class.forName("sun.misc.SignalHandler");
+			Object handler = Proxy.newProxyInstance(JmxServer.class
+				.getClassLoader(), new Class<?>[] { handlerClass },
+				new InvocationHandler() {
+					public Object invoke(Object proxy, Method method,
+						Object[] args) {
+						if (method.getName().equals("handle")) {
+							logger.info("SIGHUP received, reloading rules");
+							server.requestRulesReload();
+							return null;
+						} else if (method.getName().equals("equals")) {
+							return proxy == args[0];
+						} else if (method.getName().equals("hashCode")) {
+							return System.identityHashCode(proxy);
+						}
+						return "SIGHUP handler";
+					}
+				});
+			signalClass.getMethod("handle", signalClass, handlerClass).invoke(
+				null, signalClass.getConstructor(String.class).newInstance("HUP"),
+				handler);
+		} catch (Exception e) {
+			logger.info("rules will not be reloaded on SIGHUP: {}", e
+				.toString());
+		}
+	}
+
 	private static void usage(String error, CmdLineParser optionsParser) {
 		System.err.println(error);
 		System.err.println("java " + JmxServer.class.getName()
@@ -35,4 +35,13 @@ public class Options {
 	
 	@Option(name="-print", usage="how often print transfer statistics (in millis; default 10000)")
 	public long transferUpdateIntervalMillis = 10000;
+
+	@Option(name = "-watch-rules", usage = "how often check the rules files for changes and reload them (in millis; default 0: never)")
+	public long rulesWatchIntervalMillis = 0;
+
+	@Option(name = "-federate", usage = "host:port of a Multiplexer server to federate with (may be repeated)")
+	public List<String> federatedServers = new ArrayList<String>();
+
+	@Option(name = "-shm-dir", usage = "directory in which to accept connections through shared memory from peers on this host (default: none)")
+	public String sharedMemoryDirectory;
 }
@@ -0,0 +1,203 @@
+// Copyright 2009 Warsaw University, Faculty of Physics
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+
+package multiplexer.jmx.server;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import multiplexer.jmx.client.SendingMethod;
+import multiplexer.protocol.Protocol.Affinity;
+import multiplexer.protocol.Protocol.MultiplexerMessageDescription;
+import multiplexer.protocol.Protocol.MultiplexerMessageDescription.RoutingRule;
+
+/**
+ * Routing rules of message types compiled for routing without allocations
+ * and map lookups. Types up to {@link #MAX_DENSE_TYPE} (all the types in
+ * practice) index an array of entries holding the {@link Route}s of the
+ * type, one per {@link RoutingRule} with the peer type resolved, and the
+ * route used when searching for a backend for the type. Other types are
+ * looked up in a map.
+ * 
+ * The table is immutable; the server compiles a new one when rules are
+ * loaded.
+ */
+public final class RoutingTable {
+
+	/**
+	 * Greatest message type stored in the array.
+	 */
+	static final int MAX_DENSE_TYPE = 64 * 1024 - 1;
+
+	private static final Route[] NO_ROUTES = new Route[0];
+
+	/**
+	 * A compiled {@link RoutingRule}.
+	 */
+	public static final class Route {
+		private final int peerType;
+		private final SendingMethod.ViaConnectionsOfType method;
+		private final boolean reportDeliveryError;
+		private final boolean deliveryErrorIsError;
+		private final Affinity.Values affinity;
+		private final int affinityPrefixLength;
+
+		Route(int peerType, RoutingRule.Whom whom,
+			boolean reportDeliveryError, boolean deliveryErrorIsError,
+			Affinity.Values affinity, int affinityPrefixLength) {
+			this.peerType = peerType;
+			this.method = SendingMethod.via(peerType, whom);
+			this.reportDeliveryError = reportDeliveryError;
+			this.deliveryErrorIsError = deliveryErrorIsError;
+			this.affinity = whom == RoutingRule.Whom.ANY ? affinity
+				: Affinity.Values.NONE;
+			this.affinityPrefixLength = affinityPrefixLength;
+		}
+
+		/**
+		 * @param rule
+		 *            a rule with the {@code peer_type} set
+		 */
+		Route(RoutingRule rule) {
+			this(rule.getPeerType(), rule.getWhom(), rule
+				.getReportDeliveryError(), rule.getDeliveryErrorIsError(),
+				rule.getAffinity(), rule.getAffinityPrefixLength());
+		}
+
+		public int getPeerType() {
+			return peerType;
+		}
+
+		public SendingMethod.ViaConnectionsOfType getMethod() {
+			return method;
+		}
+
+		/**
+		 * Whether a failure to deliver via this route is reported to the
+		 * sender (if it requested reports).
+		 */
+		public boolean isReportDeliveryError() {
+			return reportDeliveryError;
+		}
+
+		/**
+		 * Whether a failure to deliver via this route is an error, as opposed
+		 * to an expected condition (e.g. an optional receiver not being
+		 * connected).
+		 */
+		public boolean isDeliveryErrorError() {
+			return deliveryErrorIsError;
+		}
+
+		/**
+		 * Returns the key by which the peer is chosen, {@code NONE} if it is
+		 * chosen by the peer type's selection policy (always for routes to
+		 * ALL peers).
+		 */
+		public Affinity.Values getAffinity() {
+			return affinity;
+		}
+
+		public int getAffinityPrefixLength() {
+			return affinityPrefixLength;
+		}
+	}
+
+	private static final class Entry {
+		final MultiplexerMessageDescription description;
+		final Route[] routes;
+		final Route backendSearch;
+
+		Entry(MultiplexerMessageDescription description) {
+			this.description = description;
+			if (description.getToCount() == 0) {
+				routes = NO_ROUTES;
+				backendSearch = null;
+			} else {
+				routes = new Route[description.getToCount()];
+				for (int i = 0; i < routes.length; i++)
+					routes[i] = new Route(description.getTo(i));
+				// Backends are searched for among all peers of the first
+				// rule's type; those which can't be reached are reported.
+				backendSearch = new Route(routes[0].peerType,
+					RoutingRule.Whom.ALL, true, routes[0].deliveryErrorIsError,
+					Affinity.Values.NONE, 0);
+			}
+		}
+	}
+
+	private final Entry[] dense;
+	private final Map<Integer, Entry> sparse = new HashMap<Integer, Entry>();
+
+	/**
+	 * @param descriptions
+	 *            descriptions of message types, with peer types of the
+	 *            {@code to} rules resolved
+	 */
+	public RoutingTable(Collection<MultiplexerMessageDescription> descriptions) {
+		int maxType = -1;
+		for (MultiplexerMessageDescription description : descriptions)
+			if (isDense(description.getType()))
+				maxType = Math.max(maxType, description.getType());
+		dense = new Entry[maxType + 1];
+		for (MultiplexerMessageDescription description : descriptions) {
+			Entry entry = new Entry(description);
+			if (isDense(description.getType()))
+				dense[description.getType()] = entry;
+			else
+				sparse.put(description.getType(), entry);
+		}
+	}
+
+	private static boolean isDense(int type) {
+		return type >= 0 && type <= MAX_DENSE_TYPE;
+	}
+
+	private Entry entry(int type) {
+		if (type >= 0 && type < dense.length)
+			return dense[type];
+		return sparse.isEmpty() ? null : sparse.get(type);
+	}
+
+	/**
+	 * Returns the description of the message {@code type} or {@code null} if
+	 * it is unknown.
+	 */
+	public MultiplexerMessageDescription getDescription(int type) {
+		Entry entry = entry(type);
+		return entry == null ? null : entry.description;
+	}
+
+	/**
+	 * Returns the routes of messages of the {@code type} (possibly none), or
+	 * {@code null} if the type is unknown. The array must not be modified.
+	 */
+	public Route[] getRoutes(int type) {
+		Entry entry = entry(type);
+		return entry == null ? null : entry.routes;
+	}
+
+	/**
+	 * Returns the route of BACKEND_FOR_PACKET_SEARCH messages searching for a
+	 * backend for messages of the {@code type}, or {@code null} if they have
+	 * no routes.
+	 */
+	public Route getBackendSearchRoute(int type) {
+		Entry entry = entry(type);
+		return entry == null ? null : entry.backendSearch;
+	}
+}
@@ -0,0 +1,202 @@
+// Copyright 2009 Warsaw University, Faculty of Physics
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+package multiplexer.jmx.server;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import multiplexer.protocol.Protocol.MultiplexerMessageDescription;
+import multiplexer.protocol.Protocol.MultiplexerPeerDescription;
+import multiplexer.protocol.Protocol.MultiplexerRules;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Peer and message type descriptions compiled from one or more
+ * {@link MultiplexerRules}, with peer names in routing rules resolved to peer
+ * types. Entries with errors are logged and skipped; the errors are recorded
+ * so that a caller may reject the whole set.
+ *
+ * A {@code RuleSet} is mutable while it is being compiled and is never
+ * modified once published by {@link JmxServer}.
+ */
+final class RuleSet {
+
+	private static final Logger logger = LoggerFactory
+		.getLogger(RuleSet.class);
+
+	final Map<String, Integer> peerTypeNamesToPeerTypeIds;
+	final Map<Integer, MultiplexerPeerDescription> peerTypeIdsToDescription;
+	final Map<Integer, MultiplexerMessageDescription> messageTypeIdsToDescription;
+	private final List<String> errors = new ArrayList<String>();
+
+	RuleSet() {
+		peerTypeNamesToPeerTypeIds = new HashMap<String, Integer>();
+		peerTypeIdsToDescription = new HashMap<Integer, MultiplexerPeerDescription>();
+		messageTypeIdsToDescription = new HashMap<Integer, MultiplexerMessageDescription>();
+	}
+
+	/**
+	 * Creates a copy of {@code other}, to have more rules added.
+	 */
+	RuleSet(RuleSet other) {
+		peerTypeNamesToPeerTypeIds = new HashMap<String, Integer>(
+			other.peerTypeNamesToPeerTypeIds);
+		peerTypeIdsToDescription = new HashMap<Integer, MultiplexerPeerDescription>(
+			other.peerTypeIdsToDescription);
+		messageTypeIdsToDescription = new HashMap<Integer, MultiplexerMessageDescription>(
+			other.messageTypeIdsToDescription);
+	}
+
+	/**
+	 * Adds {@code rules} to the set. Message types already in the set are
+	 * replaced by their new descriptions.
+	 */
+	void add(MultiplexerRules rules) {
+		for (MultiplexerPeerDescription peerDesc : rules.getPeerList()) {
+			if (!peerDesc.hasName() || !peerDesc.hasType()) {
+				error("MultiplexerPeerDescription without name or type:\n"
+					+ peerDesc);
+				continue;
+			}
+			if (peerTypeNamesToPeerTypeIds.containsKey(peerDesc.getName())) {
+				error("Peer name '" + peerDesc.getName() + "' already exists.");
+				continue;
+			}
+			peerTypeNamesToPeerTypeIds.put(peerDesc.getName(), peerDesc
+				.getType());
+			peerTypeIdsToDescription.put(peerDesc.getType(), peerDesc);
+		}
+		for (MultiplexerMessageDescription msgd : rules.getTypeList()) {
+
+			if (!msgd.hasType()) {
+				error("MultiplexerMessageDescription without type:\n" + msgd);
+				continue;
+			}
+
+			MultiplexerMessageDescription.Builder msgdCopy = MultiplexerMessageDescription
+				.newBuilder();
+			if (msgd.hasName()) {
+				msgdCopy.setName(msgd.getName());
+			}
+			msgdCopy.setType(msgd.getType());
+
+			// Convert the 'to' list using peer' name→ID lookup.
+			for (MultiplexerMessageDescription.RoutingRule rRule : msgd
+				.getToList()) {
+
+				int peerId;
+				if (rRule.hasPeer()) {
+					// We have peer name specified.
+					if (!peerTypeNamesToPeerTypeIds
+						.containsKey(rRule.getPeer())) {
+						error("Unknown peer name: '" + rRule.getPeer() + "'");
+						continue;
+					}
+					peerId = peerTypeNamesToPeerTypeIds.get(rRule.getPeer());
+					if (rRule.hasPeerType() && rRule.getPeerType() != peerId) {
+						error("RoutingRule has both peer name and ID but ID is wrong:\n"
+							+ rRule);
+						continue;
+					}
+				} else if (rRule.hasPeerType()) {
+					// We don't have peer name but we have peer_type.
+					peerId = rRule.getPeerType();
+				} else {
+					// Oops, we have neither peer name nor type.
+					error("RoutingRule without peer name or peer_type:\n"
+						+ rRule);
+					continue;
+				}
+
+				// Create a copy of rRule with 'peerType' set (and 'peer'
+				// cleared ─ it's no longer used).
+				msgdCopy.addTo(MultiplexerMessageDescription.RoutingRule
+					.newBuilder(rRule).clearPeer().setPeerType(peerId));
+
+			}
+			messageTypeIdsToDescription.put(msgd.getType(), msgdCopy.build());
+		}
+	}
+
+	/**
+	 * Logs and records a problem found in the rules.
+	 */
+	void error(String problem) {
+		logger.error(problem);
+		errors.add(problem);
+	}
+
+	/**
+	 * Returns the problems found in the rules added so far.
+	 */
+	List<String> getErrors() {
+		return Collections.unmodifiableList(errors);
+	}
+
+	/**
+	 * Logs every peer and message type added, removed or changed since
+	 * {@code previous} and returns a one-line summary of the changes.
+	 */
+	String describeChanges(RuleSet previous) {
+		int[] peers = diff("peer type", previous.peerTypeIdsToDescription,
+			peerTypeIdsToDescription);
+		int[] types = diff("message type",
+			previous.messageTypeIdsToDescription, messageTypeIdsToDescription);
+		return String.format("peer types: %d added, %d removed, %d changed; "
+			+ "message types: %d added, %d removed, %d changed", peers[0],
+			peers[1], peers[2], types[0], types[1], types[2]);
+	}
+
+	/**
+	 * Returns the numbers of entries added, removed and changed.
+	 */
+	private static int[] diff(String kind, Map<Integer, ?> before,
+		Map<Integer, ?> after) {
+		int[] counts = new int[3];
+		for (Map.Entry<Integer, ?> entry : after.entrySet()) {
+			Object old = before.get(entry.getKey());
+			if (old == null) {
+				logger.info("{} {} ({}) added", new Object[] { kind,
+					entry.getKey(), nameOf(entry.getValue()) });
+				counts[0]++;
+			} else if (!old.equals(entry.getValue())) {
+				logger.info("{} {} ({}) changed", new Object[] { kind,
+					entry.getKey(), nameOf(entry.getValue()) });
+				counts[2]++;
+			}
+		}
+		for (Map.Entry<Integer, ?> entry : before.entrySet()) {
+			if (!after.containsKey(entry.getKey())) {
+				logger.info("{} {} ({}) removed", new Object[] { kind,
+					entry.getKey(), nameOf(entry.getValue()) });
+				counts[1]++;
+			}
+		}
+		return counts;
+	}
+
+	private static String nameOf(Object description) {
+		if (description instanceof MultiplexerPeerDescription)
+			return ((MultiplexerPeerDescription) description).getName();
+		MultiplexerMessageDescription msgd = (MultiplexerMessageDescription) description;
+		return msgd.hasName() ? msgd.getName() : JmxServer.UNNAMED_TYPE_NAME;
+	}
+}
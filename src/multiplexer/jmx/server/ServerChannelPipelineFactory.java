@@ -16,7 +16,11 @@
 package multiplexer.jmx.server;
 
 import multiplexer.jmx.internal.ByteCountingHandler;
+import multiplexer.jmx.internal.ConnectionsManagerChannelPipelineFactory;
 import multiplexer.jmx.internal.MessageCountingHandler;
+import multiplexer.jmx.internal.OutboundQueueHandler;
+import multiplexer.jmx.internal.RawMessageFrameDecoder;
+import multiplexer.jmx.internal.RawMultiplexerMessageDecoder;
 
 import org.jboss.netty.channel.ChannelPipeline;
 import org.jboss.netty.channel.ChannelPipelineFactory;
@@ -26,26 +30,59 @@ import org.jboss.netty.channel.ChannelPipelineFactory;
  */
 class ServerChannelPipelineFactory implements ChannelPipelineFactory {
 
-	private final ChannelPipelineFactory connectionsManagerPipelineFactory;
+	private final ConnectionsManagerChannelPipelineFactory connectionsManagerPipelineFactory;
 	private final ByteCountingHandler byteCountingHandler = new ByteCountingHandler();
 	private final MessageCountingHandler messageCountingHandler = new MessageCountingHandler();
+	private final RawMultiplexerMessageDecoder rawMultiplexerMessageDecoder = new RawMultiplexerMessageDecoder();
+	private final InboundPriorityHandler inboundPriorityHandler;
 
 	ServerChannelPipelineFactory(
-		ChannelPipelineFactory connectionsManagerPipelineFactory) {
+		ConnectionsManagerChannelPipelineFactory connectionsManagerPipelineFactory,
+		InboundPriorityHandler inboundPriorityHandler) {
 		this.connectionsManagerPipelineFactory = connectionsManagerPipelineFactory;
+		this.inboundPriorityHandler = inboundPriorityHandler;
 	}
 
 	public ChannelPipeline getPipeline() throws Exception {
 		ChannelPipeline pipeline = connectionsManagerPipelineFactory
 			.getPipeline();
 
+		// The server only routes messages, so it keeps them in the wire format
+		// and forwards the received frames as they are.
+		pipeline.replace("rawMessageDecoder", "rawMessageDecoder",
+			new RawMessageFrameDecoder(true));
+		pipeline.replace("multiplexerMessageDecoder",
+			"multiplexerMessageDecoder", rawMultiplexerMessageDecoder);
+
 		pipeline.addFirst("byteCounter", byteCountingHandler);
+		pipeline.addAfter("byteCounter", "inboundPriorityHandler",
+			inboundPriorityHandler);
 		pipeline.addBefore("multiplexerProtocolHandler", "messageCounter",
 			messageCountingHandler);
+		pipeline.addBefore("multiplexerProtocolHandler",
+			"outboundQueueHandler", new OutboundQueueHandler());
 
 		return pipeline;
 	}
 
+	/**
+	 * Returns a factory of pipelines of connections with peers in the same
+	 * JVM, see {@link ConnectionsManagerChannelPipelineFactory#getInVmPipeline()}.
+	 */
+	ChannelPipelineFactory inVm() {
+		return new ChannelPipelineFactory() {
+			public ChannelPipeline getPipeline() {
+				ChannelPipeline pipeline = connectionsManagerPipelineFactory
+					.getInVmPipeline();
+				pipeline.addBefore("multiplexerProtocolHandler",
+					"messageCounter", messageCountingHandler);
+				pipeline.addBefore("multiplexerProtocolHandler",
+					"outboundQueueHandler", new OutboundQueueHandler());
+				return pipeline;
+			}
+		};
+	}
+
 	public ByteCountingHandler getByteCountingHandler() {
 		return byteCountingHandler;
 	}
@@ -15,33 +15,181 @@
 
 package multiplexer.jmx.util;
 
-import gnu.trove.TLongHashSet;
-
-import java.util.LinkedList;
+import java.util.concurrent.TimeUnit;
 
 /**
- * A set-like structure of longs that stores only {@code CAPACITY} recent
- * values.
+ * A set-like structure of longs that stores only recent values: at most
+ * about {@code capacity} of them and, if a window is given, only those added
+ * within the window.
+ *
+ * Values are spread over independently locked shards by their hash, so
+ * concurrent callers rarely contend. Each shard keeps its values in insertion
+ * order in a ring of primitive longs, indexed by an open-addressing hash
+ * table, and {@link #add} allocates nothing.
  * 
  * @author Kasia Findeisen
  * @author Piotr Findeisen
  */
 public class RecentLongPool {
 
-	public static final int CAPACITY = 20000;
+	/**
+	 * Number of values stored by pools created with the default constructor.
+	 * Set with the {@code multiplexer.jmx.recentIdsCapacity} system property.
+	 */
+	public static final int DEFAULT_CAPACITY = Integer.getInteger(
+		"multiplexer.jmx.recentIdsCapacity", 256 * 1024);
+
+	/**
+	 * Time (in milliseconds) for which values are stored by pools created
+	 * with the default constructor. Set with the {@code
+	 * multiplexer.jmx.recentIdsWindowMillis} system property; {@code 0} (the
+	 * default) means values are forgotten only when the pool is full.
+	 */
+	public static final long DEFAULT_WINDOW_MILLIS = Long.getLong(
+		"multiplexer.jmx.recentIdsWindowMillis", 0);
+
+	private static final int MIN_SHARD_CAPACITY = 1024;
+
+	private final Shard[] shards;
+	private final int shardShift;
+	private final long windowNanos;
+
+	public RecentLongPool() {
+		this(DEFAULT_CAPACITY, DEFAULT_WINDOW_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	public RecentLongPool(int capacity) {
+		this(capacity, 0, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @param capacity
+	 *            number of most recent values stored; the pool may store a
+	 *            few more, as it is rounded up to a multiple of the number of
+	 *            shards
+	 * @param window
+	 *            time for which values are stored, or {@code 0} to store
+	 *            them regardless of their age
+	 */
+	public RecentLongPool(int capacity, long window, TimeUnit unit) {
+		if (capacity <= 0)
+			throw new IllegalArgumentException("capacity must be positive: "
+				+ capacity);
+		if (window < 0)
+			throw new IllegalArgumentException("window must not be negative: "
+				+ window);
+		int shardCount = 1;
+		int maxShards = 4 * Runtime.getRuntime().availableProcessors();
+		while (shardCount < maxShards
+			&& capacity / (shardCount * 2) >= MIN_SHARD_CAPACITY)
+			shardCount *= 2;
+		shards = new Shard[shardCount];
+		int shardCapacity = (capacity + shardCount - 1) / shardCount;
+		for (int i = 0; i < shardCount; i++)
+			shards[i] = new Shard(shardCapacity, window > 0);
+		shardShift = 64 - Integer.numberOfTrailingZeros(shardCount);
+		windowNanos = unit.toNanos(window);
+	}
 
-	private TLongHashSet ids = new TLongHashSet();
-	private LinkedList<Long> recent = new LinkedList<Long>();
+	/**
+	 * Adds {@code id} to the pool.
+	 * 
+	 * @return {@code false} if {@code id} is already present
+	 */
+	public boolean add(long id) {
+		long hash = id * 0x9E3779B97F4A7C15L;
+		// High bits of the hash choose the shard, low bits the table slot.
+		Shard shard = shardShift == 64 ? shards[0]
+			: shards[(int) (hash >>> shardShift)];
+		long now = windowNanos > 0 ? System.nanoTime() : 0;
+		synchronized (shard) {
+			return shard.add(id, (int) (hash ^ (hash >>> 32)), now, windowNanos);
+		}
+	}
 
-	public synchronized boolean add(long id) {
-		if (ids.add(id)) {
-			recent.addFirst(id);
-			if (ids.size() > CAPACITY) {
-				long removed = recent.removeLast();
-				ids.remove(removed);
+	/**
+	 * Returns the number of values that the pool can store.
+	 */
+	public int getCapacity() {
+		return shards.length * shards[0].ring.length;
+	}
+
+	private static final class Shard {
+		/** Values in insertion order, the oldest at {@code head} once full. */
+		final long[] ring;
+		/** Insertion times, if the pool has a window. */
+		final long[] times;
+		/** Indexes (plus one) into {@code ring}; {@code 0} is an empty slot. */
+		final int[] table;
+		final int mask;
+		int head;
+		int size;
+
+		Shard(int capacity, boolean timed) {
+			ring = new long[capacity];
+			times = timed ? new long[capacity] : null;
+			int tableSize = Integer.highestOneBit(capacity) * 4;
+			table = new int[tableSize];
+			mask = tableSize - 1;
+		}
+
+		boolean add(long id, int hash, long now, long windowNanos) {
+			int i = hash & mask;
+			int entry;
+			while ((entry = table[i]) != 0) {
+				if (ring[entry - 1] == id) {
+					if (times == null || now - times[entry - 1] <= windowNanos)
+						return false;
+					// Outside the window: accept it and start a new one.
+					times[entry - 1] = now;
+					return true;
+				}
+				i = (i + 1) & mask;
+			}
+			if (size == ring.length) {
+				remove(slot(ring[head]), head + 1);
+				// Removal may have moved entries, find a free slot again.
+				i = hash & mask;
+				while (table[i] != 0)
+					i = (i + 1) & mask;
+			} else {
+				size++;
 			}
+			ring[head] = id;
+			if (times != null)
+				times[head] = now;
+			table[i] = head + 1;
+			head = head + 1 == ring.length ? 0 : head + 1;
 			return true;
 		}
-		return false;
+
+		private int slot(long id) {
+			long hash = id * 0x9E3779B97F4A7C15L;
+			return (int) (hash ^ (hash >>> 32)) & mask;
+		}
+
+		/**
+		 * Removes {@code entry}, looked up from {@code i}, from the table,
+		 * shifting back the entries that follow it so that no lookup stops
+		 * at the freed slot.
+		 */
+		private void remove(int i, int entry) {
+			while (table[i] != entry)
+				i = (i + 1) & mask;
+			int j = i;
+			while (true) {
+				j = (j + 1) & mask;
+				if (table[j] == 0)
+					break;
+				int k = slot(ring[table[j] - 1]);
+				// Move the entry at j unless its home slot k lies
+				// cyclically within (i, j].
+				if (i <= j ? (k <= i || k > j) : (k <= i && k > j)) {
+					table[i] = table[j];
+					i = j;
+				}
+			}
+			table[i] = 0;
+		}
 	}
 }
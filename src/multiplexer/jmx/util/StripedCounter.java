@@ -0,0 +1,105 @@
+// Copyright 2009 Warsaw University, Faculty of Physics
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+package multiplexer.jmx.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter updated concurrently by many threads, but read rarely. Each
+ * thread adds to one of several cells (placed in separate cache lines), so
+ * that threads running on different cores rarely contend; {@link #get()}
+ * sums up all the cells.
+ */
+public class StripedCounter {
+
+	/**
+	 * Default number of cells: the smallest power of two not less than the
+	 * number of processors, but at most {@value #MAX_STRIPES}.
+	 */
+	public static final int STRIPES = stripes();
+
+	private static final int MAX_STRIPES = 16;
+
+	/**
+	 * Distance (in longs) between cells, so that they do not share cache
+	 * lines.
+	 */
+	private static final int PADDING = 8;
+
+	private final int mask;
+	private final int spacing;
+	private final AtomicLongArray cells;
+
+	public StripedCounter() {
+		this(STRIPES);
+	}
+
+	/**
+	 * @param stripes
+	 *            number of cells, a power of two not greater than
+	 *            {@link #STRIPES}; a counter with a single cell is no bigger
+	 *            than an {@link java.util.concurrent.atomic.AtomicLong}
+	 */
+	public StripedCounter(int stripes) {
+		if (stripes <= 0 || stripes > STRIPES
+			|| Integer.bitCount(stripes) != 1)
+			throw new IllegalArgumentException("stripes: " + stripes);
+		mask = stripes - 1;
+		spacing = stripes == 1 ? 1 : PADDING;
+		cells = new AtomicLongArray(stripes * spacing);
+	}
+
+	public void increment() {
+		cells.incrementAndGet((stripe() & mask) * spacing);
+	}
+
+	public void add(long delta) {
+		cells.addAndGet((stripe() & mask) * spacing, delta);
+	}
+
+	/**
+	 * Returns the sum of all the updates. Updates performed concurrently with
+	 * this call may or may not be included.
+	 */
+	public long get() {
+		long sum = 0;
+		for (int i = 0; i < cells.length(); i += spacing)
+			sum += cells.get(i);
+		return sum;
+	}
+
+	/**
+	 * Returns the index (less than {@link #STRIPES}) of the cell used by the
+	 * current thread.
+	 */
+	public static int stripe() {
+		long hash = Thread.currentThread().getId() * 0x9E3779B97F4A7C15L;
+		return (int) (hash >>> 32) & (STRIPES - 1);
+	}
+
+	private static int stripes() {
+		int processors = Runtime.getRuntime().availableProcessors();
+		int stripes = 1;
+		while (stripes < processors && stripes < MAX_STRIPES)
+			stripes *= 2;
+		return stripes;
+	}
+
+	@Override
+	public String toString() {
+		return Long.toString(get());
+	}
+}
@@ -56,6 +56,8 @@ public class Constants implements multiplexer.jmx.tools.rulesconsts.ConstantsPac
 		public final static int BACKEND_FOR_PACKET_SEARCH = 3;
 		public final static int HEARTBIT = 4;
 		public final static int DELIVERY_ERROR = 5;
+		public final static int RELOAD_RULES = 6;
+		public final static int FEDERATION_ANNOUNCEMENT = 7;
 		public final static int MAX_MULTIPLEXER_META_PACKET = 99;
 		public final static int REQUEST_RECEIVED = 113;
 		public final static int BACKEND_ERROR = 114;
@@ -69,6 +71,8 @@ public class Constants implements multiplexer.jmx.tools.rulesconsts.ConstantsPac
 				tmp.put("BACKEND_FOR_PACKET_SEARCH", BACKEND_FOR_PACKET_SEARCH);
 				tmp.put("HEARTBIT", HEARTBIT);
 				tmp.put("DELIVERY_ERROR", DELIVERY_ERROR);
+				tmp.put("RELOAD_RULES", RELOAD_RULES);
+				tmp.put("FEDERATION_ANNOUNCEMENT", FEDERATION_ANNOUNCEMENT);
 				tmp.put("MAX_MULTIPLEXER_META_PACKET", MAX_MULTIPLEXER_META_PACKET);
 				tmp.put("REQUEST_RECEIVED", REQUEST_RECEIVED);
 				tmp.put("BACKEND_ERROR", BACKEND_ERROR);
@@ -85,6 +89,8 @@ public class Constants implements multiplexer.jmx.tools.rulesconsts.ConstantsPac
 				tmp.put(BACKEND_FOR_PACKET_SEARCH, "BACKEND_FOR_PACKET_SEARCH");
 				tmp.put(HEARTBIT, "HEARTBIT");
 				tmp.put(DELIVERY_ERROR, "DELIVERY_ERROR");
+				tmp.put(RELOAD_RULES, "RELOAD_RULES");
+				tmp.put(FEDERATION_ANNOUNCEMENT, "FEDERATION_ANNOUNCEMENT");
 				tmp.put(MAX_MULTIPLEXER_META_PACKET, "MAX_MULTIPLEXER_META_PACKET");
 				tmp.put(REQUEST_RECEIVED, "REQUEST_RECEIVED");
 				tmp.put(BACKEND_ERROR, "BACKEND_ERROR");
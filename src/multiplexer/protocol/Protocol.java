@@ -66,6 +66,20 @@ public final class Protocol {
     public boolean hasIsPassive() { return hasIsPassive; }
     public boolean getIsPassive() { return isPassive_; }
     
+    // optional uint32 compression_threshold = 6 [default = 0];
+    public static final int COMPRESSION_THRESHOLD_FIELD_NUMBER = 6;
+    private boolean hasCompressionThreshold;
+    private int compressionThreshold_ = 0;
+    public boolean hasCompressionThreshold() { return hasCompressionThreshold; }
+    public int getCompressionThreshold() { return compressionThreshold_; }
+    
+    // optional .multiplexer.SelectionPolicy.Values selection_policy = 7 [default = ROUND_ROBIN];
+    public static final int SELECTION_POLICY_FIELD_NUMBER = 7;
+    private boolean hasSelectionPolicy;
+    private multiplexer.protocol.Protocol.SelectionPolicy.Values selectionPolicy_ = multiplexer.protocol.Protocol.SelectionPolicy.Values.ROUND_ROBIN;
+    public boolean hasSelectionPolicy() { return hasSelectionPolicy; }
+    public multiplexer.protocol.Protocol.SelectionPolicy.Values getSelectionPolicy() { return selectionPolicy_; }
+    
     public final boolean isInitialized() {
       if (!hasType) return false;
       if (!hasName) return false;
@@ -89,6 +103,12 @@ public final class Protocol {
       if (hasIsPassive()) {
         output.writeBool(5, getIsPassive());
       }
+      if (hasCompressionThreshold()) {
+        output.writeUInt32(6, getCompressionThreshold());
+      }
+      if (hasSelectionPolicy()) {
+        output.writeEnum(7, getSelectionPolicy().getNumber());
+      }
       getUnknownFields().writeTo(output);
     }
     
@@ -118,6 +138,14 @@ public final class Protocol {
         size += com.google.protobuf.CodedOutputStream
           .computeBoolSize(5, getIsPassive());
       }
+      if (hasCompressionThreshold()) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeUInt32Size(6, getCompressionThreshold());
+      }
+      if (hasSelectionPolicy()) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeEnumSize(7, getSelectionPolicy().getNumber());
+      }
       size += getUnknownFields().getSerializedSize();
       memoizedSerializedSize = size;
       return size;
@@ -282,6 +310,12 @@ public final class Protocol {
         if (other.hasIsPassive()) {
           setIsPassive(other.getIsPassive());
         }
+        if (other.hasCompressionThreshold()) {
+          setCompressionThreshold(other.getCompressionThreshold());
+        }
+        if (other.hasSelectionPolicy()) {
+          setSelectionPolicy(other.getSelectionPolicy());
+        }
         this.mergeUnknownFields(other.getUnknownFields());
         return this;
       }
@@ -327,6 +361,20 @@ public final class Protocol {
               setIsPassive(input.readBool());
               break;
             }
+            case 48: {
+              setCompressionThreshold(input.readUInt32());
+              break;
+            }
+            case 56: {
+              int rawValue = input.readEnum();
+              multiplexer.protocol.Protocol.SelectionPolicy.Values value = multiplexer.protocol.Protocol.SelectionPolicy.Values.valueOf(rawValue);
+              if (value == null) {
+                unknownFields.mergeVarintField(7, rawValue);
+              } else {
+                setSelectionPolicy(value);
+              }
+              break;
+            }
           }
         }
       }
@@ -427,6 +475,45 @@ public final class Protocol {
         result.isPassive_ = false;
         return this;
       }
+      
+      // optional uint32 compression_threshold = 6 [default = 0];
+      public boolean hasCompressionThreshold() {
+        return result.hasCompressionThreshold();
+      }
+      public int getCompressionThreshold() {
+        return result.getCompressionThreshold();
+      }
+      public Builder setCompressionThreshold(int value) {
+        result.hasCompressionThreshold = true;
+        result.compressionThreshold_ = value;
+        return this;
+      }
+      public Builder clearCompressionThreshold() {
+        result.hasCompressionThreshold = false;
+        result.compressionThreshold_ = 0;
+        return this;
+      }
+      
+      // optional .multiplexer.SelectionPolicy.Values selection_policy = 7 [default = ROUND_ROBIN];
+      public boolean hasSelectionPolicy() {
+        return result.hasSelectionPolicy();
+      }
+      public multiplexer.protocol.Protocol.SelectionPolicy.Values getSelectionPolicy() {
+        return result.getSelectionPolicy();
+      }
+      public Builder setSelectionPolicy(multiplexer.protocol.Protocol.SelectionPolicy.Values value) {
+        if (value == null) {
+          throw new NullPointerException();
+        }
+        result.hasSelectionPolicy = true;
+        result.selectionPolicy_ = value;
+        return this;
+      }
+      public Builder clearSelectionPolicy() {
+        result.hasSelectionPolicy = false;
+        result.selectionPolicy_ = multiplexer.protocol.Protocol.SelectionPolicy.Values.ROUND_ROBIN;
+        return this;
+      }
     }
     
     static {
@@ -593,6 +680,20 @@ public final class Protocol {
       public boolean hasIncludeOriginalPacketInReport() { return hasIncludeOriginalPacketInReport; }
       public boolean getIncludeOriginalPacketInReport() { return includeOriginalPacketInReport_; }
       
+      // optional .multiplexer.Affinity.Values affinity = 6 [default = NONE];
+      public static final int AFFINITY_FIELD_NUMBER = 6;
+      private boolean hasAffinity;
+      private multiplexer.protocol.Protocol.Affinity.Values affinity_ = multiplexer.protocol.Protocol.Affinity.Values.NONE;
+      public boolean hasAffinity() { return hasAffinity; }
+      public multiplexer.protocol.Protocol.Affinity.Values getAffinity() { return affinity_; }
+      
+      // optional uint32 affinity_prefix_length = 7 [default = 0];
+      public static final int AFFINITY_PREFIX_LENGTH_FIELD_NUMBER = 7;
+      private boolean hasAffinityPrefixLength;
+      private int affinityPrefixLength_ = 0;
+      public boolean hasAffinityPrefixLength() { return hasAffinityPrefixLength; }
+      public int getAffinityPrefixLength() { return affinityPrefixLength_; }
+      
       public final boolean isInitialized() {
         return true;
       }
@@ -614,6 +715,12 @@ public final class Protocol {
         if (hasIncludeOriginalPacketInReport()) {
           output.writeBool(5, getIncludeOriginalPacketInReport());
         }
+        if (hasAffinity()) {
+          output.writeEnum(6, getAffinity().getNumber());
+        }
+        if (hasAffinityPrefixLength()) {
+          output.writeUInt32(7, getAffinityPrefixLength());
+        }
         if (hasPeer()) {
           output.writeString(20, getPeer());
         }
@@ -646,6 +753,14 @@ public final class Protocol {
           size += com.google.protobuf.CodedOutputStream
             .computeBoolSize(5, getIncludeOriginalPacketInReport());
         }
+        if (hasAffinity()) {
+          size += com.google.protobuf.CodedOutputStream
+            .computeEnumSize(6, getAffinity().getNumber());
+        }
+        if (hasAffinityPrefixLength()) {
+          size += com.google.protobuf.CodedOutputStream
+            .computeUInt32Size(7, getAffinityPrefixLength());
+        }
         if (hasPeer()) {
           size += com.google.protobuf.CodedOutputStream
             .computeStringSize(20, getPeer());
@@ -817,6 +932,12 @@ public final class Protocol {
           if (other.hasIncludeOriginalPacketInReport()) {
             setIncludeOriginalPacketInReport(other.getIncludeOriginalPacketInReport());
           }
+          if (other.hasAffinity()) {
+            setAffinity(other.getAffinity());
+          }
+          if (other.hasAffinityPrefixLength()) {
+            setAffinityPrefixLength(other.getAffinityPrefixLength());
+          }
           this.mergeUnknownFields(other.getUnknownFields());
           return this;
         }
@@ -868,6 +989,20 @@ public final class Protocol {
                 setIncludeOriginalPacketInReport(input.readBool());
                 break;
               }
+              case 48: {
+                int rawValue = input.readEnum();
+                multiplexer.protocol.Protocol.Affinity.Values value = multiplexer.protocol.Protocol.Affinity.Values.valueOf(rawValue);
+                if (value == null) {
+                  unknownFields.mergeVarintField(6, rawValue);
+                } else {
+                  setAffinity(value);
+                }
+                break;
+              }
+              case 56: {
+                setAffinityPrefixLength(input.readUInt32());
+                break;
+              }
               case 162: {
                 setPeer(input.readString());
                 break;
@@ -990,6 +1125,45 @@ public final class Protocol {
           result.includeOriginalPacketInReport_ = false;
           return this;
         }
+        
+        // optional .multiplexer.Affinity.Values affinity = 6 [default = NONE];
+        public boolean hasAffinity() {
+          return result.hasAffinity();
+        }
+        public multiplexer.protocol.Protocol.Affinity.Values getAffinity() {
+          return result.getAffinity();
+        }
+        public Builder setAffinity(multiplexer.protocol.Protocol.Affinity.Values value) {
+          if (value == null) {
+            throw new NullPointerException();
+          }
+          result.hasAffinity = true;
+          result.affinity_ = value;
+          return this;
+        }
+        public Builder clearAffinity() {
+          result.hasAffinity = false;
+          result.affinity_ = multiplexer.protocol.Protocol.Affinity.Values.NONE;
+          return this;
+        }
+        
+        // optional uint32 affinity_prefix_length = 7 [default = 0];
+        public boolean hasAffinityPrefixLength() {
+          return result.hasAffinityPrefixLength();
+        }
+        public int getAffinityPrefixLength() {
+          return result.getAffinityPrefixLength();
+        }
+        public Builder setAffinityPrefixLength(int value) {
+          result.hasAffinityPrefixLength = true;
+          result.affinityPrefixLength_ = value;
+          return this;
+        }
+        public Builder clearAffinityPrefixLength() {
+          result.hasAffinityPrefixLength = false;
+          result.affinityPrefixLength_ = 0;
+          return this;
+        }
       }
       
       static {
@@ -1034,6 +1208,13 @@ public final class Protocol {
       return to_.get(index);
     }
     
+    // optional .multiplexer.Priority.Values priority = 5 [default = NORMAL];
+    public static final int PRIORITY_FIELD_NUMBER = 5;
+    private boolean hasPriority;
+    private multiplexer.protocol.Protocol.Priority.Values priority_ = multiplexer.protocol.Protocol.Priority.Values.NORMAL;
+    public boolean hasPriority() { return hasPriority; }
+    public multiplexer.protocol.Protocol.Priority.Values getPriority() { return priority_; }
+    
     public final boolean isInitialized() {
       if (!hasType) return false;
       if (!hasName) return false;
@@ -1054,6 +1235,9 @@ public final class Protocol {
       for (multiplexer.protocol.Protocol.MultiplexerMessageDescription.RoutingRule element : getToList()) {
         output.writeMessage(4, element);
       }
+      if (hasPriority()) {
+        output.writeEnum(5, getPriority().getNumber());
+      }
       getUnknownFields().writeTo(output);
     }
     
@@ -1079,6 +1263,10 @@ public final class Protocol {
         size += com.google.protobuf.CodedOutputStream
           .computeMessageSize(4, element);
       }
+      if (hasPriority()) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeEnumSize(5, getPriority().getNumber());
+      }
       size += getUnknownFields().getSerializedSize();
       memoizedSerializedSize = size;
       return size;
@@ -1247,6 +1435,9 @@ public final class Protocol {
           }
           result.to_.addAll(other.to_);
         }
+        if (other.hasPriority()) {
+          setPriority(other.getPriority());
+        }
         this.mergeUnknownFields(other.getUnknownFields());
         return this;
       }
@@ -1290,6 +1481,16 @@ public final class Protocol {
               addTo(subBuilder.buildPartial());
               break;
             }
+            case 40: {
+              int rawValue = input.readEnum();
+              multiplexer.protocol.Protocol.Priority.Values value = multiplexer.protocol.Protocol.Priority.Values.valueOf(rawValue);
+              if (value == null) {
+                unknownFields.mergeVarintField(5, rawValue);
+              } else {
+                setPriority(value);
+              }
+              break;
+            }
           }
         }
       }
@@ -1405,6 +1606,27 @@ public final class Protocol {
         result.to_ = java.util.Collections.emptyList();
         return this;
       }
+      
+      // optional .multiplexer.Priority.Values priority = 5 [default = NORMAL];
+      public boolean hasPriority() {
+        return result.hasPriority();
+      }
+      public multiplexer.protocol.Protocol.Priority.Values getPriority() {
+        return result.getPriority();
+      }
+      public Builder setPriority(multiplexer.protocol.Protocol.Priority.Values value) {
+        if (value == null) {
+          throw new NullPointerException();
+        }
+        result.hasPriority = true;
+        result.priority_ = value;
+        return this;
+      }
+      public Builder clearPriority() {
+        result.hasPriority = false;
+        result.priority_ = multiplexer.protocol.Protocol.Priority.Values.NORMAL;
+        return this;
+      }
     }
     
     static {
@@ -2124,6 +2346,55 @@ public final class Protocol {
     public boolean hasLoggingMethod() { return hasLoggingMethod; }
     public multiplexer.protocol.Protocol.LoggingMethod.Values getLoggingMethod() { return loggingMethod_; }
     
+    // optional uint32 hops = 25 [default = 0];
+    public static final int HOPS_FIELD_NUMBER = 25;
+    private boolean hasHops;
+    private int hops_ = 0;
+    public boolean hasHops() { return hasHops; }
+    public int getHops() { return hops_; }
+    
+    // optional uint64 fragmented_id = 26;
+    public static final int FRAGMENTED_ID_FIELD_NUMBER = 26;
+    private boolean hasFragmentedId;
+    private long fragmentedId_ = 0L;
+    public boolean hasFragmentedId() { return hasFragmentedId; }
+    public long getFragmentedId() { return fragmentedId_; }
+    
+    // optional uint32 fragment_offset = 27;
+    public static final int FRAGMENT_OFFSET_FIELD_NUMBER = 27;
+    private boolean hasFragmentOffset;
+    private int fragmentOffset_ = 0;
+    public boolean hasFragmentOffset() { return hasFragmentOffset; }
+    public int getFragmentOffset() { return fragmentOffset_; }
+    
+    // optional uint32 fragmented_length = 28;
+    public static final int FRAGMENTED_LENGTH_FIELD_NUMBER = 28;
+    private boolean hasFragmentedLength;
+    private int fragmentedLength_ = 0;
+    public boolean hasFragmentedLength() { return hasFragmentedLength; }
+    public int getFragmentedLength() { return fragmentedLength_; }
+    
+    // optional .multiplexer.Priority.Values priority = 29 [default = NORMAL];
+    public static final int PRIORITY_FIELD_NUMBER = 29;
+    private boolean hasPriority;
+    private multiplexer.protocol.Protocol.Priority.Values priority_ = multiplexer.protocol.Protocol.Priority.Values.NORMAL;
+    public boolean hasPriority() { return hasPriority; }
+    public multiplexer.protocol.Protocol.Priority.Values getPriority() { return priority_; }
+    
+    // optional uint64 deadline = 30;
+    public static final int DEADLINE_FIELD_NUMBER = 30;
+    private boolean hasDeadline;
+    private long deadline_ = 0L;
+    public boolean hasDeadline() { return hasDeadline; }
+    public long getDeadline() { return deadline_; }
+    
+    // optional bytes affinity_prefix = 31;
+    public static final int AFFINITY_PREFIX_FIELD_NUMBER = 31;
+    private boolean hasAffinityPrefix;
+    private com.google.protobuf.ByteString affinityPrefix_ = com.google.protobuf.ByteString.EMPTY;
+    public boolean hasAffinityPrefix() { return hasAffinityPrefix; }
+    public com.google.protobuf.ByteString getAffinityPrefix() { return affinityPrefix_; }
+    
     public final boolean isInitialized() {
       if (!hasType) return false;
       return true;
@@ -2170,6 +2441,27 @@ public final class Protocol {
       if (hasCompression()) {
         output.writeEnum(24, getCompression().getNumber());
       }
+      if (hasHops()) {
+        output.writeUInt32(25, getHops());
+      }
+      if (hasFragmentedId()) {
+        output.writeUInt64(26, getFragmentedId());
+      }
+      if (hasFragmentOffset()) {
+        output.writeUInt32(27, getFragmentOffset());
+      }
+      if (hasFragmentedLength()) {
+        output.writeUInt32(28, getFragmentedLength());
+      }
+      if (hasPriority()) {
+        output.writeEnum(29, getPriority().getNumber());
+      }
+      if (hasDeadline()) {
+        output.writeUInt64(30, getDeadline());
+      }
+      if (hasAffinityPrefix()) {
+        output.writeBytes(31, getAffinityPrefix());
+      }
       getUnknownFields().writeTo(output);
     }
     
@@ -2231,6 +2523,34 @@ public final class Protocol {
         size += com.google.protobuf.CodedOutputStream
           .computeEnumSize(24, getCompression().getNumber());
       }
+      if (hasHops()) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeUInt32Size(25, getHops());
+      }
+      if (hasFragmentedId()) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeUInt64Size(26, getFragmentedId());
+      }
+      if (hasFragmentOffset()) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeUInt32Size(27, getFragmentOffset());
+      }
+      if (hasFragmentedLength()) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeUInt32Size(28, getFragmentedLength());
+      }
+      if (hasPriority()) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeEnumSize(29, getPriority().getNumber());
+      }
+      if (hasDeadline()) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeUInt64Size(30, getDeadline());
+      }
+      if (hasAffinityPrefix()) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeBytesSize(31, getAffinityPrefix());
+      }
       size += getUnknownFields().getSerializedSize();
       memoizedSerializedSize = size;
       return size;
@@ -2426,6 +2746,27 @@ public final class Protocol {
         if (other.hasLoggingMethod()) {
           setLoggingMethod(other.getLoggingMethod());
         }
+        if (other.hasHops()) {
+          setHops(other.getHops());
+        }
+        if (other.hasFragmentedId()) {
+          setFragmentedId(other.getFragmentedId());
+        }
+        if (other.hasFragmentOffset()) {
+          setFragmentOffset(other.getFragmentOffset());
+        }
+        if (other.hasFragmentedLength()) {
+          setFragmentedLength(other.getFragmentedLength());
+        }
+        if (other.hasPriority()) {
+          setPriority(other.getPriority());
+        }
+        if (other.hasDeadline()) {
+          setDeadline(other.getDeadline());
+        }
+        if (other.hasAffinityPrefix()) {
+          setAffinityPrefix(other.getAffinityPrefix());
+        }
         this.mergeUnknownFields(other.getUnknownFields());
         return this;
       }
@@ -2517,6 +2858,40 @@ public final class Protocol {
               }
               break;
             }
+            case 200: {
+              setHops(input.readUInt32());
+              break;
+            }
+            case 208: {
+              setFragmentedId(input.readUInt64());
+              break;
+            }
+            case 216: {
+              setFragmentOffset(input.readUInt32());
+              break;
+            }
+            case 224: {
+              setFragmentedLength(input.readUInt32());
+              break;
+            }
+            case 232: {
+              int rawValue = input.readEnum();
+              multiplexer.protocol.Protocol.Priority.Values value = multiplexer.protocol.Protocol.Priority.Values.valueOf(rawValue);
+              if (value == null) {
+                unknownFields.mergeVarintField(29, rawValue);
+              } else {
+                setPriority(value);
+              }
+              break;
+            }
+            case 240: {
+              setDeadline(input.readUInt64());
+              break;
+            }
+            case 250: {
+              setAffinityPrefix(input.readBytes());
+              break;
+            }
           }
         }
       }
@@ -2800,6 +3175,138 @@ public final class Protocol {
         result.loggingMethod_ = multiplexer.protocol.Protocol.LoggingMethod.Values.BOTH;
         return this;
       }
+      
+      // optional uint32 hops = 25 [default = 0];
+      public boolean hasHops() {
+        return result.hasHops();
+      }
+      public int getHops() {
+        return result.getHops();
+      }
+      public Builder setHops(int value) {
+        result.hasHops = true;
+        result.hops_ = value;
+        return this;
+      }
+      public Builder clearHops() {
+        result.hasHops = false;
+        result.hops_ = 0;
+        return this;
+      }
+      
+      // optional uint64 fragmented_id = 26;
+      public boolean hasFragmentedId() {
+        return result.hasFragmentedId();
+      }
+      public long getFragmentedId() {
+        return result.getFragmentedId();
+      }
+      public Builder setFragmentedId(long value) {
+        result.hasFragmentedId = true;
+        result.fragmentedId_ = value;
+        return this;
+      }
+      public Builder clearFragmentedId() {
+        result.hasFragmentedId = false;
+        result.fragmentedId_ = 0L;
+        return this;
+      }
+      
+      // optional uint32 fragment_offset = 27;
+      public boolean hasFragmentOffset() {
+        return result.hasFragmentOffset();
+      }
+      public int getFragmentOffset() {
+        return result.getFragmentOffset();
+      }
+      public Builder setFragmentOffset(int value) {
+        result.hasFragmentOffset = true;
+        result.fragmentOffset_ = value;
+        return this;
+      }
+      public Builder clearFragmentOffset() {
+        result.hasFragmentOffset = false;
+        result.fragmentOffset_ = 0;
+        return this;
+      }
+      
+      // optional uint32 fragmented_length = 28;
+      public boolean hasFragmentedLength() {
+        return result.hasFragmentedLength();
+      }
+      public int getFragmentedLength() {
+        return result.getFragmentedLength();
+      }
+      public Builder setFragmentedLength(int value) {
+        result.hasFragmentedLength = true;
+        result.fragmentedLength_ = value;
+        return this;
+      }
+      public Builder clearFragmentedLength() {
+        result.hasFragmentedLength = false;
+        result.fragmentedLength_ = 0;
+        return this;
+      }
+      
+      // optional .multiplexer.Priority.Values priority = 29 [default = NORMAL];
+      public boolean hasPriority() {
+        return result.hasPriority();
+      }
+      public multiplexer.protocol.Protocol.Priority.Values getPriority() {
+        return result.getPriority();
+      }
+      public Builder setPriority(multiplexer.protocol.Protocol.Priority.Values value) {
+        if (value == null) {
+          throw new NullPointerException();
+        }
+        result.hasPriority = true;
+        result.priority_ = value;
+        return this;
+      }
+      public Builder clearPriority() {
+        result.hasPriority = false;
+        result.priority_ = multiplexer.protocol.Protocol.Priority.Values.NORMAL;
+        return this;
+      }
+      
+      // optional uint64 deadline = 30;
+      public boolean hasDeadline() {
+        return result.hasDeadline();
+      }
+      public long getDeadline() {
+        return result.getDeadline();
+      }
+      public Builder setDeadline(long value) {
+        result.hasDeadline = true;
+        result.deadline_ = value;
+        return this;
+      }
+      public Builder clearDeadline() {
+        result.hasDeadline = false;
+        result.deadline_ = 0L;
+        return this;
+      }
+      
+      // optional bytes affinity_prefix = 31;
+      public boolean hasAffinityPrefix() {
+        return result.hasAffinityPrefix();
+      }
+      public com.google.protobuf.ByteString getAffinityPrefix() {
+        return result.getAffinityPrefix();
+      }
+      public Builder setAffinityPrefix(com.google.protobuf.ByteString value) {
+        if (value == null) {
+    throw new NullPointerException();
+  }
+  result.hasAffinityPrefix = true;
+        result.affinityPrefix_ = value;
+        return this;
+      }
+      public Builder clearAffinityPrefix() {
+        result.hasAffinityPrefix = false;
+        result.affinityPrefix_ = getDefaultInstance().getAffinityPrefix();
+        return this;
+      }
     }
     
     static {
@@ -2856,6 +3363,27 @@ public final class Protocol {
     public boolean hasMultiplexerPassword() { return hasMultiplexerPassword; }
     public com.google.protobuf.ByteString getMultiplexerPassword() { return multiplexerPassword_; }
     
+    // optional uint32 compression_threshold = 4;
+    public static final int COMPRESSION_THRESHOLD_FIELD_NUMBER = 4;
+    private boolean hasCompressionThreshold;
+    private int compressionThreshold_ = 0;
+    public boolean hasCompressionThreshold() { return hasCompressionThreshold; }
+    public int getCompressionThreshold() { return compressionThreshold_; }
+    
+    // 
+    public static final int NO_CHECKSUM_FIELD_NUMBER = 5;
+    private boolean hasNoChecksum;
+    private boolean noChecksum_ = false;
+    public boolean hasNoChecksum() { return hasNoChecksum; }
+    public boolean getNoChecksum() { return noChecksum_; }
+    
+    // 
+    public static final int FRAGMENTS_FIELD_NUMBER = 6;
+    private boolean hasFragments;
+    private boolean fragments_ = false;
+    public boolean hasFragments() { return hasFragments; }
+    public boolean getFragments() { return fragments_; }
+    
     public final boolean isInitialized() {
       if (!hasType) return false;
       if (!hasId) return false;
@@ -2873,6 +3401,15 @@ public final class Protocol {
       if (hasMultiplexerPassword()) {
         output.writeBytes(3, getMultiplexerPassword());
       }
+      if (hasCompressionThreshold()) {
+        output.writeUInt32(4, getCompressionThreshold());
+      }
+      if (hasNoChecksum()) {
+        output.writeBool(5, getNoChecksum());
+      }
+      if (hasFragments()) {
+        output.writeBool(6, getFragments());
+      }
       getUnknownFields().writeTo(output);
     }
     
@@ -2894,6 +3431,18 @@ public final class Protocol {
         size += com.google.protobuf.CodedOutputStream
           .computeBytesSize(3, getMultiplexerPassword());
       }
+      if (hasCompressionThreshold()) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeUInt32Size(4, getCompressionThreshold());
+      }
+      if (hasNoChecksum()) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeBoolSize(5, getNoChecksum());
+      }
+      if (hasFragments()) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeBoolSize(6, getFragments());
+      }
       size += getUnknownFields().getSerializedSize();
       memoizedSerializedSize = size;
       return size;
@@ -3052,6 +3601,15 @@ public final class Protocol {
         if (other.hasMultiplexerPassword()) {
           setMultiplexerPassword(other.getMultiplexerPassword());
         }
+        if (other.hasCompressionThreshold()) {
+          setCompressionThreshold(other.getCompressionThreshold());
+        }
+        if (other.hasNoChecksum()) {
+          setNoChecksum(other.getNoChecksum());
+        }
+        if (other.hasFragments()) {
+          setFragments(other.getFragments());
+        }
         this.mergeUnknownFields(other.getUnknownFields());
         return this;
       }
@@ -3089,6 +3647,18 @@ public final class Protocol {
               setMultiplexerPassword(input.readBytes());
               break;
             }
+            case 32: {
+              setCompressionThreshold(input.readUInt32());
+              break;
+            }
+            case 40: {
+              setNoChecksum(input.readBool());
+              break;
+            }
+            case 48: {
+              setFragments(input.readBool());
+              break;
+            }
           }
         }
       }
@@ -3150,6 +3720,60 @@ public final class Protocol {
         result.multiplexerPassword_ = getDefaultInstance().getMultiplexerPassword();
         return this;
       }
+      
+      // optional uint32 compression_threshold = 4;
+      public boolean hasCompressionThreshold() {
+        return result.hasCompressionThreshold();
+      }
+      public int getCompressionThreshold() {
+        return result.getCompressionThreshold();
+      }
+      public Builder setCompressionThreshold(int value) {
+        result.hasCompressionThreshold = true;
+        result.compressionThreshold_ = value;
+        return this;
+      }
+      public Builder clearCompressionThreshold() {
+        result.hasCompressionThreshold = false;
+        result.compressionThreshold_ = 0;
+        return this;
+      }
+      
+      // 
+      public boolean hasNoChecksum() {
+        return result.hasNoChecksum();
+      }
+      public boolean getNoChecksum() {
+        return result.getNoChecksum();
+      }
+      public Builder setNoChecksum(boolean value) {
+        result.hasNoChecksum = true;
+        result.noChecksum_ = value;
+        return this;
+      }
+      public Builder clearNoChecksum() {
+        result.hasNoChecksum = false;
+        result.noChecksum_ = false;
+        return this;
+      }
+      
+      // 
+      public boolean hasFragments() {
+        return result.hasFragments();
+      }
+      public boolean getFragments() {
+        return result.getFragments();
+      }
+      public Builder setFragments(boolean value) {
+        result.hasFragments = true;
+        result.fragments_ = value;
+        return this;
+      }
+      public Builder clearFragments() {
+        result.hasFragments = false;
+        result.fragments_ = false;
+        return this;
+      }
     }
     
     static {
@@ -3192,6 +3816,13 @@ public final class Protocol {
     public boolean hasPacketType() { return hasPacketType; }
     public int getPacketType() { return packetType_; }
     
+    // optional uint64 pending_request = 2;
+    public static final int PENDING_REQUEST_FIELD_NUMBER = 2;
+    private boolean hasPendingRequest;
+    private long pendingRequest_ = 0L;
+    public boolean hasPendingRequest() { return hasPendingRequest; }
+    public long getPendingRequest() { return pendingRequest_; }
+    
     public final boolean isInitialized() {
       if (!hasPacketType) return false;
       return true;
@@ -3202,6 +3833,9 @@ public final class Protocol {
       if (hasPacketType()) {
         output.writeUInt32(1, getPacketType());
       }
+      if (hasPendingRequest()) {
+        output.writeUInt64(2, getPendingRequest());
+      }
       getUnknownFields().writeTo(output);
     }
     
@@ -3215,6 +3849,10 @@ public final class Protocol {
         size += com.google.protobuf.CodedOutputStream
           .computeUInt32Size(1, getPacketType());
       }
+      if (hasPendingRequest()) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeUInt64Size(2, getPendingRequest());
+      }
       size += getUnknownFields().getSerializedSize();
       memoizedSerializedSize = size;
       return size;
@@ -3367,6 +4005,9 @@ public final class Protocol {
         if (other.hasPacketType()) {
           setPacketType(other.getPacketType());
         }
+        if (other.hasPendingRequest()) {
+          setPendingRequest(other.getPendingRequest());
+        }
         this.mergeUnknownFields(other.getUnknownFields());
         return this;
       }
@@ -3396,6 +4037,10 @@ public final class Protocol {
               setPacketType(input.readUInt32());
               break;
             }
+            case 16: {
+              setPendingRequest(input.readUInt64());
+              break;
+            }
           }
         }
       }
@@ -3418,6 +4063,24 @@ public final class Protocol {
         result.packetType_ = 0;
         return this;
       }
+      
+      // optional uint64 pending_request = 2;
+      public boolean hasPendingRequest() {
+        return result.hasPendingRequest();
+      }
+      public long getPendingRequest() {
+        return result.getPendingRequest();
+      }
+      public Builder setPendingRequest(long value) {
+        result.hasPendingRequest = true;
+        result.pendingRequest_ = value;
+        return this;
+      }
+      public Builder clearPendingRequest() {
+        result.hasPendingRequest = false;
+        result.pendingRequest_ = 0L;
+        return this;
+      }
     }
     
     static {
@@ -5087,9 +5750,1877 @@ public final class Protocol {
     }
   }
   
-  private static com.google.protobuf.Descriptors.Descriptor
-    internal_static_multiplexer_MultiplexerPeerDescription_descriptor;
-  private static
+  public static final class LogEntriesMessage extends
+      com.google.protobuf.GeneratedMessage {
+    // Use LogEntriesMessage.newBuilder() to construct.
+    private LogEntriesMessage() {}
+    
+    private static final LogEntriesMessage defaultInstance = new LogEntriesMessage();
+    public static LogEntriesMessage getDefaultInstance() {
+      return defaultInstance;
+    }
+    
+    public LogEntriesMessage getDefaultInstanceForType() {
+      return defaultInstance;
+    }
+    
+    public static final com.google.protobuf.Descriptors.Descriptor
+        getDescriptor() {
+      return multiplexer.protocol.Protocol.internal_static_multiplexer_LogEntriesMessage_descriptor;
+    }
+    
+    protected com.google.protobuf.GeneratedMessage.FieldAccessorTable
+        internalGetFieldAccessorTable() {
+      return multiplexer.protocol.Protocol.internal_static_multiplexer_LogEntriesMessage_fieldAccessorTable;
+    }
+    
+    // repeated .multiplexer.MultiplexerMessage entry = 1;
+    public static final int ENTRY_FIELD_NUMBER = 1;
+    private java.util.List<multiplexer.protocol.Protocol.MultiplexerMessage> entry_ =
+      java.util.Collections.emptyList();
+    public java.util.List<multiplexer.protocol.Protocol.MultiplexerMessage> getEntryList() {
+      return entry_;
+    }
+    public int getEntryCount() { return entry_.size(); }
+    public multiplexer.protocol.Protocol.MultiplexerMessage getEntry(int index) {
+      return entry_.get(index);
+    }
+    
+    public final boolean isInitialized() {
+      for (multiplexer.protocol.Protocol.MultiplexerMessage element : getEntryList()) {
+        if (!element.isInitialized()) return false;
+      }
+      return true;
+    }
+    
+    public void writeTo(com.google.protobuf.CodedOutputStream output)
+                        throws java.io.IOException {
+      for (multiplexer.protocol.Protocol.MultiplexerMessage element : getEntryList()) {
+        output.writeMessage(1, element);
+      }
+      getUnknownFields().writeTo(output);
+    }
+    
+    private int memoizedSerializedSize = -1;
+    public int getSerializedSize() {
+      int size = memoizedSerializedSize;
+      if (size != -1) return size;
+    
+      size = 0;
+      for (multiplexer.protocol.Protocol.MultiplexerMessage element : getEntryList()) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeMessageSize(1, element);
+      }
+      size += getUnknownFields().getSerializedSize();
+      memoizedSerializedSize = size;
+      return size;
+    }
+    
+    public static multiplexer.protocol.Protocol.LogEntriesMessage parseFrom(
+        com.google.protobuf.ByteString data)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      return newBuilder().mergeFrom(data).buildParsed();
+    }
+    public static multiplexer.protocol.Protocol.LogEntriesMessage parseFrom(
+        com.google.protobuf.ByteString data,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      return newBuilder().mergeFrom(data, extensionRegistry)
+               .buildParsed();
+    }
+    public static multiplexer.protocol.Protocol.LogEntriesMessage parseFrom(byte[] data)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      return newBuilder().mergeFrom(data).buildParsed();
+    }
+    public static multiplexer.protocol.Protocol.LogEntriesMessage parseFrom(
+        byte[] data,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      return newBuilder().mergeFrom(data, extensionRegistry)
+               .buildParsed();
+    }
+    public static multiplexer.protocol.Protocol.LogEntriesMessage parseFrom(java.io.InputStream input)
+        throws java.io.IOException {
+      return newBuilder().mergeFrom(input).buildParsed();
+    }
+    public static multiplexer.protocol.Protocol.LogEntriesMessage parseFrom(
+        java.io.InputStream input,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws java.io.IOException {
+      return newBuilder().mergeFrom(input, extensionRegistry)
+               .buildParsed();
+    }
+    public static multiplexer.protocol.Protocol.LogEntriesMessage parseDelimitedFrom(java.io.InputStream input)
+        throws java.io.IOException {
+      return newBuilder().mergeDelimitedFrom(input).buildParsed();
+    }
+    public static multiplexer.protocol.Protocol.LogEntriesMessage parseDelimitedFrom(
+        java.io.InputStream input,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws java.io.IOException {
+      return newBuilder().mergeDelimitedFrom(input, extensionRegistry)
+               .buildParsed();
+    }
+    public static multiplexer.protocol.Protocol.LogEntriesMessage parseFrom(
+        com.google.protobuf.CodedInputStream input)
+        throws java.io.IOException {
+      return newBuilder().mergeFrom(input).buildParsed();
+    }
+    public static multiplexer.protocol.Protocol.LogEntriesMessage parseFrom(
+        com.google.protobuf.CodedInputStream input,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws java.io.IOException {
+      return newBuilder().mergeFrom(input, extensionRegistry)
+               .buildParsed();
+    }
+    
+    public static Builder newBuilder() { return Builder.create(); }
+    public Builder newBuilderForType() { return newBuilder(); }
+    public static Builder newBuilder(multiplexer.protocol.Protocol.LogEntriesMessage prototype) {
+      return newBuilder().mergeFrom(prototype);
+    }
+    public Builder toBuilder() { return newBuilder(this); }
+    
+    public static final class Builder extends
+        com.google.protobuf.GeneratedMessage.Builder<Builder> {
+      private multiplexer.protocol.Protocol.LogEntriesMessage result;
+      
+      // Construct using multiplexer.protocol.Protocol.LogEntriesMessage.newBuilder()
+      private Builder() {}
+      
+      private static Builder create() {
+        Builder builder = new Builder();
+        builder.result = new multiplexer.protocol.Protocol.LogEntriesMessage();
+        return builder;
+      }
+      
+      protected multiplexer.protocol.Protocol.LogEntriesMessage internalGetResult() {
+        return result;
+      }
+      
+      public Builder clear() {
+        if (result == null) {
+          throw new IllegalStateException(
+            "Cannot call clear() after build().");
+        }
+        result = new multiplexer.protocol.Protocol.LogEntriesMessage();
+        return this;
+      }
+      
+      public Builder clone() {
+        return create().mergeFrom(result);
+      }
+      
+      public com.google.protobuf.Descriptors.Descriptor
+          getDescriptorForType() {
+        return multiplexer.protocol.Protocol.LogEntriesMessage.getDescriptor();
+      }
+      
+      public multiplexer.protocol.Protocol.LogEntriesMessage getDefaultInstanceForType() {
+        return multiplexer.protocol.Protocol.LogEntriesMessage.getDefaultInstance();
+      }
+      
+      public boolean isInitialized() {
+        return result.isInitialized();
+      }
+      public multiplexer.protocol.Protocol.LogEntriesMessage build() {
+        if (result != null && !isInitialized()) {
+          throw newUninitializedMessageException(result);
+        }
+        return buildPartial();
+      }
+      
+      private multiplexer.protocol.Protocol.LogEntriesMessage buildParsed()
+          throws com.google.protobuf.InvalidProtocolBufferException {
+        if (!isInitialized()) {
+          throw newUninitializedMessageException(
+            result).asInvalidProtocolBufferException();
+        }
+        return buildPartial();
+      }
+      
+      public multiplexer.protocol.Protocol.LogEntriesMessage buildPartial() {
+        if (result == null) {
+          throw new IllegalStateException(
+            "build() has already been called on this Builder.");
+        }
+        if (result.entry_ != java.util.Collections.EMPTY_LIST) {
+          result.entry_ =
+            java.util.Collections.unmodifiableList(result.entry_);
+        }
+        multiplexer.protocol.Protocol.LogEntriesMessage returnMe = result;
+        result = null;
+        return returnMe;
+      }
+      
+      public Builder mergeFrom(com.google.protobuf.Message other) {
+        if (other instanceof multiplexer.protocol.Protocol.LogEntriesMessage) {
+          return mergeFrom((multiplexer.protocol.Protocol.LogEntriesMessage)other);
+        } else {
+          super.mergeFrom(other);
+          return this;
+        }
+      }
+      
+      public Builder mergeFrom(multiplexer.protocol.Protocol.LogEntriesMessage other) {
+        if (other == multiplexer.protocol.Protocol.LogEntriesMessage.getDefaultInstance()) return this;
+        if (!other.entry_.isEmpty()) {
+          if (result.entry_.isEmpty()) {
+            result.entry_ = new java.util.ArrayList<multiplexer.protocol.Protocol.MultiplexerMessage>();
+          }
+          result.entry_.addAll(other.entry_);
+        }
+        this.mergeUnknownFields(other.getUnknownFields());
+        return this;
+      }
+      
+      public Builder mergeFrom(
+          com.google.protobuf.CodedInputStream input,
+          com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+          throws java.io.IOException {
+        com.google.protobuf.UnknownFieldSet.Builder unknownFields =
+          com.google.protobuf.UnknownFieldSet.newBuilder(
+            this.getUnknownFields());
+        while (true) {
+          int tag = input.readTag();
+          switch (tag) {
+            case 0:
+              this.setUnknownFields(unknownFields.build());
+              return this;
+            default: {
+              if (!parseUnknownField(input, unknownFields,
+                                     extensionRegistry, tag)) {
+                this.setUnknownFields(unknownFields.build());
+                return this;
+              }
+              break;
+            }
+            case 10: {
+              multiplexer.protocol.Protocol.MultiplexerMessage.Builder subBuilder = multiplexer.protocol.Protocol.MultiplexerMessage.newBuilder();
+              input.readMessage(subBuilder, extensionRegistry);
+              addEntry(subBuilder.buildPartial());
+              break;
+            }
+          }
+        }
+      }
+      
+      
+      // repeated .multiplexer.MultiplexerMessage entry = 1;
+      public java.util.List<multiplexer.protocol.Protocol.MultiplexerMessage> getEntryList() {
+        return java.util.Collections.unmodifiableList(result.entry_);
+      }
+      public int getEntryCount() {
+        return result.getEntryCount();
+      }
+      public multiplexer.protocol.Protocol.MultiplexerMessage getEntry(int index) {
+        return result.getEntry(index);
+      }
+      public Builder setEntry(int index, multiplexer.protocol.Protocol.MultiplexerMessage value) {
+        if (value == null) {
+          throw new NullPointerException();
+        }
+        result.entry_.set(index, value);
+        return this;
+      }
+      public Builder setEntry(int index, multiplexer.protocol.Protocol.MultiplexerMessage.Builder builderForValue) {
+        result.entry_.set(index, builderForValue.build());
+        return this;
+      }
+      public Builder addEntry(multiplexer.protocol.Protocol.MultiplexerMessage value) {
+        if (value == null) {
+          throw new NullPointerException();
+        }
+        if (result.entry_.isEmpty()) {
+          result.entry_ = new java.util.ArrayList<multiplexer.protocol.Protocol.MultiplexerMessage>();
+        }
+        result.entry_.add(value);
+        return this;
+      }
+      public Builder addEntry(multiplexer.protocol.Protocol.MultiplexerMessage.Builder builderForValue) {
+        if (result.entry_.isEmpty()) {
+          result.entry_ = new java.util.ArrayList<multiplexer.protocol.Protocol.MultiplexerMessage>();
+        }
+        result.entry_.add(builderForValue.build());
+        return this;
+      }
+      public Builder addAllEntry(
+          java.lang.Iterable<? extends multiplexer.protocol.Protocol.MultiplexerMessage> values) {
+        if (result.entry_.isEmpty()) {
+          result.entry_ = new java.util.ArrayList<multiplexer.protocol.Protocol.MultiplexerMessage>();
+        }
+        super.addAll(values, result.entry_);
+        return this;
+      }
+      public Builder clearEntry() {
+        result.entry_ = java.util.Collections.emptyList();
+        return this;
+      }
+    }
+    
+    static {
+      multiplexer.protocol.Protocol.getDescriptor();
+    }
+    
+    static {
+      multiplexer.protocol.Protocol.internalForceInit();
+    }
+  }
+  
+  public static final class ReachablePeer extends
+      com.google.protobuf.GeneratedMessage {
+    // Use ReachablePeer.newBuilder() to construct.
+    private ReachablePeer() {}
+    
+    private static final ReachablePeer defaultInstance = new ReachablePeer();
+    public static ReachablePeer getDefaultInstance() {
+      return defaultInstance;
+    }
+    
+    public ReachablePeer getDefaultInstanceForType() {
+      return defaultInstance;
+    }
+    
+    public static final com.google.protobuf.Descriptors.Descriptor
+        getDescriptor() {
+      return multiplexer.protocol.Protocol.internal_static_multiplexer_ReachablePeer_descriptor;
+    }
+    
+    protected com.google.protobuf.GeneratedMessage.FieldAccessorTable
+        internalGetFieldAccessorTable() {
+      return multiplexer.protocol.Protocol.internal_static_multiplexer_ReachablePeer_fieldAccessorTable;
+    }
+    
+    // required uint64 id = 1;
+    public static final int ID_FIELD_NUMBER = 1;
+    private boolean hasId;
+    private long id_ = 0L;
+    public boolean hasId() { return hasId; }
+    public long getId() { return id_; }
+    
+    // required uint32 type = 2;
+    public static final int TYPE_FIELD_NUMBER = 2;
+    private boolean hasType;
+    private int type_ = 0;
+    public boolean hasType() { return hasType; }
+    public int getType() { return type_; }
+    
+    // optional uint32 hops = 3 [default = 0];
+    public static final int HOPS_FIELD_NUMBER = 3;
+    private boolean hasHops;
+    private int hops_ = 0;
+    public boolean hasHops() { return hasHops; }
+    public int getHops() { return hops_; }
+    
+    public final boolean isInitialized() {
+      if (!hasId) return false;
+      if (!hasType) return false;
+      return true;
+    }
+    
+    public void writeTo(com.google.protobuf.CodedOutputStream output)
+                        throws java.io.IOException {
+      if (hasId()) {
+        output.writeUInt64(1, getId());
+      }
+      if (hasType()) {
+        output.writeUInt32(2, getType());
+      }
+      if (hasHops()) {
+        output.writeUInt32(3, getHops());
+      }
+      getUnknownFields().writeTo(output);
+    }
+    
+    private int memoizedSerializedSize = -1;
+    public int getSerializedSize() {
+      int size = memoizedSerializedSize;
+      if (size != -1) return size;
+    
+      size = 0;
+      if (hasId()) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeUInt64Size(1, getId());
+      }
+      if (hasType()) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeUInt32Size(2, getType());
+      }
+      if (hasHops()) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeUInt32Size(3, getHops());
+      }
+      size += getUnknownFields().getSerializedSize();
+      memoizedSerializedSize = size;
+      return size;
+    }
+    
+    public static multiplexer.protocol.Protocol.ReachablePeer parseFrom(
+        com.google.protobuf.ByteString data)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      return newBuilder().mergeFrom(data).buildParsed();
+    }
+    public static multiplexer.protocol.Protocol.ReachablePeer parseFrom(
+        com.google.protobuf.ByteString data,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      return newBuilder().mergeFrom(data, extensionRegistry)
+               .buildParsed();
+    }
+    public static multiplexer.protocol.Protocol.ReachablePeer parseFrom(byte[] data)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      return newBuilder().mergeFrom(data).buildParsed();
+    }
+    public static multiplexer.protocol.Protocol.ReachablePeer parseFrom(
+        byte[] data,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      return newBuilder().mergeFrom(data, extensionRegistry)
+               .buildParsed();
+    }
+    public static multiplexer.protocol.Protocol.ReachablePeer parseFrom(java.io.InputStream input)
+        throws java.io.IOException {
+      return newBuilder().mergeFrom(input).buildParsed();
+    }
+    public static multiplexer.protocol.Protocol.ReachablePeer parseFrom(
+        java.io.InputStream input,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws java.io.IOException {
+      return newBuilder().mergeFrom(input, extensionRegistry)
+               .buildParsed();
+    }
+    public static multiplexer.protocol.Protocol.ReachablePeer parseDelimitedFrom(java.io.InputStream input)
+        throws java.io.IOException {
+      return newBuilder().mergeDelimitedFrom(input).buildParsed();
+    }
+    public static multiplexer.protocol.Protocol.ReachablePeer parseDelimitedFrom(
+        java.io.InputStream input,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws java.io.IOException {
+      return newBuilder().mergeDelimitedFrom(input, extensionRegistry)
+               .buildParsed();
+    }
+    public static multiplexer.protocol.Protocol.ReachablePeer parseFrom(
+        com.google.protobuf.CodedInputStream input)
+        throws java.io.IOException {
+      return newBuilder().mergeFrom(input).buildParsed();
+    }
+    public static multiplexer.protocol.Protocol.ReachablePeer parseFrom(
+        com.google.protobuf.CodedInputStream input,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws java.io.IOException {
+      return newBuilder().mergeFrom(input, extensionRegistry)
+               .buildParsed();
+    }
+    
+    public static Builder newBuilder() { return Builder.create(); }
+    public Builder newBuilderForType() { return newBuilder(); }
+    public static Builder newBuilder(multiplexer.protocol.Protocol.ReachablePeer prototype) {
+      return newBuilder().mergeFrom(prototype);
+    }
+    public Builder toBuilder() { return newBuilder(this); }
+    
+    public static final class Builder extends
+        com.google.protobuf.GeneratedMessage.Builder<Builder> {
+      private multiplexer.protocol.Protocol.ReachablePeer result;
+      
+      // Construct using multiplexer.protocol.Protocol.ReachablePeer.newBuilder()
+      private Builder() {}
+      
+      private static Builder create() {
+        Builder builder = new Builder();
+        builder.result = new multiplexer.protocol.Protocol.ReachablePeer();
+        return builder;
+      }
+      
+      protected multiplexer.protocol.Protocol.ReachablePeer internalGetResult() {
+        return result;
+      }
+      
+      public Builder clear() {
+        if (result == null) {
+          throw new IllegalStateException(
+            "Cannot call clear() after build().");
+        }
+        result = new multiplexer.protocol.Protocol.ReachablePeer();
+        return this;
+      }
+      
+      public Builder clone() {
+        return create().mergeFrom(result);
+      }
+      
+      public com.google.protobuf.Descriptors.Descriptor
+          getDescriptorForType() {
+        return multiplexer.protocol.Protocol.ReachablePeer.getDescriptor();
+      }
+      
+      public multiplexer.protocol.Protocol.ReachablePeer getDefaultInstanceForType() {
+        return multiplexer.protocol.Protocol.ReachablePeer.getDefaultInstance();
+      }
+      
+      public boolean isInitialized() {
+        return result.isInitialized();
+      }
+      public multiplexer.protocol.Protocol.ReachablePeer build() {
+        if (result != null && !isInitialized()) {
+          throw newUninitializedMessageException(result);
+        }
+        return buildPartial();
+      }
+      
+      private multiplexer.protocol.Protocol.ReachablePeer buildParsed()
+          throws com.google.protobuf.InvalidProtocolBufferException {
+        if (!isInitialized()) {
+          throw newUninitializedMessageException(
+            result).asInvalidProtocolBufferException();
+        }
+        return buildPartial();
+      }
+      
+      public multiplexer.protocol.Protocol.ReachablePeer buildPartial() {
+        if (result == null) {
+          throw new IllegalStateException(
+            "build() has already been called on this Builder.");
+        }
+        multiplexer.protocol.Protocol.ReachablePeer returnMe = result;
+        result = null;
+        return returnMe;
+      }
+      
+      public Builder mergeFrom(com.google.protobuf.Message other) {
+        if (other instanceof multiplexer.protocol.Protocol.ReachablePeer) {
+          return mergeFrom((multiplexer.protocol.Protocol.ReachablePeer)other);
+        } else {
+          super.mergeFrom(other);
+          return this;
+        }
+      }
+      
+      public Builder mergeFrom(multiplexer.protocol.Protocol.ReachablePeer other) {
+        if (other == multiplexer.protocol.Protocol.ReachablePeer.getDefaultInstance()) return this;
+        if (other.hasId()) {
+          setId(other.getId());
+        }
+        if (other.hasType()) {
+          setType(other.getType());
+        }
+        if (other.hasHops()) {
+          setHops(other.getHops());
+        }
+        this.mergeUnknownFields(other.getUnknownFields());
+        return this;
+      }
+      
+      public Builder mergeFrom(
+          com.google.protobuf.CodedInputStream input,
+          com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+          throws java.io.IOException {
+        com.google.protobuf.UnknownFieldSet.Builder unknownFields =
+          com.google.protobuf.UnknownFieldSet.newBuilder(
+            this.getUnknownFields());
+        while (true) {
+          int tag = input.readTag();
+          switch (tag) {
+            case 0:
+              this.setUnknownFields(unknownFields.build());
+              return this;
+            default: {
+              if (!parseUnknownField(input, unknownFields,
+                                     extensionRegistry, tag)) {
+                this.setUnknownFields(unknownFields.build());
+                return this;
+              }
+              break;
+            }
+            case 8: {
+              setId(input.readUInt64());
+              break;
+            }
+            case 16: {
+              setType(input.readUInt32());
+              break;
+            }
+            case 24: {
+              setHops(input.readUInt32());
+              break;
+            }
+          }
+        }
+      }
+      
+      
+      // required uint64 id = 1;
+      public boolean hasId() {
+        return result.hasId();
+      }
+      public long getId() {
+        return result.getId();
+      }
+      public Builder setId(long value) {
+        result.hasId = true;
+        result.id_ = value;
+        return this;
+      }
+      public Builder clearId() {
+        result.hasId = false;
+        result.id_ = 0L;
+        return this;
+      }
+      
+      // required uint32 type = 2;
+      public boolean hasType() {
+        return result.hasType();
+      }
+      public int getType() {
+        return result.getType();
+      }
+      public Builder setType(int value) {
+        result.hasType = true;
+        result.type_ = value;
+        return this;
+      }
+      public Builder clearType() {
+        result.hasType = false;
+        result.type_ = 0;
+        return this;
+      }
+      
+      // optional uint32 hops = 3 [default = 0];
+      public boolean hasHops() {
+        return result.hasHops();
+      }
+      public int getHops() {
+        return result.getHops();
+      }
+      public Builder setHops(int value) {
+        result.hasHops = true;
+        result.hops_ = value;
+        return this;
+      }
+      public Builder clearHops() {
+        result.hasHops = false;
+        result.hops_ = 0;
+        return this;
+      }
+    }
+    
+    static {
+      multiplexer.protocol.Protocol.getDescriptor();
+    }
+    
+    static {
+      multiplexer.protocol.Protocol.internalForceInit();
+    }
+  }
+  
+  public static final class FederationAnnouncement extends
+      com.google.protobuf.GeneratedMessage {
+    // Use FederationAnnouncement.newBuilder() to construct.
+    private FederationAnnouncement() {}
+    
+    private static final FederationAnnouncement defaultInstance = new FederationAnnouncement();
+    public static FederationAnnouncement getDefaultInstance() {
+      return defaultInstance;
+    }
+    
+    public FederationAnnouncement getDefaultInstanceForType() {
+      return defaultInstance;
+    }
+    
+    public static final com.google.protobuf.Descriptors.Descriptor
+        getDescriptor() {
+      return multiplexer.protocol.Protocol.internal_static_multiplexer_FederationAnnouncement_descriptor;
+    }
+    
+    protected com.google.protobuf.GeneratedMessage.FieldAccessorTable
+        internalGetFieldAccessorTable() {
+      return multiplexer.protocol.Protocol.internal_static_multiplexer_FederationAnnouncement_fieldAccessorTable;
+    }
+    
+    // repeated .multiplexer.ReachablePeer peer = 1;
+    public static final int PEER_FIELD_NUMBER = 1;
+    private java.util.List<multiplexer.protocol.Protocol.ReachablePeer> peer_ =
+      java.util.Collections.emptyList();
+    public java.util.List<multiplexer.protocol.Protocol.ReachablePeer> getPeerList() {
+      return peer_;
+    }
+    public int getPeerCount() { return peer_.size(); }
+    public multiplexer.protocol.Protocol.ReachablePeer getPeer(int index) {
+      return peer_.get(index);
+    }
+    
+    public final boolean isInitialized() {
+      for (multiplexer.protocol.Protocol.ReachablePeer element : getPeerList()) {
+        if (!element.isInitialized()) return false;
+      }
+      return true;
+    }
+    
+    public void writeTo(com.google.protobuf.CodedOutputStream output)
+                        throws java.io.IOException {
+      for (multiplexer.protocol.Protocol.ReachablePeer element : getPeerList()) {
+        output.writeMessage(1, element);
+      }
+      getUnknownFields().writeTo(output);
+    }
+    
+    private int memoizedSerializedSize = -1;
+    public int getSerializedSize() {
+      int size = memoizedSerializedSize;
+      if (size != -1) return size;
+    
+      size = 0;
+      for (multiplexer.protocol.Protocol.ReachablePeer element : getPeerList()) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeMessageSize(1, element);
+      }
+      size += getUnknownFields().getSerializedSize();
+      memoizedSerializedSize = size;
+      return size;
+    }
+    
+    public static multiplexer.protocol.Protocol.FederationAnnouncement parseFrom(
+        com.google.protobuf.ByteString data)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      return newBuilder().mergeFrom(data).buildParsed();
+    }
+    public static multiplexer.protocol.Protocol.FederationAnnouncement parseFrom(
+        com.google.protobuf.ByteString data,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      return newBuilder().mergeFrom(data, extensionRegistry)
+               .buildParsed();
+    }
+    public static multiplexer.protocol.Protocol.FederationAnnouncement parseFrom(byte[] data)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      return newBuilder().mergeFrom(data).buildParsed();
+    }
+    public static multiplexer.protocol.Protocol.FederationAnnouncement parseFrom(
+        byte[] data,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      return newBuilder().mergeFrom(data, extensionRegistry)
+               .buildParsed();
+    }
+    public static multiplexer.protocol.Protocol.FederationAnnouncement parseFrom(java.io.InputStream input)
+        throws java.io.IOException {
+      return newBuilder().mergeFrom(input).buildParsed();
+    }
+    public static multiplexer.protocol.Protocol.FederationAnnouncement parseFrom(
+        java.io.InputStream input,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws java.io.IOException {
+      return newBuilder().mergeFrom(input, extensionRegistry)
+               .buildParsed();
+    }
+    public static multiplexer.protocol.Protocol.FederationAnnouncement parseDelimitedFrom(java.io.InputStream input)
+        throws java.io.IOException {
+      return newBuilder().mergeDelimitedFrom(input).buildParsed();
+    }
+    public static multiplexer.protocol.Protocol.FederationAnnouncement parseDelimitedFrom(
+        java.io.InputStream input,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws java.io.IOException {
+      return newBuilder().mergeDelimitedFrom(input, extensionRegistry)
+               .buildParsed();
+    }
+    public static multiplexer.protocol.Protocol.FederationAnnouncement parseFrom(
+        com.google.protobuf.CodedInputStream input)
+        throws java.io.IOException {
+      return newBuilder().mergeFrom(input).buildParsed();
+    }
+    public static multiplexer.protocol.Protocol.FederationAnnouncement parseFrom(
+        com.google.protobuf.CodedInputStream input,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws java.io.IOException {
+      return newBuilder().mergeFrom(input, extensionRegistry)
+               .buildParsed();
+    }
+    
+    public static Builder newBuilder() { return Builder.create(); }
+    public Builder newBuilderForType() { return newBuilder(); }
+    public static Builder newBuilder(multiplexer.protocol.Protocol.FederationAnnouncement prototype) {
+      return newBuilder().mergeFrom(prototype);
+    }
+    public Builder toBuilder() { return newBuilder(this); }
+    
+    public static final class Builder extends
+        com.google.protobuf.GeneratedMessage.Builder<Builder> {
+      private multiplexer.protocol.Protocol.FederationAnnouncement result;
+      
+      // Construct using multiplexer.protocol.Protocol.FederationAnnouncement.newBuilder()
+      private Builder() {}
+      
+      private static Builder create() {
+        Builder builder = new Builder();
+        builder.result = new multiplexer.protocol.Protocol.FederationAnnouncement();
+        return builder;
+      }
+      
+      protected multiplexer.protocol.Protocol.FederationAnnouncement internalGetResult() {
+        return result;
+      }
+      
+      public Builder clear() {
+        if (result == null) {
+          throw new IllegalStateException(
+            "Cannot call clear() after build().");
+        }
+        result = new multiplexer.protocol.Protocol.FederationAnnouncement();
+        return this;
+      }
+      
+      public Builder clone() {
+        return create().mergeFrom(result);
+      }
+      
+      public com.google.protobuf.Descriptors.Descriptor
+          getDescriptorForType() {
+        return multiplexer.protocol.Protocol.FederationAnnouncement.getDescriptor();
+      }
+      
+      public multiplexer.protocol.Protocol.FederationAnnouncement getDefaultInstanceForType() {
+        return multiplexer.protocol.Protocol.FederationAnnouncement.getDefaultInstance();
+      }
+      
+      public boolean isInitialized() {
+        return result.isInitialized();
+      }
+      public multiplexer.protocol.Protocol.FederationAnnouncement build() {
+        if (result != null && !isInitialized()) {
+          throw newUninitializedMessageException(result);
+        }
+        return buildPartial();
+      }
+      
+      private multiplexer.protocol.Protocol.FederationAnnouncement buildParsed()
+          throws com.google.protobuf.InvalidProtocolBufferException {
+        if (!isInitialized()) {
+          throw newUninitializedMessageException(
+            result).asInvalidProtocolBufferException();
+        }
+        return buildPartial();
+      }
+      
+      public multiplexer.protocol.Protocol.FederationAnnouncement buildPartial() {
+        if (result == null) {
+          throw new IllegalStateException(
+            "build() has already been called on this Builder.");
+        }
+        if (result.peer_ != java.util.Collections.EMPTY_LIST) {
+          result.peer_ =
+            java.util.Collections.unmodifiableList(result.peer_);
+        }
+        multiplexer.protocol.Protocol.FederationAnnouncement returnMe = result;
+        result = null;
+        return returnMe;
+      }
+      
+      public Builder mergeFrom(com.google.protobuf.Message other) {
+        if (other instanceof multiplexer.protocol.Protocol.FederationAnnouncement) {
+          return mergeFrom((multiplexer.protocol.Protocol.FederationAnnouncement)other);
+        } else {
+          super.mergeFrom(other);
+          return this;
+        }
+      }
+      
+      public Builder mergeFrom(multiplexer.protocol.Protocol.FederationAnnouncement other) {
+        if (other == multiplexer.protocol.Protocol.FederationAnnouncement.getDefaultInstance()) return this;
+        if (!other.peer_.isEmpty()) {
+          if (result.peer_.isEmpty()) {
+            result.peer_ = new java.util.ArrayList<multiplexer.protocol.Protocol.ReachablePeer>();
+          }
+          result.peer_.addAll(other.peer_);
+        }
+        this.mergeUnknownFields(other.getUnknownFields());
+        return this;
+      }
+      
+      public Builder mergeFrom(
+          com.google.protobuf.CodedInputStream input,
+          com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+          throws java.io.IOException {
+        com.google.protobuf.UnknownFieldSet.Builder unknownFields =
+          com.google.protobuf.UnknownFieldSet.newBuilder(
+            this.getUnknownFields());
+        while (true) {
+          int tag = input.readTag();
+          switch (tag) {
+            case 0:
+              this.setUnknownFields(unknownFields.build());
+              return this;
+            default: {
+              if (!parseUnknownField(input, unknownFields,
+                                     extensionRegistry, tag)) {
+                this.setUnknownFields(unknownFields.build());
+                return this;
+              }
+              break;
+            }
+            case 10: {
+              multiplexer.protocol.Protocol.ReachablePeer.Builder subBuilder = multiplexer.protocol.Protocol.ReachablePeer.newBuilder();
+              input.readMessage(subBuilder, extensionRegistry);
+              addPeer(subBuilder.buildPartial());
+              break;
+            }
+          }
+        }
+      }
+      
+      
+      // repeated .multiplexer.ReachablePeer peer = 1;
+      public java.util.List<multiplexer.protocol.Protocol.ReachablePeer> getPeerList() {
+        return java.util.Collections.unmodifiableList(result.peer_);
+      }
+      public int getPeerCount() {
+        return result.getPeerCount();
+      }
+      public multiplexer.protocol.Protocol.ReachablePeer getPeer(int index) {
+        return result.getPeer(index);
+      }
+      public Builder setPeer(int index, multiplexer.protocol.Protocol.ReachablePeer value) {
+        if (value == null) {
+          throw new NullPointerException();
+        }
+        result.peer_.set(index, value);
+        return this;
+      }
+      public Builder setPeer(int index, multiplexer.protocol.Protocol.ReachablePeer.Builder builderForValue) {
+        result.peer_.set(index, builderForValue.build());
+        return this;
+      }
+      public Builder addPeer(multiplexer.protocol.Protocol.ReachablePeer value) {
+        if (value == null) {
+          throw new NullPointerException();
+        }
+        if (result.peer_.isEmpty()) {
+          result.peer_ = new java.util.ArrayList<multiplexer.protocol.Protocol.ReachablePeer>();
+        }
+        result.peer_.add(value);
+        return this;
+      }
+      public Builder addPeer(multiplexer.protocol.Protocol.ReachablePeer.Builder builderForValue) {
+        if (result.peer_.isEmpty()) {
+          result.peer_ = new java.util.ArrayList<multiplexer.protocol.Protocol.ReachablePeer>();
+        }
+        result.peer_.add(builderForValue.build());
+        return this;
+      }
+      public Builder addAllPeer(
+          java.lang.Iterable<? extends multiplexer.protocol.Protocol.ReachablePeer> values) {
+        if (result.peer_.isEmpty()) {
+          result.peer_ = new java.util.ArrayList<multiplexer.protocol.Protocol.ReachablePeer>();
+        }
+        super.addAll(values, result.peer_);
+        return this;
+      }
+      public Builder clearPeer() {
+        result.peer_ = java.util.Collections.emptyList();
+        return this;
+      }
+    }
+    
+    static {
+      multiplexer.protocol.Protocol.getDescriptor();
+    }
+    
+    static {
+      multiplexer.protocol.Protocol.internalForceInit();
+    }
+  }
+  
+  public static final class SelectionPolicy extends
+      com.google.protobuf.GeneratedMessage {
+    // Use SelectionPolicy.newBuilder() to construct.
+    private SelectionPolicy() {}
+    
+    private static final SelectionPolicy defaultInstance = new SelectionPolicy();
+    public static SelectionPolicy getDefaultInstance() {
+      return defaultInstance;
+    }
+    
+    public SelectionPolicy getDefaultInstanceForType() {
+      return defaultInstance;
+    }
+    
+    public static final com.google.protobuf.Descriptors.Descriptor
+        getDescriptor() {
+      return multiplexer.protocol.Protocol.internal_static_multiplexer_SelectionPolicy_descriptor;
+    }
+    
+    protected com.google.protobuf.GeneratedMessage.FieldAccessorTable
+        internalGetFieldAccessorTable() {
+      return multiplexer.protocol.Protocol.internal_static_multiplexer_SelectionPolicy_fieldAccessorTable;
+    }
+    
+    public enum Values
+        implements com.google.protobuf.ProtocolMessageEnum {
+      ROUND_ROBIN(0, 0),
+      LEAST_OUTSTANDING(1, 1),
+      POWER_OF_TWO_CHOICES(2, 2),
+      LATENCY_EWMA(3, 3),
+      ;
+      
+      
+      public final int getNumber() { return value; }
+      
+      public static Values valueOf(int value) {
+        switch (value) {
+          case 0: return ROUND_ROBIN;
+          case 1: return LEAST_OUTSTANDING;
+          case 2: return POWER_OF_TWO_CHOICES;
+          case 3: return LATENCY_EWMA;
+          default: return null;
+        }
+      }
+      
+      public static com.google.protobuf.Internal.EnumLiteMap<Values>
+          internalGetValueMap() {
+        return internalValueMap;
+      }
+      private static com.google.protobuf.Internal.EnumLiteMap<Values>
+          internalValueMap =
+            new com.google.protobuf.Internal.EnumLiteMap<Values>() {
+              public Values findValueByNumber(int number) {
+                return Values.valueOf(number)
+      ;        }
+            };
+      
+      public final com.google.protobuf.Descriptors.EnumValueDescriptor
+          getValueDescriptor() {
+        return getDescriptor().getValues().get(index);
+      }
+      public final com.google.protobuf.Descriptors.EnumDescriptor
+          getDescriptorForType() {
+        return getDescriptor();
+      }
+      public static final com.google.protobuf.Descriptors.EnumDescriptor
+          getDescriptor() {
+        return multiplexer.protocol.Protocol.SelectionPolicy.getDescriptor().getEnumTypes().get(0);
+      }
+      
+      private static final Values[] VALUES = {
+        ROUND_ROBIN, LEAST_OUTSTANDING, POWER_OF_TWO_CHOICES, LATENCY_EWMA, 
+      };
+      public static Values valueOf(
+          com.google.protobuf.Descriptors.EnumValueDescriptor desc) {
+        if (desc.getType() != getDescriptor()) {
+          throw new java.lang.IllegalArgumentException(
+            "EnumValueDescriptor is not for this type.");
+        }
+        return VALUES[desc.getIndex()];
+      }
+      private final int index;
+      private final int value;
+      private Values(int index, int value) {
+        this.index = index;
+        this.value = value;
+      }
+      
+      static {
+        multiplexer.protocol.Protocol.getDescriptor();
+      }
+    }
+    
+    public final boolean isInitialized() {
+      return true;
+    }
+    
+    public void writeTo(com.google.protobuf.CodedOutputStream output)
+                        throws java.io.IOException {
+      getUnknownFields().writeTo(output);
+    }
+    
+    private int memoizedSerializedSize = -1;
+    public int getSerializedSize() {
+      int size = memoizedSerializedSize;
+      if (size != -1) return size;
+    
+      size = 0;
+      size += getUnknownFields().getSerializedSize();
+      memoizedSerializedSize = size;
+      return size;
+    }
+    
+    public static multiplexer.protocol.Protocol.SelectionPolicy parseFrom(
+        com.google.protobuf.ByteString data)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      return newBuilder().mergeFrom(data).buildParsed();
+    }
+    public static multiplexer.protocol.Protocol.SelectionPolicy parseFrom(
+        com.google.protobuf.ByteString data,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      return newBuilder().mergeFrom(data, extensionRegistry)
+               .buildParsed();
+    }
+    public static multiplexer.protocol.Protocol.SelectionPolicy parseFrom(byte[] data)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      return newBuilder().mergeFrom(data).buildParsed();
+    }
+    public static multiplexer.protocol.Protocol.SelectionPolicy parseFrom(
+        byte[] data,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      return newBuilder().mergeFrom(data, extensionRegistry)
+               .buildParsed();
+    }
+    public static multiplexer.protocol.Protocol.SelectionPolicy parseFrom(java.io.InputStream input)
+        throws java.io.IOException {
+      return newBuilder().mergeFrom(input).buildParsed();
+    }
+    public static multiplexer.protocol.Protocol.SelectionPolicy parseFrom(
+        java.io.InputStream input,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws java.io.IOException {
+      return newBuilder().mergeFrom(input, extensionRegistry)
+               .buildParsed();
+    }
+    public static multiplexer.protocol.Protocol.SelectionPolicy parseDelimitedFrom(java.io.InputStream input)
+        throws java.io.IOException {
+      return newBuilder().mergeDelimitedFrom(input).buildParsed();
+    }
+    public static multiplexer.protocol.Protocol.SelectionPolicy parseDelimitedFrom(
+        java.io.InputStream input,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws java.io.IOException {
+      return newBuilder().mergeDelimitedFrom(input, extensionRegistry)
+               .buildParsed();
+    }
+    public static multiplexer.protocol.Protocol.SelectionPolicy parseFrom(
+        com.google.protobuf.CodedInputStream input)
+        throws java.io.IOException {
+      return newBuilder().mergeFrom(input).buildParsed();
+    }
+    public static multiplexer.protocol.Protocol.SelectionPolicy parseFrom(
+        com.google.protobuf.CodedInputStream input,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws java.io.IOException {
+      return newBuilder().mergeFrom(input, extensionRegistry)
+               .buildParsed();
+    }
+    
+    public static Builder newBuilder() { return Builder.create(); }
+    public Builder newBuilderForType() { return newBuilder(); }
+    public static Builder newBuilder(multiplexer.protocol.Protocol.SelectionPolicy prototype) {
+      return newBuilder().mergeFrom(prototype);
+    }
+    public Builder toBuilder() { return newBuilder(this); }
+    
+    public static final class Builder extends
+        com.google.protobuf.GeneratedMessage.Builder<Builder> {
+      private multiplexer.protocol.Protocol.SelectionPolicy result;
+      
+      // Construct using multiplexer.protocol.Protocol.SelectionPolicy.newBuilder()
+      private Builder() {}
+      
+      private static Builder create() {
+        Builder builder = new Builder();
+        builder.result = new multiplexer.protocol.Protocol.SelectionPolicy();
+        return builder;
+      }
+      
+      protected multiplexer.protocol.Protocol.SelectionPolicy internalGetResult() {
+        return result;
+      }
+      
+      public Builder clear() {
+        if (result == null) {
+          throw new IllegalStateException(
+            "Cannot call clear() after build().");
+        }
+        result = new multiplexer.protocol.Protocol.SelectionPolicy();
+        return this;
+      }
+      
+      public Builder clone() {
+        return create().mergeFrom(result);
+      }
+      
+      public com.google.protobuf.Descriptors.Descriptor
+          getDescriptorForType() {
+        return multiplexer.protocol.Protocol.SelectionPolicy.getDescriptor();
+      }
+      
+      public multiplexer.protocol.Protocol.SelectionPolicy getDefaultInstanceForType() {
+        return multiplexer.protocol.Protocol.SelectionPolicy.getDefaultInstance();
+      }
+      
+      public boolean isInitialized() {
+        return result.isInitialized();
+      }
+      public multiplexer.protocol.Protocol.SelectionPolicy build() {
+        if (result != null && !isInitialized()) {
+          throw newUninitializedMessageException(result);
+        }
+        return buildPartial();
+      }
+      
+      private multiplexer.protocol.Protocol.SelectionPolicy buildParsed()
+          throws com.google.protobuf.InvalidProtocolBufferException {
+        if (!isInitialized()) {
+          throw newUninitializedMessageException(
+            result).asInvalidProtocolBufferException();
+        }
+        return buildPartial();
+      }
+      
+      public multiplexer.protocol.Protocol.SelectionPolicy buildPartial() {
+        if (result == null) {
+          throw new IllegalStateException(
+            "build() has already been called on this Builder.");
+        }
+        multiplexer.protocol.Protocol.SelectionPolicy returnMe = result;
+        result = null;
+        return returnMe;
+      }
+      
+      public Builder mergeFrom(com.google.protobuf.Message other) {
+        if (other instanceof multiplexer.protocol.Protocol.SelectionPolicy) {
+          return mergeFrom((multiplexer.protocol.Protocol.SelectionPolicy)other);
+        } else {
+          super.mergeFrom(other);
+          return this;
+        }
+      }
+      
+      public Builder mergeFrom(multiplexer.protocol.Protocol.SelectionPolicy other) {
+        if (other == multiplexer.protocol.Protocol.SelectionPolicy.getDefaultInstance()) return this;
+        this.mergeUnknownFields(other.getUnknownFields());
+        return this;
+      }
+      
+      public Builder mergeFrom(
+          com.google.protobuf.CodedInputStream input,
+          com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+          throws java.io.IOException {
+        com.google.protobuf.UnknownFieldSet.Builder unknownFields =
+          com.google.protobuf.UnknownFieldSet.newBuilder(
+            this.getUnknownFields());
+        while (true) {
+          int tag = input.readTag();
+          switch (tag) {
+            case 0:
+              this.setUnknownFields(unknownFields.build());
+              return this;
+            default: {
+              if (!parseUnknownField(input, unknownFields,
+                                     extensionRegistry, tag)) {
+                this.setUnknownFields(unknownFields.build());
+                return this;
+              }
+              break;
+            }
+          }
+        }
+      }
+      
+    }
+    
+    static {
+      multiplexer.protocol.Protocol.getDescriptor();
+    }
+    
+    static {
+      multiplexer.protocol.Protocol.internalForceInit();
+    }
+  }
+  
+  public static final class Affinity extends
+      com.google.protobuf.GeneratedMessage {
+    // Use Affinity.newBuilder() to construct.
+    private Affinity() {}
+    
+    private static final Affinity defaultInstance = new Affinity();
+    public static Affinity getDefaultInstance() {
+      return defaultInstance;
+    }
+    
+    public Affinity getDefaultInstanceForType() {
+      return defaultInstance;
+    }
+    
+    public static final com.google.protobuf.Descriptors.Descriptor
+        getDescriptor() {
+      return multiplexer.protocol.Protocol.internal_static_multiplexer_Affinity_descriptor;
+    }
+    
+    protected com.google.protobuf.GeneratedMessage.FieldAccessorTable
+        internalGetFieldAccessorTable() {
+      return multiplexer.protocol.Protocol.internal_static_multiplexer_Affinity_fieldAccessorTable;
+    }
+    
+    public enum Values
+        implements com.google.protobuf.ProtocolMessageEnum {
+      NONE(0, 0),
+      WORKFLOW(1, 1),
+      MESSAGE_PREFIX(2, 2),
+      ;
+      
+      
+      public final int getNumber() { return value; }
+      
+      public static Values valueOf(int value) {
+        switch (value) {
+          case 0: return NONE;
+          case 1: return WORKFLOW;
+          case 2: return MESSAGE_PREFIX;
+          default: return null;
+        }
+      }
+      
+      public static com.google.protobuf.Internal.EnumLiteMap<Values>
+          internalGetValueMap() {
+        return internalValueMap;
+      }
+      private static com.google.protobuf.Internal.EnumLiteMap<Values>
+          internalValueMap =
+            new com.google.protobuf.Internal.EnumLiteMap<Values>() {
+              public Values findValueByNumber(int number) {
+                return Values.valueOf(number)
+      ;        }
+            };
+      
+      public final com.google.protobuf.Descriptors.EnumValueDescriptor
+          getValueDescriptor() {
+        return getDescriptor().getValues().get(index);
+      }
+      public final com.google.protobuf.Descriptors.EnumDescriptor
+          getDescriptorForType() {
+        return getDescriptor();
+      }
+      public static final com.google.protobuf.Descriptors.EnumDescriptor
+          getDescriptor() {
+        return multiplexer.protocol.Protocol.Affinity.getDescriptor().getEnumTypes().get(0);
+      }
+      
+      private static final Values[] VALUES = {
+        NONE, WORKFLOW, MESSAGE_PREFIX, 
+      };
+      public static Values valueOf(
+          com.google.protobuf.Descriptors.EnumValueDescriptor desc) {
+        if (desc.getType() != getDescriptor()) {
+          throw new java.lang.IllegalArgumentException(
+            "EnumValueDescriptor is not for this type.");
+        }
+        return VALUES[desc.getIndex()];
+      }
+      private final int index;
+      private final int value;
+      private Values(int index, int value) {
+        this.index = index;
+        this.value = value;
+      }
+      
+      static {
+        multiplexer.protocol.Protocol.getDescriptor();
+      }
+    }
+    
+    public final boolean isInitialized() {
+      return true;
+    }
+    
+    public void writeTo(com.google.protobuf.CodedOutputStream output)
+                        throws java.io.IOException {
+      getUnknownFields().writeTo(output);
+    }
+    
+    private int memoizedSerializedSize = -1;
+    public int getSerializedSize() {
+      int size = memoizedSerializedSize;
+      if (size != -1) return size;
+    
+      size = 0;
+      size += getUnknownFields().getSerializedSize();
+      memoizedSerializedSize = size;
+      return size;
+    }
+    
+    public static multiplexer.protocol.Protocol.Affinity parseFrom(
+        com.google.protobuf.ByteString data)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      return newBuilder().mergeFrom(data).buildParsed();
+    }
+    public static multiplexer.protocol.Protocol.Affinity parseFrom(
+        com.google.protobuf.ByteString data,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      return newBuilder().mergeFrom(data, extensionRegistry)
+               .buildParsed();
+    }
+    public static multiplexer.protocol.Protocol.Affinity parseFrom(byte[] data)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      return newBuilder().mergeFrom(data).buildParsed();
+    }
+    public static multiplexer.protocol.Protocol.Affinity parseFrom(
+        byte[] data,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      return newBuilder().mergeFrom(data, extensionRegistry)
+               .buildParsed();
+    }
+    public static multiplexer.protocol.Protocol.Affinity parseFrom(java.io.InputStream input)
+        throws java.io.IOException {
+      return newBuilder().mergeFrom(input).buildParsed();
+    }
+    public static multiplexer.protocol.Protocol.Affinity parseFrom(
+        java.io.InputStream input,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws java.io.IOException {
+      return newBuilder().mergeFrom(input, extensionRegistry)
+               .buildParsed();
+    }
+    public static multiplexer.protocol.Protocol.Affinity parseDelimitedFrom(java.io.InputStream input)
+        throws java.io.IOException {
+      return newBuilder().mergeDelimitedFrom(input).buildParsed();
+    }
+    public static multiplexer.protocol.Protocol.Affinity parseDelimitedFrom(
+        java.io.InputStream input,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws java.io.IOException {
+      return newBuilder().mergeDelimitedFrom(input, extensionRegistry)
+               .buildParsed();
+    }
+    public static multiplexer.protocol.Protocol.Affinity parseFrom(
+        com.google.protobuf.CodedInputStream input)
+        throws java.io.IOException {
+      return newBuilder().mergeFrom(input).buildParsed();
+    }
+    public static multiplexer.protocol.Protocol.Affinity parseFrom(
+        com.google.protobuf.CodedInputStream input,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws java.io.IOException {
+      return newBuilder().mergeFrom(input, extensionRegistry)
+               .buildParsed();
+    }
+    
+    public static Builder newBuilder() { return Builder.create(); }
+    public Builder newBuilderForType() { return newBuilder(); }
+    public static Builder newBuilder(multiplexer.protocol.Protocol.Affinity prototype) {
+      return newBuilder().mergeFrom(prototype);
+    }
+    public Builder toBuilder() { return newBuilder(this); }
+    
+    public static final class Builder extends
+        com.google.protobuf.GeneratedMessage.Builder<Builder> {
+      private multiplexer.protocol.Protocol.Affinity result;
+      
+      // Construct using multiplexer.protocol.Protocol.Affinity.newBuilder()
+      private Builder() {}
+      
+      private static Builder create() {
+        Builder builder = new Builder();
+        builder.result = new multiplexer.protocol.Protocol.Affinity();
+        return builder;
+      }
+      
+      protected multiplexer.protocol.Protocol.Affinity internalGetResult() {
+        return result;
+      }
+      
+      public Builder clear() {
+        if (result == null) {
+          throw new IllegalStateException(
+            "Cannot call clear() after build().");
+        }
+        result = new multiplexer.protocol.Protocol.Affinity();
+        return this;
+      }
+      
+      public Builder clone() {
+        return create().mergeFrom(result);
+      }
+      
+      public com.google.protobuf.Descriptors.Descriptor
+          getDescriptorForType() {
+        return multiplexer.protocol.Protocol.Affinity.getDescriptor();
+      }
+      
+      public multiplexer.protocol.Protocol.Affinity getDefaultInstanceForType() {
+        return multiplexer.protocol.Protocol.Affinity.getDefaultInstance();
+      }
+      
+      public boolean isInitialized() {
+        return result.isInitialized();
+      }
+      public multiplexer.protocol.Protocol.Affinity build() {
+        if (result != null && !isInitialized()) {
+          throw newUninitializedMessageException(result);
+        }
+        return buildPartial();
+      }
+      
+      private multiplexer.protocol.Protocol.Affinity buildParsed()
+          throws com.google.protobuf.InvalidProtocolBufferException {
+        if (!isInitialized()) {
+          throw newUninitializedMessageException(
+            result).asInvalidProtocolBufferException();
+        }
+        return buildPartial();
+      }
+      
+      public multiplexer.protocol.Protocol.Affinity buildPartial() {
+        if (result == null) {
+          throw new IllegalStateException(
+            "build() has already been called on this Builder.");
+        }
+        multiplexer.protocol.Protocol.Affinity returnMe = result;
+        result = null;
+        return returnMe;
+      }
+      
+      public Builder mergeFrom(com.google.protobuf.Message other) {
+        if (other instanceof multiplexer.protocol.Protocol.Affinity) {
+          return mergeFrom((multiplexer.protocol.Protocol.Affinity)other);
+        } else {
+          super.mergeFrom(other);
+          return this;
+        }
+      }
+      
+      public Builder mergeFrom(multiplexer.protocol.Protocol.Affinity other) {
+        if (other == multiplexer.protocol.Protocol.Affinity.getDefaultInstance()) return this;
+        this.mergeUnknownFields(other.getUnknownFields());
+        return this;
+      }
+      
+      public Builder mergeFrom(
+          com.google.protobuf.CodedInputStream input,
+          com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+          throws java.io.IOException {
+        com.google.protobuf.UnknownFieldSet.Builder unknownFields =
+          com.google.protobuf.UnknownFieldSet.newBuilder(
+            this.getUnknownFields());
+        while (true) {
+          int tag = input.readTag();
+          switch (tag) {
+            case 0:
+              this.setUnknownFields(unknownFields.build());
+              return this;
+            default: {
+              if (!parseUnknownField(input, unknownFields,
+                                     extensionRegistry, tag)) {
+                this.setUnknownFields(unknownFields.build());
+                return this;
+              }
+              break;
+            }
+          }
+        }
+      }
+      
+    }
+    
+    static {
+      multiplexer.protocol.Protocol.getDescriptor();
+    }
+    
+    static {
+      multiplexer.protocol.Protocol.internalForceInit();
+    }
+  }
+  
+  public static final class Priority extends
+      com.google.protobuf.GeneratedMessage {
+    // Use Priority.newBuilder() to construct.
+    private Priority() {}
+    
+    private static final Priority defaultInstance = new Priority();
+    public static Priority getDefaultInstance() {
+      return defaultInstance;
+    }
+    
+    public Priority getDefaultInstanceForType() {
+      return defaultInstance;
+    }
+    
+    public static final com.google.protobuf.Descriptors.Descriptor
+        getDescriptor() {
+      return multiplexer.protocol.Protocol.internal_static_multiplexer_Priority_descriptor;
+    }
+    
+    protected com.google.protobuf.GeneratedMessage.FieldAccessorTable
+        internalGetFieldAccessorTable() {
+      return multiplexer.protocol.Protocol.internal_static_multiplexer_Priority_fieldAccessorTable;
+    }
+    
+    public enum Values
+        implements com.google.protobuf.ProtocolMessageEnum {
+      LOW(0, 0),
+      NORMAL(1, 1),
+      HIGH(2, 2),
+      ;
+      
+      
+      public final int getNumber() { return value; }
+      
+      public static Values valueOf(int value) {
+        switch (value) {
+          case 0: return LOW;
+          case 1: return NORMAL;
+          case 2: return HIGH;
+          default: return null;
+        }
+      }
+      
+      public static com.google.protobuf.Internal.EnumLiteMap<Values>
+          internalGetValueMap() {
+        return internalValueMap;
+      }
+      private static com.google.protobuf.Internal.EnumLiteMap<Values>
+          internalValueMap =
+            new com.google.protobuf.Internal.EnumLiteMap<Values>() {
+              public Values findValueByNumber(int number) {
+                return Values.valueOf(number)
+      ;        }
+            };
+      
+      public final com.google.protobuf.Descriptors.EnumValueDescriptor
+          getValueDescriptor() {
+        return getDescriptor().getValues().get(index);
+      }
+      public final com.google.protobuf.Descriptors.EnumDescriptor
+          getDescriptorForType() {
+        return getDescriptor();
+      }
+      public static final com.google.protobuf.Descriptors.EnumDescriptor
+          getDescriptor() {
+        return multiplexer.protocol.Protocol.Priority.getDescriptor().getEnumTypes().get(0);
+      }
+      
+      private static final Values[] VALUES = {
+        LOW, NORMAL, HIGH, 
+      };
+      public static Values valueOf(
+          com.google.protobuf.Descriptors.EnumValueDescriptor desc) {
+        if (desc.getType() != getDescriptor()) {
+          throw new java.lang.IllegalArgumentException(
+            "EnumValueDescriptor is not for this type.");
+        }
+        return VALUES[desc.getIndex()];
+      }
+      private final int index;
+      private final int value;
+      private Values(int index, int value) {
+        this.index = index;
+        this.value = value;
+      }
+      
+      static {
+        multiplexer.protocol.Protocol.getDescriptor();
+      }
+    }
+    
+    public final boolean isInitialized() {
+      return true;
+    }
+    
+    public void writeTo(com.google.protobuf.CodedOutputStream output)
+                        throws java.io.IOException {
+      getUnknownFields().writeTo(output);
+    }
+    
+    private int memoizedSerializedSize = -1;
+    public int getSerializedSize() {
+      int size = memoizedSerializedSize;
+      if (size != -1) return size;
+    
+      size = 0;
+      size += getUnknownFields().getSerializedSize();
+      memoizedSerializedSize = size;
+      return size;
+    }
+    
+    public static multiplexer.protocol.Protocol.Priority parseFrom(
+        com.google.protobuf.ByteString data)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      return newBuilder().mergeFrom(data).buildParsed();
+    }
+    public static multiplexer.protocol.Protocol.Priority parseFrom(
+        com.google.protobuf.ByteString data,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      return newBuilder().mergeFrom(data, extensionRegistry)
+               .buildParsed();
+    }
+    public static multiplexer.protocol.Protocol.Priority parseFrom(byte[] data)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      return newBuilder().mergeFrom(data).buildParsed();
+    }
+    public static multiplexer.protocol.Protocol.Priority parseFrom(
+        byte[] data,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      return newBuilder().mergeFrom(data, extensionRegistry)
+               .buildParsed();
+    }
+    public static multiplexer.protocol.Protocol.Priority parseFrom(java.io.InputStream input)
+        throws java.io.IOException {
+      return newBuilder().mergeFrom(input).buildParsed();
+    }
+    public static multiplexer.protocol.Protocol.Priority parseFrom(
+        java.io.InputStream input,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws java.io.IOException {
+      return newBuilder().mergeFrom(input, extensionRegistry)
+               .buildParsed();
+    }
+    public static multiplexer.protocol.Protocol.Priority parseDelimitedFrom(java.io.InputStream input)
+        throws java.io.IOException {
+      return newBuilder().mergeDelimitedFrom(input).buildParsed();
+    }
+    public static multiplexer.protocol.Protocol.Priority parseDelimitedFrom(
+        java.io.InputStream input,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws java.io.IOException {
+      return newBuilder().mergeDelimitedFrom(input, extensionRegistry)
+               .buildParsed();
+    }
+    public static multiplexer.protocol.Protocol.Priority parseFrom(
+        com.google.protobuf.CodedInputStream input)
+        throws java.io.IOException {
+      return newBuilder().mergeFrom(input).buildParsed();
+    }
+    public static multiplexer.protocol.Protocol.Priority parseFrom(
+        com.google.protobuf.CodedInputStream input,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws java.io.IOException {
+      return newBuilder().mergeFrom(input, extensionRegistry)
+               .buildParsed();
+    }
+    
+    public static Builder newBuilder() { return Builder.create(); }
+    public Builder newBuilderForType() { return newBuilder(); }
+    public static Builder newBuilder(multiplexer.protocol.Protocol.Priority prototype) {
+      return newBuilder().mergeFrom(prototype);
+    }
+    public Builder toBuilder() { return newBuilder(this); }
+    
+    public static final class Builder extends
+        com.google.protobuf.GeneratedMessage.Builder<Builder> {
+      private multiplexer.protocol.Protocol.Priority result;
+      
+      // Construct using multiplexer.protocol.Protocol.Priority.newBuilder()
+      private Builder() {}
+      
+      private static Builder create() {
+        Builder builder = new Builder();
+        builder.result = new multiplexer.protocol.Protocol.Priority();
+        return builder;
+      }
+      
+      protected multiplexer.protocol.Protocol.Priority internalGetResult() {
+        return result;
+      }
+      
+      public Builder clear() {
+        if (result == null) {
+          throw new IllegalStateException(
+            "Cannot call clear() after build().");
+        }
+        result = new multiplexer.protocol.Protocol.Priority();
+        return this;
+      }
+      
+      public Builder clone() {
+        return create().mergeFrom(result);
+      }
+      
+      public com.google.protobuf.Descriptors.Descriptor
+          getDescriptorForType() {
+        return multiplexer.protocol.Protocol.Priority.getDescriptor();
+      }
+      
+      public multiplexer.protocol.Protocol.Priority getDefaultInstanceForType() {
+        return multiplexer.protocol.Protocol.Priority.getDefaultInstance();
+      }
+      
+      public boolean isInitialized() {
+        return result.isInitialized();
+      }
+      public multiplexer.protocol.Protocol.Priority build() {
+        if (result != null && !isInitialized()) {
+          throw newUninitializedMessageException(result);
+        }
+        return buildPartial();
+      }
+      
+      private multiplexer.protocol.Protocol.Priority buildParsed()
+          throws com.google.protobuf.InvalidProtocolBufferException {
+        if (!isInitialized()) {
+          throw newUninitializedMessageException(
+            result).asInvalidProtocolBufferException();
+        }
+        return buildPartial();
+      }
+      
+      public multiplexer.protocol.Protocol.Priority buildPartial() {
+        if (result == null) {
+          throw new IllegalStateException(
+            "build() has already been called on this Builder.");
+        }
+        multiplexer.protocol.Protocol.Priority returnMe = result;
+        result = null;
+        return returnMe;
+      }
+      
+      public Builder mergeFrom(com.google.protobuf.Message other) {
+        if (other instanceof multiplexer.protocol.Protocol.Priority) {
+          return mergeFrom((multiplexer.protocol.Protocol.Priority)other);
+        } else {
+          super.mergeFrom(other);
+          return this;
+        }
+      }
+      
+      public Builder mergeFrom(multiplexer.protocol.Protocol.Priority other) {
+        if (other == multiplexer.protocol.Protocol.Priority.getDefaultInstance()) return this;
+        this.mergeUnknownFields(other.getUnknownFields());
+        return this;
+      }
+      
+      public Builder mergeFrom(
+          com.google.protobuf.CodedInputStream input,
+          com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+          throws java.io.IOException {
+        com.google.protobuf.UnknownFieldSet.Builder unknownFields =
+          com.google.protobuf.UnknownFieldSet.newBuilder(
+            this.getUnknownFields());
+        while (true) {
+          int tag = input.readTag();
+          switch (tag) {
+            case 0:
+              this.setUnknownFields(unknownFields.build());
+              return this;
+            default: {
+              if (!parseUnknownField(input, unknownFields,
+                                     extensionRegistry, tag)) {
+                this.setUnknownFields(unknownFields.build());
+                return this;
+              }
+              break;
+            }
+          }
+        }
+      }
+      
+    }
+    
+    static {
+      multiplexer.protocol.Protocol.getDescriptor();
+    }
+    
+    static {
+      multiplexer.protocol.Protocol.internalForceInit();
+    }
+  }
+  
+  private static com.google.protobuf.Descriptors.Descriptor
+    internal_static_multiplexer_MultiplexerPeerDescription_descriptor;
+  private static
     com.google.protobuf.GeneratedMessage.FieldAccessorTable
       internal_static_multiplexer_MultiplexerPeerDescription_fieldAccessorTable;
   private static com.google.protobuf.Descriptors.Descriptor
@@ -5147,6 +7678,36 @@ public final class Protocol {
   private static
     com.google.protobuf.GeneratedMessage.FieldAccessorTable
       internal_static_multiplexer_ReplayCollectedEvents_fieldAccessorTable;
+  private static com.google.protobuf.Descriptors.Descriptor
+    internal_static_multiplexer_LogEntriesMessage_descriptor;
+  private static
+    com.google.protobuf.GeneratedMessage.FieldAccessorTable
+      internal_static_multiplexer_LogEntriesMessage_fieldAccessorTable;
+  private static com.google.protobuf.Descriptors.Descriptor
+    internal_static_multiplexer_ReachablePeer_descriptor;
+  private static
+    com.google.protobuf.GeneratedMessage.FieldAccessorTable
+      internal_static_multiplexer_ReachablePeer_fieldAccessorTable;
+  private static com.google.protobuf.Descriptors.Descriptor
+    internal_static_multiplexer_FederationAnnouncement_descriptor;
+  private static
+    com.google.protobuf.GeneratedMessage.FieldAccessorTable
+      internal_static_multiplexer_FederationAnnouncement_fieldAccessorTable;
+  private static com.google.protobuf.Descriptors.Descriptor
+    internal_static_multiplexer_SelectionPolicy_descriptor;
+  private static
+    com.google.protobuf.GeneratedMessage.FieldAccessorTable
+      internal_static_multiplexer_SelectionPolicy_fieldAccessorTable;
+  private static com.google.protobuf.Descriptors.Descriptor
+    internal_static_multiplexer_Affinity_descriptor;
+  private static
+    com.google.protobuf.GeneratedMessage.FieldAccessorTable
+      internal_static_multiplexer_Affinity_fieldAccessorTable;
+  private static com.google.protobuf.Descriptors.Descriptor
+    internal_static_multiplexer_Priority_descriptor;
+  private static
+    com.google.protobuf.GeneratedMessage.FieldAccessorTable
+      internal_static_multiplexer_Priority_fieldAccessorTable;
   
   public static com.google.protobuf.Descriptors.FileDescriptor
       getDescriptor() {
@@ -5156,51 +7717,76 @@ public final class Protocol {
       descriptor;
   static {
     java.lang.String[] descriptorData = {
-      "\n\021Multiplexer.proto\022\013multiplexer\"~\n\032Mult" +
-      "iplexerPeerDescription\022\014\n\004type\030\001 \002(\r\022\014\n\004" +
-      "name\030\002 \002(\t\022\017\n\007comment\030\003 \001(\t\022\030\n\nqueue_siz" +
-      "e\030\004 \001(\r:\0041024\022\031\n\nis_passive\030\005 \001(\010:\005false" +
-      "\"\251\003\n\035MultiplexerMessageDescription\022\014\n\004ty" +
-      "pe\030\001 \002(\r\022\014\n\004name\030\002 \002(\t\022\017\n\007comment\030\003 \001(\t\022" +
-      "B\n\002to\030\004 \003(\01326.multiplexer.MultiplexerMes" +
-      "sageDescription.RoutingRule\032\226\002\n\013RoutingR" +
-      "ule\022\014\n\004peer\030\024 \001(\t\022\021\n\tpeer_type\030\001 \001(\r\022N\n\004" +
-      "whom\030\002 \001(\0162;.multiplexer.MultiplexerMess",
-      "ageDescription.RoutingRule.Whom:\003ANY\022%\n\027" +
-      "delivery_error_is_error\030\003 \001(\010:\004true\022#\n\025r" +
-      "eport_delivery_error\030\004 \001(\010:\004true\0220\n!incl" +
-      "ude_original_packet_in_report\030\005 \001(\010:\005fal" +
-      "se\"\030\n\004Whom\022\007\n\003ALL\020\001\022\007\n\003ANY\020\002\":\n\rLoggingM" +
-      "ethod\")\n\006Values\022\013\n\007CONSOLE\020\001\022\010\n\004FILE\020\002\022\010" +
-      "\n\004BOTH\020\003\"5\n\013Compression\"&\n\006Values\022\022\n\016NO_" +
-      "COMPRESSION\020\000\022\010\n\004GZIP\020\001\"\302\003\n\022MultiplexerM" +
-      "essage\022\n\n\002id\030\001 \001(\004\022\014\n\004from\030\002 \001(\004\022\n\n\002to\030\003" +
-      " \001(\004\022$\n\025report_delivery_error\030\025 \001(\010:\005fal",
-      "se\0220\n!include_original_packet_in_report\030" +
-      "\026 \001(\010:\005false\022\014\n\004type\030\004 \002(\r\022\017\n\007message\030\005 " +
-      "\001(\014\022D\n\013compression\030\030 \001(\0162\037.multiplexer.C" +
-      "ompression.Values:\016NO_COMPRESSION\022\021\n\ttim" +
-      "estamp\030\006 \001(\004\022\022\n\nreferences\030\007 \001(\004\022\020\n\010work" +
-      "flow\030\010 \001(\014\022O\n\017override_rrules\030\024 \003(\01326.mu" +
-      "ltiplexer.MultiplexerMessageDescription." +
-      "RoutingRule\022?\n\016logging_method\030\027 \001(\0162!.mu" +
-      "ltiplexer.LoggingMethod.Values:\004BOTH\"H\n\016" +
-      "WelcomeMessage\022\014\n\004type\030\001 \002(\r\022\n\n\002id\030\002 \002(\004",
-      "\022\034\n\024multiplexer_password\030\003 \001(\014\"-\n\026Backen" +
-      "dForPacketSearch\022\023\n\013packet_type\030\001 \002(\r\"\234\001" +
-      "\n\rDeliveryError\022\021\n\tpacket_id\030\001 \002(\004\022\023\n\013fa" +
-      "iled_type\030\002 \003(\r\022\021\n\tfailed_to\030\003 \001(\004\022\025\n\ris" +
-      "_known_type\030\004 \001(\010\0229\n\020original_message\030\024 " +
-      "\001(\0132\037.multiplexer.MultiplexerMessage\"\203\001\n" +
-      "\020MultiplexerRules\0228\n\004type\030\001 \003(\0132*.multip" +
-      "lexer.MultiplexerMessageDescription\0225\n\004p" +
-      "eer\030\002 \003(\0132\'.multiplexer.MultiplexerPeerD" +
-      "escription\"]\n\023SearchCollectedLogs\022\020\n\010wor",
-      "kflow\030\001 \001(\014\022\022\n\005limit\030\002 \001(\r:\003100\022\021\n\006offse" +
-      "t\030\003 \001(\r:\0010\022\r\n\005query\030\004 \001(\014\"\\\n\025ReplayColle" +
-      "ctedEvents\022\031\n\016from_timestamp\030\001 \001(\004:\0010\022\024\n" +
-      "\014to_timestamp\030\002 \001(\004\022\022\n\nevent_type\030\003 \003(\rB" +
-      "\"\n\024multiplexer.protocolB\010ProtocolH\001"
+      "\n\021Multiplexer.proto\022\013multiplexer\"\354\001\n\032Mul" +
+      "tiplexerPeerDescription\022\014\n\004type\030\001 \002(\r\022\014\n" +
+      "\004name\030\002 \002(\t\022\017\n\007comment\030\003 \001(\t\022\030\n\nqueue_si" +
+      "ze\030\004 \001(\r:\0041024\022\031\n\nis_passive\030\005 \001(\010:\005fals" +
+      "e\022 \n\025compression_threshold\030\006 \001(\r:\0010\022J\n\020s" +
+      "election_policy\030\007 \001(\0162#.multiplexer.Sele" +
+      "ctionPolicy.Values:\013ROUND_ROBIN\"\272\004\n\035Mult" +
+      "iplexerMessageDescription\022\014\n\004type\030\001 \002(\r\022" +
+      "\014\n\004name\030\002 \002(\t\022\017\n\007comment\030\003 \001(\t\022B\n\002to\030\004 \003" +
+      "(\01326.multiplexer.MultiplexerMessageDescr",
+      "iption.RoutingRule\0226\n\010priority\030\005 \001(\0162\034.m" +
+      "ultiplexer.Priority.Values:\006NORMAL\032\357\002\n\013R" +
+      "outingRule\022\014\n\004peer\030\024 \001(\t\022\021\n\tpeer_type\030\001 " +
+      "\001(\r\022N\n\004whom\030\002 \001(\0162;.multiplexer.Multiple" +
+      "xerMessageDescription.RoutingRule.Whom:\003" +
+      "ANY\022%\n\027delivery_error_is_error\030\003 \001(\010:\004tr" +
+      "ue\022#\n\025report_delivery_error\030\004 \001(\010:\004true\022" +
+      "0\n!include_original_packet_in_report\030\005 \001" +
+      "(\010:\005false\0224\n\010affinity\030\006 \001(\0162\034.multiplexe" +
+      "r.Affinity.Values:\004NONE\022!\n\026affinity_pref",
+      "ix_length\030\007 \001(\r:\0010\"\030\n\004Whom\022\007\n\003ALL\020\001\022\007\n\003A" +
+      "NY\020\002\":\n\rLoggingMethod\")\n\006Values\022\013\n\007CONSO" +
+      "LE\020\001\022\010\n\004FILE\020\002\022\010\n\004BOTH\020\003\"5\n\013Compression\"" +
+      "&\n\006Values\022\022\n\016NO_COMPRESSION\020\000\022\010\n\004GZIP\020\001\"" +
+      "\201\005\n\022MultiplexerMessage\022\n\n\002id\030\001 \001(\004\022\014\n\004fr" +
+      "om\030\002 \001(\004\022\n\n\002to\030\003 \001(\004\022$\n\025report_delivery_" +
+      "error\030\025 \001(\010:\005false\0220\n!include_original_p" +
+      "acket_in_report\030\026 \001(\010:\005false\022\014\n\004type\030\004 \002" +
+      "(\r\022\017\n\007message\030\005 \001(\014\022D\n\013compression\030\030 \001(\016" +
+      "2\037.multiplexer.Compression.Values:\016NO_CO",
+      "MPRESSION\022\021\n\ttimestamp\030\006 \001(\004\022\022\n\nreferenc" +
+      "es\030\007 \001(\004\022\020\n\010workflow\030\010 \001(\014\022O\n\017override_r" +
+      "rules\030\024 \003(\01326.multiplexer.MultiplexerMes" +
+      "sageDescription.RoutingRule\022?\n\016logging_m" +
+      "ethod\030\027 \001(\0162!.multiplexer.LoggingMethod." +
+      "Values:\004BOTH\022\017\n\004hops\030\031 \001(\r:\0010\022\025\n\rfragmen" +
+      "ted_id\030\032 \001(\004\022\027\n\017fragment_offset\030\033 \001(\r\022\031\n" +
+      "\021fragmented_length\030\034 \001(\r\0226\n\010priority\030\035 \001" +
+      "(\0162\034.multiplexer.Priority.Values:\006NORMAL" +
+      "\022\020\n\010deadline\030\036 \001(\004\022\027\n\017affinity_prefix\030\037 ",
+      "\001(\014\"\235\001\n\016WelcomeMessage\022\014\n\004type\030\001 \002(\r\022\n\n\002" +
+      "id\030\002 \002(\004\022\034\n\024multiplexer_password\030\003 \001(\014\022\035" +
+      "\n\025compression_threshold\030\004 \001(\r\022\032\n\013no_chec" +
+      "ksum\030\005 \001(\010:\005false\022\030\n\tfragments\030\006 \001(\010:\005fa" +
+      "lse\"F\n\026BackendForPacketSearch\022\023\n\013packet_" +
+      "type\030\001 \002(\r\022\027\n\017pending_request\030\002 \001(\004\"\234\001\n\r" +
+      "DeliveryError\022\021\n\tpacket_id\030\001 \002(\004\022\023\n\013fail" +
+      "ed_type\030\002 \003(\r\022\021\n\tfailed_to\030\003 \001(\004\022\025\n\ris_k" +
+      "nown_type\030\004 \001(\010\0229\n\020original_message\030\024 \001(" +
+      "\0132\037.multiplexer.MultiplexerMessage\"\203\001\n\020M",
+      "ultiplexerRules\0228\n\004type\030\001 \003(\0132*.multiple" +
+      "xer.MultiplexerMessageDescription\0225\n\004pee" +
+      "r\030\002 \003(\0132\'.multiplexer.MultiplexerPeerDes" +
+      "cription\"]\n\023SearchCollectedLogs\022\020\n\010workf" +
+      "low\030\001 \001(\014\022\022\n\005limit\030\002 \001(\r:\003100\022\021\n\006offset\030" +
+      "\003 \001(\r:\0010\022\r\n\005query\030\004 \001(\014\"\\\n\025ReplayCollect" +
+      "edEvents\022\031\n\016from_timestamp\030\001 \001(\004:\0010\022\024\n\014t" +
+      "o_timestamp\030\002 \001(\004\022\022\n\nevent_type\030\003 \003(\r\"C\n" +
+      "\021LogEntriesMessage\022.\n\005entry\030\001 \003(\0132\037.mult" +
+      "iplexer.MultiplexerMessage\":\n\rReachableP",
+      "eer\022\n\n\002id\030\001 \002(\004\022\014\n\004type\030\002 \002(\r\022\017\n\004hops\030\003 " +
+      "\001(\r:\0010\"B\n\026FederationAnnouncement\022(\n\004peer" +
+      "\030\001 \003(\0132\032.multiplexer.ReachablePeer\"o\n\017Se" +
+      "lectionPolicy\"\\\n\006Values\022\017\n\013ROUND_ROBIN\020\000" +
+      "\022\025\n\021LEAST_OUTSTANDING\020\001\022\030\n\024POWER_OF_TWO_" +
+      "CHOICES\020\002\022\020\n\014LATENCY_EWMA\020\003\"@\n\010Affinity\"" +
+      "4\n\006Values\022\010\n\004NONE\020\000\022\014\n\010WORKFLOW\020\001\022\022\n\016MES" +
+      "SAGE_PREFIX\020\002\"3\n\010Priority\"\'\n\006Values\022\007\n\003L" +
+      "OW\020\000\022\n\n\006NORMAL\020\001\022\010\n\004HIGH\020\002B\"\n\024multiplexe" +
+      "r.protocolB\010ProtocolH\001"
     };
     com.google.protobuf.Descriptors.FileDescriptor.InternalDescriptorAssigner assigner =
       new com.google.protobuf.Descriptors.FileDescriptor.InternalDescriptorAssigner() {
@@ -5212,7 +7798,7 @@ public final class Protocol {
           internal_static_multiplexer_MultiplexerPeerDescription_fieldAccessorTable = new
             com.google.protobuf.GeneratedMessage.FieldAccessorTable(
               internal_static_multiplexer_MultiplexerPeerDescription_descriptor,
-              new java.lang.String[] { "Type", "Name", "Comment", "QueueSize", "IsPassive", },
+              new java.lang.String[] { "Type", "Name", "Comment", "QueueSize", "IsPassive", "CompressionThreshold", "SelectionPolicy", },
               multiplexer.protocol.Protocol.MultiplexerPeerDescription.class,
               multiplexer.protocol.Protocol.MultiplexerPeerDescription.Builder.class);
           internal_static_multiplexer_MultiplexerMessageDescription_descriptor =
@@ -5220,7 +7806,7 @@ public final class Protocol {
           internal_static_multiplexer_MultiplexerMessageDescription_fieldAccessorTable = new
             com.google.protobuf.GeneratedMessage.FieldAccessorTable(
               internal_static_multiplexer_MultiplexerMessageDescription_descriptor,
-              new java.lang.String[] { "Type", "Name", "Comment", "To", },
+              new java.lang.String[] { "Type", "Name", "Comment", "To", "Priority", },
               multiplexer.protocol.Protocol.MultiplexerMessageDescription.class,
               multiplexer.protocol.Protocol.MultiplexerMessageDescription.Builder.class);
           internal_static_multiplexer_MultiplexerMessageDescription_RoutingRule_descriptor =
@@ -5228,7 +7814,7 @@ public final class Protocol {
           internal_static_multiplexer_MultiplexerMessageDescription_RoutingRule_fieldAccessorTable = new
             com.google.protobuf.GeneratedMessage.FieldAccessorTable(
               internal_static_multiplexer_MultiplexerMessageDescription_RoutingRule_descriptor,
-              new java.lang.String[] { "Peer", "PeerType", "Whom", "DeliveryErrorIsError", "ReportDeliveryError", "IncludeOriginalPacketInReport", },
+              new java.lang.String[] { "Peer", "PeerType", "Whom", "DeliveryErrorIsError", "ReportDeliveryError", "IncludeOriginalPacketInReport", "Affinity", "AffinityPrefixLength", },
               multiplexer.protocol.Protocol.MultiplexerMessageDescription.RoutingRule.class,
               multiplexer.protocol.Protocol.MultiplexerMessageDescription.RoutingRule.Builder.class);
           internal_static_multiplexer_LoggingMethod_descriptor =
@@ -5252,7 +7838,7 @@ public final class Protocol {
           internal_static_multiplexer_MultiplexerMessage_fieldAccessorTable = new
             com.google.protobuf.GeneratedMessage.FieldAccessorTable(
               internal_static_multiplexer_MultiplexerMessage_descriptor,
-              new java.lang.String[] { "Id", "From", "To", "ReportDeliveryError", "IncludeOriginalPacketInReport", "Type", "Message", "Compression", "Timestamp", "References", "Workflow", "OverrideRrules", "LoggingMethod", },
+              new java.lang.String[] { "Id", "From", "To", "ReportDeliveryError", "IncludeOriginalPacketInReport", "Type", "Message", "Compression", "Timestamp", "References", "Workflow", "OverrideRrules", "LoggingMethod", "Hops", "FragmentedId", "FragmentOffset", "FragmentedLength", "Priority", "Deadline", "AffinityPrefix", },
               multiplexer.protocol.Protocol.MultiplexerMessage.class,
               multiplexer.protocol.Protocol.MultiplexerMessage.Builder.class);
           internal_static_multiplexer_WelcomeMessage_descriptor =
@@ -5260,7 +7846,7 @@ public final class Protocol {
           internal_static_multiplexer_WelcomeMessage_fieldAccessorTable = new
             com.google.protobuf.GeneratedMessage.FieldAccessorTable(
               internal_static_multiplexer_WelcomeMessage_descriptor,
-              new java.lang.String[] { "Type", "Id", "MultiplexerPassword", },
+              new java.lang.String[] { "Type", "Id", "MultiplexerPassword", "CompressionThreshold", "NoChecksum", "Fragments", },
               multiplexer.protocol.Protocol.WelcomeMessage.class,
               multiplexer.protocol.Protocol.WelcomeMessage.Builder.class);
           internal_static_multiplexer_BackendForPacketSearch_descriptor =
@@ -5268,7 +7854,7 @@ public final class Protocol {
           internal_static_multiplexer_BackendForPacketSearch_fieldAccessorTable = new
             com.google.protobuf.GeneratedMessage.FieldAccessorTable(
               internal_static_multiplexer_BackendForPacketSearch_descriptor,
-              new java.lang.String[] { "PacketType", },
+              new java.lang.String[] { "PacketType", "PendingRequest", },
               multiplexer.protocol.Protocol.BackendForPacketSearch.class,
               multiplexer.protocol.Protocol.BackendForPacketSearch.Builder.class);
           internal_static_multiplexer_DeliveryError_descriptor =
@@ -5303,6 +7889,54 @@ public final class Protocol {
               new java.lang.String[] { "FromTimestamp", "ToTimestamp", "EventType", },
               multiplexer.protocol.Protocol.ReplayCollectedEvents.class,
               multiplexer.protocol.Protocol.ReplayCollectedEvents.Builder.class);
+          internal_static_multiplexer_LogEntriesMessage_descriptor =
+            getDescriptor().getMessageTypes().get(11);
+          internal_static_multiplexer_LogEntriesMessage_fieldAccessorTable = new
+            com.google.protobuf.GeneratedMessage.FieldAccessorTable(
+              internal_static_multiplexer_LogEntriesMessage_descriptor,
+              new java.lang.String[] { "Entry", },
+              multiplexer.protocol.Protocol.LogEntriesMessage.class,
+              multiplexer.protocol.Protocol.LogEntriesMessage.Builder.class);
+          internal_static_multiplexer_ReachablePeer_descriptor =
+            getDescriptor().getMessageTypes().get(12);
+          internal_static_multiplexer_ReachablePeer_fieldAccessorTable = new
+            com.google.protobuf.GeneratedMessage.FieldAccessorTable(
+              internal_static_multiplexer_ReachablePeer_descriptor,
+              new java.lang.String[] { "Id", "Type", "Hops", },
+              multiplexer.protocol.Protocol.ReachablePeer.class,
+              multiplexer.protocol.Protocol.ReachablePeer.Builder.class);
+          internal_static_multiplexer_FederationAnnouncement_descriptor =
+            getDescriptor().getMessageTypes().get(13);
+          internal_static_multiplexer_FederationAnnouncement_fieldAccessorTable = new
+            com.google.protobuf.GeneratedMessage.FieldAccessorTable(
+              internal_static_multiplexer_FederationAnnouncement_descriptor,
+              new java.lang.String[] { "Peer", },
+              multiplexer.protocol.Protocol.FederationAnnouncement.class,
+              multiplexer.protocol.Protocol.FederationAnnouncement.Builder.class);
+          internal_static_multiplexer_SelectionPolicy_descriptor =
+            getDescriptor().getMessageTypes().get(14);
+          internal_static_multiplexer_SelectionPolicy_fieldAccessorTable = new
+            com.google.protobuf.GeneratedMessage.FieldAccessorTable(
+              internal_static_multiplexer_SelectionPolicy_descriptor,
+              new java.lang.String[] { },
+              multiplexer.protocol.Protocol.SelectionPolicy.class,
+              multiplexer.protocol.Protocol.SelectionPolicy.Builder.class);
+          internal_static_multiplexer_Affinity_descriptor =
+            getDescriptor().getMessageTypes().get(15);
+          internal_static_multiplexer_Affinity_fieldAccessorTable = new
+            com.google.protobuf.GeneratedMessage.FieldAccessorTable(
+              internal_static_multiplexer_Affinity_descriptor,
+              new java.lang.String[] { },
+              multiplexer.protocol.Protocol.Affinity.class,
+              multiplexer.protocol.Protocol.Affinity.Builder.class);
+          internal_static_multiplexer_Priority_descriptor =
+            getDescriptor().getMessageTypes().get(16);
+          internal_static_multiplexer_Priority_fieldAccessorTable = new
+            com.google.protobuf.GeneratedMessage.FieldAccessorTable(
+              internal_static_multiplexer_Priority_descriptor,
+              new java.lang.String[] { },
+              multiplexer.protocol.Protocol.Priority.class,
+              multiplexer.protocol.Protocol.Priority.Builder.class);
           return null;
         }
       };
@@ -5,9 +5,16 @@ import org.junit.runners.Suite;
 
 @RunWith(Suite.class)
 @Suite.SuiteClasses( { TestByteBufferSerialization.class,
-	TestConnectivity.class, TestGCing.class,
+	TestCompression.class, TestConcurrentBackend.class,
+	TestConnectionsMap.class, TestConnectivity.class,
+	TestGCing.class,
 	TestMultiplexerMessageWithServer.class, TestMultiplexerPassword.class,
 	TestMultiplexerProtocolHandlerWithServer.class, TestQuery.class,
-	TestThreadsShutdown.class })
+	TestRawMultiplexerMessage.class, TestThreadsShutdown.class,
+	TestWriteCoalescing.class, TestRecentLongPool.class, TestMetrics.class,
+	TestEventsCollector.class, TestLogCollector.class, TestRoutingTable.class,
+	TestRulesReload.class, TestFederation.class,
+	TestInVmTransport.class, TestSharedMemoryTransport.class,
+	TestFragmentation.class, TestPriorityLanes.class, TestDeadlines.class })
 public class AllJmxTests {
 }
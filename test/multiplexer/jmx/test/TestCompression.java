@@ -0,0 +1,119 @@
+// Copyright 2009 Warsaw University, Faculty of Physics
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+package multiplexer.jmx.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import multiplexer.jmx.backend.AbstractBackend;
+import multiplexer.jmx.client.IncomingMessageData;
+import multiplexer.jmx.client.JmxClient;
+import multiplexer.jmx.client.SendingMethod;
+import multiplexer.jmx.internal.CompressionHandler;
+import multiplexer.jmx.test.util.JmxServerProvidingTestCase;
+import multiplexer.protocol.Protocol.Compression;
+import multiplexer.protocol.Protocol.MultiplexerMessage;
+
+import org.jboss.netty.channel.ChannelFuture;
+import org.junit.Test;
+
+import com.google.protobuf.ByteString;
+
+public class TestCompression extends JmxServerProvidingTestCase {
+
+	private static ByteString compressibleBody(int length) {
+		byte[] body = new byte[length];
+		Arrays.fill(body, (byte) 'x');
+		return ByteString.copyFrom(body);
+	}
+
+	@Test
+	public void testCompressDecompress() throws Exception {
+		MultiplexerMessage message = MultiplexerMessage.newBuilder().setType(
+			TestConstants.MessageTypes.TEST_REQUEST).setMessage(
+			compressibleBody(100000)).build();
+
+		MultiplexerMessage compressed = CompressionHandler.compress(message);
+		assertEquals(Compression.Values.GZIP, compressed.getCompression());
+		assertTrue(compressed.getMessage().size() < 1000);
+
+		MultiplexerMessage decompressed = CompressionHandler
+			.decompress(compressed);
+		assertEquals(message, decompressed);
+	}
+
+	@Test
+	public void testIncompressibleLeftIntact() throws Exception {
+		MultiplexerMessage message = MultiplexerMessage.newBuilder().setType(
+			TestConstants.MessageTypes.TEST_REQUEST).setMessage(
+			ByteString.copyFromUtf8("x")).build();
+		assertSame(message, CompressionHandler.compress(message));
+		assertSame(message, CompressionHandler.decompress(message));
+	}
+
+	@Test
+	public void testCompressedRoundTrip() throws Exception {
+		// TEST_SERVER has compression_threshold set in test.rules
+		final ByteString msgBody = compressibleBody(1024 * 1024);
+
+		AbstractBackend backend = new AbstractBackend(
+			TestConstants.PeerTypes.TEST_SERVER) {
+			@Override
+			protected void handleMessage(MultiplexerMessage message)
+				throws Exception {
+				assertEquals(Compression.Values.NO_COMPRESSION, message
+					.getCompression());
+				reply(createResponse(TestConstants.MessageTypes.TEST_RESPONSE,
+					message.getMessage()));
+			}
+		};
+		backend.connect(getLocalServerAddress());
+		Thread backendThread = new Thread(backend);
+		backendThread.setName("backend main thread");
+		backendThread.start();
+
+		JmxClient client = new JmxClient(TestConstants.PeerTypes.TEST_CLIENT);
+		client.connect(getLocalServerAddress());
+
+		MultiplexerMessage msgSent = client.createMessage(MultiplexerMessage
+			.newBuilder().setType(TestConstants.MessageTypes.TEST_REQUEST)
+			.setMessage(msgBody));
+		ChannelFuture sendingOperation = client.send(msgSent,
+			SendingMethod.THROUGH_ONE);
+		sendingOperation.await(3, TimeUnit.SECONDS);
+		assertTrue(sendingOperation.isSuccess());
+
+		IncomingMessageData msgData = client.receive(3, TimeUnit.SECONDS);
+		assertNotNull(msgData);
+		MultiplexerMessage msgReceived = msgData.getMessage();
+		assertEquals(TestConstants.MessageTypes.TEST_RESPONSE, msgReceived
+			.getType());
+		assertEquals(Compression.Values.NO_COMPRESSION, msgReceived
+			.getCompression());
+		assertEquals(msgBody, msgReceived.getMessage());
+
+		backend.cancel();
+		backendThread.join(3000);
+		assertFalse(backendThread.isAlive());
+		client.shutdown();
+	}
+}
@@ -0,0 +1,188 @@
+// Copyright 2009 Warsaw University, Faculty of Physics
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+package multiplexer.jmx.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import multiplexer.jmx.backend.MessageContext;
+import multiplexer.jmx.backend.MessageHandler;
+import multiplexer.jmx.backend.SimpleBackend;
+import multiplexer.jmx.client.IncomingMessageData;
+import multiplexer.jmx.client.JmxClient;
+import multiplexer.jmx.client.SendingMethod;
+import multiplexer.jmx.test.util.JmxServerProvidingTestCase;
+import multiplexer.protocol.Protocol.MultiplexerMessage;
+
+import org.junit.Test;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.protobuf.ByteString;
+
+public class TestConcurrentBackend extends JmxServerProvidingTestCase {
+
+	@Test
+	public void testHandledConcurrently() throws Exception {
+		final int workers = 4;
+		final CyclicBarrier allWorkersBusy = new CyclicBarrier(workers);
+
+		SimpleBackend backend = new SimpleBackend(
+			TestConstants.PeerTypes.TEST_SERVER, new MessageHandler() {
+				public void handleMessage(MultiplexerMessage message,
+					MessageContext ctx) {
+					try {
+						// passes only if all the workers run at once
+						allWorkersBusy.await(5, TimeUnit.SECONDS);
+					} catch (Exception e) {
+						throw new RuntimeException(e);
+					}
+					ctx.reply(ctx.createResponse(
+						TestConstants.MessageTypes.TEST_RESPONSE, message
+							.getMessage()));
+				}
+			});
+		backend.setWorkerThreads(workers);
+		Thread backendThread = startBackend(backend);
+
+		JmxClient client = new JmxClient(TestConstants.PeerTypes.TEST_CLIENT);
+		client.connect(getLocalServerAddress());
+
+		List<ListenableFuture<IncomingMessageData>> queries = new ArrayList<ListenableFuture<IncomingMessageData>>();
+		for (int i = 0; i < workers; i++) {
+			queries.add(client.asyncQuery(ByteString.copyFromUtf8("query " + i),
+				TestConstants.MessageTypes.TEST_REQUEST, 5000));
+		}
+		for (int i = 0; i < workers; i++) {
+			assertEquals(ByteString.copyFromUtf8("query " + i), queries.get(i)
+				.get(10, TimeUnit.SECONDS).getMessage().getMessage());
+		}
+
+		stopBackend(backend, backendThread);
+		client.shutdown();
+	}
+
+	@Test
+	public void testMaxInFlightRequests() throws Exception {
+		final AtomicInteger running = new AtomicInteger();
+		final AtomicInteger maxRunning = new AtomicInteger();
+
+		SimpleBackend backend = new SimpleBackend(
+			TestConstants.PeerTypes.TEST_SERVER, new MessageHandler() {
+				public void handleMessage(MultiplexerMessage message,
+					MessageContext ctx) {
+					int now = running.incrementAndGet();
+					synchronized (maxRunning) {
+						maxRunning.set(Math.max(maxRunning.get(), now));
+					}
+					try {
+						Thread.sleep(5);
+					} catch (InterruptedException e) {
+						throw new RuntimeException(e);
+					}
+					running.decrementAndGet();
+					ctx.reply(ctx.createResponse(
+						TestConstants.MessageTypes.TEST_RESPONSE, message
+							.getMessage()));
+				}
+			});
+		backend.setWorkerThreads(4);
+		backend.setMaxInFlightRequests(2);
+		Thread backendThread = startBackend(backend);
+
+		JmxClient client = new JmxClient(TestConstants.PeerTypes.TEST_CLIENT);
+		client.connect(getLocalServerAddress());
+
+		List<ListenableFuture<IncomingMessageData>> queries = new ArrayList<ListenableFuture<IncomingMessageData>>();
+		for (int i = 0; i < 50; i++) {
+			queries.add(client.asyncQuery(ByteString.copyFromUtf8("query " + i),
+				TestConstants.MessageTypes.TEST_REQUEST, 5000));
+		}
+		for (ListenableFuture<IncomingMessageData> query : queries) {
+			assertNotNull(query.get(10, TimeUnit.SECONDS));
+		}
+		assertTrue(maxRunning.get() <= 2);
+
+		stopBackend(backend, backendThread);
+		client.shutdown();
+	}
+
+	@Test
+	public void testWorkflowOrdering() throws Exception {
+		final int workflows = 3;
+		final int messagesPerWorkflow = 30;
+		final List<List<Integer>> handled = new ArrayList<List<Integer>>();
+		for (int i = 0; i < workflows; i++) {
+			handled.add(Collections.synchronizedList(new ArrayList<Integer>()));
+		}
+
+		SimpleBackend backend = new SimpleBackend(
+			TestConstants.PeerTypes.TEST_SERVER, new MessageHandler() {
+				public void handleMessage(MultiplexerMessage message,
+					MessageContext ctx) {
+					int workflow = Integer.parseInt(message.getWorkflow()
+						.toStringUtf8());
+					int sequence = Integer.parseInt(message.getMessage()
+						.toStringUtf8());
+					try {
+						Thread.sleep(sequence % 3);
+					} catch (InterruptedException e) {
+						throw new RuntimeException(e);
+					}
+					handled.get(workflow).add(sequence);
+					ctx.reply(ctx.createResponse(
+						TestConstants.MessageTypes.TEST_RESPONSE, message
+							.getMessage()));
+				}
+			});
+		backend.setWorkerThreads(4);
+		backend.setWorkflowOrdering(true);
+		Thread backendThread = startBackend(backend);
+
+		JmxClient client = new JmxClient(TestConstants.PeerTypes.TEST_CLIENT);
+		client.connect(getLocalServerAddress());
+
+		for (int i = 0; i < messagesPerWorkflow; i++) {
+			for (int w = 0; w < workflows; w++) {
+				client.send(client.createMessage(MultiplexerMessage
+					.newBuilder().setType(
+						TestConstants.MessageTypes.TEST_REQUEST).setWorkflow(
+						ByteString.copyFromUtf8(Integer.toString(w)))
+					.setMessage(ByteString.copyFromUtf8(Integer.toString(i)))),
+					SendingMethod.THROUGH_ONE);
+			}
+		}
+		for (int i = 0; i < workflows * messagesPerWorkflow; i++) {
+			assertNotNull(client.receive(10, TimeUnit.SECONDS));
+		}
+
+		for (int w = 0; w < workflows; w++) {
+			assertEquals(messagesPerWorkflow, handled.get(w).size());
+			for (int i = 0; i < messagesPerWorkflow; i++) {
+				assertEquals(i, (int) handled.get(w).get(i));
+			}
+		}
+
+		stopBackend(backend, backendThread);
+		client.shutdown();
+	}
+}
@@ -0,0 +1,281 @@
+// Copyright 2009 Warsaw University, Faculty of Physics
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+package multiplexer.jmx.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+import multiplexer.jmx.exceptions.NoPeerForPeerIdException;
+import multiplexer.jmx.exceptions.NoPeerForTypeException;
+import multiplexer.jmx.exceptions.PeersSaturatedException;
+import multiplexer.jmx.internal.ConnectionsMap;
+import multiplexer.jmx.internal.OutboundQueueHandler;
+import multiplexer.jmx.internal.PeerLoad;
+import multiplexer.jmx.internal.PeerSelectionPolicy;
+
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.local.DefaultLocalClientChannelFactory;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.handler.codec.embedder.EncoderEmbedder;
+import org.junit.Test;
+
+public class TestConnectionsMap {
+
+	private final DefaultLocalClientChannelFactory factory = new DefaultLocalClientChannelFactory();
+
+	private Channel newChannel() {
+		return factory.newChannel(Channels.pipeline());
+	}
+
+	@Test
+	public void testGetAnyRoundRobin() throws Exception {
+		ConnectionsMap map = new ConnectionsMap();
+		Channel a = newChannel();
+		Channel b = newChannel();
+		map.add(a, 1, 100);
+		map.add(b, 2, 100);
+
+		Set<Channel> seen = new HashSet<Channel>();
+		Channel previous = null;
+		for (int i = 0; i < 4; i++) {
+			Channel any = map.getAny(100);
+			assertTrue(any != previous);
+			seen.add(any);
+			previous = any;
+		}
+		assertEquals(2, seen.size());
+	}
+
+	/**
+	 * A pipeline whose writes never complete.
+	 */
+	private static class StalledPipeline extends EncoderEmbedder<Object> {
+		StalledPipeline(OutboundQueueHandler queue) {
+			super(queue);
+		}
+
+		void write(Object message) {
+			Channels.write(getChannel(), message);
+		}
+	}
+
+	/**
+	 * Returns a queue with {@code pending} messages that are never sent.
+	 */
+	private OutboundQueueHandler newQueue(int limit, int pending) {
+		OutboundQueueHandler queue = new OutboundQueueHandler();
+		queue.setLimit(limit);
+		StalledPipeline pipeline = new StalledPipeline(queue);
+		for (int i = 0; i < pending; i++)
+			pipeline.write("message " + i);
+		assertEquals(pending, queue.getPending());
+		return queue;
+	}
+
+	@Test
+	public void testGetAnySkipsSaturated() throws Exception {
+		ConnectionsMap map = new ConnectionsMap();
+		Channel a = newChannel();
+		Channel b = newChannel();
+		OutboundQueueHandler queueA = newQueue(2, 2);
+		OutboundQueueHandler queueB = newQueue(2, 1);
+		map.add(a, 1, 100, queueA);
+		map.add(b, 2, 100, queueB);
+
+		assertTrue(queueA.isSaturated());
+		assertFalse(queueB.isSaturated());
+		for (int i = 0; i < 4; i++) {
+			assertSame(b, map.getAny(100));
+		}
+
+		queueB.setLimit(1);
+		try {
+			map.getAny(100);
+			fail("PeersSaturatedException expected");
+		} catch (PeersSaturatedException e) {
+		}
+
+		queueA.setLimit(0);
+		assertSame(a, map.getAny(100));
+	}
+
+	@Test
+	public void testSetQueueLimit() throws Exception {
+		ConnectionsMap map = new ConnectionsMap();
+		OutboundQueueHandler queueA = newQueue(2, 2);
+		OutboundQueueHandler queueB = newQueue(2, 2);
+		map.add(newChannel(), 1, 100, queueA);
+		map.add(newChannel(), 2, 101, queueB);
+
+		map.setQueueLimit(100, 3);
+		assertFalse(queueA.isSaturated());
+		assertEquals(3, queueA.getLimit());
+		assertEquals(2, queueB.getLimit());
+	}
+
+	@Test
+	public void testGetAnyLeastOutstanding() throws Exception {
+		ConnectionsMap map = new ConnectionsMap();
+		map.setSelectionPolicy(100, PeerSelectionPolicy.LEAST_OUTSTANDING);
+		Channel a = newChannel();
+		Channel b = newChannel();
+		map.add(a, 1, 100);
+		map.add(b, 2, 100);
+
+		map.getLoad(a).requestSent();
+		map.getLoad(a).requestSent();
+		for (int i = 0; i < 4; i++) {
+			Channel any = map.getAny(100);
+			assertSame(b, any);
+			map.getLoad(any).requestSent();
+			map.getLoad(any).responseReceived(1000);
+		}
+		map.getLoad(b).requestSent();
+		map.getLoad(b).requestSent();
+		map.getLoad(b).requestSent();
+		assertSame(a, map.getAny(100));
+	}
+
+	@Test
+	public void testGetAnyLatencyEwma() throws Exception {
+		ConnectionsMap map = new ConnectionsMap();
+		map.setSelectionPolicy(100, PeerSelectionPolicy.LATENCY_EWMA);
+		Channel slow = newChannel();
+		Channel fast = newChannel();
+		map.add(slow, 1, 100);
+		map.add(fast, 2, 100);
+		PeerLoad slowLoad = map.getLoad(slow);
+		PeerLoad fastLoad = map.getLoad(fast);
+
+		slowLoad.requestSent();
+		slowLoad.responseReceived(50000000);
+		fastLoad.requestSent();
+		fastLoad.responseReceived(1000000);
+		for (int i = 0; i < 4; i++)
+			assertSame(fast, map.getAny(100));
+
+		// The fast one is preferred until it has many more requests pending.
+		for (int i = 0; i < 10; i++)
+			fastLoad.requestSent();
+		assertSame(fast, map.getAny(100));
+		for (int i = 0; i < 50; i++)
+			fastLoad.requestSent();
+		assertSame(slow, map.getAny(100));
+	}
+
+	@Test
+	public void testGetAnyPowerOfTwoChoices() throws Exception {
+		ConnectionsMap map = new ConnectionsMap();
+		map.setSelectionPolicy(100, PeerSelectionPolicy.POWER_OF_TWO_CHOICES);
+		Channel busy = newChannel();
+		Channel idle = newChannel();
+		map.add(busy, 1, 100);
+		map.add(idle, 2, 100);
+		for (int i = 0; i < 5; i++)
+			map.getLoad(busy).requestSent();
+
+		// With two peers both are always compared.
+		for (int i = 0; i < 10; i++)
+			assertSame(idle, map.getAny(100));
+
+		map.remove(idle);
+		assertSame(busy, map.getAny(100));
+		assertNull(map.getLoad(idle));
+	}
+
+	@Test
+	public void testReconnectReplacesChannel() throws Exception {
+		ConnectionsMap map = new ConnectionsMap();
+		Channel a = newChannel();
+		Channel b = newChannel();
+		assertNull(map.add(a, 1, 100));
+		assertSame(a, map.add(b, 1, 100));
+
+		assertSame(b, map.getByPeerId(1));
+		Iterator<Channel> all = map.getAll(100);
+		assertSame(b, all.next());
+		assertFalse(all.hasNext());
+	}
+
+	@Test
+	public void testGetByKey() throws Exception {
+		ConnectionsMap map = new ConnectionsMap();
+		Channel[] channels = new Channel[4];
+		for (int i = 0; i < channels.length; i++) {
+			channels[i] = newChannel();
+			map.add(channels[i], i + 1, 100);
+		}
+
+		int keys = 1000;
+		Channel[] assigned = new Channel[keys];
+		int[] perChannel = new int[channels.length];
+		for (int key = 0; key < keys; key++) {
+			assigned[key] = map.getByKey(100, key);
+			assertSame(assigned[key], map.getByKey(100, key));
+			for (int i = 0; i < channels.length; i++)
+				if (assigned[key] == channels[i])
+					perChannel[i]++;
+		}
+		for (int count : perChannel)
+			assertTrue(count > keys / channels.length / 2);
+
+		// only the keys of the removed peer move
+		map.remove(channels[0]);
+		for (int key = 0; key < keys; key++) {
+			Channel channel = map.getByKey(100, key);
+			assertTrue(channel != channels[0]);
+			if (assigned[key] != channels[0])
+				assertSame(assigned[key], channel);
+		}
+
+		// and they move back when it reconnects
+		map.add(channels[0], 1, 100);
+		for (int key = 0; key < keys; key++)
+			assertSame(assigned[key], map.getByKey(100, key));
+	}
+
+	@Test
+	public void testRemove() throws Exception {
+		ConnectionsMap map = new ConnectionsMap();
+		Channel a = newChannel();
+		map.add(a, 1, 100);
+		Iterator<Channel> snapshot = map.getAll(100);
+
+		assertTrue(map.remove(a));
+		assertFalse(map.remove(a));
+		assertSame(a, snapshot.next());
+		try {
+			map.getAny(100);
+			fail();
+		} catch (NoPeerForTypeException e) {
+			// expected
+		}
+		try {
+			map.getByPeerId(1);
+			fail();
+		} catch (NoPeerForPeerIdException e) {
+			// expected
+		}
+	}
+}
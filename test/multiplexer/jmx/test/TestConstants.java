@@ -74,6 +74,8 @@ public class TestConstants implements multiplexer.jmx.tools.rulesconsts.Constant
 		public final static int SEARCH_COLLECTED_LOGS_REQUEST = 117;
 		public final static int SEARCH_COLLECTED_LOGS_RESPONSE = 118;
 		public final static int REPLAY_EVENTS_REQUEST = 126;
+		public final static int TEST_AFFINITY_REQUEST = 130;
+		public final static int TEST_PREFIX_AFFINITY_REQUEST = 131;
 
 		private static class ConstantsByNameMapHolder {
 			public final static Map<String, Integer> map;
@@ -87,6 +89,8 @@ public class TestConstants implements multiplexer.jmx.tools.rulesconsts.Constant
 				tmp.put("SEARCH_COLLECTED_LOGS_REQUEST", SEARCH_COLLECTED_LOGS_REQUEST);
 				tmp.put("SEARCH_COLLECTED_LOGS_RESPONSE", SEARCH_COLLECTED_LOGS_RESPONSE);
 				tmp.put("REPLAY_EVENTS_REQUEST", REPLAY_EVENTS_REQUEST);
+				tmp.put("TEST_AFFINITY_REQUEST", TEST_AFFINITY_REQUEST);
+				tmp.put("TEST_PREFIX_AFFINITY_REQUEST", TEST_PREFIX_AFFINITY_REQUEST);
 				map = Collections.unmodifiableMap(tmp);
 			}
 		}
@@ -103,6 +107,8 @@ public class TestConstants implements multiplexer.jmx.tools.rulesconsts.Constant
 				tmp.put(SEARCH_COLLECTED_LOGS_REQUEST, "SEARCH_COLLECTED_LOGS_REQUEST");
 				tmp.put(SEARCH_COLLECTED_LOGS_RESPONSE, "SEARCH_COLLECTED_LOGS_RESPONSE");
 				tmp.put(REPLAY_EVENTS_REQUEST, "REPLAY_EVENTS_REQUEST");
+				tmp.put(TEST_AFFINITY_REQUEST, "TEST_AFFINITY_REQUEST");
+				tmp.put(TEST_PREFIX_AFFINITY_REQUEST, "TEST_PREFIX_AFFINITY_REQUEST");
 				map = Collections.unmodifiableMap(tmp);
 			}
 		}
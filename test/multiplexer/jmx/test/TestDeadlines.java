@@ -0,0 +1,225 @@
+// Copyright 2009 Warsaw University, Faculty of Physics
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+package multiplexer.jmx.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import multiplexer.jmx.backend.MessageContext;
+import multiplexer.jmx.backend.MessageHandler;
+import multiplexer.jmx.backend.SimpleBackend;
+import multiplexer.jmx.client.IncomingMessageData;
+import multiplexer.jmx.client.JmxClient;
+import multiplexer.jmx.client.SendingMethod;
+import multiplexer.jmx.test.util.JmxServerProvidingTestCase;
+import multiplexer.protocol.Constants.MessageTypes;
+import multiplexer.protocol.Protocol.DeliveryError;
+import multiplexer.protocol.Protocol.MultiplexerMessage;
+
+import org.junit.Test;
+
+import com.google.protobuf.ByteString;
+
+public class TestDeadlines extends JmxServerProvidingTestCase {
+
+	private static MultiplexerMessage.Builder request(String body) {
+		return MultiplexerMessage.newBuilder().setMessage(
+			ByteString.copyFromUtf8(body)).setType(
+			TestConstants.MessageTypes.TEST_REQUEST);
+	}
+
+	@Test
+	public void testServerReportsExpired() throws Exception {
+		JmxClient client = new JmxClient(TestConstants.PeerTypes.TEST_CLIENT);
+		client.connect(getLocalServerAddress());
+
+		MultiplexerMessage expired = client.createMessage(request("expired")
+			.setDeadline(System.currentTimeMillis() - 1000)
+			.setReportDeliveryError(true));
+		client.send(expired, SendingMethod.THROUGH_ONE);
+
+		IncomingMessageData answer = client.receive(5, TimeUnit.SECONDS);
+		assertNotNull(answer);
+		assertEquals(MessageTypes.DELIVERY_ERROR, answer.getMessage()
+			.getType());
+		assertEquals(expired.getId(), answer.getMessage().getReferences());
+		DeliveryError deliveryError = DeliveryError.parseFrom(answer
+			.getMessage().getMessage());
+		assertEquals(expired.getId(), deliveryError.getPacketId());
+		// not an error of routing to the (absent) backends
+		assertEquals(0, deliveryError.getFailedTypeCount());
+
+		client.shutdown();
+	}
+
+	@Test
+	public void testBackendDiscardsExpiredAndHandlesNearestDeadlineFirst()
+		throws Exception {
+		final CountDownLatch blocked = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final List<String> handled = Collections
+			.synchronizedList(new ArrayList<String>());
+
+		SimpleBackend backend = new SimpleBackend(
+			TestConstants.PeerTypes.TEST_SERVER, new MessageHandler() {
+				public void handleMessage(MultiplexerMessage message,
+					MessageContext ctx) {
+					String body = message.getMessage().toStringUtf8();
+					if (body.equals("block")) {
+						blocked.countDown();
+						try {
+							release.await(5, TimeUnit.SECONDS);
+						} catch (InterruptedException e) {
+							throw new RuntimeException(e);
+						}
+					} else {
+						handled.add(body);
+					}
+					ctx.reply(ctx.createResponse(
+						TestConstants.MessageTypes.TEST_RESPONSE, message
+							.getMessage()));
+				}
+			});
+		// "none" is not due before the others
+		backend.setMaxOvertakingMillis(60000);
+		Thread backendThread = startBackend(backend);
+
+		JmxClient client = new JmxClient(TestConstants.PeerTypes.TEST_CLIENT);
+		client.connect(getLocalServerAddress());
+
+		client.send(client.createMessage(request("block")),
+			SendingMethod.THROUGH_ONE);
+		assertTrue(blocked.await(5, TimeUnit.SECONDS));
+		long now = System.currentTimeMillis();
+		client.send(client.createMessage(request("soon").setDeadline(
+			now + 200)), SendingMethod.THROUGH_ONE);
+		client.send(client.createMessage(request("none")),
+			SendingMethod.THROUGH_ONE);
+		client.send(client.createMessage(request("late").setDeadline(
+			now + 20000)), SendingMethod.THROUGH_ONE);
+		client.send(client.createMessage(request("early").setDeadline(
+			now + 10000)), SendingMethod.THROUGH_ONE);
+		Thread.sleep(500);
+		release.countDown();
+
+		for (int i = 0; i < 4; i++)
+			assertNotNull(client.receive(5, TimeUnit.SECONDS));
+		assertEquals("[early, late, none]", handled.toString());
+		assertEquals(1, backend.getJmxClient().getMetrics()
+			.getExpiredDropped());
+
+		stopBackend(backend, backendThread);
+		client.shutdown();
+	}
+
+	@Test
+	public void testMessageWithoutDeadlineNotStarved() throws Exception {
+		final CountDownLatch handledNone = new CountDownLatch(1);
+		SimpleBackend backend = new SimpleBackend(
+			TestConstants.PeerTypes.TEST_SERVER, new MessageHandler() {
+				public void handleMessage(MultiplexerMessage message,
+					MessageContext ctx) {
+					if (message.getMessage().toStringUtf8().equals("none")) {
+						handledNone.countDown();
+					} else {
+						try {
+							Thread.sleep(5);
+						} catch (InterruptedException e) {
+							throw new RuntimeException(e);
+						}
+					}
+				}
+			});
+		backend.setMaxOvertakingMillis(200);
+		Thread backendThread = startBackend(backend);
+
+		final JmxClient client = new JmxClient(
+			TestConstants.PeerTypes.TEST_CLIENT);
+		client.connect(getLocalServerAddress());
+
+		// messages with deadlines arrive faster than they are handled
+		final AtomicBoolean flooding = new AtomicBoolean(true);
+		Thread flood = new Thread() {
+			@Override
+			public void run() {
+				try {
+					while (flooding.get()) {
+						client.send(client.createMessage(request("flood")
+							.setDeadline(System.currentTimeMillis() + 60000)),
+							SendingMethod.THROUGH_ONE);
+						Thread.sleep(1);
+					}
+				} catch (Exception e) {
+					throw new RuntimeException(e);
+				}
+			}
+		};
+		flood.start();
+		Thread.sleep(300);
+		client.send(client.createMessage(request("none")),
+			SendingMethod.THROUGH_ONE);
+		try {
+			assertTrue(handledNone.await(5, TimeUnit.SECONDS));
+		} finally {
+			flooding.set(false);
+			flood.join();
+		}
+
+		stopBackend(backend, backendThread);
+		client.shutdown();
+	}
+
+	@Test
+	public void testQuerySetsDeadline() throws Exception {
+		final List<Long> deadlines = Collections
+			.synchronizedList(new ArrayList<Long>());
+		SimpleBackend backend = new SimpleBackend(
+			TestConstants.PeerTypes.TEST_SERVER, new MessageHandler() {
+				public void handleMessage(MultiplexerMessage message,
+					MessageContext ctx) {
+					deadlines.add(message.hasDeadline() ? message
+						.getDeadline() : null);
+					ctx.reply(ctx.createResponse(
+						TestConstants.MessageTypes.TEST_RESPONSE, message
+							.getMessage()));
+				}
+			});
+		Thread backendThread = startBackend(backend);
+
+		JmxClient client = new JmxClient(TestConstants.PeerTypes.TEST_CLIENT);
+		client.connect(getLocalServerAddress());
+
+		long before = System.currentTimeMillis();
+		client.query(ByteString.copyFromUtf8("query"),
+			TestConstants.MessageTypes.TEST_REQUEST, 1000);
+		long after = System.currentTimeMillis();
+		assertEquals(1, deadlines.size());
+		// answers to phase 1 are awaited for all 3 phases
+		assertTrue(deadlines.get(0) >= before + 3000);
+		assertTrue(deadlines.get(0) <= after + 3000);
+
+		stopBackend(backend, backendThread);
+		client.shutdown();
+	}
+}
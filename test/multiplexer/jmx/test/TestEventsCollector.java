@@ -0,0 +1,302 @@
+// Copyright 2009 Warsaw University, Faculty of Physics
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+package multiplexer.jmx.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import multiplexer.jmx.client.IncomingMessageData;
+import multiplexer.jmx.client.JmxClient;
+import multiplexer.jmx.client.SendingMethod;
+import multiplexer.jmx.collector.EventLog;
+import multiplexer.jmx.collector.EventsCollector;
+import multiplexer.jmx.test.util.JmxServerProvidingTestCase;
+import multiplexer.protocol.Protocol.ReplayCollectedEvents;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.protobuf.ByteString;
+
+public class TestEventsCollector extends JmxServerProvidingTestCase {
+
+	private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+
+	private File directory;
+
+	@Before
+	public void createDirectory() throws IOException {
+		directory = File.createTempFile("events", "");
+		assertTrue(directory.delete());
+	}
+
+	@After
+	public void deleteDirectory() {
+		delete(directory);
+	}
+
+	private static void delete(File file) {
+		File[] files = file.listFiles();
+		if (files != null)
+			for (File f : files)
+				delete(f);
+		file.delete();
+	}
+
+	private static class Event {
+		final int type;
+		final long timestamp;
+		final String data;
+
+		Event(int type, long timestamp, String data) {
+			this.type = type;
+			this.timestamp = timestamp;
+			this.data = data;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			Event e = (Event) o;
+			return type == e.type && timestamp == e.timestamp
+				&& data.equals(e.data);
+		}
+
+		@Override
+		public int hashCode() {
+			return data.hashCode();
+		}
+
+		@Override
+		public String toString() {
+			return type + "@" + timestamp + ":" + data;
+		}
+	}
+
+	private static void append(EventLog log, Event e) throws IOException {
+		byte[] bytes = e.data.getBytes("UTF-8");
+		log.append(e.type, e.timestamp, bytes, 0, bytes.length);
+	}
+
+	private static List<Event> read(EventLog log, long from, long to,
+		int... types) throws Exception {
+		final List<Event> events = new ArrayList<Event>();
+		log.read(from, to, types, new EventLog.Visitor() {
+			public boolean visit(int type, long timestamp, ByteBuffer data)
+				throws Exception {
+				byte[] bytes = new byte[data.remaining()];
+				data.get(bytes);
+				events.add(new Event(type, timestamp, new String(bytes,
+					"UTF-8")));
+				return true;
+			}
+		});
+		return events;
+	}
+
+	@Test
+	public void testReadByTimeAndType() throws Exception {
+		EventLog log = new EventLog(directory, 1024 * 1024, 0, 0,
+			TimeUnit.SECONDS);
+		List<Event> all = new ArrayList<Event>();
+		StringBuilder padding = new StringBuilder();
+		for (int i = 0; i < 200; i++)
+			padding.append('x');
+		for (int i = 0; i < 2000; i++) {
+			// large enough for the sparse index to have many entries
+			Event e = new Event(i % 3, 1000 + i, i + padding.toString());
+			append(log, e);
+			all.add(e);
+		}
+		assertEquals(all, read(log, 0, Long.MAX_VALUE));
+		assertEquals(all.subList(1500, 1601), read(log, 2500, 2600));
+		List<Event> type2 = new ArrayList<Event>();
+		for (Event e : all.subList(1500, 1601))
+			if (e.type == 2)
+				type2.add(e);
+		assertEquals(type2, read(log, 2500, 2600, 2));
+		assertTrue(read(log, 0, 999).isEmpty());
+		assertTrue(read(log, 0, Long.MAX_VALUE, 7).isEmpty());
+
+		// Timestamps never go back.
+		append(log, new Event(0, 10, "late"));
+		List<Event> late = new ArrayList<Event>();
+		late.add(new Event(0, 2999, "late"));
+		assertEquals(late, read(log, 2999, 2999, 0));
+		log.close();
+	}
+
+	@Test
+	public void testRollingAndRetention() throws Exception {
+		EventLog log = new EventLog(directory, 1000, 3500, 0,
+			TimeUnit.HOURS);
+		long now = System.currentTimeMillis();
+		byte[] data = new byte[180];
+		for (int i = 0; i < 50; i++)
+			log.append(1, now - 2 * HOUR + i, data, 0, data.length);
+		// Events of 200 bytes, 5 per segment; only 3 segments retained.
+		assertEquals(3, log.getSegmentCount());
+		assertEquals(15, read(log, 0, Long.MAX_VALUE).size());
+
+		// A large event gets a segment of its own.
+		byte[] large = new byte[5000];
+		log.append(2, now, large, 0, large.length);
+		assertEquals(1, log.getSegmentCount());
+		assertEquals(1, read(log, 0, Long.MAX_VALUE).size());
+
+		log.close();
+
+		// Old events are deleted.
+		log = new EventLog(new File(directory, "age"), 1000, 0, 1,
+			TimeUnit.HOURS);
+		log.append(3, now - 2 * HOUR, data, 0, 10);
+		log.append(3, now, large, 0, large.length);
+		log.enforceRetention();
+		assertEquals(1, log.getSegmentCount());
+		log.close();
+	}
+
+	@Test
+	public void testRecovery() throws Exception {
+		EventLog log = new EventLog(directory, 4096, 0, 0, TimeUnit.SECONDS);
+		for (int i = 0; i < 30; i++)
+			append(log, new Event(1, 1000 + i, "event " + i));
+		log.close();
+
+		// Reopened log contains the same events and can be appended to.
+		log = new EventLog(directory, 4096, 0, 0, TimeUnit.SECONDS);
+		List<Event> events = read(log, 0, Long.MAX_VALUE);
+		assertEquals(30, events.size());
+		append(log, new Event(1, 500, "after reopening"));
+		assertEquals(new Event(1, 1029, "after reopening"), read(log, 0,
+			Long.MAX_VALUE).get(30));
+		log.close();
+
+		// A torn write is discarded.
+		File[] files = directory.listFiles();
+		assertEquals(1, files.length);
+		corruptLastEvent(files[0]);
+		log = new EventLog(directory, 4096, 0, 0, TimeUnit.SECONDS);
+		assertEquals(events, read(log, 0, Long.MAX_VALUE));
+		log.close();
+	}
+
+	/**
+	 * Flips a byte of data of the last event in the segment {@code file}.
+	 */
+	private static void corruptLastEvent(File file) throws Exception {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			long position = 0;
+			long last = -1;
+			while (position + EventLog.HEADER_LENGTH <= raf.length()) {
+				raf.seek(position);
+				int length = raf.readInt();
+				raf.readInt();
+				if (raf.readLong() == 0)
+					break;
+				last = position;
+				position += EventLog.HEADER_LENGTH + length;
+			}
+			assertFalse(last < 0);
+			raf.seek(last + EventLog.HEADER_LENGTH);
+			int b = raf.read();
+			raf.seek(last + EventLog.HEADER_LENGTH);
+			raf.write(b ^ 1);
+		} finally {
+			raf.close();
+		}
+	}
+
+	@Test
+	public void testReplay() throws Exception {
+		EventLog log = new EventLog(directory, 64 * 1024, 0, 0,
+			TimeUnit.SECONDS);
+		EventsCollector collector = new EventsCollector(
+			TestConstants.PeerTypes.EVENTS_COLLECTOR,
+			TestConstants.MessageTypes.REPLAY_EVENTS_REQUEST, log);
+		collector.collect(TestConstants.MessageTypes.TEST_REQUEST);
+		// Small enough to make the replay wait for writes.
+		collector.setReplayWindow(1024);
+		collector.connect(getLocalServerAddress());
+		Thread collectorThread = new Thread(collector);
+		collectorThread.start();
+
+		JmxClient client = new JmxClient(TestConstants.PeerTypes.TEST_CLIENT);
+		try {
+			client.connect(getLocalServerAddress());
+			final int count = 500;
+			for (int i = 0; i < count; i++) {
+				client.send(client.createMessageBuilder().setType(
+					TestConstants.MessageTypes.TEST_REQUEST).setTo(
+					collector.getJmxClient().getInstanceId()).setMessage(
+					ByteString.copyFromUtf8("event " + i)).build(),
+					SendingMethod.THROUGH_ONE);
+			}
+			client.send(client.createMessageBuilder().setType(
+				TestConstants.MessageTypes.TEST_RESPONSE).setTo(
+				collector.getJmxClient().getInstanceId()).build(),
+				SendingMethod.THROUGH_ONE);
+			client.flush();
+
+			ReplayCollectedEvents request = ReplayCollectedEvents
+				.newBuilder().addEventType(
+					TestConstants.MessageTypes.TEST_REQUEST).build();
+			// Events are appended asynchronously, retry until all are there.
+			for (int attempt = 0; attempt < 50; attempt++) {
+				client.send(client.createMessage(request.toByteString(),
+					TestConstants.MessageTypes.REPLAY_EVENTS_REQUEST),
+					SendingMethod.THROUGH_ONE);
+				int received = 0;
+				IncomingMessageData imd;
+				while ((imd = client.receive(200, TimeUnit.MILLISECONDS)) != null) {
+					assertEquals(TestConstants.MessageTypes.TEST_REQUEST, imd
+						.getMessage().getType());
+					assertEquals("event " + received, imd.getMessage()
+						.getMessage().toStringUtf8());
+					received++;
+				}
+				if (received == count)
+					break;
+			}
+			assertEquals(count, read(log, 0, Long.MAX_VALUE).size());
+
+			// Nothing is replayed outside of the requested time range.
+			client.send(client.createMessage(ReplayCollectedEvents
+				.newBuilder().setFromTimestamp(1).setToTimestamp(2).build()
+				.toByteString(),
+				TestConstants.MessageTypes.REPLAY_EVENTS_REQUEST),
+				SendingMethod.THROUGH_ONE);
+			assertNull(client.receive(300, TimeUnit.MILLISECONDS));
+		} finally {
+			client.shutdown();
+			collector.cancel();
+			collectorThread.join(3000);
+			assertFalse(collectorThread.isAlive());
+			log.close();
+		}
+	}
+}
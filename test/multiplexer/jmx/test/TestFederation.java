@@ -0,0 +1,126 @@
+// Copyright 2009 Warsaw University, Faculty of Physics
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+package multiplexer.jmx.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import multiplexer.jmx.backend.AbstractBackend;
+import multiplexer.jmx.client.IncomingMessageData;
+import multiplexer.jmx.client.JmxClient;
+import multiplexer.jmx.exceptions.OperationFailedException;
+import multiplexer.jmx.server.JmxServer;
+import multiplexer.protocol.Protocol.MultiplexerMessage;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.google.protobuf.ByteString;
+
+public class TestFederation {
+
+	private final List<JmxServer> servers = new ArrayList<JmxServer>();
+	private final List<Thread> serverThreads = new ArrayList<Thread>();
+
+	private JmxServer startServer() throws Exception {
+		JmxServer server = new JmxServer(new InetSocketAddress(0));
+		server.loadMessageDefinitionsFromFile("test.rules");
+		server.setFederationIntervalMillis(20);
+		Thread serverThread = new Thread(server);
+		serverThread.setDaemon(true);
+		serverThread.start();
+		synchronized (server) {
+			if (!server.hasStarted())
+				server.wait(5000);
+		}
+		assertTrue(server.hasStarted());
+		servers.add(server);
+		serverThreads.add(serverThread);
+		return server;
+	}
+
+	private static InetSocketAddress addressOf(JmxServer server)
+		throws Exception {
+		return new InetSocketAddress(InetAddress.getLocalHost(), server
+			.getLocalPort());
+	}
+
+	@After
+	public void stopServers() throws InterruptedException {
+		for (JmxServer server : servers)
+			server.shutdown();
+		for (Thread serverThread : serverThreads)
+			serverThread.join(5000);
+	}
+
+	@Test
+	public void testQueryThroughChain() throws Exception {
+		// A <- B <- C: the client and the backend are two links apart.
+		JmxServer a = startServer();
+		JmxServer b = startServer();
+		JmxServer c = startServer();
+		b.federate(addressOf(a));
+		c.federate(addressOf(b));
+
+		final AtomicInteger requestHops = new AtomicInteger(-1);
+		AbstractBackend backend = new AbstractBackend(
+			TestConstants.PeerTypes.TEST_SERVER) {
+			@Override
+			protected void handleMessage(MultiplexerMessage message)
+				throws Exception {
+				requestHops.set(message.getHops());
+				reply(createResponse(message.getType(), message.getMessage()));
+			}
+		};
+		backend.connect(addressOf(c));
+		Thread backendThread = new Thread(backend);
+		backendThread.setDaemon(true);
+		backendThread.start();
+
+		JmxClient client = new JmxClient(TestConstants.PeerTypes.TEST_CLIENT);
+		try {
+			client.connect(addressOf(a));
+			ByteString query = ByteString.copyFromUtf8("over the hills");
+			IncomingMessageData response = null;
+			long deadline = System.currentTimeMillis() + 10000;
+			while (response == null && System.currentTimeMillis() < deadline) {
+				try {
+					response = client.query(query,
+						TestConstants.MessageTypes.TEST_REQUEST, 500);
+				} catch (OperationFailedException e) {
+					// routes not announced yet
+					Thread.sleep(20);
+				}
+			}
+			assertNotNull(response);
+			assertEquals(query, response.getMessage().getMessage());
+			assertEquals(2, requestHops.get());
+		} finally {
+			client.shutdown();
+			backend.cancel();
+			backendThread.join(3000);
+		}
+		assertFalse(backendThread.isAlive());
+	}
+}
@@ -0,0 +1,241 @@
+// Copyright 2009 Warsaw University, Faculty of Physics
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+package multiplexer.jmx.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import multiplexer.jmx.backend.AbstractBackend;
+import multiplexer.jmx.client.IncomingMessageData;
+import multiplexer.jmx.client.JmxClient;
+import multiplexer.jmx.client.SendingMethod;
+import multiplexer.jmx.internal.CompressionHandler;
+import multiplexer.jmx.internal.FragmentReassembler;
+import multiplexer.jmx.internal.Fragments;
+import multiplexer.jmx.test.TestMultiplexerProtocolHandlerWithServer.SimpleNettyConnection;
+import multiplexer.jmx.test.util.JmxServerProvidingTestCase;
+import multiplexer.protocol.Constants.MessageTypes;
+import multiplexer.protocol.Protocol.MultiplexerMessage;
+import multiplexer.protocol.Protocol.WelcomeMessage;
+
+import org.jboss.netty.channel.ChannelFactory;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.socket.nio.NioClientSocketChannelFactory;
+import org.junit.Test;
+
+import com.google.protobuf.ByteString;
+
+public class TestFragmentation extends JmxServerProvidingTestCase {
+
+	private static ByteString randomBody(int length) {
+		byte[] body = new byte[length];
+		new Random(length).nextBytes(body);
+		return ByteString.copyFrom(body);
+	}
+
+	private static MultiplexerMessage message(long id, ByteString body) {
+		return MultiplexerMessage.newBuilder().setId(id).setFrom(1).setType(
+			TestConstants.MessageTypes.TEST_REQUEST).setReferences(7)
+			.setMessage(body).build();
+	}
+
+	@Test
+	public void testSplitAndReassemble() throws Exception {
+		MultiplexerMessage message = message(42, randomBody(300000));
+		List<MultiplexerMessage> fragments = new ArrayList<MultiplexerMessage>(
+			Fragments.split(message, message.toByteArray(), 64 * 1024));
+		assertEquals(5, fragments.size());
+		assertEquals(42, fragments.get(0).getId());
+		assertEquals(7, fragments.get(0).getReferences());
+		for (MultiplexerMessage fragment : fragments) {
+			assertEquals(42, fragment.getFragmentedId());
+			assertEquals(message.getType(), fragment.getType());
+			assertEquals(message.getFrom(), fragment.getFrom());
+			assertTrue(fragment.getSerializedSize() < 65 * 1024);
+		}
+
+		Collections.shuffle(fragments, new Random(0));
+		FragmentReassembler reassembler = new FragmentReassembler(60000);
+		for (int i = 0; i < fragments.size() - 1; i++)
+			assertNull(reassembler.add(fragments.get(i)));
+		assertEquals(message, reassembler.add(fragments
+			.get(fragments.size() - 1)));
+		assertEquals(0, reassembler.getPartialCount());
+	}
+
+	@Test
+	public void testCompressedMessageReassembledDecompressed()
+		throws Exception {
+		byte[] body = new byte[1000000];
+		Arrays.fill(body, (byte) 'x');
+		MultiplexerMessage message = message(1, ByteString.copyFrom(body));
+		MultiplexerMessage compressed = CompressionHandler.compress(message);
+		FragmentReassembler reassembler = new FragmentReassembler(60000);
+		MultiplexerMessage reassembled = null;
+		for (MultiplexerMessage fragment : Fragments.split(compressed,
+			compressed.toByteArray(), 100))
+			reassembled = reassembler.add(fragment);
+		assertEquals(message, reassembled);
+	}
+
+	@Test
+	public void testIncompleteMessagesExpire() throws Exception {
+		MultiplexerMessage first = message(1, randomBody(1000));
+		MultiplexerMessage second = message(2, randomBody(1000));
+		FragmentReassembler reassembler = new FragmentReassembler(0);
+		assertNull(reassembler.add(Fragments.split(first,
+			first.toByteArray(), 100).get(0)));
+		assertEquals(1, reassembler.getPartialCount());
+		assertNull(reassembler.add(Fragments.split(second,
+			second.toByteArray(), 100).get(0)));
+		assertEquals(1, reassembler.getPartialCount());
+	}
+
+	@Test
+	public void testLargeMessageDoesNotHoldUpOthers() throws Exception {
+		JmxClient receiver = new JmxClient(
+			TestConstants.PeerTypes.TEST_SERVER);
+		receiver.connect(getLocalServerAddress());
+		JmxClient sender = new JmxClient(TestConstants.PeerTypes.TEST_CLIENT);
+		sender.connect(getLocalServerAddress());
+
+		ByteString bigBody = randomBody(16 * 1024 * 1024);
+		MultiplexerMessage big = sender.createMessage(bigBody,
+			TestConstants.MessageTypes.TEST_REQUEST);
+		MultiplexerMessage small = sender.createMessage(ByteString
+			.copyFromUtf8("small"), TestConstants.MessageTypes.TEST_REQUEST);
+		ChannelFuture bigSent = sender.send(big, SendingMethod.THROUGH_ONE);
+		ChannelFuture smallSent = sender.send(small,
+			SendingMethod.THROUGH_ONE);
+
+		IncomingMessageData first = receiver.receive(10, TimeUnit.SECONDS);
+		assertNotNull(first);
+		assertEquals(small.getId(), first.getMessage().getId());
+		IncomingMessageData second = receiver.receive(20, TimeUnit.SECONDS);
+		assertNotNull(second);
+		assertEquals(big.getId(), second.getMessage().getId());
+		assertEquals(bigBody, second.getMessage().getMessage());
+		assertTrue(smallSent.isSuccess());
+		assertTrue(bigSent.await(10, TimeUnit.SECONDS));
+		assertTrue(bigSent.isSuccess());
+
+		sender.shutdown();
+		receiver.shutdown();
+	}
+
+	@Test
+	public void testReassembledForPeerWithoutFragments() throws Exception {
+		// does not set fragments in its CONNECTION_WELCOME
+		ChannelFactory factory = new NioClientSocketChannelFactory(Executors
+			.newCachedThreadPool(), Executors.newCachedThreadPool());
+		SimpleNettyConnection receiver = new SimpleNettyConnection(factory,
+			getLocalServerAddress(), false);
+		receiver.sendMessage(WelcomeMessage.newBuilder().setType(
+			TestConstants.PeerTypes.TEST_SERVER).setId(
+			receiver.getInstanceId()).build().toByteString(),
+			MessageTypes.CONNECTION_WELCOME).future.await();
+		assertEquals(MessageTypes.CONNECTION_WELCOME, receiver
+			.receiveMessage().getType());
+
+		JmxClient sender = new JmxClient(TestConstants.PeerTypes.TEST_CLIENT);
+		sender.connect(getLocalServerAddress());
+		MultiplexerMessage big = sender.createMessage(randomBody(1024 * 1024),
+			TestConstants.MessageTypes.TEST_REQUEST);
+		sender.send(big, SendingMethod.THROUGH_ONE);
+
+		MultiplexerMessage received = receiver.receiveMessage();
+		assertFalse(received.hasFragmentedId());
+		assertEquals(big.getId(), received.getId());
+		assertEquals(big.getMessage(), received.getMessage());
+
+		sender.shutdown();
+		receiver.close();
+		factory.releaseExternalResources();
+	}
+
+	@Test
+	public void testLargeMessageKeepsPrefixAffinity() throws Exception {
+		List<AbstractBackend> backends = new ArrayList<AbstractBackend>();
+		List<Thread> backendThreads = new ArrayList<Thread>();
+		for (int i = 0; i < 3; i++) {
+			AbstractBackend backend = new AbstractBackend(
+				TestConstants.PeerTypes.TEST_SERVER) {
+				@Override
+				protected void handleMessage(MultiplexerMessage message)
+					throws Exception {
+					reply(createResponse(message.getType(), ByteString.EMPTY));
+				}
+			};
+			backend.connect(getLocalServerAddress());
+			Thread backendThread = new Thread(backend);
+			backendThread.setName("backend" + i + " main thread");
+			backendThread.start();
+			backends.add(backend);
+			backendThreads.add(backendThread);
+		}
+
+		JmxClient client = new JmxClient(TestConstants.PeerTypes.TEST_CLIENT);
+		client.connect(getLocalServerAddress());
+
+		// a message split into fragments is answered by the backend which
+		// answers small messages with the same 8-byte prefix
+		Set<Long> answering = new HashSet<Long>();
+		for (int i = 0; i < 8; i++) {
+			String prefix = "prefix " + i;
+			byte[] big = new byte[1024 * 1024];
+			if (i % 2 == 0)
+				new Random(i).nextBytes(big);
+			System.arraycopy(prefix.getBytes("UTF-8"), 0, big, 0, 8);
+			Long from = null;
+			for (ByteString body : new ByteString[] {
+				ByteString.copyFromUtf8(prefix + " small"),
+				ByteString.copyFrom(big) }) {
+				client.send(client.createMessage(body,
+					TestConstants.MessageTypes.TEST_PREFIX_AFFINITY_REQUEST),
+					SendingMethod.THROUGH_ONE);
+				IncomingMessageData msgData = client.receive(10000);
+				assertNotNull(msgData);
+				if (from == null)
+					from = msgData.getMessage().getFrom();
+				else
+					assertEquals(from.longValue(), msgData.getMessage()
+						.getFrom());
+			}
+			answering.add(from);
+		}
+		assertTrue(answering.size() > 1);
+
+		for (int i = 0; i < backends.size(); i++) {
+			backends.get(i).cancel();
+			backendThreads.get(i).join(3000);
+			assertFalse(backendThreads.get(i).isAlive());
+		}
+		client.shutdown();
+	}
+}
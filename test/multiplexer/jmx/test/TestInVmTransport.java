@@ -0,0 +1,114 @@
+// Copyright 2009 Warsaw University, Faculty of Physics
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+package multiplexer.jmx.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+
+import java.net.SocketAddress;
+import java.util.Arrays;
+
+import multiplexer.jmx.backend.AbstractBackend;
+import multiplexer.jmx.client.IncomingMessageData;
+import multiplexer.jmx.client.JmxClient;
+import multiplexer.jmx.test.util.JmxServerProvidingTestCase;
+import multiplexer.protocol.Protocol.MultiplexerMessage;
+
+import org.junit.Test;
+
+import com.google.protobuf.ByteString;
+
+/**
+ * Tests peers connected to the server through its in-VM address.
+ */
+public class TestInVmTransport extends JmxServerProvidingTestCase {
+
+	@Test
+	public void testInVmBackendAndClient() throws Exception {
+		testQueries(getInVmServerAddress(), getInVmServerAddress(), 1000);
+	}
+
+	@Test
+	public void testInVmClient() throws Exception {
+		testQueries(getLocalServerAddress(), getInVmServerAddress(), 100);
+	}
+
+	@Test
+	public void testInVmBackend() throws Exception {
+		testQueries(getInVmServerAddress(), getLocalServerAddress(), 100);
+	}
+
+	@Test
+	public void testLargeMessagesToInVmClient() throws Exception {
+		// compressed by the TCP backend, decompressed by the in-VM client
+		testQueries(getLocalServerAddress(), getInVmServerAddress(),
+			largeMessage(), 10);
+	}
+
+	@Test
+	public void testLargeMessagesToTcpClient() throws Exception {
+		testQueries(getInVmServerAddress(), getLocalServerAddress(),
+			largeMessage(), 10);
+	}
+
+	private static ByteString largeMessage() {
+		// exceeds TEST_SERVER's compression threshold
+		byte[] bytes = new byte[100000];
+		Arrays.fill(bytes, (byte) 'a');
+		return ByteString.copyFrom(bytes);
+	}
+
+	private void testQueries(SocketAddress backendAddress,
+		SocketAddress clientAddress, int times) throws Exception {
+		testQueries(backendAddress, clientAddress, ByteString
+			.copyFromUtf8("Lama ma kota."), times);
+	}
+
+	private void testQueries(SocketAddress backendAddress,
+		SocketAddress clientAddress, ByteString query, int times)
+		throws Exception {
+
+		AbstractBackend backend = new AbstractBackend(
+			TestConstants.PeerTypes.TEST_SERVER) {
+			@Override
+			protected void handleMessage(MultiplexerMessage message)
+				throws Exception {
+				reply(createResponse(message.getType(), message.getMessage()));
+			}
+		};
+		backend.connect(backendAddress);
+		Thread backendThread = new Thread(backend);
+		backendThread.setName("backend main thread");
+		backendThread.start();
+
+		JmxClient client = new JmxClient(TestConstants.PeerTypes.TEST_CLIENT);
+		client.connect(clientAddress);
+
+		for (int i = 0; i < times; i++) {
+			IncomingMessageData msgData = client.query(query,
+				TestConstants.MessageTypes.TEST_REQUEST, 2000);
+			assertNotNull(msgData);
+			assertFalse(msgData.getMessage().hasCompression());
+			assertEquals(query, msgData.getMessage().getMessage());
+		}
+
+		backend.cancel();
+		backendThread.join(3000);
+		assertFalse(backendThread.isAlive());
+		client.shutdown();
+	}
+}
@@ -0,0 +1,286 @@
+// Copyright 2009 Warsaw University, Faculty of Physics
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+
+package multiplexer.jmx.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import multiplexer.jmx.client.IncomingMessageData;
+import multiplexer.jmx.client.JmxClient;
+import multiplexer.jmx.client.SendingMethod;
+import multiplexer.jmx.collector.EventLog;
+import multiplexer.jmx.collector.LogCollector;
+import multiplexer.jmx.collector.LogStore;
+import multiplexer.jmx.test.util.JmxServerProvidingTestCase;
+import multiplexer.protocol.Protocol.LogEntriesMessage;
+import multiplexer.protocol.Protocol.LoggingMethod;
+import multiplexer.protocol.Protocol.MultiplexerMessage;
+import multiplexer.protocol.Protocol.SearchCollectedLogs;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.protobuf.ByteString;
+
+public class TestLogCollector extends JmxServerProvidingTestCase {
+
+	private static final String[] WORDS = { "alpha", "beta", "gamma",
+		"delta", "epsilon" };
+
+	private File directory;
+
+	@Before
+	public void createDirectory() throws IOException {
+		directory = File.createTempFile("logs", "");
+		assertTrue(directory.delete());
+	}
+
+	@After
+	public void deleteDirectory() {
+		delete(directory);
+	}
+
+	private static void delete(File file) {
+		File[] files = file.listFiles();
+		if (files != null)
+			for (File f : files)
+				delete(f);
+		file.delete();
+	}
+
+	private static MultiplexerMessage entry(int id, String workflow,
+		String text) {
+		return MultiplexerMessage.newBuilder().setId(id).setType(
+			TestConstants.MessageTypes.TEST_REQUEST).setWorkflow(
+			ByteString.copyFromUtf8(workflow)).setMessage(
+			ByteString.copyFromUtf8(text)).build();
+	}
+
+	private static String text(int id) {
+		StringBuilder text = new StringBuilder("Entry " + id + ":");
+		for (int i = 0; i < WORDS.length; i++)
+			if (id % (i + 2) == 0)
+				text.append(' ').append(WORDS[i].toUpperCase());
+		return text.toString();
+	}
+
+	private static List<Long> ids(List<MultiplexerMessage> entries) {
+		List<Long> ids = new ArrayList<Long>();
+		for (MultiplexerMessage entry : entries)
+			ids.add(entry.getId());
+		return ids;
+	}
+
+	/**
+	 * Searches the {@code entries} the slow way.
+	 */
+	private static List<Long> expected(List<MultiplexerMessage> entries,
+		String workflow, String query, int offset, int limit) {
+		List<Long> matching = new ArrayList<Long>();
+		for (int i = entries.size() - 1; i >= 0
+			&& matching.size() < offset + limit; i--) {
+			MultiplexerMessage entry = entries.get(i);
+			if (workflow != null
+				&& !entry.getWorkflow().toStringUtf8().equals(workflow))
+				continue;
+			boolean matches = true;
+			if (query != null)
+				for (String word : query.split(" "))
+					matches &= (" " + entry.getMessage().toStringUtf8()
+						.toLowerCase() + " ").contains(" " + word + " ");
+			if (matches)
+				matching.add(0, entry.getId());
+		}
+		return matching.subList(0, Math.max(0, matching.size() - offset));
+	}
+
+	private static void assertSearch(List<MultiplexerMessage> entries,
+		LogStore store, String workflow, String query, int offset, int limit)
+		throws IOException {
+		assertEquals(expected(entries, workflow, query, offset, limit),
+			ids(store.search(workflow == null ? null : ByteString
+				.copyFromUtf8(workflow), query, offset, limit)));
+	}
+
+	@Test
+	public void testSearch() throws Exception {
+		EventLog log = new EventLog(directory, 256 * 1024, 0, 0,
+			TimeUnit.SECONDS);
+		LogStore store = new LogStore(log, LogStore.MESSAGE);
+		List<MultiplexerMessage> entries = new ArrayList<MultiplexerMessage>();
+		for (int i = 0; i < 5000; i++) {
+			MultiplexerMessage entry = entry(i, "wf" + (i % 7), text(i));
+			store.add(entry);
+			entries.add(entry);
+		}
+		assertEquals(5000, store.size());
+
+		List<Long> ids = new ArrayList<Long>();
+		for (long id = 4997; id < 5000; id++)
+			ids.add(id);
+		assertEquals(ids, ids(store.search(null, null, 0, 3)));
+		ids.clear();
+		ids.add(4986L);
+		ids.add(4992L);
+		// Words are matched regardless of case.
+		assertEquals(ids, ids(store.search(null, "ALPHA beta", 1, 2)));
+		ids.clear();
+		ids.add(4956L);
+		ids.add(4998L);
+		assertEquals(ids, ids(store.search(ByteString.copyFromUtf8("wf0"),
+			"alpha beta", 0, 2)));
+		assertTrue(store.search(null, "zeta", 0, 10).isEmpty());
+		assertTrue(store.search(ByteString.copyFromUtf8("wf7"), null, 0, 10)
+			.isEmpty());
+
+		Random random = new Random(1);
+		for (int i = 0; i < 200; i++) {
+			String workflow = random.nextBoolean() ? "wf" + random.nextInt(7)
+				: null;
+			String query = null;
+			for (int j = random.nextInt(3); j > 0; j--)
+				query = (query == null ? "" : query + " ")
+					+ WORDS[random.nextInt(WORDS.length)];
+			assertSearch(entries, store, workflow, query,
+				random.nextInt(20), 1 + random.nextInt(50));
+		}
+
+		// The indexes are rebuilt from the log.
+		log.close();
+		log = new EventLog(directory, 256 * 1024, 0, 0, TimeUnit.SECONDS);
+		store = new LogStore(log, LogStore.MESSAGE);
+		assertEquals(5000, store.size());
+		assertSearch(entries, store, "wf3", "gamma", 5, 10);
+		assertSearch(entries, store, null, "beta delta", 0, 100);
+		log.close();
+	}
+
+	@Test
+	public void testRetention() throws Exception {
+		EventLog log = new EventLog(directory, 4096, 16 * 1024, 0,
+			TimeUnit.SECONDS);
+		LogStore store = new LogStore(log, LogStore.MESSAGE);
+		List<MultiplexerMessage> entries = new ArrayList<MultiplexerMessage>();
+		for (int i = 0; i < 3000; i++) {
+			MultiplexerMessage entry = entry(i, "wf" + (i % 5), text(i));
+			store.add(entry);
+			entries.add(entry);
+		}
+		int size = store.size();
+		assertTrue(size < 3000);
+		assertTrue(size > 0);
+		entries = entries.subList(3000 - size, 3000);
+		// Entries are dropped with the oldest segments.
+		assertEquals(ids(entries), ids(store.search(null, null, 0, 3000)));
+		assertSearch(entries, store, "wf2", null, 0, 3000);
+		assertSearch(entries, store, "wf4", "alpha gamma", 3, 3000);
+		assertSearch(entries, store, null, "epsilon", 0, 3000);
+		log.close();
+	}
+
+	private static MultiplexerMessage.Builder entryBuilder(JmxClient client,
+		String workflow, String text) {
+		return client.createMessageBuilder().setType(
+			TestConstants.MessageTypes.TEST_REQUEST).setWorkflow(
+			ByteString.copyFromUtf8(workflow)).setMessage(
+			ByteString.copyFromUtf8(text));
+	}
+
+	@Test
+	public void testCollector() throws Exception {
+		EventLog log = new EventLog(directory, 64 * 1024, 0, 0,
+			TimeUnit.SECONDS);
+		LogCollector collector = new LogCollector(
+			TestConstants.PeerTypes.LOG_COLLECTOR,
+			TestConstants.MessageTypes.LOGS_STREAM,
+			TestConstants.MessageTypes.SEARCH_COLLECTED_LOGS_REQUEST,
+			TestConstants.MessageTypes.SEARCH_COLLECTED_LOGS_RESPONSE,
+			new LogStore(log, LogStore.MESSAGE));
+		collector.connect(getLocalServerAddress());
+		Thread collectorThread = new Thread(collector);
+		collectorThread.start();
+
+		JmxClient client = new JmxClient(TestConstants.PeerTypes.TEST_CLIENT);
+		try {
+			client.connect(getLocalServerAddress());
+			LogEntriesMessage stream = LogEntriesMessage.newBuilder()
+				.addEntry(entryBuilder(client, "order-1", "order received"))
+				.addEntry(
+					entryBuilder(client, "order-1", "order failed").setLoggingMethod(
+						LoggingMethod.Values.FILE))
+				.addEntry(
+					entryBuilder(client, "order-1", "order console only")
+						.setLoggingMethod(LoggingMethod.Values.CONSOLE))
+				.addEntry(entryBuilder(client, "order-2", "order received"))
+				.build();
+			client.send(client.createMessage(stream.toByteString(),
+				TestConstants.MessageTypes.LOGS_STREAM),
+				SendingMethod.THROUGH_ONE);
+			client.flush();
+
+			SearchCollectedLogs request = SearchCollectedLogs.newBuilder()
+				.setWorkflow(ByteString.copyFromUtf8("order-1")).setQuery(
+					ByteString.copyFromUtf8("order")).build();
+			LogEntriesMessage found = null;
+			// Entries are stored asynchronously, retry until they are there.
+			for (int attempt = 0; attempt < 50; attempt++) {
+				IncomingMessageData response = client.query(request
+					.toByteString(),
+					TestConstants.MessageTypes.SEARCH_COLLECTED_LOGS_REQUEST,
+					5000);
+				assertEquals(
+					TestConstants.MessageTypes.SEARCH_COLLECTED_LOGS_RESPONSE,
+					response.getMessage().getType());
+				found = LogEntriesMessage.parseFrom(response.getMessage()
+					.getMessage());
+				if (found.getEntryCount() == 2)
+					break;
+				Thread.sleep(100);
+			}
+			assertEquals(2, found.getEntryCount());
+			assertEquals("order received", found.getEntry(0).getMessage()
+				.toStringUtf8());
+			assertEquals("order failed", found.getEntry(1).getMessage()
+				.toStringUtf8());
+
+			IncomingMessageData response = client.query(SearchCollectedLogs
+				.newBuilder().setQuery(ByteString.copyFromUtf8("received"))
+				.setLimit(1).build().toByteString(),
+				TestConstants.MessageTypes.SEARCH_COLLECTED_LOGS_REQUEST, 5000);
+			found = LogEntriesMessage.parseFrom(response.getMessage()
+				.getMessage());
+			assertEquals(1, found.getEntryCount());
+			assertEquals("order-2", found.getEntry(0).getWorkflow()
+				.toStringUtf8());
+		} finally {
+			client.shutdown();
+			collector.cancel();
+			collectorThread.join(3000);
+			assertFalse(collectorThread.isAlive());
+			log.close();
+		}
+	}
+}
@@ -0,0 +1,149 @@
+// Copyright 2009 Warsaw University, Faculty of Physics
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+package multiplexer.jmx.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import multiplexer.jmx.client.JmxClient;
+import multiplexer.jmx.client.SendingMethod;
+import multiplexer.jmx.metrics.ConnectionMetrics;
+import multiplexer.jmx.metrics.LatencyHistogram;
+import multiplexer.jmx.metrics.Metrics;
+import multiplexer.jmx.metrics.TrafficMetrics;
+import multiplexer.jmx.test.util.JmxServerProvidingTestCase;
+import multiplexer.jmx.util.StripedCounter;
+import multiplexer.protocol.Constants.PeerTypes;
+
+import org.junit.Test;
+
+import com.google.protobuf.ByteString;
+
+public class TestMetrics extends JmxServerProvidingTestCase {
+
+	@Test
+	public void testStripedCounter() throws Exception {
+		testCounter(new StripedCounter());
+		testCounter(new StripedCounter(1));
+	}
+
+	private void testCounter(final StripedCounter counter) throws Exception {
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < 100000; i++) {
+						counter.increment();
+						counter.add(2);
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads)
+			thread.join();
+		assertEquals(threads.length * 300000L, counter.get());
+	}
+
+	@Test
+	public void testLatencyHistogram() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		assertEquals(0, histogram.snapshot().getPercentileMicros(0.99));
+		for (int i = 0; i < 98; i++)
+			histogram.record(500);
+		histogram.record(3, TimeUnit.MICROSECONDS);
+		histogram.record(1, TimeUnit.SECONDS);
+
+		LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+		assertEquals(100, snapshot.getCount());
+		assertEquals(98, snapshot.getCount(0));
+		assertEquals(1, snapshot.getCount(2));
+		assertEquals(1, snapshot.getPercentileMicros(0.5));
+		assertEquals(4, snapshot.getPercentileMicros(0.99));
+		assertEquals(1 << 20, snapshot.getPercentileMicros(1));
+		assertEquals((98 * 500 + 3000 + 1e9) / 1000 / 100, snapshot
+			.getMeanMicros(), 1e-6);
+	}
+
+	@Test
+	public void testTrafficIsCounted() throws Exception {
+		JmxClient client = new JmxClient(TestConstants.PeerTypes.TEST_CLIENT);
+		try {
+			client.connect(getLocalServerAddress());
+			final int count = 10;
+			for (int i = 0; i < count; i++) {
+				client.send(client.createMessageBuilder().setType(
+					TestConstants.MessageTypes.TEST_REQUEST).setTo(
+					client.getInstanceId()).setMessage(
+					ByteString.copyFromUtf8("metrics")).build(),
+					SendingMethod.THROUGH_ONE);
+			}
+			for (int i = 0; i < count; i++)
+				assertNotNull(client.receive(1000, TimeUnit.MILLISECONDS));
+
+			// Handling is recorded only after the message is passed on to
+			// receive().
+			long deadline = System.currentTimeMillis() + 1000;
+			Metrics.Snapshot snapshot;
+			TrafficMetrics.Snapshot requests;
+			do {
+				snapshot = client.getMetrics().snapshot();
+				requests = snapshot.getByMessageType().get(
+					TestConstants.MessageTypes.TEST_REQUEST);
+			} while (requests.getHandleLatency().getCount() < count
+				&& System.currentTimeMillis() < deadline);
+			assertEquals(count, requests.getMessagesOut());
+			assertEquals(count, requests.getMessagesIn());
+			assertEquals(requests.getBytesOut(), requests.getBytesIn());
+			assertEquals(count, requests.getHandleLatency().getCount());
+			assertEquals(1, snapshot.getConnections().size());
+			ConnectionMetrics.Snapshot connection = snapshot.getConnections()
+				.get(0);
+			assertEquals(PeerTypes.MULTIPLEXER, connection.getPeerType());
+			// Latencies of single connections are not kept by default.
+			assertEquals(0, connection.getHandleLatency().getCount());
+			assertTrue(connection.getMessagesIn() >= count);
+			assertTrue(snapshot.getByPeerType().containsKey(
+				PeerTypes.MULTIPLEXER));
+			assertEquals(0, snapshot.getDuplicatesDropped());
+
+			// The server's metrics are registered as MBeans.
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			Set<ObjectName> names = server.queryNames(new ObjectName(
+				Metrics.DOMAIN + ":type=MessageTypeMetrics,name="
+					+ TestConstants.MessageTypes.TEST_REQUEST + ",*"), null);
+			assertEquals(1, names.size());
+			ObjectName name = names.iterator().next();
+			assertEquals((long) count, server.getAttribute(name, "MessagesIn"));
+			assertEquals((long) count, server.getAttribute(name, "MessagesOut"));
+			assertEquals(1, server.queryNames(
+				new ObjectName(Metrics.DOMAIN + ":type=PeerTypeMetrics,name="
+					+ TestConstants.PeerTypes.TEST_CLIENT + ",*"), null)
+				.size());
+		} finally {
+			client.shutdown();
+		}
+	}
+}
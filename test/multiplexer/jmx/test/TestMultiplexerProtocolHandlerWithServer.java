@@ -33,6 +33,7 @@ import multiplexer.jmx.internal.MultiplexerProtocolHandler;
 import multiplexer.jmx.internal.MultiplexerProtocolListener;
 import multiplexer.jmx.internal.RawMessageFrameDecoder;
 import multiplexer.jmx.internal.RawMessageFrameEncoder;
+import multiplexer.jmx.internal.RawMultiplexerMessage;
 import multiplexer.jmx.test.util.JmxServerProvidingTestCase;
 import multiplexer.protocol.Constants;
 import multiplexer.protocol.Protocol;
@@ -237,7 +238,7 @@ public class TestMultiplexerProtocolHandlerWithServer extends JmxServerProviding
 			return message;
 		}
 
-		private void close() {
+		void close() {
 			channel.close().awaitUninterruptibly();
 		}
 
@@ -259,6 +260,10 @@ public class TestMultiplexerProtocolHandlerWithServer extends JmxServerProviding
 			assert offered : "sorry not offered, offiaro";
 		}
 
+		public void messageReceived(RawMultiplexerMessage message, Channel channel) {
+			messageReceived(message.getMessage(), channel);
+		}
+
 		@Override
 		public String toString() {
 			return SimpleNettyConnection.class.getSimpleName() + "(id=" + instanceId + ")";
@@ -0,0 +1,210 @@
+// Copyright 2009 Warsaw University, Faculty of Physics
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+package multiplexer.jmx.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+
+import multiplexer.jmx.internal.Config;
+import multiplexer.jmx.internal.PriorityLanesHandler;
+import multiplexer.jmx.internal.RawMultiplexerMessage;
+import multiplexer.protocol.Constants.MessageTypes;
+import multiplexer.protocol.Protocol.MultiplexerMessage;
+import multiplexer.protocol.Protocol.Priority;
+
+import org.jboss.netty.channel.ChannelDownstreamHandler;
+import org.jboss.netty.channel.ChannelEvent;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.handler.codec.embedder.EncoderEmbedder;
+import org.junit.Test;
+
+public class TestPriorityLanes {
+
+	/**
+	 * Records writes reaching the bottom of the pipeline; they are completed
+	 * only by {@link #complete()}, as if the socket were slow.
+	 */
+	private static class Recorder implements ChannelDownstreamHandler {
+		final Queue<MessageEvent> writes = new LinkedList<MessageEvent>();
+
+		public synchronized void handleDownstream(ChannelHandlerContext ctx,
+			ChannelEvent e) {
+			if (e instanceof MessageEvent) {
+				writes.add((MessageEvent) e);
+			} else {
+				ctx.sendDownstream(e);
+			}
+		}
+
+		/**
+		 * Completes the oldest write and returns the ID of its message.
+		 */
+		long complete() {
+			MessageEvent write;
+			synchronized (this) {
+				write = writes.poll();
+			}
+			write.getFuture().setSuccess();
+			Object message = write.getMessage();
+			if (message instanceof RawMultiplexerMessage)
+				return ((RawMultiplexerMessage) message).getId();
+			return ((MultiplexerMessage) message).getId();
+		}
+
+		synchronized int size() {
+			return writes.size();
+		}
+	}
+
+	private static class Pipeline extends EncoderEmbedder<Object> {
+		Pipeline(Recorder recorder, PriorityLanesHandler handler) {
+			super(recorder, handler);
+		}
+
+		ChannelFuture write(Object message) {
+			return Channels.write(getChannel(), message);
+		}
+	}
+
+	private static MultiplexerMessage message(long id, int type,
+		Priority.Values priority) {
+		MultiplexerMessage.Builder builder = MultiplexerMessage.newBuilder()
+			.setId(id).setType(type);
+		if (priority != null)
+			builder.setPriority(priority);
+		return builder.build();
+	}
+
+	@Test
+	public void testPassThroughWithinWindow() throws Exception {
+		Recorder recorder = new Recorder();
+		PriorityLanesHandler lanes = new PriorityLanesHandler(new Config(),
+			1024 * 1024);
+		Pipeline pipeline = new Pipeline(recorder, lanes);
+
+		for (int i = 0; i < 10; i++)
+			pipeline.write(message(i, TestConstants.MessageTypes.TEST_REQUEST,
+				Priority.Values.LOW));
+		assertEquals(10, recorder.size());
+		assertEquals(0, lanes.getQueuedCount());
+		for (int i = 0; i < 10; i++)
+			assertEquals(i, recorder.complete());
+	}
+
+	@Test
+	public void testHigherPriorityOvertakes() throws Exception {
+		Recorder recorder = new Recorder();
+		PriorityLanesHandler lanes = new PriorityLanesHandler(new Config(), 1);
+		Pipeline pipeline = new Pipeline(recorder, lanes);
+
+		pipeline.write(message(1, TestConstants.MessageTypes.TEST_REQUEST,
+			Priority.Values.LOW));
+		pipeline.write(message(2, TestConstants.MessageTypes.TEST_REQUEST,
+			Priority.Values.LOW));
+		pipeline.write(message(3, TestConstants.MessageTypes.TEST_REQUEST,
+			null));
+		pipeline.write(RawMultiplexerMessage.wrap(message(4,
+			TestConstants.MessageTypes.TEST_REQUEST, Priority.Values.HIGH)));
+		pipeline.write(message(5, TestConstants.MessageTypes.TEST_REQUEST,
+			Priority.Values.HIGH));
+		assertEquals(1, recorder.size());
+		assertEquals(4, lanes.getQueuedCount());
+
+		long[] expected = { 1, 4, 5, 3, 2 };
+		for (long id : expected) {
+			assertEquals(1, recorder.size());
+			assertEquals(id, recorder.complete());
+		}
+		assertEquals(0, recorder.size());
+		assertEquals(0, lanes.getQueuedCount());
+
+		// the window is free again
+		pipeline.write(message(6, TestConstants.MessageTypes.TEST_REQUEST,
+			Priority.Values.LOW));
+		assertEquals(6, recorder.complete());
+	}
+
+	@Test
+	public void testLowPriorityNotStarved() throws Exception {
+		Recorder recorder = new Recorder();
+		PriorityLanesHandler lanes = new PriorityLanesHandler(new Config(), 1);
+		Pipeline pipeline = new Pipeline(recorder, lanes);
+
+		pipeline.write(message(0, TestConstants.MessageTypes.TEST_REQUEST,
+			null));
+		for (int i = 1; i <= 100; i++) {
+			pipeline.write(message(i, TestConstants.MessageTypes.TEST_REQUEST,
+				Priority.Values.HIGH));
+			pipeline.write(message(-i, TestConstants.MessageTypes.TEST_REQUEST,
+				Priority.Values.LOW));
+		}
+
+		List<Long> sent = new ArrayList<Long>();
+		while (recorder.size() > 0)
+			sent.add(recorder.complete());
+		assertEquals(201, sent.size());
+		// 16 HIGH messages for each LOW one while both lanes are non-empty
+		assertTrue(sent.toString(), sent.indexOf(-1L) <= 17);
+		assertTrue(sent.toString(), sent.indexOf(-5L) < sent.indexOf(100L));
+		// each lane keeps its order
+		long lastHigh = 0, lastLow = 0;
+		for (long id : sent.subList(1, sent.size())) {
+			if (id > 0) {
+				assertEquals(lastHigh + 1, id);
+				lastHigh = id;
+			} else {
+				assertEquals(lastLow - 1, id);
+				lastLow = id;
+			}
+		}
+	}
+
+	@Test
+	public void testConfiguredPriorityAndWelcome() throws Exception {
+		Recorder recorder = new Recorder();
+		Config config = new Config();
+		config.setPriority(TestConstants.MessageTypes.TEST_RESPONSE,
+			Priority.Values.HIGH);
+		PriorityLanesHandler lanes = new PriorityLanesHandler(config, 1);
+		Pipeline pipeline = new Pipeline(recorder, lanes);
+
+		pipeline.write(message(1, TestConstants.MessageTypes.TEST_REQUEST,
+			null));
+		pipeline.write(message(2, TestConstants.MessageTypes.TEST_REQUEST,
+			null));
+		pipeline.write(message(3, TestConstants.MessageTypes.TEST_RESPONSE,
+			null));
+		// carried priorities take precedence
+		pipeline.write(message(4, TestConstants.MessageTypes.TEST_RESPONSE,
+			Priority.Values.LOW));
+		pipeline.write(message(5, MessageTypes.CONNECTION_WELCOME, null));
+		assertEquals(2, recorder.size());
+
+		long[] expected = { 1, 5, 3, 2, 4 };
+		for (long id : expected)
+			assertEquals(id, recorder.complete());
+		assertNull(recorder.writes.peek());
+	}
+}
@@ -17,13 +17,26 @@ package multiplexer.jmx.test;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import multiplexer.jmx.backend.AbstractBackend;
 import multiplexer.jmx.client.ConnectException;
+import multiplexer.jmx.client.HedgingPolicy;
 import multiplexer.jmx.client.IncomingMessageData;
 import multiplexer.jmx.client.JmxClient;
+import multiplexer.jmx.client.SendingMethod;
 import multiplexer.jmx.exceptions.NoPeerForTypeException;
 import multiplexer.jmx.exceptions.OperationFailedException;
 import multiplexer.jmx.test.util.JmxServerProvidingTestCase;
@@ -32,6 +45,8 @@ import multiplexer.protocol.Protocol.MultiplexerMessage;
 
 import org.junit.Test;
 
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.protobuf.ByteString;
 
 /**
@@ -206,4 +221,285 @@ public class TestQuery extends JmxServerProvidingTestCase {
 
 		client.shutdown();
 	}
+
+	@Test
+	public void testAsyncQueryCancelledAfterShutdown() throws Exception {
+		JmxClient client = new JmxClient(TestConstants.PeerTypes.TEST_CLIENT);
+		client.connect(getLocalServerAddress());
+
+		ListenableFuture<IncomingMessageData> query = client.asyncQuery(
+			ByteString.copyFromUtf8("Lama ma kota."),
+			TestConstants.MessageTypes.TEST_REQUEST, 60000);
+		final CountDownLatch completed = new CountDownLatch(1);
+		query.addListener(new Runnable() {
+			public void run() {
+				completed.countDown();
+			}
+		}, MoreExecutors.sameThreadExecutor());
+		client.shutdown();
+
+		// the timer is stopped, the query is de-registered at once
+		assertTrue(query.cancel(true));
+		assertEquals(0, completed.getCount());
+	}
+
+	@Test
+	public void testAsyncQueryManyInFlight() throws Exception {
+		AbstractBackend backend = new AbstractBackend(
+			TestConstants.PeerTypes.TEST_SERVER) {
+			@Override
+			protected void handleMessage(MultiplexerMessage message)
+				throws Exception {
+				reply(createResponse(message.getType(), message.getMessage()));
+			}
+		};
+		backend.connect(getLocalServerAddress());
+		Thread backendThread = new Thread(backend);
+		backendThread.setName("backend main thread");
+		backendThread.start();
+
+		JmxClient client = new JmxClient(TestConstants.PeerTypes.TEST_CLIENT);
+		client.connect(getLocalServerAddress());
+
+		// all queries are started from this thread before any is awaited
+		final int count = 1000;
+		final CountDownLatch completed = new CountDownLatch(count);
+		List<ListenableFuture<IncomingMessageData>> queries = new ArrayList<ListenableFuture<IncomingMessageData>>();
+		for (int i = 0; i < count; i++) {
+			ListenableFuture<IncomingMessageData> query = client.asyncQuery(
+				ByteString.copyFromUtf8("query " + i),
+				TestConstants.MessageTypes.TEST_REQUEST, 5000);
+			query.addListener(new Runnable() {
+				public void run() {
+					completed.countDown();
+				}
+			}, MoreExecutors.sameThreadExecutor());
+			queries.add(query);
+		}
+
+		assertTrue(completed.await(10, TimeUnit.SECONDS));
+		for (int i = 0; i < count; i++) {
+			assertEquals(ByteString.copyFromUtf8("query " + i), queries.get(i)
+				.get().getMessage().getMessage());
+		}
+		assertEquals(null, client.receive(100));
+
+		backend.cancel();
+		backendThread.join(3000);
+		assertFalse(backendThread.isAlive());
+		client.shutdown();
+	}
+
+	@Test
+	public void testAsyncQueryNoBackend() throws Exception {
+		JmxClient client = new JmxClient(TestConstants.PeerTypes.TEST_CLIENT);
+		client.connect(getLocalServerAddress());
+
+		ListenableFuture<IncomingMessageData> query = client.asyncQuery(
+			ByteString.copyFromUtf8("Lama ma kota."),
+			TestConstants.MessageTypes.TEST_REQUEST, 500);
+		try {
+			query.get(5, TimeUnit.SECONDS);
+			fail("query should fail");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof OperationFailedException);
+		}
+
+		client.shutdown();
+	}
+
+	@Test
+	public void testWorkflowAffinity() throws Exception {
+		List<AbstractBackend> backends = new ArrayList<AbstractBackend>();
+		List<Thread> backendThreads = new ArrayList<Thread>();
+		for (int i = 0; i < 3; i++) {
+			AbstractBackend backend = new AbstractBackend(
+				TestConstants.PeerTypes.TEST_SERVER) {
+				@Override
+				protected void handleMessage(MultiplexerMessage message)
+					throws Exception {
+					reply(createResponse(message.getType(), message
+						.getMessage()));
+				}
+			};
+			backend.connect(getLocalServerAddress());
+			Thread backendThread = new Thread(backend);
+			backendThread.setName("backend" + i + " main thread");
+			backendThread.start();
+			backends.add(backend);
+			backendThreads.add(backendThread);
+		}
+
+		JmxClient client = new JmxClient(TestConstants.PeerTypes.TEST_CLIENT);
+		client.connect(getLocalServerAddress());
+
+		// every workflow is answered by a single backend
+		final int workflows = 20;
+		Map<String, Long> answeredBy = new HashMap<String, Long>();
+		for (int round = 0; round < 5; round++) {
+			for (int i = 0; i < workflows; i++) {
+				String workflow = "workflow " + i;
+				client.send(client.createMessage(client.createMessageBuilder()
+					.setType(TestConstants.MessageTypes.TEST_AFFINITY_REQUEST)
+					.setWorkflow(ByteString.copyFromUtf8(workflow))
+					.setMessage(ByteString.copyFromUtf8(workflow))),
+					SendingMethod.THROUGH_ONE);
+				IncomingMessageData msgData = client.receive(2000);
+				assertNotNull(msgData);
+				Long from = msgData.getMessage().getFrom();
+				Long previous = answeredBy.put(workflow, from);
+				assertTrue(previous == null || previous.equals(from));
+			}
+		}
+		assertTrue(new HashSet<Long>(answeredBy.values()).size() > 1);
+
+		for (int i = 0; i < backends.size(); i++) {
+			backends.get(i).cancel();
+			backendThreads.get(i).join(3000);
+			assertFalse(backendThreads.get(i).isAlive());
+		}
+		client.shutdown();
+	}
+
+	/**
+	 * A backend which, once {@link #stall} is set, does not answer queries
+	 * until the test ends.
+	 */
+	private static class StallingBackend extends AbstractBackend {
+		volatile boolean stall;
+		final CountDownLatch released = new CountDownLatch(1);
+
+		StallingBackend() {
+			super(TestConstants.PeerTypes.TEST_SERVER);
+		}
+
+		@Override
+		protected void handleMessage(MultiplexerMessage message)
+			throws Exception {
+			if (stall)
+				released.await();
+			reply(createResponse(message.getType(), message.getMessage()));
+		}
+
+		void start(String name) {
+			Thread thread = new Thread(this);
+			thread.setName(name);
+			thread.start();
+		}
+
+		void stop() {
+			released.countDown();
+			cancel();
+		}
+	}
+
+	private JmxClient warmUpHedging(HedgingPolicy hedgingPolicy, int queries)
+		throws Exception {
+		JmxClient client = new JmxClient(TestConstants.PeerTypes.TEST_CLIENT);
+		client.setHedgingPolicy(hedgingPolicy);
+		client.connect(getLocalServerAddress());
+		for (int i = 0; i < queries; i++) {
+			client.query(ByteString.copyFromUtf8("warm up " + i),
+				TestConstants.MessageTypes.TEST_REQUEST, 5000);
+		}
+		assertTrue(hedgingPolicy
+			.getDelayMillis(TestConstants.MessageTypes.TEST_REQUEST) >= 0);
+		return client;
+	}
+
+	@Test
+	public void testHedgedQuery() throws Exception {
+		StallingBackend stalling = new StallingBackend();
+		stalling.connect(getLocalServerAddress());
+		stalling.start("stalling backend");
+		StallingBackend healthy = new StallingBackend();
+		healthy.connect(getLocalServerAddress());
+		healthy.start("healthy backend");
+
+		HedgingPolicy hedgingPolicy = new HedgingPolicy(0.95, 1.0, 50);
+		JmxClient client = warmUpHedging(hedgingPolicy, 2 * HedgingPolicy.MIN_SAMPLES);
+		assertEquals(0, hedgingPolicy.getHedgeCount());
+
+		// queries routed to the stalled backend are answered by the other one
+		// long before phase 1 times out
+		stalling.stall = true;
+		for (int i = 0; i < 10; i++) {
+			long start = System.currentTimeMillis();
+			IncomingMessageData answer = client.query(ByteString
+				.copyFromUtf8("query " + i),
+				TestConstants.MessageTypes.TEST_REQUEST, 5000);
+			assertEquals(ByteString.copyFromUtf8("query " + i), answer
+				.getMessage().getMessage());
+			assertTrue(System.currentTimeMillis() - start < 2500);
+		}
+		assertTrue(hedgingPolicy.getHedgeCount() > 0);
+		assertTrue(hedgingPolicy.getHedgeCount() <= 10);
+
+		stalling.stop();
+		healthy.stop();
+		client.shutdown();
+	}
+
+	@Test
+	public void testHedgeAvoidsStalledBackend() throws Exception {
+		// With worker threads, the stalled backend still answers searches
+		// for backends, but not those for the requests it holds.
+		StallingBackend stalling = new StallingBackend();
+		stalling.setWorkerThreads(8);
+		stalling.connect(getLocalServerAddress());
+		stalling.start("stalling backend");
+		StallingBackend healthy = new StallingBackend();
+		healthy.connect(getLocalServerAddress());
+		healthy.start("healthy backend");
+
+		HedgingPolicy hedgingPolicy = new HedgingPolicy(0.95, 1.0, 50);
+		JmxClient client = warmUpHedging(hedgingPolicy, 2 * HedgingPolicy.MIN_SAMPLES);
+
+		stalling.stall = true;
+		long healthyId = healthy.getJmxClient().getInstanceId();
+		for (int i = 0; i < 8; i++) {
+			long start = System.currentTimeMillis();
+			IncomingMessageData answer = client.query(ByteString
+				.copyFromUtf8("query " + i),
+				TestConstants.MessageTypes.TEST_REQUEST, 5000);
+			assertEquals(healthyId, answer.getMessage().getFrom());
+			assertTrue(System.currentTimeMillis() - start < 2500);
+		}
+		assertTrue(hedgingPolicy.getHedgeCount() > 0);
+
+		stalling.stop();
+		healthy.stop();
+		client.shutdown();
+	}
+
+	@Test
+	public void testHedgingBudget() throws Exception {
+		StallingBackend stalling = new StallingBackend();
+		stalling.connect(getLocalServerAddress());
+		stalling.start("stalling backend");
+		StallingBackend healthy = new StallingBackend();
+		healthy.connect(getLocalServerAddress());
+		healthy.start("healthy backend");
+
+		int warmUp = 2 * HedgingPolicy.MIN_SAMPLES;
+		HedgingPolicy hedgingPolicy = new HedgingPolicy(0.95, 0.1, 50);
+		JmxClient client = warmUpHedging(hedgingPolicy, warmUp);
+
+		// all queries would be hedged, but only a tenth of them may be
+		stalling.stall = true;
+		int count = 20;
+		List<ListenableFuture<IncomingMessageData>> queries = new ArrayList<ListenableFuture<IncomingMessageData>>();
+		for (int i = 0; i < count; i++) {
+			queries.add(client.asyncQuery(ByteString.copyFromUtf8("query "
+				+ i), TestConstants.MessageTypes.TEST_REQUEST, 1000));
+		}
+		for (ListenableFuture<IncomingMessageData> query : queries) {
+			assertNotNull(query.get(10, TimeUnit.SECONDS));
+		}
+		assertTrue(hedgingPolicy.getHedgeCount() <= (warmUp + count) / 10);
+
+		stalling.stop();
+		healthy.stop();
+		client.shutdown();
+	}
 }
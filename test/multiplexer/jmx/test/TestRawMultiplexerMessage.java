@@ -0,0 +1,360 @@
+// Copyright 2009 Warsaw University, Faculty of Physics
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+package multiplexer.jmx.test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+import junit.framework.TestCase;
+import multiplexer.jmx.internal.CompressionHandler;
+import multiplexer.jmx.internal.Fragments;
+import multiplexer.jmx.internal.RawMessageFrame;
+import multiplexer.jmx.internal.RawMessageFrameDecoder;
+import multiplexer.jmx.internal.RawMessageFrameEncoder;
+import multiplexer.jmx.internal.RawMultiplexerMessage;
+import multiplexer.protocol.Protocol.Affinity;
+import multiplexer.protocol.Protocol.MultiplexerMessage;
+import multiplexer.protocol.Protocol.MultiplexerMessageDescription.RoutingRule;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBufferFactory;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.buffer.DirectChannelBufferFactory;
+import org.jboss.netty.buffer.HeapChannelBufferFactory;
+import org.jboss.netty.handler.codec.embedder.DecoderEmbedder;
+import org.jboss.netty.handler.codec.embedder.EncoderEmbedder;
+import org.junit.Test;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
+
+public class TestRawMultiplexerMessage extends TestCase {
+
+	private static MultiplexerMessage sampleMessage() {
+		return MultiplexerMessage.newBuilder().setId(-5).setFrom(
+			0x1234567890L).setTo(42).setType(1234).setReferences(7)
+			.setMessage(ByteString.copyFromUtf8("some payload"))
+			.setWorkflow(ByteString.copyFromUtf8("wf")).setTimestamp(99)
+			.addOverrideRrules(
+				RoutingRule.newBuilder().setPeerType(107).setWhom(
+					RoutingRule.Whom.ALL)).setReportDeliveryError(true)
+			.setIncludeOriginalPacketInReport(true).build();
+	}
+
+	private static ChannelBuffer frame(MultiplexerMessage message) {
+		return RawMessageFrame.frame(ChannelBuffers.wrappedBuffer(message
+			.toByteArray()));
+	}
+
+	@Test
+	public void testHeaderMatchesFullParse() throws Exception {
+		MultiplexerMessage message = sampleMessage();
+		RawMultiplexerMessage raw = RawMultiplexerMessage
+			.decode(frame(message));
+
+		assertTrue(raw.hasId());
+		assertEquals(message.getId(), raw.getId());
+		assertEquals(message.getFrom(), raw.getFrom());
+		assertEquals(message.getTo(), raw.getTo());
+		assertEquals(message.getType(), raw.getType());
+		assertEquals(message.getReferences(), raw.getReferences());
+		assertTrue(raw.getReportDeliveryError());
+		assertTrue(raw.getIncludeOriginalPacketInReport());
+		assertEquals(message.getOverrideRrulesList(), raw
+			.getOverrideRrulesList());
+		assertEquals(message, raw.getMessage());
+	}
+
+	@Test
+	public void testOptionalFieldsAbsent() throws Exception {
+		MultiplexerMessage message = MultiplexerMessage.newBuilder().setType(
+			3).build();
+		RawMultiplexerMessage raw = RawMultiplexerMessage
+			.decode(frame(message));
+
+		assertFalse(raw.hasId());
+		assertFalse(raw.hasFrom());
+		assertFalse(raw.hasTo());
+		assertFalse(raw.hasReferences());
+		assertFalse(raw.getReportDeliveryError());
+		assertEquals(0, raw.getOverrideRrulesCount());
+		assertEquals(3, raw.getType());
+	}
+
+	@Test
+	public void testWrapProducesSameFrame() throws Exception {
+		MultiplexerMessage message = sampleMessage();
+		RawMultiplexerMessage wrapped = RawMultiplexerMessage.wrap(message);
+		assertEquals(frame(message), wrapped.getFrame());
+		assertEquals(wrapped.getFrameLength(), RawMessageFrame.HEADER_LENGTH
+			+ message.getSerializedSize());
+	}
+
+	@Test
+	public void testMissingTypeRejected() {
+		MultiplexerMessage message = MultiplexerMessage.newBuilder()
+			.buildPartial();
+		try {
+			RawMultiplexerMessage.decode(frame(message));
+			fail("message without type accepted");
+		} catch (InvalidProtocolBufferException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testCrc32OfHeapDirectAndCompositeBuffers() {
+		byte[] bytes = new byte[100000];
+		new Random(17).nextBytes(bytes);
+		CRC32 crc = new CRC32();
+		crc.update(bytes, 10, bytes.length - 20);
+		long expected = crc.getValue();
+
+		ChannelBuffer heap = ChannelBuffers.wrappedBuffer(bytes, 5,
+			bytes.length - 5);
+		heap.readerIndex(5);
+		heap.writerIndex(heap.writerIndex() - 10);
+		assertEquals(expected, RawMessageFrame.getCrc32(heap));
+		assertEquals(5, heap.readerIndex());
+
+		ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+		direct.put(bytes).clear();
+		direct.position(10).limit(bytes.length - 10);
+		assertEquals(expected, RawMessageFrame.getCrc32(ChannelBuffers
+			.wrappedBuffer(direct)));
+
+		ByteBuffer tail = direct.duplicate();
+		tail.position(1010);
+		ChannelBuffer composite = ChannelBuffers.wrappedBuffer(ChannelBuffers
+			.wrappedBuffer(bytes, 10, 1000), ChannelBuffers.wrappedBuffer(tail));
+		assertEquals(expected, RawMessageFrame.getCrc32(composite));
+	}
+
+	@Test
+	public void testChecksumDisabled() throws Exception {
+		MultiplexerMessage message = sampleMessage();
+		ChannelBuffer body = ChannelBuffers.wrappedBuffer(message
+			.toByteArray());
+
+		RawMessageFrameEncoder encoder = new RawMessageFrameEncoder();
+		encoder.setChecksumEnabled(false);
+		EncoderEmbedder<ChannelBuffer> encoderEmbedder = new EncoderEmbedder<ChannelBuffer>(
+			encoder);
+		encoderEmbedder.offer(body.duplicate());
+		ChannelBuffer frame = encoderEmbedder.poll();
+		assertEquals(0, RawMessageFrame.getFrameCrc(frame));
+
+		DecoderEmbedder<ChannelBuffer> verifying = new DecoderEmbedder<ChannelBuffer>(
+			new RawMessageFrameDecoder());
+		try {
+			verifying.offer(frame.duplicate());
+			fail("frame without checksum accepted");
+		} catch (Exception e) {
+			// expected
+		}
+
+		RawMessageFrameDecoder decoder = new RawMessageFrameDecoder();
+		decoder.setChecksumEnabled(false);
+		DecoderEmbedder<ChannelBuffer> decoderEmbedder = new DecoderEmbedder<ChannelBuffer>(
+			decoder);
+		decoderEmbedder.offer(frame.duplicate());
+		assertEquals(body, decoderEmbedder.poll());
+	}
+
+	@Test
+	public void testDecoderWithSegmentedAndCoalescedFrames() throws Exception {
+		Random random = new Random(0);
+		int[] sizes = { 0, 1, 100, 5000, 70000, 3 };
+		ChannelBuffer[] bodies = new ChannelBuffer[sizes.length];
+		ChannelBuffer stream = ChannelBuffers.dynamicBuffer();
+		for (int i = 0; i < sizes.length; i++) {
+			byte[] body = new byte[sizes[i]];
+			random.nextBytes(body);
+			bodies[i] = ChannelBuffers.wrappedBuffer(body);
+			stream.writeBytes(RawMessageFrame.frame(bodies[i]));
+		}
+
+		for (int segmentSize : new int[] { 1, 7, 1460, stream.readableBytes() }) {
+			for (boolean preserveHeader : new boolean[] { false, true }) {
+				DecoderEmbedder<ChannelBuffer> embedder = new DecoderEmbedder<ChannelBuffer>(
+					new RawMessageFrameDecoder(preserveHeader));
+				for (int offset = 0; offset < stream.readableBytes(); offset += segmentSize) {
+					embedder.offer(stream.slice(offset, Math.min(segmentSize,
+						stream.readableBytes() - offset)));
+				}
+				for (ChannelBuffer body : bodies) {
+					ChannelBuffer decoded = embedder.poll();
+					if (preserveHeader) {
+						assertEquals(RawMessageFrame.frame(body), decoded);
+					} else {
+						assertEquals(body, decoded);
+					}
+				}
+				assertNull(embedder.poll());
+			}
+		}
+	}
+
+	@Test
+	public void testDecoderSkipsFrameWithInvalidChecksum() throws Exception {
+		ChannelBuffer first = RawMessageFrame.frame(ChannelBuffers
+			.wrappedBuffer(new byte[] { 1, 2, 3 }));
+		ChannelBuffer corrupted = RawMessageFrame.frame(ChannelBuffers
+			.wrappedBuffer(new byte[] { 4, 5, 6 }));
+		corrupted.setByte(RawMessageFrame.HEADER_LENGTH, 7);
+		ChannelBuffer last = RawMessageFrame.frame(ChannelBuffers
+			.wrappedBuffer(new byte[] { 8, 9 }));
+
+		DecoderEmbedder<ChannelBuffer> embedder = new DecoderEmbedder<ChannelBuffer>(
+			new RawMessageFrameDecoder());
+		try {
+			embedder.offer(ChannelBuffers.wrappedBuffer(first, corrupted));
+			fail("frame with invalid checksum accepted");
+		} catch (Exception e) {
+			// expected
+		}
+		embedder.offer(last);
+		assertEquals(3, embedder.poll().readableBytes());
+		assertEquals(2, embedder.poll().readableBytes());
+		assertNull(embedder.poll());
+	}
+
+	@Test
+	public void testChecksumAddedWhenForwarding() throws Exception {
+		MultiplexerMessage message = sampleMessage();
+		ChannelBuffer unchecked = RawMessageFrame.frame(ChannelBuffers
+			.wrappedBuffer(message.toByteArray()), false);
+		RawMultiplexerMessage raw = RawMultiplexerMessage.decode(unchecked);
+
+		EncoderEmbedder<ChannelBuffer> encoderEmbedder = new EncoderEmbedder<ChannelBuffer>(
+			new RawMessageFrameEncoder());
+		encoderEmbedder.offer(raw);
+		assertEquals(frame(message), encoderEmbedder.poll());
+		assertEquals(0, RawMessageFrame.getFrameCrc(raw.getFrame()));
+	}
+
+	@Test
+	public void testCompositeFrameMatchesCopiedFrame() throws Exception {
+		byte[] body = sampleMessage().toByteArray();
+		ChannelBuffer expected = RawMessageFrame.frame(ChannelBuffers
+			.wrappedBuffer(body));
+		ChannelBufferFactory[] factories = {
+			HeapChannelBufferFactory.getInstance(),
+			DirectChannelBufferFactory.getInstance(ByteOrder.LITTLE_ENDIAN) };
+		for (ChannelBufferFactory factory : factories) {
+			for (ByteOrder order : new ByteOrder[] { ByteOrder.BIG_ENDIAN,
+				ByteOrder.LITTLE_ENDIAN }) {
+				ChannelBuffer message = ChannelBuffers.wrappedBuffer(order,
+					body);
+				ChannelBuffer frame = RawMessageFrame.compositeFrame(factory,
+					message, true);
+				assertEquals(order, frame.order());
+				assertEquals(expected, frame);
+				assertEquals(body.length, message.readableBytes());
+				assertEquals(sampleMessage(), RawMultiplexerMessage.decode(
+					frame).getMessage());
+			}
+		}
+	}
+
+	@Test
+	public void testWithHops() throws Exception {
+		MultiplexerMessage message = sampleMessage();
+		RawMultiplexerMessage raw = RawMultiplexerMessage
+			.decode(frame(message));
+		assertEquals(0, raw.getHops());
+
+		for (int hops : new int[] { 1, 300 }) {
+			RawMultiplexerMessage forwarded = raw.withHops(hops);
+			assertEquals(hops, forwarded.getHops());
+			RawMultiplexerMessage received = RawMultiplexerMessage
+				.decode(forwarded.getFrame().copy());
+			assertEquals(hops, received.getHops());
+			assertEquals(message.getId(), received.getId());
+			assertEquals(message.getTo(), received.getTo());
+			assertEquals(message.getOverrideRrulesList(), received
+				.getOverrideRrulesList());
+			assertEquals(message.toBuilder().setHops(hops).build(), received
+				.getMessage());
+			raw = forwarded;
+		}
+		// The original frame is intact.
+		assertEquals(message, RawMultiplexerMessage.decode(frame(message))
+			.getMessage());
+	}
+
+	@Test
+	public void testAffinityKey() throws Exception {
+		MultiplexerMessage message = sampleMessage();
+		RawMultiplexerMessage decoded = RawMultiplexerMessage
+			.decode(frame(message));
+		RawMultiplexerMessage wrapped = RawMultiplexerMessage.wrap(message);
+		for (Affinity.Values affinity : new Affinity.Values[] {
+			Affinity.Values.WORKFLOW, Affinity.Values.MESSAGE_PREFIX }) {
+			assertTrue(decoded.hasAffinityKey(affinity));
+			assertTrue(wrapped.hasAffinityKey(affinity));
+			for (int prefixLength : new int[] { 0, 4, 100 }) {
+				assertEquals(decoded.getAffinityKey(affinity, prefixLength),
+					wrapped.getAffinityKey(affinity, prefixLength));
+			}
+		}
+		assertFalse(decoded.getAffinityKey(Affinity.Values.WORKFLOW, 0) == decoded
+			.getAffinityKey(Affinity.Values.MESSAGE_PREFIX, 0));
+
+		// keys of messages sharing the prefix
+		MultiplexerMessage other = message.toBuilder().setMessage(
+			ByteString.copyFromUtf8("some other payload")).clearWorkflow()
+			.build();
+		RawMultiplexerMessage otherDecoded = RawMultiplexerMessage
+			.decode(frame(other));
+		assertFalse(otherDecoded.hasAffinityKey(Affinity.Values.WORKFLOW));
+		assertEquals(decoded.getAffinityKey(Affinity.Values.MESSAGE_PREFIX, 5),
+			otherDecoded.getAffinityKey(Affinity.Values.MESSAGE_PREFIX, 5));
+		assertFalse(decoded.getAffinityKey(Affinity.Values.MESSAGE_PREFIX, 0) == otherDecoded
+			.getAffinityKey(Affinity.Values.MESSAGE_PREFIX, 0));
+
+		// compressed messages are keyed by their uncompressed prefix
+		MultiplexerMessage large = message.toBuilder().setMessage(
+			ByteString.copyFrom(new byte[1000])).build();
+		RawMultiplexerMessage compressed = RawMultiplexerMessage
+			.decode(frame(CompressionHandler.compress(large)));
+		assertEquals(RawMultiplexerMessage.decode(frame(large))
+			.getAffinityKey(Affinity.Values.MESSAGE_PREFIX, 10), compressed
+			.getAffinityKey(Affinity.Values.MESSAGE_PREFIX, 10));
+
+		// fragments are keyed by the prefix copied from their message
+		MultiplexerMessage compressedLarge = CompressionHandler.compress(large);
+		for (MultiplexerMessage fragment : Fragments.split(compressedLarge,
+			compressedLarge.toByteArray(), 10)) {
+			for (RawMultiplexerMessage raw : new RawMultiplexerMessage[] {
+				RawMultiplexerMessage.decode(frame(fragment)),
+				RawMultiplexerMessage.wrap(fragment) }) {
+				assertTrue(raw.hasAffinityKey(Affinity.Values.MESSAGE_PREFIX));
+				assertEquals(compressed.getAffinityKey(
+					Affinity.Values.MESSAGE_PREFIX, 10), raw.getAffinityKey(
+					Affinity.Values.MESSAGE_PREFIX, 10));
+			}
+		}
+
+		// wrapping does not serialize the message until its frame is needed
+		assertEquals(wrapped.getFrameLength(), RawMessageFrame.HEADER_LENGTH
+			+ message.getSerializedSize());
+		assertEquals(wrapped.getFrameLength(), wrapped.getFrame()
+			.readableBytes());
+	}
+}
@@ -0,0 +1,116 @@
+// Copyright 2009 Warsaw University, Faculty of Physics
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+package multiplexer.jmx.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import gnu.trove.TLongHashSet;
+
+import java.util.LinkedList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import multiplexer.jmx.util.RecentLongPool;
+
+import org.junit.Test;
+
+public class TestRecentLongPool {
+
+	@Test
+	public void testDuplicates() {
+		RecentLongPool pool = new RecentLongPool(100);
+		assertTrue(pool.add(1));
+		assertTrue(pool.add(2));
+		assertTrue(pool.add(0));
+		assertFalse(pool.add(1));
+		assertFalse(pool.add(0));
+		assertFalse(pool.add(2));
+	}
+
+	@Test
+	public void testEvictsOldest() {
+		RecentLongPool pool = new RecentLongPool(100);
+		assertEquals(100, pool.getCapacity());
+		for (long id = 0; id < 150; id++)
+			assertTrue(pool.add(id));
+		for (long id = 149; id >= 50; id--)
+			assertFalse(pool.add(id));
+		assertTrue(pool.add(49));
+		assertFalse(pool.add(51));
+		assertTrue(pool.add(50));
+	}
+
+	/**
+	 * Compares the pool with a simple model on ids colliding in its table.
+	 */
+	@Test
+	public void testMatchesModel() {
+		final int capacity = 1000;
+		RecentLongPool pool = new RecentLongPool(capacity);
+		TLongHashSet ids = new TLongHashSet();
+		LinkedList<Long> recent = new LinkedList<Long>();
+		Random random = new Random(7);
+		for (int i = 0; i < 200000; i++) {
+			long id = random.nextInt(3 * capacity);
+			boolean added = ids.add(id);
+			if (added) {
+				recent.addFirst(id);
+				if (recent.size() > capacity)
+					ids.remove(recent.removeLast());
+			}
+			assertEquals("add(" + id + ") #" + i, added, pool.add(id));
+		}
+	}
+
+	@Test
+	public void testWindow() throws Exception {
+		RecentLongPool pool = new RecentLongPool(100, 50, TimeUnit.MILLISECONDS);
+		assertTrue(pool.add(1));
+		assertFalse(pool.add(1));
+		Thread.sleep(100);
+		assertTrue(pool.add(1));
+		assertFalse(pool.add(1));
+	}
+
+	/**
+	 * Ids added concurrently by two threads are accepted exactly once.
+	 */
+	@Test
+	public void testConcurrentAdds() throws Exception {
+		final RecentLongPool pool = new RecentLongPool(1024 * 1024);
+		final AtomicInteger added = new AtomicInteger();
+		final int perThread = 100000;
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			final long from = (long) t * perThread;
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					for (long id = from; id < from + 2 * perThread; id++) {
+						if (pool.add(id))
+							added.incrementAndGet();
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads)
+			thread.join();
+		assertEquals((threads.length + 1) * perThread, added.get());
+	}
+}
@@ -0,0 +1,115 @@
+// Copyright 2009 Warsaw University, Faculty of Physics
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+
+package multiplexer.jmx.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import multiplexer.jmx.client.SendingMethod;
+import multiplexer.jmx.server.JmxServer;
+import multiplexer.jmx.server.RoutingTable;
+import multiplexer.protocol.Protocol.MultiplexerMessageDescription;
+import multiplexer.protocol.Protocol.MultiplexerPeerDescription;
+import multiplexer.protocol.Protocol.MultiplexerRules;
+import multiplexer.protocol.Protocol.MultiplexerMessageDescription.RoutingRule;
+
+import org.junit.Test;
+
+public class TestRoutingTable {
+
+	private static MultiplexerMessageDescription.Builder type(int type) {
+		return MultiplexerMessageDescription.newBuilder().setType(type)
+			.setName("TYPE_" + type);
+	}
+
+	private static RoutingRule.Builder to(int peerType, RoutingRule.Whom whom) {
+		return RoutingRule.newBuilder().setPeerType(peerType).setWhom(whom);
+	}
+
+	@Test
+	public void testRoutes() {
+		List<MultiplexerMessageDescription> descriptions = new ArrayList<MultiplexerMessageDescription>();
+		descriptions.add(type(200).setName("TWO_RULES").addTo(
+			to(300, SendingMethod.ANY)).addTo(
+			to(301, SendingMethod.ALL).setReportDeliveryError(false)
+				.setDeliveryErrorIsError(false)).build());
+		descriptions.add(type(201).build());
+		// Outside of the dense array.
+		descriptions.add(type(1 << 20).addTo(to(302, SendingMethod.ANY))
+			.build());
+		descriptions.add(type(-5).addTo(to(303, SendingMethod.ALL)).build());
+		RoutingTable table = new RoutingTable(descriptions);
+
+		RoutingTable.Route[] routes = table.getRoutes(200);
+		assertEquals(2, routes.length);
+		assertEquals(300, routes[0].getPeerType());
+		assertEquals(300, routes[0].getMethod().getPeerType());
+		assertSame(SendingMethod.ANY, routes[0].getMethod().getQuantity());
+		assertTrue(routes[0].isReportDeliveryError());
+		assertTrue(routes[0].isDeliveryErrorError());
+		assertEquals(301, routes[1].getPeerType());
+		assertSame(SendingMethod.ALL, routes[1].getMethod().getQuantity());
+		assertFalse(routes[1].isReportDeliveryError());
+		assertFalse(routes[1].isDeliveryErrorError());
+		assertEquals("TWO_RULES", table.getDescription(200).getName());
+
+		RoutingTable.Route search = table.getBackendSearchRoute(200);
+		assertEquals(300, search.getPeerType());
+		assertSame(SendingMethod.ALL, search.getMethod().getQuantity());
+		assertTrue(search.isReportDeliveryError());
+
+		// Known type without rules.
+		assertEquals(0, table.getRoutes(201).length);
+		assertNull(table.getBackendSearchRoute(201));
+
+		assertEquals(302, table.getRoutes(1 << 20)[0].getPeerType());
+		assertEquals(303, table.getRoutes(-5)[0].getPeerType());
+
+		for (int unknown : new int[] { 0, 199, 202, 1 << 19, -1 }) {
+			assertNull(table.getRoutes(unknown));
+			assertNull(table.getBackendSearchRoute(unknown));
+			assertNull(table.getDescription(unknown));
+		}
+	}
+
+	@Test
+	public void testLoadedRules() {
+		JmxServer server = new JmxServer(null);
+		server.loadMessageDefinitions(MultiplexerRules.newBuilder().addPeer(
+			MultiplexerPeerDescription.newBuilder().setType(150).setName(
+				"SOME_PEER")).addType(
+			type(250).addTo(
+				RoutingRule.newBuilder().setPeer("SOME_PEER").setWhom(
+					SendingMethod.ALL))).build());
+		RoutingTable table = server.getRoutingTable();
+		assertEquals(150, table.getRoutes(250)[0].getPeerType());
+		assertNull(table.getRoutes(251));
+
+		// Loading more rules compiles a new table.
+		server.loadMessageDefinitions(MultiplexerRules.newBuilder().addType(
+			type(251).addTo(to(150, SendingMethod.ANY))).build());
+		assertEquals(1, server.getRoutingTable().getRoutes(250).length);
+		assertEquals(1, server.getRoutingTable().getRoutes(251).length);
+		assertNull(table.getRoutes(251));
+	}
+}
@@ -0,0 +1,158 @@
+// Copyright 2009 Warsaw University, Faculty of Physics
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+package multiplexer.jmx.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+import multiplexer.jmx.client.IncomingMessageData;
+import multiplexer.jmx.client.JmxClient;
+import multiplexer.jmx.client.SendingMethod;
+import multiplexer.jmx.server.JmxServer;
+import multiplexer.jmx.server.RoutingTable;
+import multiplexer.protocol.Constants.MessageTypes;
+import multiplexer.protocol.Protocol.MultiplexerMessage;
+import multiplexer.protocol.Protocol.MultiplexerMessageDescription;
+import multiplexer.protocol.Protocol.MultiplexerRules;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestRulesReload {
+
+	private static final String PEER = "peer { type: 150 name: \"SOME_PEER\" }\n";
+
+	private File rulesFile;
+
+	@Before
+	public void createRulesFile() throws IOException {
+		rulesFile = File.createTempFile("reload", ".rules");
+	}
+
+	@After
+	public void deleteRulesFile() {
+		rulesFile.delete();
+	}
+
+	private void writeRules(String rules) throws IOException {
+		Writer writer = new FileWriter(rulesFile);
+		try {
+			writer.write(rules);
+		} finally {
+			writer.close();
+		}
+	}
+
+	private static String type(int type, String peer) {
+		return "type { type: " + type + " name: \"TYPE_" + type
+			+ "\" to { peer: \"" + peer + "\" whom: ALL } }\n";
+	}
+
+	@Test
+	public void testReload() throws Exception {
+		writeRules(PEER + type(250, "SOME_PEER"));
+		JmxServer server = new JmxServer(null);
+		server.loadMessageDefinitions(rulesFile);
+		server.loadMessageDefinitions(MultiplexerRules.newBuilder().addType(
+			MultiplexerMessageDescription.newBuilder().setType(260).setName(
+				"GIVEN_DIRECTLY")).build());
+		assertEquals(150, server.getRoutingTable().getRoutes(250)[0]
+			.getPeerType());
+		assertNull(server.getRoutingTable().getRoutes(251));
+
+		writeRules(PEER + type(251, "SOME_PEER"));
+		assertTrue(server.reloadMessageDefinitions());
+		RoutingTable table = server.getRoutingTable();
+		assertNull(table.getRoutes(250));
+		assertEquals(150, table.getRoutes(251)[0].getPeerType());
+		assertNotNull(table.getDescription(260));
+
+		// Invalid rules are rejected as a whole.
+		writeRules(PEER + type(252, "SOME_PEER") + type(253, "NO_SUCH_PEER"));
+		assertFalse(server.reloadMessageDefinitions());
+		assertSame(table, server.getRoutingTable());
+
+		writeRules(PEER + "type {");
+		assertFalse(server.reloadMessageDefinitions());
+		assertSame(table, server.getRoutingTable());
+
+		rulesFile.delete();
+		assertFalse(server.reloadMessageDefinitions());
+		assertSame(table, server.getRoutingTable());
+	}
+
+	@Test
+	public void testRunningServer() throws Exception {
+		writeRules(PEER + type(250, "SOME_PEER"));
+		JmxServer server = new JmxServer(new InetSocketAddress(0));
+		server.loadMessageDefinitions(rulesFile);
+		server.setRulesWatchIntervalMillis(20);
+		Thread serverThread = new Thread(server);
+		serverThread.setDaemon(true);
+		serverThread.start();
+		synchronized (server) {
+			if (!server.hasStarted())
+				server.wait(5000);
+		}
+		assertTrue(server.hasStarted());
+
+		JmxClient client = new JmxClient(TestConstants.PeerTypes.TEST_CLIENT);
+		try {
+			// A changed file is picked up by the watch.
+			writeRules(PEER + type(250, "SOME_PEER") + type(251, "SOME_PEER"));
+			long deadline = System.currentTimeMillis() + 5000;
+			while (server.getRoutingTable().getRoutes(251) == null
+				&& System.currentTimeMillis() < deadline)
+				Thread.sleep(10);
+			assertNotNull(server.getRoutingTable().getRoutes(251));
+
+			// An admin message gets answered with the outcome.
+			client.connect(new InetSocketAddress(InetAddress.getLocalHost(),
+				server.getLocalPort()));
+			MultiplexerMessage request = client.createMessage(
+				MultiplexerMessage.newBuilder().setType(
+					MessageTypes.RELOAD_RULES));
+			assertTrue(client.send(request, SendingMethod.THROUGH_ONE).await(
+				3000));
+			IncomingMessageData response = client.receive(3,
+				TimeUnit.SECONDS);
+			assertNotNull(response);
+			assertEquals(MessageTypes.RELOAD_RULES, response.getMessage()
+				.getType());
+			assertEquals(request.getId(), response.getMessage()
+				.getReferences());
+			assertTrue(response.getMessage().getMessage().toStringUtf8()
+				.startsWith("rules reloaded"));
+		} finally {
+			client.shutdown();
+			server.shutdown();
+			serverThread.join(5000);
+		}
+	}
+}
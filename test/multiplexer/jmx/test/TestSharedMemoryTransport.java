@@ -0,0 +1,193 @@
+// Copyright 2009 Warsaw University, Faculty of Physics
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+package multiplexer.jmx.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import multiplexer.jmx.backend.AbstractBackend;
+import multiplexer.jmx.client.IncomingMessageData;
+import multiplexer.jmx.client.JmxClient;
+import multiplexer.jmx.client.SharedMemoryAddress;
+import multiplexer.jmx.internal.SharedMemoryRing;
+import multiplexer.jmx.test.util.JmxServerRunner;
+import multiplexer.protocol.Protocol.MultiplexerMessage;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.ChannelFuture;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.protobuf.ByteString;
+
+/**
+ * Tests peers connected to the server through shared memory.
+ */
+public class TestSharedMemoryTransport {
+
+	private File directory;
+	private JmxServerRunner jmxServerRunner;
+
+	@Before
+	public void setUp() throws Exception {
+		directory = File.createTempFile("multiplexer", ".shm");
+		assertTrue(directory.delete());
+		assertTrue(directory.mkdir());
+	}
+
+	@After
+	public void tearDown() {
+		if (jmxServerRunner != null)
+			jmxServerRunner.stop();
+		for (File file : directory.listFiles())
+			file.delete();
+		directory.delete();
+	}
+
+	private void startJmxServer() throws Exception {
+		Map<String, Object> options = new HashMap<String, Object>();
+		options.put("sharedMemoryDirectory", directory);
+		jmxServerRunner = new JmxServerRunner();
+		jmxServerRunner.start(options);
+	}
+
+	@Test
+	public void testRing() throws IOException {
+		File file = new File(directory, "ring");
+		SharedMemoryRing producer = SharedMemoryRing.create(file, 60);
+		SharedMemoryRing consumer = SharedMemoryRing.open(file);
+		assertEquals(64, producer.getCapacity());
+		assertEquals(64, consumer.getCapacity());
+		assertNull(consumer.poll());
+
+		// wraps around many times
+		byte next = 0;
+		byte expected = 0;
+		for (int i = 0; i < 100; i++) {
+			ChannelBuffer source = ChannelBuffers.buffer(
+				ByteOrder.LITTLE_ENDIAN, 10 + i % 50);
+			while (source.writable())
+				source.writeByte(next++);
+			assertEquals(source.readableBytes(), producer.offer(source));
+			ChannelBuffer received = consumer.poll();
+			while (received.readable())
+				assertEquals(expected++, received.readByte());
+		}
+		assertEquals(next, expected);
+
+		// only the free space is filled
+		ChannelBuffer large = ChannelBuffers.buffer(ByteOrder.LITTLE_ENDIAN,
+			100);
+		large.writerIndex(100);
+		assertEquals(64, producer.offer(large));
+		assertEquals(0, producer.offer(large));
+		assertEquals(64, consumer.poll().readableBytes());
+		assertEquals(36, producer.offer(large));
+
+		assertFalse(consumer.isWriterClosed());
+		producer.closeWriter();
+		assertTrue(consumer.isWriterClosed());
+		assertFalse(producer.isReaderClosed());
+		consumer.closeReader();
+		assertTrue(producer.isReaderClosed());
+	}
+
+	@Test
+	public void testSharedMemoryBackendAndClient() throws Exception {
+		startJmxServer();
+		SharedMemoryAddress address = new SharedMemoryAddress(directory);
+		testQueries(address, address, ByteString.copyFromUtf8("Lama ma kota."),
+			1000);
+	}
+
+	@Test
+	public void testSharedMemoryClient() throws Exception {
+		startJmxServer();
+		testQueries(jmxServerRunner.getLocalServerAddress(),
+			new SharedMemoryAddress(directory), ByteString
+				.copyFromUtf8("Lama ma kota."), 100);
+	}
+
+	@Test
+	public void testMessagesLargerThanRing() throws Exception {
+		startJmxServer();
+		byte[] bytes = new byte[3 * 1024 * 1024];
+		for (int i = 0; i < bytes.length; i++)
+			bytes[i] = (byte) i;
+		SharedMemoryAddress address = new SharedMemoryAddress(directory);
+		testQueries(address, address, ByteString.copyFrom(bytes), 5);
+	}
+
+	@Test
+	public void testNotAccepted() throws Exception {
+		JmxClient client = new JmxClient(TestConstants.PeerTypes.TEST_CLIENT);
+		ChannelFuture connectFuture = client
+			.asyncConnect(new SharedMemoryAddress(directory));
+		assertTrue(connectFuture.await(10, TimeUnit.SECONDS));
+		assertFalse(connectFuture.isSuccess());
+		client.shutdown();
+		Thread.sleep(100);
+		assertEquals(Arrays.asList(directory.list()).toString(), 0, directory
+			.list().length);
+	}
+
+	private void testQueries(SocketAddress backendAddress,
+		SocketAddress clientAddress, ByteString query, int times)
+		throws Exception {
+
+		AbstractBackend backend = new AbstractBackend(
+			TestConstants.PeerTypes.TEST_SERVER) {
+			@Override
+			protected void handleMessage(MultiplexerMessage message)
+				throws Exception {
+				reply(createResponse(message.getType(), message.getMessage()));
+			}
+		};
+		backend.connect(backendAddress);
+		Thread backendThread = new Thread(backend);
+		backendThread.setName("backend main thread");
+		backendThread.start();
+
+		JmxClient client = new JmxClient(TestConstants.PeerTypes.TEST_CLIENT);
+		client.connect(clientAddress);
+
+		for (int i = 0; i < times; i++) {
+			IncomingMessageData msgData = client.query(query,
+				TestConstants.MessageTypes.TEST_REQUEST, 5000);
+			assertNotNull(msgData);
+			assertEquals(query, msgData.getMessage().getMessage());
+		}
+
+		backend.cancel();
+		backendThread.join(3000);
+		assertFalse(backendThread.isAlive());
+		client.shutdown();
+	}
+}
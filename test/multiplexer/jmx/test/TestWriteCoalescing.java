@@ -0,0 +1,172 @@
+// Copyright 2009 Warsaw University, Faculty of Physics
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+package multiplexer.jmx.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import multiplexer.jmx.internal.Config;
+import multiplexer.jmx.internal.RawMessageFrame;
+import multiplexer.jmx.internal.RawMultiplexerMessage;
+import multiplexer.jmx.internal.WriteCoalescingHandler;
+import multiplexer.protocol.Constants.MessageTypes;
+import multiplexer.protocol.Protocol.MultiplexerMessage;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.ChannelDownstreamHandler;
+import org.jboss.netty.channel.ChannelEvent;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.handler.codec.embedder.EncoderEmbedder;
+import org.junit.After;
+import org.junit.Test;
+
+import com.google.protobuf.ByteString;
+
+public class TestWriteCoalescing {
+
+	private final ScheduledExecutorService scheduler = Executors
+		.newSingleThreadScheduledExecutor();
+
+	@After
+	public void tearDown() {
+		scheduler.shutdownNow();
+	}
+
+	/**
+	 * Records writes reaching the bottom of the pipeline and completes them.
+	 */
+	private static class Recorder implements ChannelDownstreamHandler {
+		final BlockingQueue<ChannelBuffer> writes = new LinkedBlockingQueue<ChannelBuffer>();
+
+		public void handleDownstream(ChannelHandlerContext ctx, ChannelEvent e) {
+			if (e instanceof MessageEvent) {
+				writes.add((ChannelBuffer) ((MessageEvent) e).getMessage());
+				e.getFuture().setSuccess();
+			} else {
+				ctx.sendDownstream(e);
+			}
+		}
+	}
+
+	private static class Pipeline extends EncoderEmbedder<Object> {
+		Pipeline(Recorder recorder, WriteCoalescingHandler handler) {
+			super(recorder, handler);
+		}
+
+		ChannelFuture write(ChannelBuffer frame) {
+			return Channels.write(getChannel(), frame.duplicate());
+		}
+	}
+
+	private static ChannelBuffer frame(int type, int bodyLength) {
+		return RawMessageFrame.frame(ChannelBuffers
+			.wrappedBuffer(MultiplexerMessage.newBuilder().setId(bodyLength)
+				.setType(type).setMessage(
+					ByteString.copyFrom(new byte[bodyLength])).build()
+				.toByteArray()));
+	}
+
+	private static ChannelBuffer concat(ChannelBuffer... frames) {
+		return ChannelBuffers.wrappedBuffer(frames);
+	}
+
+	@Test
+	public void testPeekType() {
+		assertEquals(TestConstants.MessageTypes.TEST_REQUEST,
+			RawMultiplexerMessage.peekType(frame(
+				TestConstants.MessageTypes.TEST_REQUEST, 10)));
+		assertEquals(-1, RawMultiplexerMessage.peekType(RawMessageFrame
+			.frame(ChannelBuffers.EMPTY_BUFFER)));
+	}
+
+	@Test
+	public void testWindowElapses() throws Exception {
+		Recorder recorder = new Recorder();
+		Pipeline pipeline = new Pipeline(recorder, new WriteCoalescingHandler(
+			new Config(), scheduler, 50, TimeUnit.MILLISECONDS, 1024 * 1024));
+		ChannelBuffer a = frame(TestConstants.MessageTypes.TEST_REQUEST, 10);
+		ChannelBuffer b = frame(TestConstants.MessageTypes.TEST_REQUEST, 20);
+		ChannelBuffer c = frame(TestConstants.MessageTypes.TEST_RESPONSE, 30);
+
+		ChannelFuture[] futures = { pipeline.write(a), pipeline.write(b),
+			pipeline.write(c) };
+		assertNull(recorder.writes.peek());
+		for (ChannelFuture future : futures)
+			assertTrue(!future.isDone());
+
+		assertEquals(concat(a, b, c), recorder.writes.poll(1,
+			TimeUnit.SECONDS));
+		for (ChannelFuture future : futures)
+			assertTrue(future.await(1000) && future.isSuccess());
+		assertNull(recorder.writes.poll(100, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void testMaxBytes() throws Exception {
+		Recorder recorder = new Recorder();
+		ChannelBuffer a = frame(TestConstants.MessageTypes.TEST_REQUEST, 100);
+		Pipeline pipeline = new Pipeline(recorder, new WriteCoalescingHandler(
+			new Config(), scheduler, 1, TimeUnit.HOURS, a.readableBytes() * 3));
+
+		pipeline.write(a);
+		pipeline.write(a);
+		assertNull(recorder.writes.peek());
+		pipeline.write(a);
+		assertEquals(concat(a, a, a), recorder.writes.poll());
+
+		ChannelBuffer large = frame(TestConstants.MessageTypes.TEST_REQUEST,
+			1000);
+		pipeline.write(large);
+		assertEquals(large, recorder.writes.poll());
+	}
+
+	@Test
+	public void testBypassFlushesInOrder() throws Exception {
+		Recorder recorder = new Recorder();
+		Config config = new Config();
+		config.setCoalesced(TestConstants.MessageTypes.TEST_RESPONSE, false);
+		Pipeline pipeline = new Pipeline(recorder, new WriteCoalescingHandler(
+			config, scheduler, 1, TimeUnit.HOURS, 1024 * 1024));
+		ChannelBuffer a = frame(TestConstants.MessageTypes.TEST_REQUEST, 10);
+		ChannelBuffer b = frame(TestConstants.MessageTypes.TEST_REQUEST, 20);
+		ChannelBuffer heartbit = frame(MessageTypes.HEARTBIT, 0);
+		ChannelBuffer response = frame(
+			TestConstants.MessageTypes.TEST_RESPONSE, 5);
+
+		pipeline.write(a);
+		pipeline.write(b);
+		pipeline.write(heartbit);
+		assertEquals(concat(a, b), recorder.writes.poll());
+		assertEquals(heartbit, recorder.writes.poll());
+
+		pipeline.write(a);
+		pipeline.write(response);
+		assertEquals(a, recorder.writes.poll());
+		assertEquals(response, recorder.writes.poll());
+		assertNull(recorder.writes.poll());
+	}
+}
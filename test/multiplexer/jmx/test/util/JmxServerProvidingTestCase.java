@@ -15,9 +15,14 @@
 
 package multiplexer.jmx.test.util;
 
+import static org.junit.Assert.assertFalse;
+
 import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
 
+import multiplexer.jmx.backend.AbstractBackend;
+
+import org.jboss.netty.channel.local.LocalAddress;
 import org.junit.After;
 import org.junit.Before;
 
@@ -44,4 +49,30 @@ public class JmxServerProvidingTestCase {
 		throws UnknownHostException {
 		return jmxServerRunner.getLocalServerAddress();
 	}
+
+	protected LocalAddress getInVmServerAddress() {
+		return jmxServerRunner.getInVmServerAddress();
+	}
+
+	/**
+	 * Connects the {@code backend} to the server and runs it in a new thread,
+	 * which is returned.
+	 */
+	protected Thread startBackend(AbstractBackend backend) throws Exception {
+		backend.connect(getLocalServerAddress());
+		Thread backendThread = new Thread(backend);
+		backendThread.setName("backend main thread");
+		backendThread.start();
+		return backendThread;
+	}
+
+	/**
+	 * Cancels the {@code backend} and checks that its thread stops.
+	 */
+	protected void stopBackend(AbstractBackend backend, Thread backendThread)
+		throws InterruptedException {
+		backend.cancel();
+		backendThread.join(3000);
+		assertFalse(backendThread.isAlive());
+	}
 }
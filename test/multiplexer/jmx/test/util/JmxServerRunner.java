@@ -18,6 +18,7 @@ package multiplexer.jmx.test.util;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.net.InetAddress;
@@ -28,6 +29,7 @@ import java.util.Map;
 
 import multiplexer.jmx.server.JmxServer;
 
+import org.jboss.netty.channel.local.LocalAddress;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -63,6 +65,9 @@ public final class JmxServerRunner {
 		if (options.containsKey("multiplexerPassword"))
 			server.setMultiplexerPassword((ByteString) options
 				.get("multiplexerPassword"));
+		if (options.containsKey("sharedMemoryDirectory"))
+			server.setSharedMemoryDirectory((File) options
+				.get("sharedMemoryDirectory"));
 
 		serverThread = new Thread(server);
 		serverThread.setDaemon(true);
@@ -88,6 +93,11 @@ public final class JmxServerRunner {
 			getLocalServerPort());
 	}
 
+	public LocalAddress getInVmServerAddress() {
+		checkNotNull(server);
+		return server.getInVmAddress();
+	}
+
 	public void stop() {
 		stop(true);
 	}